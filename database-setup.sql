@@ -18,6 +18,41 @@ EXCEPTION
 END;
 /
 
+BEGIN
+    EXECUTE IMMEDIATE 'DROP TABLE ingest_checkpoints CASCADE CONSTRAINTS';
+EXCEPTION
+    WHEN OTHERS THEN NULL;
+END;
+/
+
+BEGIN
+    EXECUTE IMMEDIATE 'DROP TABLE sensor_rollups_hourly CASCADE CONSTRAINTS';
+EXCEPTION
+    WHEN OTHERS THEN NULL;
+END;
+/
+
+BEGIN
+    EXECUTE IMMEDIATE 'DROP TABLE sensor_rollups_daily CASCADE CONSTRAINTS';
+EXCEPTION
+    WHEN OTHERS THEN NULL;
+END;
+/
+
+BEGIN
+    EXECUTE IMMEDIATE 'DROP TABLE alert_events CASCADE CONSTRAINTS';
+EXCEPTION
+    WHEN OTHERS THEN NULL;
+END;
+/
+
+BEGIN
+    EXECUTE IMMEDIATE 'DROP TABLE report_jobs CASCADE CONSTRAINTS';
+EXCEPTION
+    WHEN OTHERS THEN NULL;
+END;
+/
+
 BEGIN
     EXECUTE IMMEDIATE 'DROP SEQUENCE sensor_readings_seq';
 EXCEPTION
@@ -25,6 +60,13 @@ EXCEPTION
 END;
 /
 
+BEGIN
+    EXECUTE IMMEDIATE 'DROP SEQUENCE alert_events_seq';
+EXCEPTION
+    WHEN OTHERS THEN NULL;
+END;
+/
+
 -- 2. CREAR TABLA DE PARCELAS
 CREATE TABLE parcelas (
     parcela_id VARCHAR2(50) NOT NULL,
@@ -55,14 +97,19 @@ CREATE TABLE sensor_readings (
     fecha TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     estado VARCHAR2(20) DEFAULT 'NORMAL',
     CONSTRAINT pk_sensor_readings PRIMARY KEY (id),
+    -- Una lectura por parcela e instante: arbitra los reintentos duplicados de los gateways
+    CONSTRAINT uk_sensor_readings_parcela_fecha UNIQUE (parcela_id, fecha),
     CONSTRAINT fk_sensor_parcela FOREIGN KEY (parcela_id) REFERENCES parcelas(parcela_id)
 );
 
 -- 4. CREAR SECUENCIA PARA AUTO-INCREMENT
+-- CACHE 1000: la ingesta masiva pide los IDs por bloques (SensorIdAllocator)
+-- y con NOCACHE cada NEXTVAL actualiza el diccionario de datos.
+-- En bases existentes: ALTER SEQUENCE sensor_readings_seq CACHE 1000;
 CREATE SEQUENCE sensor_readings_seq
     START WITH 1
     INCREMENT BY 1
-    NOCACHE
+    CACHE 1000
     NOCYCLE;
 
 -- 5. CREAR TRIGGER PARA AUTO-INCREMENT
@@ -76,11 +123,104 @@ BEGIN
 END;
 /
 
+-- 5b. CHECKPOINT DEL WRITE-AHEAD LOG DE INGESTA
+-- Se actualiza en la misma transacción que cada lote replayado desde el WAL local
+CREATE TABLE ingest_checkpoints (
+    log_id VARCHAR2(36) NOT NULL,
+    last_lsn NUMBER(19),
+    updated_at TIMESTAMP,
+    CONSTRAINT pk_ingest_checkpoints PRIMARY KEY (log_id)
+);
+
+-- 5c. ROLLUPS POR HORA Y POR DÍA
+-- Una fila por parcela, periodo y métrica (humedad, nitrogeno, ph, temperatura, luminosidad)
+-- más una fila estado:<ESTADO> con el conteo de lecturas de ese estado.
+-- La ingesta los actualiza con MERGE; en bases existentes la aplicación los construye
+-- desde sensor_readings en la primera reconciliación.
+CREATE TABLE sensor_rollups_hourly (
+    parcela_id VARCHAR2(50) NOT NULL,
+    periodo TIMESTAMP NOT NULL,
+    metrica VARCHAR2(30) NOT NULL,
+    muestras NUMBER(19),
+    suma BINARY_DOUBLE,
+    suma_cuadrados BINARY_DOUBLE,
+    minimo BINARY_DOUBLE,
+    maximo BINARY_DOUBLE,
+    CONSTRAINT pk_sensor_rollups_hourly PRIMARY KEY (parcela_id, periodo, metrica)
+);
+
+CREATE TABLE sensor_rollups_daily (
+    parcela_id VARCHAR2(50) NOT NULL,
+    periodo TIMESTAMP NOT NULL,
+    metrica VARCHAR2(30) NOT NULL,
+    muestras NUMBER(19),
+    suma BINARY_DOUBLE,
+    suma_cuadrados BINARY_DOUBLE,
+    minimo BINARY_DOUBLE,
+    maximo BINARY_DOUBLE,
+    CONSTRAINT pk_sensor_rollups_daily PRIMARY KEY (parcela_id, periodo, metrica)
+);
+
+-- 5d. EVENTOS DE ALERTA
+-- Una alerta son dos filas: la ABIERTA y la CERRADA, que apunta a ella con apertura_id.
+-- Los ids salen de alert_events_seq de uno en uno (allocationSize = 1 en AlertEvent);
+-- el CACHE de Oracle sólo evita tocar el diccionario en cada NEXTVAL.
+CREATE TABLE alert_events (
+    id NUMBER(19) NOT NULL,
+    parcela_id VARCHAR2(50),
+    apertura_id NUMBER(19),
+    tipo VARCHAR2(10),
+    regla VARCHAR2(100),
+    metrica VARCHAR2(30),
+    severidad VARCHAR2(10),
+    umbral BINARY_DOUBLE,
+    valor BINARY_DOUBLE,
+    peor_valor BINARY_DOUBLE,
+    inicio TIMESTAMP,
+    fecha TIMESTAMP,
+    registrado TIMESTAMP,
+    CONSTRAINT pk_alert_events PRIMARY KEY (id)
+);
+
+CREATE SEQUENCE alert_events_seq
+    START WITH 1
+    INCREMENT BY 1
+    CACHE 20
+    NOCYCLE;
+
+-- 5e. TRABAJOS DE REPORTES Y EXPORTACIONES
+-- El resultado (el JSON del endpoint síncrono) se guarda en un CLOB para volver a descargarlo.
+CREATE TABLE report_jobs (
+    id VARCHAR2(36) NOT NULL,
+    tenant VARCHAR2(64),
+    tipo VARCHAR2(20),
+    parcela_id VARCHAR2(50),
+    formato VARCHAR2(20),
+    estado VARCHAR2(20),
+    error VARCHAR2(1000),
+    resultado CLOB,
+    creado TIMESTAMP,
+    iniciado TIMESTAMP,
+    terminado TIMESTAMP,
+    CONSTRAINT pk_report_jobs PRIMARY KEY (id)
+);
+
 -- 6. CREAR ÍNDICES PARA PERFORMANCE
-CREATE INDEX idx_sensor_parcela ON sensor_readings(parcela_id);
-CREATE INDEX idx_sensor_fecha ON sensor_readings(fecha);
+-- idx_sensor_parcela no hace falta: el índice de uk_sensor_readings_parcela_fecha empieza por parcela_id
+-- En bases existentes, eliminar antes los duplicados y crear la restricción:
+--   DELETE FROM sensor_readings WHERE ROWID NOT IN
+--     (SELECT MIN(ROWID) FROM sensor_readings GROUP BY parcela_id, fecha);
+--   ALTER TABLE sensor_readings ADD CONSTRAINT uk_sensor_readings_parcela_fecha UNIQUE (parcela_id, fecha);
+--   DROP INDEX idx_sensor_parcela;
+-- (fecha, id): orden de la paginación por keyset de GET /api/sensors sin sort adicional
+-- En bases existentes: DROP INDEX idx_sensor_fecha; y crearlo de nuevo con esta definición
+CREATE INDEX idx_sensor_fecha ON sensor_readings(fecha, id);
 CREATE INDEX idx_parcela_tipo ON parcelas(tipo_cultivo);
 CREATE INDEX idx_parcela_estado ON parcelas(estado);
+CREATE INDEX idx_rollups_hourly_periodo ON sensor_rollups_hourly(periodo);
+CREATE INDEX idx_rollups_daily_periodo ON sensor_rollups_daily(periodo);
+CREATE INDEX idx_alert_events_parcela_fecha ON alert_events(parcela_id, fecha);
+CREATE INDEX idx_report_jobs_tenant_creado ON report_jobs(tenant, creado);
 
 -- 7. VERIFICAR CREACIÓN
 SELECT 'Tabla parcelas creada correctamente' as status FROM dual 
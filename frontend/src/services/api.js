@@ -3,7 +3,22 @@ import axios from 'axios';
 const API_BASE = 'http://localhost:8080/api';
 
 // Sensores
-export const fetchSensorData = () => axios.get(`${API_BASE}/sensors`);
+// GET /sensors devuelve páginas (la más reciente primero) y el cursor de la siguiente en la
+// cabecera X-Next-Cursor; se recorren todas para que el dashboard vea todas las lecturas.
+const SENSOR_PAGE_SIZE = 10000;
+
+export const fetchSensorPage = (params = {}) => axios.get(`${API_BASE}/sensors`, { params });
+
+export const fetchSensorData = async () => {
+  let data = [];
+  let cursor;
+  do {
+    const response = await fetchSensorPage({ limit: SENSOR_PAGE_SIZE, ...(cursor && { cursor }) });
+    data = data.concat(response.data || []);
+    cursor = response.headers['x-next-cursor'];
+  } while (cursor);
+  return { data };
+};
 
 // Parcelas
 export const fetchParcelas = () => axios.get(`${API_BASE}/parcelas`);
@@ -5,10 +5,12 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EntityScan("com.felipe.agroapp.model")
 @EnableJpaRepositories("com.felipe.agroapp.repository")
+@EnableScheduling
 public class AgroAppApplication {
     public static void main(String[] args) {
         // Load .env file
@@ -1,7 +1,9 @@
 package com.felipe.agroapp.controller;
 
 import com.felipe.agroapp.service.DataGeneratorService;
+import com.felipe.agroapp.service.FleetSimulator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -15,6 +17,9 @@ public class DataGeneratorController {
     @Autowired
     private DataGeneratorService dataGeneratorService;
 
+    @Autowired
+    private FleetSimulator fleetSimulator;
+
     @PostMapping("/generate-sample")
     public ResponseEntity<Map<String, String>> generateSampleData() {
         try {
@@ -32,6 +37,59 @@ public class DataGeneratorController {
         }
     }
 
+    @PostMapping("/load")
+    public ResponseEntity<Map<String, Object>> startLoadGeneration(@RequestBody(required = false) DataGeneratorService.LoadSpec spec) {
+        try {
+            Map<String, Object> status = dataGeneratorService.startLoadGeneration(
+                spec != null ? spec : new DataGeneratorService.LoadSpec(null, null, null, null, null, null, null, null, null, null, null));
+            return ResponseEntity.accepted().body(status);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "message", e.getMessage()
+            ));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                "status", "error",
+                "message", e.getMessage()
+            ));
+        }
+    }
+
+    @GetMapping("/load")
+    public ResponseEntity<Map<String, Object>> getLoadStatus() {
+        return ResponseEntity.ok(dataGeneratorService.getLoadStatus());
+    }
+
+    @PostMapping("/simulator/start")
+    public ResponseEntity<Map<String, Object>> startSimulator(@RequestBody(required = false) FleetSimulator.SimulatorSpec spec) {
+        try {
+            Map<String, Object> status = fleetSimulator.start(
+                spec != null ? spec : new FleetSimulator.SimulatorSpec(null, null, null, null, null, null, null, null));
+            return ResponseEntity.accepted().body(status);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "message", e.getMessage()
+            ));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                "status", "error",
+                "message", e.getMessage()
+            ));
+        }
+    }
+
+    @PostMapping("/simulator/stop")
+    public ResponseEntity<Map<String, Object>> stopSimulator() {
+        return ResponseEntity.ok(fleetSimulator.stop());
+    }
+
+    @GetMapping("/simulator")
+    public ResponseEntity<Map<String, Object>> getSimulatorStatus() {
+        return ResponseEntity.ok(fleetSimulator.status());
+    }
+
     @PostMapping("/add-recent")
     public ResponseEntity<Map<String, String>> addRecentReadings() {
         try {
@@ -1,9 +1,17 @@
 package com.felipe.agroapp.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import com.felipe.agroapp.service.AlertEngine;
+import com.felipe.agroapp.service.InsightsMaterializer;
+import com.felipe.agroapp.service.InsightTextCache;
 import com.felipe.agroapp.service.InsightsService;
+import com.felipe.agroapp.service.LlmClient;
+import com.felipe.agroapp.service.SensorHotStore;
 import java.util.List;
 import java.util.Map;
 
@@ -15,6 +23,21 @@ public class InsightsController {
     @Autowired
     private InsightsService insightsService;
 
+    @Autowired
+    private SensorHotStore hotStore;
+
+    @Autowired
+    private AlertEngine alertEngine;
+
+    @Autowired
+    private InsightsMaterializer materializer;
+
+    @Autowired
+    private InsightTextCache textCache;
+
+    @Autowired
+    private LlmClient llmClient;
+
     @PostMapping("/analyze")
     public ResponseEntity<List<Map<String, String>>> analyzeData(@RequestBody Map<String, Object> request) {
         try {
@@ -26,17 +49,74 @@ public class InsightsController {
         }
     }
 
+    // Servida desde la instantánea precalculada: con If-None-Match igual a la versión vigente
+    // responde 304 sin cuerpo. X-Snapshot-Age-Ms y X-Snapshot-Stale indican su frescura.
     @GetMapping
-    public ResponseEntity<List<Map<String, Object>>> getGeneralInsights() {
+    public ResponseEntity<List<Map<String, Object>>> getGeneralInsights(WebRequest request) {
         try {
-            List<Map<String, Object>> insights = insightsService.getGeneralInsights();
-            return ResponseEntity.ok(insights);
+            if (!materializer.isEnabled()) {
+                return ResponseEntity.ok(insightsService.getGeneralInsights());
+            }
+            InsightsMaterializer.Snapshot snapshot = materializer.current();
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(snapshot.etag())
+                .cacheControl(CacheControl.noCache())
+                .header("X-Snapshot-Generated-At", snapshot.generadoEn().toString())
+                .header("X-Snapshot-Age-Ms", String.valueOf(materializer.ageMillis()))
+                .header("X-Snapshot-Stale", String.valueOf(materializer.isStale(snapshot)));
+            if (request.checkNotModified(snapshot.etag())) {
+                return response.build();
+            }
+            return response.body(snapshot.insights());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    @GetMapping("/snapshot")
+    public ResponseEntity<Map<String, Object>> getSnapshotStats() {
+        return ResponseEntity.ok(materializer.stats());
+    }
+
+    @GetMapping("/llm-cache")
+    public ResponseEntity<Map<String, Object>> getLlmCacheStats() {
+        return ResponseEntity.ok(textCache.stats());
+    }
+
+    @DeleteMapping("/llm-cache")
+    public ResponseEntity<Map<String, Object>> clearLlmCache() {
+        textCache.clear();
+        return ResponseEntity.ok(textCache.stats());
+    }
+
+    @GetMapping("/llm")
+    public ResponseEntity<Map<String, Object>> getLlmStats() {
+        return ResponseEntity.ok(llmClient.stats());
+    }
+
+    // Sólo con agroapp.llm.provider=stub: nunca genera llamadas (ni costes) reales
+    @PostMapping("/llm/load-test")
+    public ResponseEntity<Map<String, Object>> loadTestLlm(@RequestParam(defaultValue = "200") int llamadas,
+                                                           @RequestParam(defaultValue = "20") int concurrencia) {
+        try {
+            return ResponseEntity.ok(llmClient.loadTest(llamadas, concurrencia));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "error", "message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("status", "error", "message", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/benchmark")
+    public ResponseEntity<Map<String, Object>> benchmarkGeneralInsights(@RequestParam(defaultValue = "5") int repeticiones) {
+        try {
+            return ResponseEntity.ok(insightsService.benchmarkGeneralInsights(repeticiones));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "error", "message", e.getMessage()));
+        }
+    }
+
     @GetMapping("/parcela/{parcelaId}")
     public ResponseEntity<Map<String, Object>> getParcelaInsights(@PathVariable String parcelaId) {
         try {
@@ -70,4 +150,28 @@ public class InsightsController {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    @GetMapping("/alerts")
+    public ResponseEntity<List<AlertEngine.Alerta>> getOpenAlerts(@RequestParam(required = false) String parcelaId) {
+        return ResponseEntity.ok(alertEngine.abiertas(parcelaId));
+    }
+
+    @GetMapping("/anomalies")
+    public ResponseEntity<Map<String, Object>> getAnomalies(@RequestParam(defaultValue = "7") int dias) {
+        try {
+            return ResponseEntity.ok(insightsService.getAnomalies(dias));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "error", "message", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/hot-store")
+    public ResponseEntity<Map<String, Object>> getHotStoreStats() {
+        return ResponseEntity.ok(hotStore.stats());
+    }
+
+    @GetMapping("/hot-store/compression")
+    public ResponseEntity<Map<String, Object>> getHotStoreCompression() {
+        return ResponseEntity.ok(hotStore.compressionStats());
+    }
 } 
\ No newline at end of file
@@ -1,12 +1,13 @@
 package com.felipe.agroapp.controller;
 
 import com.felipe.agroapp.model.Parcela;
-import com.felipe.agroapp.repository.ParcelaRepository;
+import com.felipe.agroapp.service.ParcelaCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -15,30 +16,36 @@ import java.util.Optional;
 public class ParcelaController {
 
     @Autowired
-    private ParcelaRepository parcelaRepository;
+    private ParcelaCache parcelaCache;
 
     @GetMapping
     public ResponseEntity<List<Parcela>> getAllParcelas() {
-        List<Parcela> parcelas = parcelaRepository.findAll();
+        List<Parcela> parcelas = parcelaCache.findAll();
         return ResponseEntity.ok(parcelas);
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<Parcela> getParcelaById(@PathVariable String id) {
-        Optional<Parcela> parcela = parcelaRepository.findById(id);
+        Optional<Parcela> parcela = parcelaCache.findById(id);
         return parcela.map(ResponseEntity::ok)
                      .orElse(ResponseEntity.notFound().build());
     }
 
     @GetMapping("/activas")
     public ResponseEntity<List<Parcela>> getParcelasActivas() {
-        List<Parcela> parcelasActivas = parcelaRepository.findParcelasActivas();
+        List<Parcela> parcelasActivas = parcelaCache.findByEstado("ACTIVA");
         return ResponseEntity.ok(parcelasActivas);
     }
 
     @GetMapping("/cultivo/{tipoCultivo}")
     public ResponseEntity<List<Parcela>> getParcelasByCultivo(@PathVariable String tipoCultivo) {
-        List<Parcela> parcelas = parcelaRepository.findByTipoCultivo(tipoCultivo);
+        List<Parcela> parcelas = parcelaCache.findByTipoCultivo(tipoCultivo);
         return ResponseEntity.ok(parcelas);
     }
-} 
\ No newline at end of file
+
+    // Aciertos y fallos de la caché de parcelas
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(parcelaCache.stats());
+    }
+}
@@ -0,0 +1,145 @@
+package com.felipe.agroapp.controller;
+
+import com.felipe.agroapp.model.ReportJob;
+import com.felipe.agroapp.service.ReportJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// Versión asíncrona de /api/insights/report y /api/insights/export: POST devuelve 202 con el id
+// del trabajo, GET lo consulta (con waitSeconds espera a que termine) y /result o /download
+// entregan el resultado. El tenant sale de la cabecera X-Tenant-Id.
+@RestController
+@RequestMapping("/api/reports/jobs")
+@CrossOrigin(origins = "http://localhost:5173", exposedHeaders = HttpHeaders.LOCATION)
+public class ReportJobController {
+
+    static final String TENANT_HEADER = "X-Tenant-Id";
+    private static final int MAX_WAIT_SECONDS = 60;
+
+    @Autowired
+    private ReportJobService reportJobService;
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> submit(@RequestHeader(value = TENANT_HEADER, required = false) String tenant,
+                                                      @RequestBody Map<String, String> request) {
+        try {
+            ReportJobService.Envio envio = reportJobService.submit(reportJobService.tenant(tenant),
+                request.get("tipo"), request.get("parcelaId"), request.get("formato"));
+            if (!envio.aceptado()) {
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("status", "busy");
+                response.put("message", envio.rechazo());
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(reportJobService.retryAfterSeconds()))
+                    .body(response);
+            }
+            return ResponseEntity.accepted()
+                .location(URI.create("/api/reports/jobs/" + envio.job().getId()))
+                .body(reportJobService.status(envio.job()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "error", "message", e.getMessage()));
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<List<Map<String, Object>>> list(@RequestHeader(value = TENANT_HEADER, required = false) String tenant) {
+        return ResponseEntity.ok(reportJobService.list(reportJobService.tenant(tenant)));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        return ResponseEntity.ok(reportJobService.stats());
+    }
+
+    @GetMapping("/{id}")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> status(@RequestHeader(value = TENANT_HEADER, required = false) String tenant,
+                                                                         @PathVariable String id,
+                                                                         @RequestParam(defaultValue = "0") int waitSeconds) {
+        if (waitSeconds < 0 || waitSeconds > MAX_WAIT_SECONDS) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                .body(Map.of("status", "error", "message", "waitSeconds debe estar entre 0 y " + MAX_WAIT_SECONDS)));
+        }
+        return reportJobService.status(reportJobService.tenant(tenant), id, Duration.ofSeconds(waitSeconds))
+            .thenApply(status -> status.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build()));
+    }
+
+    @GetMapping("/{id}/result")
+    public ResponseEntity<Map<String, Object>> result(@RequestHeader(value = TENANT_HEADER, required = false) String tenant,
+                                                      @PathVariable String id) {
+        Optional<ReportJob> job = reportJobService.find(reportJobService.tenant(tenant), id);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(reportJobService.result(job.get()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(reportJobService.status(job.get()));
+        }
+    }
+
+    // Como /result, pero como archivo: el Markdown de una exportación o el JSON de un reporte
+    @GetMapping("/{id}/download")
+    public ResponseEntity<byte[]> download(@RequestHeader(value = TENANT_HEADER, required = false) String tenant,
+                                           @PathVariable String id) {
+        Optional<ReportJob> job = reportJobService.find(reportJobService.tenant(tenant), id);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!ReportJob.COMPLETADO.equals(job.get().getEstado())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        String filename;
+        MediaType contentType;
+        byte[] body;
+        Map<String, Object> result = reportJobService.result(job.get());
+        if (result.get("content") instanceof String content) {
+            filename = String.valueOf(result.getOrDefault("filename", id + ".md"));
+            contentType = MediaType.parseMediaType(String.valueOf(result.getOrDefault("contentType", "text/markdown")));
+            body = content.getBytes(StandardCharsets.UTF_8);
+        } else {
+            filename = "Reporte_" + job.get().getParcelaId() + "_" + id + ".json";
+            contentType = MediaType.APPLICATION_JSON;
+            body = job.get().getResultado().getBytes(StandardCharsets.UTF_8);
+        }
+        return ResponseEntity.ok()
+            .contentType(new MediaType(contentType, StandardCharsets.UTF_8))
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(filename, StandardCharsets.UTF_8).build().toString())
+            .body(body);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Map<String, Object>> delete(@RequestHeader(value = TENANT_HEADER, required = false) String tenant,
+                                                      @PathVariable String id) {
+        Optional<ReportJob> job = reportJobService.find(reportJobService.tenant(tenant), id);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            reportJobService.delete(job.get());
+            return ResponseEntity.ok(Map.of("status", "success", "id", id));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("status", "error", "message", e.getMessage()));
+        }
+    }
+
+    // X-Tenant-Id inválido en los endpoints de consulta
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("status", "error", "message", e.getMessage()));
+    }
+}
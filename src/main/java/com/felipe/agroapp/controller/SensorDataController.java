@@ -2,11 +2,24 @@ package com.felipe.agroapp.controller;
 
 import com.felipe.agroapp.model.SensorData;
 import com.felipe.agroapp.repository.SensorDataRepository;
+import com.felipe.agroapp.service.IngestPipeline;
+import com.felipe.agroapp.service.LatestReadingIndex;
+import com.felipe.agroapp.service.ReadingDeduplicator;
+import com.felipe.agroapp.service.SensorArchiveService;
+import com.felipe.agroapp.service.SensorRetentionService;
+import com.felipe.agroapp.service.SensorIngestService;
+import com.felipe.agroapp.service.SensorQueryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,26 +27,188 @@ import java.util.logging.Logger;
 
 @RestController
 @RequestMapping("/api/sensors")
-@CrossOrigin(origins = "http://localhost:5173")
+@CrossOrigin(origins = "http://localhost:5173", exposedHeaders = SensorDataController.NEXT_CURSOR_HEADER)
 public class SensorDataController {
     private static final Logger logger = Logger.getLogger(SensorDataController.class.getName());
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String NDJSON = "application/x-ndjson";
+
     @Autowired
     private SensorDataRepository sensorDataRepository;
     
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private SensorIngestService sensorIngestService;
+
+    @Autowired
+    private SensorQueryService sensorQueryService;
+
+    @Autowired
+    private IngestPipeline ingestPipeline;
+
+    @Autowired
+    private ReadingDeduplicator deduplicator;
+
+    @Autowired
+    private SensorArchiveService archiveService;
+
+    @Autowired
+    private SensorRetentionService retentionService;
+
+    @Autowired
+    private LatestReadingIndex latestIndex;
+
+    // Página de lecturas ordenadas por (fecha, id), la más reciente primero salvo con desde. El cuerpo sigue siendo un array JSON;
+    // el cursor de la página siguiente viaja en la cabecera X-Next-Cursor (ausente en la última).
     @GetMapping
-    public ResponseEntity<List<SensorData>> getAllSensors() {
-        List<SensorData> sensors = sensorDataRepository.findAll();
-        logger.info("Retrieved " + sensors.size() + " sensors from database");
-        for (SensorData sensor : sensors) {
-            logger.info("Sensor: id=" + sensor.getId() + ", parcelaId=" + sensor.getParcelaId() + 
-                      ", humedad=" + sensor.getHumedad() + ", nitrogeno=" + sensor.getNitrogeno() + 
-                      ", ph=" + sensor.getPh() + ", fecha=" + sensor.getFecha());
+    public ResponseEntity<?> getSensors(
+            @RequestParam(required = false) String parcelaId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta,
+            @RequestParam(required = false) String orden,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            SensorQueryService.Page page = sensorQueryService.page(parcelaId, desde, hasta, orden, cursor, limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return response.body(page.items());
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
+    // Exportación completa en NDJSON (una lectura por línea), escrita a medida que se lee
+    @GetMapping(value = "/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamSensors(
+            @RequestParam(required = false) String parcelaId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta) {
+        StreamingResponseBody body = out -> {
+            long filas = sensorQueryService.streamNdjson(parcelaId, desde, hasta, out);
+            logger.info("NDJSON export: " + filas + " lecturas");
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<Map<String, Object>> ingestBatch(@RequestBody List<SensorData> readings) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            SensorIngestService.BatchResult result = sensorIngestService.ingestBatch(readings);
+            response.put("status", "success");
+            response.put("accepted", result.accepted());
+            response.put("rejected", result.rejected());
+            response.put("duplicates", result.duplicates());
+            response.put("errors", result.errors());
+            response.put("elapsedMs", Math.round(result.elapsedMillis() * 100.0) / 100.0);
+            response.put("rowsPerSecond", Math.round(result.rowsPerSecond()));
+            logger.info("Batch ingest: " + result.accepted() + " accepted, " + result.rejected() +
+                      " rejected, " + Math.round(result.rowsPerSecond()) + " rows/s");
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            logger.severe("Batch ingest error: " + e.getMessage());
+            response.put("status", "error");
+            response.put("message", "Error al insertar el lote: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    @PostMapping("/ingest")
+    public ResponseEntity<Map<String, Object>> ingestAsync(@RequestBody List<SensorData> readings) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            SensorIngestService.SubmitResult result = sensorIngestService.submit(readings);
+            response.put("accepted", result.accepted());
+            response.put("rejected", result.rejected());
+            response.put("duplicates", result.duplicates());
+            response.put("errors", result.errors());
+            response.put("queueDepth", result.queueDepth());
+            if (!result.queued()) {
+                response.put("status", "busy");
+                response.put("message", "Cola de ingesta llena, reintente más tarde");
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(ingestPipeline.retryAfterSeconds()))
+                        .body(response);
+            }
+            response.put("status", "queued");
+            return ResponseEntity.accepted().body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            logger.severe("Async ingest error: " + e.getMessage());
+            response.put("status", "error");
+            response.put("message", "Error al encolar el lote: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    // Última lectura de cada parcela, servida desde memoria (no consulta sensor_readings)
+    @GetMapping("/latest")
+    public ResponseEntity<List<LatestReadingIndex.Latest>> getLatest() {
+        return ResponseEntity.ok(latestIndex.all());
+    }
+
+    @GetMapping("/ingest/stats")
+    public ResponseEntity<Map<String, Object>> getIngestStats() {
+        Map<String, Object> stats = ingestPipeline.stats();
+        stats.put("dedup", deduplicator.stats());
+        return ResponseEntity.ok(stats);
+    }
+
+    @GetMapping("/archive")
+    public ResponseEntity<Map<String, Object>> getArchiveStats() {
+        return ResponseEntity.ok(archiveService.stats());
+    }
+
+    // Lanza el archivado en el acto, sin esperar al cron; responde al terminar
+    @PostMapping("/archive")
+    public ResponseEntity<Map<String, Object>> runArchive() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            return ResponseEntity.ok(archiveService.archive());
+        } catch (IllegalStateException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (Exception e) {
+            logger.severe("Archive error: " + e.getMessage());
+            response.put("status", "error");
+            response.put("message", "Error al archivar: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    @GetMapping("/retention")
+    public ResponseEntity<Map<String, Object>> getRetentionStatus() {
+        return ResponseEntity.ok(retentionService.getPurgeStatus());
+    }
+
+    // Lanza la purga de retención en segundo plano; el progreso se consulta con GET
+    @PostMapping("/retention")
+    public ResponseEntity<Map<String, Object>> runRetention() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            return ResponseEntity.accepted().body(retentionService.startPurge());
+        } catch (IllegalStateException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
         }
-        return ResponseEntity.ok(sensors);
     }
 
     @GetMapping("/test")
@@ -0,0 +1,169 @@
+package com.felipe.agroapp.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+// Apertura o cierre de una alerta. Una alerta son dos filas: la ABIERTA y la CERRADA que
+// apunta a ella con apertura_id; mientras no hay cierre, la alerta sigue abierta.
+@Entity
+@Table(name = "alert_events",
+    indexes = @Index(name = "idx_alert_events_parcela_fecha", columnList = "parcela_id, fecha"))
+public class AlertEvent {
+
+    public static final String ABIERTA = "ABIERTA";
+    public static final String CERRADA = "CERRADA";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "alert_event_seq")
+    @SequenceGenerator(name = "alert_event_seq", sequenceName = "alert_events_seq", allocationSize = 1)
+    private Long id;
+
+    @Column(name = "parcela_id")
+    private String parcelaId;
+
+    @Column(name = "apertura_id")
+    private Long aperturaId;
+
+    private String tipo; // ABIERTA, CERRADA
+    private String regla;
+    private String metrica;
+    private String severidad; // ALERTA, CRITICO
+    private Double umbral;
+
+    // Valor de la lectura que abre o cierra la alerta
+    private Double valor;
+
+    // Valor más alejado del umbral mientras estuvo abierta (sólo en el cierre)
+    @Column(name = "peor_valor")
+    private Double peorValor;
+
+    // Primera lectura fuera del umbral (antes de cumplirse la duración mínima)
+    private LocalDateTime inicio;
+
+    // Fecha de la lectura que produce el evento
+    private LocalDateTime fecha;
+
+    private LocalDateTime registrado;
+
+    // Constructores
+    public AlertEvent() {}
+
+    public AlertEvent(String parcelaId, String tipo, String regla, String metrica, String severidad,
+                      Double umbral, Double valor, LocalDateTime inicio, LocalDateTime fecha) {
+        this.parcelaId = parcelaId;
+        this.tipo = tipo;
+        this.regla = regla;
+        this.metrica = metrica;
+        this.severidad = severidad;
+        this.umbral = umbral;
+        this.valor = valor;
+        this.inicio = inicio;
+        this.fecha = fecha;
+        this.registrado = LocalDateTime.now();
+    }
+
+    // Getters y Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getParcelaId() {
+        return parcelaId;
+    }
+
+    public void setParcelaId(String parcelaId) {
+        this.parcelaId = parcelaId;
+    }
+
+    public Long getAperturaId() {
+        return aperturaId;
+    }
+
+    public void setAperturaId(Long aperturaId) {
+        this.aperturaId = aperturaId;
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    public void setTipo(String tipo) {
+        this.tipo = tipo;
+    }
+
+    public String getRegla() {
+        return regla;
+    }
+
+    public void setRegla(String regla) {
+        this.regla = regla;
+    }
+
+    public String getMetrica() {
+        return metrica;
+    }
+
+    public void setMetrica(String metrica) {
+        this.metrica = metrica;
+    }
+
+    public String getSeveridad() {
+        return severidad;
+    }
+
+    public void setSeveridad(String severidad) {
+        this.severidad = severidad;
+    }
+
+    public Double getUmbral() {
+        return umbral;
+    }
+
+    public void setUmbral(Double umbral) {
+        this.umbral = umbral;
+    }
+
+    public Double getValor() {
+        return valor;
+    }
+
+    public void setValor(Double valor) {
+        this.valor = valor;
+    }
+
+    public Double getPeorValor() {
+        return peorValor;
+    }
+
+    public void setPeorValor(Double peorValor) {
+        this.peorValor = peorValor;
+    }
+
+    public LocalDateTime getInicio() {
+        return inicio;
+    }
+
+    public void setInicio(LocalDateTime inicio) {
+        this.inicio = inicio;
+    }
+
+    public LocalDateTime getFecha() {
+        return fecha;
+    }
+
+    public void setFecha(LocalDateTime fecha) {
+        this.fecha = fecha;
+    }
+
+    public LocalDateTime getRegistrado() {
+        return registrado;
+    }
+
+    public void setRegistrado(LocalDateTime registrado) {
+        this.registrado = registrado;
+    }
+}
@@ -0,0 +1,53 @@
+package com.felipe.agroapp.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "INGEST_CHECKPOINTS")
+public class IngestCheckpoint {
+
+    @Id
+    @Column(name = "LOG_ID", length = 36)
+    private String logId;
+
+    @Column(name = "LAST_LSN")
+    private Long lastLsn;
+
+    @Column(name = "UPDATED_AT")
+    private LocalDateTime updatedAt;
+
+    // Constructores
+    public IngestCheckpoint() {}
+
+    public IngestCheckpoint(String logId, Long lastLsn, LocalDateTime updatedAt) {
+        this.logId = logId;
+        this.lastLsn = lastLsn;
+        this.updatedAt = updatedAt;
+    }
+
+    // Getters y Setters
+    public String getLogId() {
+        return logId;
+    }
+
+    public void setLogId(String logId) {
+        this.logId = logId;
+    }
+
+    public Long getLastLsn() {
+        return lastLsn;
+    }
+
+    public void setLastLsn(Long lastLsn) {
+        this.lastLsn = lastLsn;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,153 @@
+package com.felipe.agroapp.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+// Generación asíncrona de un reporte o exportación. El resultado (el mismo JSON que devuelven
+// los endpoints síncronos) se guarda con el trabajo para poder descargarlo otra vez.
+@Entity
+@Table(name = "report_jobs",
+    indexes = @Index(name = "idx_report_jobs_tenant_creado", columnList = "tenant, creado"))
+public class ReportJob {
+
+    public static final String PENDIENTE = "PENDIENTE";
+    public static final String EN_CURSO = "EN_CURSO";
+    public static final String COMPLETADO = "COMPLETADO";
+    public static final String FALLIDO = "FALLIDO";
+    public static final String CANCELADO = "CANCELADO";
+
+    public static final String REPORTE = "REPORTE";
+    public static final String EXPORTACION = "EXPORTACION";
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Column(length = 64)
+    private String tenant;
+
+    private String tipo; // REPORTE, EXPORTACION
+
+    @Column(name = "parcela_id")
+    private String parcelaId;
+
+    private String formato;
+
+    private String estado; // PENDIENTE, EN_CURSO, COMPLETADO, FALLIDO, CANCELADO
+
+    @Column(length = 1000)
+    private String error;
+
+    @Lob
+    private String resultado;
+
+    private LocalDateTime creado;
+    private LocalDateTime iniciado;
+    private LocalDateTime terminado;
+
+    // Constructores
+    public ReportJob() {}
+
+    public ReportJob(String id, String tenant, String tipo, String parcelaId, String formato) {
+        this.id = id;
+        this.tenant = tenant;
+        this.tipo = tipo;
+        this.parcelaId = parcelaId;
+        this.formato = formato;
+        this.estado = PENDIENTE;
+        this.creado = LocalDateTime.now();
+    }
+
+    public boolean isTerminado() {
+        return COMPLETADO.equals(estado) || FALLIDO.equals(estado) || CANCELADO.equals(estado);
+    }
+
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    public void setTipo(String tipo) {
+        this.tipo = tipo;
+    }
+
+    public String getParcelaId() {
+        return parcelaId;
+    }
+
+    public void setParcelaId(String parcelaId) {
+        this.parcelaId = parcelaId;
+    }
+
+    public String getFormato() {
+        return formato;
+    }
+
+    public void setFormato(String formato) {
+        this.formato = formato;
+    }
+
+    public String getEstado() {
+        return estado;
+    }
+
+    public void setEstado(String estado) {
+        this.estado = estado;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public String getResultado() {
+        return resultado;
+    }
+
+    public void setResultado(String resultado) {
+        this.resultado = resultado;
+    }
+
+    public LocalDateTime getCreado() {
+        return creado;
+    }
+
+    public void setCreado(LocalDateTime creado) {
+        this.creado = creado;
+    }
+
+    public LocalDateTime getIniciado() {
+        return iniciado;
+    }
+
+    public void setIniciado(LocalDateTime iniciado) {
+        this.iniciado = iniciado;
+    }
+
+    public LocalDateTime getTerminado() {
+        return terminado;
+    }
+
+    public void setTerminado(LocalDateTime terminado) {
+        this.terminado = terminado;
+    }
+}
@@ -1,10 +1,13 @@
 package com.felipe.agroapp.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "sensor_readings")
+@Table(name = "sensor_readings",
+    uniqueConstraints = @UniqueConstraint(name = "uk_sensor_readings_parcela_fecha", columnNames = {"parcela_id", "fecha"}),
+    indexes = @Index(name = "idx_sensor_fecha", columnList = "fecha, id"))
 public class SensorData {
     
     @Id
@@ -23,6 +26,16 @@ public class SensorData {
     private LocalDateTime fecha;
     private String estado; // NORMAL, ALERTA, CRITICO
 
+    // Un bit por métrica (orden de StatsAccumulator) que AnomalyDetector marcó como anómala
+    // al ingerir la lectura; 0 o null si ninguna
+    private Integer anomalias;
+
+    // ReadingDeduplicator la marca si su clave ya estaba en el filtro de Bloom de la parcela:
+    // puede ser un duplicado que sólo la base de datos puede confirmar. No se persiste.
+    @Transient
+    @JsonIgnore
+    private boolean duplicadoPosible;
+
     // Constructores
     public SensorData() {}
 
@@ -111,6 +124,22 @@ public class SensorData {
         this.estado = estado;
     }
 
+    public Integer getAnomalias() {
+        return anomalias;
+    }
+
+    public void setAnomalias(Integer anomalias) {
+        this.anomalias = anomalias;
+    }
+
+    public boolean isDuplicadoPosible() {
+        return duplicadoPosible;
+    }
+
+    public void setDuplicadoPosible(boolean duplicadoPosible) {
+        this.duplicadoPosible = duplicadoPosible;
+    }
+
     @Override
     public String toString() {
         return String.format("SensorData{id=%d, parcelaId='%s', humedad=%.1f, nitrogeno=%.1f, ph=%.2f, fecha=%s}",
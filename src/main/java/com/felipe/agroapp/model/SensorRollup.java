@@ -0,0 +1,71 @@
+package com.felipe.agroapp.model;
+
+import jakarta.persistence.*;
+
+// Agregado de un periodo por parcela y métrica. Las filas estado:<ESTADO> sólo usan
+// muestras (conteo de lecturas con ese estado); el resto guarda los momentos necesarios
+// para promedio y varianza sin volver a las lecturas crudas.
+@MappedSuperclass
+public abstract class SensorRollup {
+
+    @EmbeddedId
+    private SensorRollupId id;
+
+    private Long muestras;
+    private Double suma;
+
+    @Column(name = "suma_cuadrados")
+    private Double sumaCuadrados;
+
+    private Double minimo;
+    private Double maximo;
+
+    // Getters y Setters
+    public SensorRollupId getId() {
+        return id;
+    }
+
+    public void setId(SensorRollupId id) {
+        this.id = id;
+    }
+
+    public Long getMuestras() {
+        return muestras;
+    }
+
+    public void setMuestras(Long muestras) {
+        this.muestras = muestras;
+    }
+
+    public Double getSuma() {
+        return suma;
+    }
+
+    public void setSuma(Double suma) {
+        this.suma = suma;
+    }
+
+    public Double getSumaCuadrados() {
+        return sumaCuadrados;
+    }
+
+    public void setSumaCuadrados(Double sumaCuadrados) {
+        this.sumaCuadrados = sumaCuadrados;
+    }
+
+    public Double getMinimo() {
+        return minimo;
+    }
+
+    public void setMinimo(Double minimo) {
+        this.minimo = minimo;
+    }
+
+    public Double getMaximo() {
+        return maximo;
+    }
+
+    public void setMaximo(Double maximo) {
+        this.maximo = maximo;
+    }
+}
@@ -0,0 +1,10 @@
+package com.felipe.agroapp.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "sensor_rollups_daily", indexes = @Index(name = "idx_rollups_daily_periodo", columnList = "periodo"))
+public class SensorRollupDaily extends SensorRollup {
+}
@@ -0,0 +1,10 @@
+package com.felipe.agroapp.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "sensor_rollups_hourly", indexes = @Index(name = "idx_rollups_hourly_periodo", columnList = "periodo"))
+public class SensorRollupHourly extends SensorRollup {
+}
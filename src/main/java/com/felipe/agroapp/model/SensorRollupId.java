@@ -0,0 +1,70 @@
+package com.felipe.agroapp.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+@Embeddable
+public class SensorRollupId implements Serializable {
+
+    @Column(name = "parcela_id", length = 50)
+    private String parcelaId;
+
+    // Inicio de la hora o del día agregado
+    @Column(name = "periodo")
+    private LocalDateTime periodo;
+
+    // humedad, nitrogeno, ph, temperatura, luminosidad o estado:<ESTADO>
+    @Column(name = "metrica", length = 30)
+    private String metrica;
+
+    // Constructores
+    public SensorRollupId() {}
+
+    public SensorRollupId(String parcelaId, LocalDateTime periodo, String metrica) {
+        this.parcelaId = parcelaId;
+        this.periodo = periodo;
+        this.metrica = metrica;
+    }
+
+    // Getters y Setters
+    public String getParcelaId() {
+        return parcelaId;
+    }
+
+    public void setParcelaId(String parcelaId) {
+        this.parcelaId = parcelaId;
+    }
+
+    public LocalDateTime getPeriodo() {
+        return periodo;
+    }
+
+    public void setPeriodo(LocalDateTime periodo) {
+        this.periodo = periodo;
+    }
+
+    public String getMetrica() {
+        return metrica;
+    }
+
+    public void setMetrica(String metrica) {
+        this.metrica = metrica;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SensorRollupId other)) return false;
+        return Objects.equals(parcelaId, other.parcelaId)
+            && Objects.equals(periodo, other.periodo)
+            && Objects.equals(metrica, other.metrica);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(parcelaId, periodo, metrica);
+    }
+}
@@ -0,0 +1,20 @@
+package com.felipe.agroapp.repository;
+
+import com.felipe.agroapp.model.AlertEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface AlertEventRepository extends JpaRepository<AlertEvent, Long> {
+
+    // Aperturas sin cierre: las alertas abiertas al arrancar
+    @Query("SELECT a FROM AlertEvent a WHERE a.tipo = 'ABIERTA' AND NOT EXISTS " +
+           "(SELECT c FROM AlertEvent c WHERE c.aperturaId = a.id)")
+    List<AlertEvent> findOpen();
+
+    List<AlertEvent> findByParcelaIdAndTipoAndFechaGreaterThanEqualOrderByFechaDesc(String parcelaId, String tipo,
+                                                                                  LocalDateTime desde);
+}
@@ -0,0 +1,9 @@
+package com.felipe.agroapp.repository;
+
+import com.felipe.agroapp.model.IngestCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface IngestCheckpointRepository extends JpaRepository<IngestCheckpoint, String> {
+}
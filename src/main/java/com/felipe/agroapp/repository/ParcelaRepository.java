@@ -15,4 +15,7 @@ public interface ParcelaRepository extends JpaRepository<Parcela, String> {
     
     @Query("SELECT p FROM Parcela p WHERE p.estado = 'ACTIVA'")
     List<Parcela> findParcelasActivas();
+    
+    @Query("SELECT p.parcelaId FROM Parcela p")
+    List<String> findAllIds();
 } 
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.felipe.agroapp.repository;
+
+import com.felipe.agroapp.model.ReportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ReportJobRepository extends JpaRepository<ReportJob, String> {
+
+    List<ReportJob> findTop50ByTenantOrderByCreadoDesc(String tenant);
+
+    // Trabajos que un reinicio dejó sin terminar
+    List<ReportJob> findByEstadoInOrderByCreadoAsc(Collection<String> estados);
+
+    // Un solo DELETE: la forma derivada carga cada trabajo (con su resultado @Lob) antes de borrarlo
+    @Modifying
+    @Query("DELETE FROM ReportJob j WHERE j.terminado < :limite")
+    int deleteByTerminadoBefore(@Param("limite") LocalDateTime limite);
+}
@@ -1,24 +1,27 @@
 package com.felipe.agroapp.repository;
 
 import com.felipe.agroapp.model.SensorData;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
-public interface SensorDataRepository extends JpaRepository<SensorData, Long> {
+public interface SensorDataRepository extends JpaRepository<SensorData, Long>, SensorDataRepositoryCustom {
     
     List<SensorData> findByParcelaId(String parcelaId);
     
     List<SensorData> findByParcelaIdOrderByFechaDesc(String parcelaId);
     
-    @Query("SELECT s FROM SensorData s WHERE s.parcelaId = :parcelaId AND s.fecha >= :fechaInicio AND s.fecha <= :fechaFin ORDER BY s.fecha DESC")
-    List<SensorData> findByParcelaIdAndFechaBetween(@Param("parcelaId") String parcelaId, 
-                                                   @Param("fechaInicio") LocalDateTime fechaInicio, 
-                                                   @Param("fechaFin") LocalDateTime fechaFin);
+    // findByParcelaIdAndFechaBetween vive en SensorDataRepositoryCustomImpl: completa desde el
+    // archivo frío los rangos que ya no están en la tabla
     
     @Query("SELECT s FROM SensorData s WHERE s.fecha >= :fechaInicio ORDER BY s.fecha DESC")
     List<SensorData> findRecentData(@Param("fechaInicio") LocalDateTime fechaInicio);
@@ -28,4 +31,86 @@ public interface SensorDataRepository extends JpaRepository<SensorData, Long> {
     
     @Query("SELECT DISTINCT s.parcelaId FROM SensorData s")
     List<String> findDistinctParcelaIds();
-} 
\ No newline at end of file
+
+    @Query("SELECT s.fecha FROM SensorData s WHERE s.parcelaId = :parcelaId AND s.fecha >= :desde ORDER BY s.fecha DESC")
+    List<LocalDateTime> findRecentFechasByParcelaId(@Param("parcelaId") String parcelaId,
+                                                    @Param("desde") LocalDateTime desde,
+                                                    Pageable pageable);
+
+    // Agregación en la base de datos: por cada parcela viajan tantas filas como combinaciones de
+    // estado y máscara de anomalías, en lugar de todas sus lecturas hidratadas como entidades
+    String STATS_SELECT = "SELECT new com.felipe.agroapp.repository.SensorStatsRow(s.parcelaId, s.estado, s.anomalias, COUNT(s), " +
+        "COUNT(s.humedad), SUM(s.humedad), SUM(s.humedad * s.humedad), MIN(s.humedad), MAX(s.humedad), " +
+        "COUNT(s.nitrogeno), SUM(s.nitrogeno), SUM(s.nitrogeno * s.nitrogeno), MIN(s.nitrogeno), MAX(s.nitrogeno), " +
+        "COUNT(s.ph), SUM(s.ph), SUM(s.ph * s.ph), MIN(s.ph), MAX(s.ph), " +
+        "COUNT(s.temperatura), SUM(s.temperatura), SUM(s.temperatura * s.temperatura), MIN(s.temperatura), MAX(s.temperatura), " +
+        "COUNT(s.luminosidad), SUM(s.luminosidad), SUM(s.luminosidad * s.luminosidad), MIN(s.luminosidad), MAX(s.luminosidad)) " +
+        "FROM SensorData s ";
+
+    @Query(STATS_SELECT + "WHERE s.fecha >= :desde AND s.fecha < :hasta GROUP BY s.parcelaId, s.estado, s.anomalias")
+    List<SensorStatsRow> aggregateByParcela(@Param("desde") LocalDateTime desde,
+                                            @Param("hasta") LocalDateTime hasta);
+
+    @Query(STATS_SELECT + "WHERE s.parcelaId = :parcelaId AND s.fecha >= :desde AND s.fecha < :hasta " +
+           "GROUP BY s.parcelaId, s.estado, s.anomalias")
+    List<SensorStatsRow> aggregateForParcela(@Param("parcelaId") String parcelaId,
+                                             @Param("desde") LocalDateTime desde,
+                                             @Param("hasta") LocalDateTime hasta);
+
+    // Paginación por keyset sobre (fecha, id): la página siguiente empieza después de la
+    // última fila entregada, sin OFFSET, así el coste no crece con la profundidad
+    @Query("SELECT s FROM SensorData s WHERE s.fecha >= :desde AND s.fecha < :hasta " +
+           "AND (s.fecha > :fecha OR (s.fecha = :fecha AND s.id > :id)) ORDER BY s.fecha ASC, s.id ASC")
+    List<SensorData> findPageAfter(@Param("desde") LocalDateTime desde,
+                                   @Param("hasta") LocalDateTime hasta,
+                                   @Param("fecha") LocalDateTime fecha,
+                                   @Param("id") Long id,
+                                   Pageable pageable);
+
+    @Query("SELECT s FROM SensorData s WHERE s.parcelaId = :parcelaId AND s.fecha >= :desde AND s.fecha < :hasta " +
+           "AND (s.fecha > :fecha OR (s.fecha = :fecha AND s.id > :id)) ORDER BY s.fecha ASC, s.id ASC")
+    List<SensorData> findPageAfterByParcelaId(@Param("parcelaId") String parcelaId,
+                                              @Param("desde") LocalDateTime desde,
+                                              @Param("hasta") LocalDateTime hasta,
+                                              @Param("fecha") LocalDateTime fecha,
+                                              @Param("id") Long id,
+                                              Pageable pageable);
+
+    // Mismo keyset recorrido de la más reciente hacia atrás: la página siguiente empieza
+    // antes de la última fila entregada
+    @Query("SELECT s FROM SensorData s WHERE s.fecha >= :desde AND s.fecha < :hasta " +
+           "AND (s.fecha < :fecha OR (s.fecha = :fecha AND s.id < :id)) ORDER BY s.fecha DESC, s.id DESC")
+    List<SensorData> findPageBefore(@Param("desde") LocalDateTime desde,
+                                    @Param("hasta") LocalDateTime hasta,
+                                    @Param("fecha") LocalDateTime fecha,
+                                    @Param("id") Long id,
+                                    Pageable pageable);
+
+    @Query("SELECT s FROM SensorData s WHERE s.parcelaId = :parcelaId AND s.fecha >= :desde AND s.fecha < :hasta " +
+           "AND (s.fecha < :fecha OR (s.fecha = :fecha AND s.id < :id)) ORDER BY s.fecha DESC, s.id DESC")
+    List<SensorData> findPageBeforeByParcelaId(@Param("parcelaId") String parcelaId,
+                                               @Param("desde") LocalDateTime desde,
+                                               @Param("hasta") LocalDateTime hasta,
+                                               @Param("fecha") LocalDateTime fecha,
+                                               @Param("id") Long id,
+                                               Pageable pageable);
+
+    // Cursores para exportación en streaming; requieren una transacción abierta mientras se consumen
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT s FROM SensorData s WHERE s.fecha >= :desde AND s.fecha < :hasta ORDER BY s.fecha ASC, s.id ASC")
+    Stream<SensorData> streamByFechaBetween(@Param("desde") LocalDateTime desde,
+                                            @Param("hasta") LocalDateTime hasta);
+
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT s FROM SensorData s WHERE s.parcelaId = :parcelaId AND s.fecha >= :desde AND s.fecha < :hasta " +
+           "ORDER BY s.fecha ASC, s.id ASC")
+    Stream<SensorData> streamByParcelaIdAndFechaBetween(@Param("parcelaId") String parcelaId,
+                                                        @Param("desde") LocalDateTime desde,
+                                                        @Param("hasta") LocalDateTime hasta);
+}
@@ -0,0 +1,11 @@
+package com.felipe.agroapp.repository;
+
+import com.felipe.agroapp.model.SensorData;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface SensorDataRepositoryCustom {
+
+    // Lecturas de la parcela con fecha en [fechaInicio, fechaFin], de la más reciente a la más antigua
+    List<SensorData> findByParcelaIdAndFechaBetween(String parcelaId, LocalDateTime fechaInicio, LocalDateTime fechaFin);
+}
@@ -0,0 +1,58 @@
+package com.felipe.agroapp.repository;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.service.SensorArchiveService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Misma consulta que antes sobre sensor_readings, más las lecturas del archivo frío del rango
+// cuando éste empieza antes de lo archivado.
+// Las que están a la vez en los dos sitios (archivado interrumpido antes del borrado) salen una vez.
+public class SensorDataRepositoryCustomImpl implements SensorDataRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    @Lazy
+    private SensorArchiveService archiveService;
+
+    @Override
+    public List<SensorData> findByParcelaIdAndFechaBetween(String parcelaId, LocalDateTime fechaInicio, LocalDateTime fechaFin) {
+        List<SensorData> result = entityManager.createQuery(
+                "SELECT s FROM SensorData s WHERE s.parcelaId = :parcelaId AND s.fecha >= :fechaInicio " +
+                "AND s.fecha <= :fechaFin ORDER BY s.fecha DESC", SensorData.class)
+            .setParameter("parcelaId", parcelaId)
+            .setParameter("fechaInicio", fechaInicio)
+            .setParameter("fechaFin", fechaFin)
+            .getResultList();
+
+        if (!archiveService.mayHold(fechaInicio)) {
+            return result;
+        }
+        List<SensorData> archivadas = archiveService.read(parcelaId, fechaInicio, fechaFin);
+        if (archivadas.isEmpty()) {
+            return result;
+        }
+        Set<Long> ids = new HashSet<>();
+        for (SensorData reading : result) {
+            ids.add(reading.getId());
+        }
+        List<SensorData> merged = new ArrayList<>(result);
+        for (SensorData reading : archivadas) {
+            if (!ids.contains(reading.getId())) {
+                merged.add(reading);
+            }
+        }
+        merged.sort(Comparator.comparing(SensorData::getFecha).reversed());
+        return merged;
+    }
+}
@@ -0,0 +1,13 @@
+package com.felipe.agroapp.repository;
+
+// Proyección de las consultas agregadas de SensorDataRepository: una fila por parcela, estado
+// y máscara de anomalías con conteo, suma, suma de cuadrados, mínimo y máximo de cada métrica.
+// Los mínimos y máximos son null cuando la métrica no tiene valores en el grupo.
+public record SensorStatsRow(
+    String parcelaId, String estado, Integer anomalias, Long lecturas,
+    Long humedadN, Double humedadSuma, Double humedadSumaCuadrados, Double humedadMin, Double humedadMax,
+    Long nitrogenoN, Double nitrogenoSuma, Double nitrogenoSumaCuadrados, Double nitrogenoMin, Double nitrogenoMax,
+    Long phN, Double phSuma, Double phSumaCuadrados, Double phMin, Double phMax,
+    Long temperaturaN, Double temperaturaSuma, Double temperaturaSumaCuadrados, Double temperaturaMin, Double temperaturaMax,
+    Long luminosidadN, Double luminosidadSuma, Double luminosidadSumaCuadrados, Double luminosidadMin, Double luminosidadMax) {
+}
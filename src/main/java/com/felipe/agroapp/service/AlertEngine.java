@@ -0,0 +1,600 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.AlertEvent;
+import com.felipe.agroapp.model.Parcela;
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.AlertEventRepository;
+import com.felipe.agroapp.service.ParcelaCache.Rango;
+import com.felipe.agroapp.service.ParcelaCache.Umbrales;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Alertas por umbral evaluadas al confirmar cada lote de lecturas, sin consultas a la base
+// de datos: las reglas de cada parcela (sus rangos óptimos de humedad, pH y nitrógeno más las
+// reglas de agroapp.alerts.rules) se compilan una vez y se rehacen cuando ParcelaCache se
+// invalida. Cada regla es una pequeña máquina de estados:
+//   NORMAL -> PENDIENTE  primera lectura fuera del umbral
+//   PENDIENTE -> ABIERTA si sigue fuera durante min-duration-minutes (si vuelve, a NORMAL)
+//   ABIERTA -> CERRANDO  cuando vuelve más allá del umbral con un margen de histéresis
+//   CERRANDO -> NORMAL   si se mantiene así durante clear-duration-minutes (si no, a ABIERTA)
+// Sólo las transiciones a ABIERTA y a NORMAL desde CERRANDO se guardan en alert_events.
+// La evaluación es O(reglas) por lectura y va serializada por parcela (lock de su estado): los
+// escritores concurrentes del pipeline no se adelantan en una misma parcela y sí avanzan en
+// parcelas distintas. Los eventos se encolan y los guarda el hilo alert-writer, fuera del
+// camino de ingesta; una cola llena descarta eventos (agroapp.alerts.dropped).
+@Component
+public class AlertEngine implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(AlertEngine.class.getName());
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    @Autowired
+    private AlertEventRepository alertEventRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.alerts.enabled:true}")
+    private boolean enabled;
+
+    // Margen de histéresis en % del ancho del rango óptimo (o del umbral en reglas propias)
+    @Value("${agroapp.alerts.hysteresis-percent:5}")
+    private double hysteresisPercent;
+
+    @Value("${agroapp.alerts.min-duration-minutes:15}")
+    private long minDurationMinutes;
+
+    @Value("${agroapp.alerts.clear-duration-minutes:15}")
+    private long clearDurationMinutes;
+
+    // "temperatura>35:CRITICO,Trigo/humedad<30": [parcela o cultivo/]métrica(<|>)umbral[:severidad]
+    @Value("${agroapp.alerts.rules:}")
+    private String rulesSpec;
+
+    @Value("${agroapp.alerts.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private static final int WRITE_BATCH = 500;
+    private static final long POLL_TIMEOUT_MS = 200;
+
+    private List<ReglaPropia> reglasPropias;
+    private final Map<String, ParcelaAlertas> parcelas = new ConcurrentHashMap<>();
+    private final AtomicInteger abiertas = new AtomicInteger();
+    private BlockingQueue<Pendiente> pendientes;
+    private TransactionTemplate transactionTemplate;
+    private Thread writer;
+    private volatile boolean running;
+
+    private Counter opened;
+    private Counter closed;
+    private Counter late;
+    private Counter dropped;
+
+    private enum Fase { NORMAL, PENDIENTE, ABIERTA, CERRANDO }
+
+    // Alerta abierta (fin == null) o ya cerrada
+    public record Alerta(Long id, String parcelaId, String regla, String metrica, String severidad, Double umbral,
+                         LocalDateTime inicio, LocalDateTime fin, Double peorValor) {
+    }
+
+    // mayor: salta cuando el valor supera el umbral; si no, cuando queda por debajo
+    private record Regla(String id, int metrica, boolean mayor, double umbral, double margen, String severidad) {
+
+        boolean viola(double valor) {
+            return mayor ? valor > umbral : valor < umbral;
+        }
+
+        boolean despejada(double valor) {
+            return mayor ? valor <= umbral - margen : valor >= umbral + margen;
+        }
+
+        boolean peor(double valor, double actual) {
+            return mayor ? valor > actual : valor < actual;
+        }
+
+        String metricaNombre() {
+            return SensorRollupService.METRICAS[metrica];
+        }
+    }
+
+    private record ReglaPropia(String ambito, int metrica, boolean mayor, double umbral, String severidad, String id) {
+    }
+
+    // Evento por guardar. Una apertura lleva su parcela y estado para anotarles el id; un cierre
+    // cuya apertura sigue en la cola lleva esa apertura (se guarda antes, en el mismo hilo).
+    private record Pendiente(AlertEvent evento, ParcelaAlertas parcela, EstadoRegla estado, AlertEvent apertura) {
+    }
+
+    private static final class EstadoRegla {
+        Fase fase = Fase.NORMAL;
+        LocalDateTime desde;
+        LocalDateTime inicio;
+        double peorValor;
+        Long aperturaId;
+        // Apertura aún sin guardar (su id llega al insertarla)
+        AlertEvent apertura;
+    }
+
+    // Reglas compiladas de una parcela y el estado de cada una, en el mismo orden
+    // Reglas compiladas para una generación de ParcelaCache
+    private record Reglas(long generation, Regla[] reglas) {
+    }
+
+    private static final class ParcelaAlertas {
+        volatile long generation = -1;
+        Regla[] reglas = new Regla[0];
+        EstadoRegla[] estados = new EstadoRegla[0];
+        LocalDateTime ultimaFecha;
+    }
+
+    @PostConstruct
+    public void init() {
+        reglasPropias = parseRules(rulesSpec);
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("agroapp.alerts.queue-capacity debe ser positivo");
+        }
+        pendientes = new LinkedBlockingQueue<>(queueCapacity);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        opened = Counter.builder("agroapp.alerts.events").tag("tipo", "abierta")
+            .description("Alertas abiertas por el motor de reglas")
+            .register(meterRegistry);
+        closed = Counter.builder("agroapp.alerts.events").tag("tipo", "cerrada")
+            .description("Alertas cerradas por el motor de reglas")
+            .register(meterRegistry);
+        late = Counter.builder("agroapp.alerts.late")
+            .description("Lecturas anteriores a la última evaluada de su parcela (no se evalúan)")
+            .register(meterRegistry);
+        dropped = Counter.builder("agroapp.alerts.dropped")
+            .description("Eventos de alerta descartados con la cola de escritura llena")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.alerts.open", abiertas, AtomicInteger::get)
+            .description("Alertas abiertas")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.alerts.queue", pendientes, BlockingQueue::size)
+            .description("Eventos de alerta pendientes de guardar")
+            .register(meterRegistry);
+        if (enabled) {
+            running = true;
+            writer = new Thread(this::runWriter, "alert-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!pendientes.isEmpty()) {
+            logger.warning("Motor de alertas detenido con " + pendientes.size() + " eventos sin guardar");
+        }
+    }
+
+    // Recupera las alertas que quedaron abiertas; las de reglas que ya no existen se cierran
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreOpenAlerts() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<AlertEvent> cerrar = new ArrayList<>();
+            List<AlertEvent> pendientes = alertEventRepository.findOpen();
+            for (AlertEvent apertura : pendientes) {
+                ParcelaAlertas p = parcelas.computeIfAbsent(apertura.getParcelaId(), id -> new ParcelaAlertas());
+                Reglas compiladas = compile(apertura.getParcelaId());
+                synchronized (p) {
+                    install(p, compiladas);
+                    int i = indexOf(p, apertura.getRegla());
+                    if (i < 0) {
+                        AlertEvent cierre = new AlertEvent(apertura.getParcelaId(), AlertEvent.CERRADA, apertura.getRegla(),
+                            apertura.getMetrica(), apertura.getSeveridad(), apertura.getUmbral(), null,
+                            apertura.getInicio(), LocalDateTime.now());
+                        cierre.setAperturaId(apertura.getId());
+                        cierre.setPeorValor(apertura.getValor());
+                        cerrar.add(cierre);
+                        continue;
+                    }
+                    EstadoRegla estado = p.estados[i];
+                    if (estado.fase != Fase.ABIERTA) {
+                        abiertas.incrementAndGet();
+                    }
+                    estado.fase = Fase.ABIERTA;
+                    estado.inicio = apertura.getInicio();
+                    estado.desde = apertura.getFecha();
+                    estado.peorValor = apertura.getValor() != null ? apertura.getValor() : p.reglas[i].umbral();
+                    estado.aperturaId = apertura.getId();
+                }
+            }
+            if (!cerrar.isEmpty()) {
+                alertEventRepository.saveAll(cerrar);
+            }
+            logger.info("Alertas: " + (pendientes.size() - cerrar.size()) + " abiertas recuperadas, " +
+                        cerrar.size() + " cerradas por regla inexistente");
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "No se pudieron recuperar las alertas abiertas", e);
+        }
+    }
+
+    // Como SensorHotStore: sólo se evalúa lo confirmado
+    @Override
+    public void committed(List<SensorData> readings) {
+        if (enabled) {
+            evaluate(new ArrayList<>(readings));
+        }
+    }
+
+    @Override
+    public boolean acceptsSimulated() {
+        return false;
+    }
+
+    // Alertas de la parcela abiertas ahora o cerradas desde la fecha indicada, más recientes primero
+    public List<Alerta> alertas(String parcelaId, LocalDateTime desde) {
+        List<Alerta> result = new ArrayList<>(abiertas(parcelaId));
+        for (AlertEvent cierre : alertEventRepository.findByParcelaIdAndTipoAndFechaGreaterThanEqualOrderByFechaDesc(
+                parcelaId, AlertEvent.CERRADA, desde)) {
+            result.add(new Alerta(cierre.getAperturaId(), parcelaId, cierre.getRegla(), cierre.getMetrica(),
+                cierre.getSeveridad(), cierre.getUmbral(), cierre.getInicio(), cierre.getFecha(), cierre.getPeorValor()));
+        }
+        return result;
+    }
+
+    // Alertas abiertas, de una parcela o de todas (parcelaId null), desde memoria
+    public List<Alerta> abiertas(String parcelaId) {
+        List<Alerta> result = new ArrayList<>();
+        parcelas.forEach((id, p) -> {
+            if (parcelaId != null && !parcelaId.equals(id)) {
+                return;
+            }
+            synchronized (p) {
+                for (int i = 0; i < p.reglas.length; i++) {
+                    EstadoRegla estado = p.estados[i];
+                    if (estado.fase == Fase.ABIERTA || estado.fase == Fase.CERRANDO) {
+                        Regla regla = p.reglas[i];
+                        result.add(new Alerta(estado.aperturaId, id, regla.id(), regla.metricaNombre(), regla.severidad(),
+                            regla.umbral(), estado.inicio, null, estado.peorValor));
+                    }
+                }
+            }
+        });
+        result.sort(Comparator.comparing(Alerta::inicio).reversed());
+        return result;
+    }
+
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        parcelas.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(prefijo)) {
+                return false;
+            }
+            ParcelaAlertas p = entry.getValue();
+            synchronized (p) {
+                for (EstadoRegla estado : p.estados) {
+                    if (estado.fase == Fase.ABIERTA || estado.fase == Fase.CERRANDO) {
+                        abiertas.decrementAndGet();
+                    }
+                }
+                // Una evaluación en curso sobre este estado ya no cuenta alertas
+                p.estados = new EstadoRegla[0];
+                p.reglas = new Regla[0];
+                p.generation = -1;
+            }
+            return true;
+        });
+    }
+
+    // Retención: alertas ya cerradas antes del corte (apertura y cierre)
+    @Override
+    public void removedBefore(String parcelaId, LocalDateTime corte) {
+        jdbcTemplate.update(
+            "DELETE FROM alert_events WHERE parcela_id = ? AND (id IN (SELECT apertura_id FROM alert_events " +
+            "WHERE parcela_id = ? AND tipo = 'CERRADA' AND fecha < ?) OR (tipo = 'CERRADA' AND fecha < ?))",
+            parcelaId, parcelaId, Timestamp.valueOf(corte), Timestamp.valueOf(corte));
+    }
+
+    private void evaluate(List<SensorData> batch) {
+        // En orden de fecha: la duración mínima se mide entre lecturas
+        batch.sort(Comparator.comparing(SensorData::getFecha));
+        Map<String, List<SensorData>> porParcela = new LinkedHashMap<>();
+        for (SensorData reading : batch) {
+            porParcela.computeIfAbsent(reading.getParcelaId(), id -> new ArrayList<>()).add(reading);
+        }
+        List<Pendiente> eventos = new ArrayList<>();
+        porParcela.forEach((parcelaId, lecturas) -> {
+            ParcelaAlertas p = parcelas.computeIfAbsent(parcelaId, id -> new ParcelaAlertas());
+            Reglas compiladas = p.generation != parcelaCache.generation() ? compile(parcelaId) : null;
+            synchronized (p) {
+                if (compiladas != null && p.generation != compiladas.generation()) {
+                    install(p, compiladas);
+                }
+                for (SensorData reading : lecturas) {
+                    if (p.ultimaFecha != null && reading.getFecha().isBefore(p.ultimaFecha)) {
+                        late.increment();
+                        continue;
+                    }
+                    p.ultimaFecha = reading.getFecha();
+                    for (int i = 0; i < p.reglas.length; i++) {
+                        double valor = valor(reading, p.reglas[i].metrica());
+                        if (valor == valor) {
+                            step(reading, p, p.reglas[i], p.estados[i], valor, eventos);
+                        }
+                    }
+                }
+            }
+        });
+        for (Pendiente pendiente : eventos) {
+            if (!pendientes.offer(pendiente)) {
+                dropped.increment();
+            }
+        }
+    }
+
+    private void step(SensorData reading, ParcelaAlertas p, Regla regla, EstadoRegla estado, double valor,
+                      List<Pendiente> eventos) {
+        LocalDateTime fecha = reading.getFecha();
+        switch (estado.fase) {
+            case NORMAL -> {
+                if (regla.viola(valor)) {
+                    estado.fase = Fase.PENDIENTE;
+                    estado.inicio = fecha;
+                    estado.peorValor = valor;
+                    open(reading, p, regla, estado, valor, eventos);
+                }
+            }
+            case PENDIENTE -> {
+                if (!regla.viola(valor)) {
+                    estado.fase = Fase.NORMAL;
+                } else {
+                    if (regla.peor(valor, estado.peorValor)) {
+                        estado.peorValor = valor;
+                    }
+                    open(reading, p, regla, estado, valor, eventos);
+                }
+            }
+            case ABIERTA -> {
+                if (regla.despejada(valor)) {
+                    estado.fase = Fase.CERRANDO;
+                    estado.desde = fecha;
+                    close(reading, regla, estado, valor, eventos);
+                } else if (regla.peor(valor, estado.peorValor)) {
+                    estado.peorValor = valor;
+                }
+            }
+            case CERRANDO -> {
+                if (regla.despejada(valor)) {
+                    close(reading, regla, estado, valor, eventos);
+                } else {
+                    // Dentro de la banda de histéresis o fuera otra vez: sigue abierta
+                    estado.fase = Fase.ABIERTA;
+                    if (regla.peor(valor, estado.peorValor)) {
+                        estado.peorValor = valor;
+                    }
+                }
+            }
+        }
+    }
+
+    // PENDIENTE -> ABIERTA si ya se cumplió la duración mínima
+    private void open(SensorData reading, ParcelaAlertas p, Regla regla, EstadoRegla estado, double valor,
+                      List<Pendiente> eventos) {
+        if (Duration.between(estado.inicio, reading.getFecha()).toMinutes() < minDurationMinutes) {
+            return;
+        }
+        estado.fase = Fase.ABIERTA;
+        estado.aperturaId = null;
+        estado.apertura = new AlertEvent(reading.getParcelaId(), AlertEvent.ABIERTA, regla.id(), regla.metricaNombre(),
+            regla.severidad(), regla.umbral(), valor, estado.inicio, reading.getFecha());
+        abiertas.incrementAndGet();
+        opened.increment();
+        eventos.add(new Pendiente(estado.apertura, p, estado, null));
+    }
+
+    // CERRANDO -> NORMAL si ya se cumplió la duración de despeje
+    private void close(SensorData reading, Regla regla, EstadoRegla estado, double valor, List<Pendiente> eventos) {
+        if (Duration.between(estado.desde, reading.getFecha()).toMinutes() < clearDurationMinutes) {
+            return;
+        }
+        estado.fase = Fase.NORMAL;
+        abiertas.decrementAndGet();
+        closed.increment();
+        AlertEvent cierre = new AlertEvent(reading.getParcelaId(), AlertEvent.CERRADA, regla.id(), regla.metricaNombre(),
+            regla.severidad(), regla.umbral(), valor, estado.inicio, reading.getFecha());
+        cierre.setAperturaId(estado.aperturaId);
+        cierre.setPeorValor(estado.peorValor);
+        // Si la apertura sigue en la cola, el escritor le pone su id al guardarla
+        AlertEvent apertura = estado.aperturaId == null ? estado.apertura : null;
+        estado.apertura = null;
+        eventos.add(new Pendiente(cierre, null, null, apertura));
+    }
+
+    // Hilo alert-writer: guarda los eventos en orden, en transacciones de hasta WRITE_BATCH
+    private void runWriter() {
+        List<Pendiente> lote = new ArrayList<>(WRITE_BATCH);
+        while (running || !pendientes.isEmpty()) {
+            try {
+                Pendiente first = pendientes.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                lote.add(first);
+                pendientes.drainTo(lote, WRITE_BATCH - 1);
+                persist(lote);
+                lote.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Una apertura y su cierre pueden ir en el mismo lote: se guardan en orden y el cierre
+    // toma el id de la apertura recién insertada
+    private void persist(List<Pendiente> lote) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (Pendiente pendiente : lote) {
+                    if (pendiente.apertura() != null) {
+                        pendiente.evento().setAperturaId(pendiente.apertura().getId());
+                    }
+                    alertEventRepository.save(pendiente.evento());
+                }
+            });
+        } catch (RuntimeException e) {
+            // La evaluación en memoria sigue; sólo se pierde el registro de estos eventos
+            logger.log(Level.WARNING, "No se pudieron guardar " + lote.size() + " eventos de alerta", e);
+            for (Pendiente pendiente : lote) {
+                // Su id no llegó a la base de datos: los cierres posteriores no deben usarlo
+                pendiente.evento().setId(null);
+            }
+        }
+        for (Pendiente pendiente : lote) {
+            if (pendiente.estado() == null) {
+                continue;
+            }
+            synchronized (pendiente.parcela()) {
+                if (pendiente.estado().apertura == pendiente.evento()) {
+                    pendiente.estado().aperturaId = pendiente.evento().getId();
+                    pendiente.estado().apertura = null;
+                }
+            }
+        }
+    }
+
+    // Reglas de la parcela: sus rangos óptimos (o los del cultivo) y las reglas propias que
+    // le aplican. Fuera del lock de la parcela: ParcelaCache puede ir a la base de datos.
+    private Reglas compile(String parcelaId) {
+        long generation = parcelaCache.generation();
+        Parcela parcela = parcelaCache.findById(parcelaId).orElse(null);
+        List<Regla> reglas = new ArrayList<>();
+        if (parcela != null) {
+            Umbrales umbrales = parcelaCache.umbrales(parcela);
+            addRango(reglas, "humedad", StatsAccumulator.HUMEDAD, umbrales.humedad());
+            addRango(reglas, "ph", StatsAccumulator.PH, umbrales.ph());
+            addRango(reglas, "nitrogeno", StatsAccumulator.NITROGENO, umbrales.nitrogeno());
+        }
+        for (ReglaPropia propia : reglasPropias) {
+            if (propia.ambito() == null || propia.ambito().equals(parcelaId) ||
+                (parcela != null && propia.ambito().equals(parcela.getTipoCultivo()))) {
+                double margen = Math.abs(propia.umbral()) * hysteresisPercent / 100.0;
+                reglas.add(new Regla(propia.id(), propia.metrica(), propia.mayor(), propia.umbral(), margen, propia.severidad()));
+            }
+        }
+        return new Reglas(generation, reglas.toArray(new Regla[0]));
+    }
+
+    // Bajo el lock de la parcela: conserva el estado de las reglas que siguen existiendo
+    private static void install(ParcelaAlertas p, Reglas compiladas) {
+        Regla[] reglas = compiladas.reglas();
+        EstadoRegla[] estados = new EstadoRegla[reglas.length];
+        for (int i = 0; i < estados.length; i++) {
+            int anterior = indexOf(p, reglas[i].id());
+            estados[i] = anterior >= 0 ? p.estados[anterior] : new EstadoRegla();
+        }
+        p.reglas = reglas;
+        p.estados = estados;
+        p.generation = compiladas.generation();
+    }
+
+    private void addRango(List<Regla> reglas, String nombre, int metrica, Rango rango) {
+        double margen = (rango.max() - rango.min()) * hysteresisPercent / 100.0;
+        reglas.add(new Regla(nombre + "-bajo", metrica, false, rango.min(), margen, "ALERTA"));
+        reglas.add(new Regla(nombre + "-alto", metrica, true, rango.max(), margen, "ALERTA"));
+    }
+
+    private static int indexOf(ParcelaAlertas p, String reglaId) {
+        for (int i = 0; i < p.reglas.length; i++) {
+            if (p.reglas[i].id().equals(reglaId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static double valor(SensorData reading, int metrica) {
+        Double value = switch (metrica) {
+            case StatsAccumulator.HUMEDAD -> reading.getHumedad();
+            case StatsAccumulator.NITROGENO -> reading.getNitrogeno();
+            case StatsAccumulator.PH -> reading.getPh();
+            case StatsAccumulator.TEMPERATURA -> reading.getTemperatura();
+            default -> reading.getLuminosidad();
+        };
+        return value == null ? Double.NaN : value;
+    }
+
+    private static List<ReglaPropia> parseRules(String spec) {
+        List<ReglaPropia> reglas = new ArrayList<>();
+        if (spec == null || spec.isBlank()) {
+            return reglas;
+        }
+        for (String entry : spec.split(",")) {
+            String texto = entry.trim();
+            String severidad = "ALERTA";
+            int dosPuntos = texto.lastIndexOf(':');
+            if (dosPuntos > 0) {
+                severidad = texto.substring(dosPuntos + 1).trim().toUpperCase();
+                texto = texto.substring(0, dosPuntos).trim();
+            }
+            String ambito = null;
+            int barra = texto.indexOf('/');
+            if (barra > 0) {
+                ambito = texto.substring(0, barra).trim();
+                texto = texto.substring(barra + 1).trim();
+            }
+            int op = Math.max(texto.indexOf('<'), texto.indexOf('>'));
+            int metrica = op > 0 ? List.of(SensorRollupService.METRICAS).indexOf(texto.substring(0, op).trim()) : -1;
+            if (metrica < 0 || !(severidad.equals("ALERTA") || severidad.equals("CRITICO"))) {
+                throw new IllegalArgumentException("Regla de alerta inválida: '" + entry.trim() + "'");
+            }
+            double umbral;
+            try {
+                umbral = Double.parseDouble(texto.substring(op + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Regla de alerta inválida: '" + entry.trim() + "'");
+            }
+            String id = (ambito != null ? ambito + "/" : "") + texto.replace(" ", "");
+            reglas.add(new ReglaPropia(ambito, metrica, texto.charAt(op) == '>', umbral, severidad, id));
+        }
+        return reglas;
+    }
+}
@@ -0,0 +1,345 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Detección de lecturas anómalas por parcela y métrica al ingerir, antes del insert: marca en
+// SensorData.anomalias los valores que las estadísticas deben descartar. Cada serie guarda una
+// media y una varianza exponenciales (vida media half-life-readings lecturas), el último valor
+// y cuántas veces seguidas se repitió: memoria constante y O(1) por valor, sin consultas.
+//  - Pico: |x - media| > z-threshold desviaciones. Un pico entra en la media recortado al
+//    umbral, así que un cambio de nivel real termina adoptándose y un pico aislado apenas mueve.
+//  - Congelado: el mismo valor exacto stuck-readings veces seguidas en una métrica que
+//    normalmente varía (no en luminosidad, que de noche se queda en 0). No actualiza la serie.
+// Una serie empieza a marcar tras warmup-readings valores, y vuelve a empezar si pasa más de
+// reset-gap-hours sin lecturas. Las lecturas tardías se evalúan pero no actualizan la serie.
+// Un lote se marca contra una copia de sus series y éstas sólo avanzan cuando la transacción
+// confirma: un lote deshecho y reintentado (duplicado, replay del WAL) se evalúa igual.
+@Component
+public class AnomalyDetector implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(AnomalyDetector.class.getName());
+
+    private static final String WARM_SQL =
+        "SELECT parcela_id, humedad, nitrogeno, ph, temperatura, luminosidad, fecha, anomalias " +
+        "FROM sensor_readings WHERE fecha >= ? ORDER BY fecha";
+
+    private static final boolean[] CONGELABLE = {true, true, true, true, false};
+    // Desviación mínima: resolución de los sensores (2 decimales) más un ruido relativo a la media,
+    // para que una serie casi constante no convierta cualquier centésima en un pico
+    private static final double SIGMA_MINIMA = 0.05;
+    private static final double SIGMA_RELATIVA = 0.005;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.anomalies.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.anomalies.z-threshold:4}")
+    private double zThreshold;
+
+    @Value("${agroapp.anomalies.half-life-readings:48}")
+    private double halfLifeReadings;
+
+    @Value("${agroapp.anomalies.warmup-readings:12}")
+    private int warmupReadings;
+
+    @Value("${agroapp.anomalies.stuck-readings:6}")
+    private int stuckReadings;
+
+    @Value("${agroapp.anomalies.reset-gap-hours:24}")
+    private int resetGapHours;
+
+    // Horas de historia con las que se cargan las series al arrancar
+    @Value("${agroapp.anomalies.warm-hours:48}")
+    private int warmHours;
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    // Cada borrado la incrementa: una carga que empezó antes se interrumpe
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong evaluadas = new AtomicLong();
+    private double alpha;
+    private long resetGapMicros;
+    private Counter picos;
+    private Counter congelados;
+
+    @PostConstruct
+    public void init() {
+        if (zThreshold <= 0 || halfLifeReadings <= 0 || warmupReadings < 1 || stuckReadings < 2) {
+            throw new IllegalArgumentException("Configuración de agroapp.anomalies inválida");
+        }
+        alpha = 1.0 - Math.pow(0.5, 1.0 / halfLifeReadings);
+        resetGapMicros = resetGapHours * 3_600_000_000L;
+        picos = Counter.builder("agroapp.anomalies.flagged").tag("tipo", "pico")
+            .description("Valores de sensor marcados como anómalos al ingerir")
+            .register(meterRegistry);
+        congelados = Counter.builder("agroapp.anomalies.flagged").tag("tipo", "congelado")
+            .description("Valores de sensor marcados como anómalos al ingerir")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.anomalies.series", series, Map::size)
+            .description("Parcelas con detector de anomalías en memoria")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::warm, "anomalies-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Fija SensorData.anomalias de cada lectura; se llama antes de insertarlas. No modifica
+    // las series: el lote avanza sobre copias que se descartan al terminar.
+    public void flag(Collection<SensorData> readings) {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Series> copias = new HashMap<>();
+        for (SensorData reading : readings) {
+            if (reading.getParcelaId() == null || reading.getFecha() == null ||
+                parcelaCache.isSimulated(reading.getParcelaId())) {
+                continue;
+            }
+            Series copia = copias.computeIfAbsent(reading.getParcelaId(), this::snapshot);
+            reading.setAnomalias(evaluate(copia, CompressedSeries.toMicros(reading.getFecha()), values(reading), 0, false));
+        }
+    }
+
+    // Las lecturas que la transacción llegó a insertar avanzan las series al confirmar;
+    // un rollback no deja rastro y el reintento parte del mismo estado
+    @Override
+    public void committed(List<SensorData> readings) {
+        if (enabled) {
+            apply(readings);
+        }
+    }
+
+    @Override
+    public boolean acceptsSimulated() {
+        return false;
+    }
+
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        generation.incrementAndGet();
+        series.keySet().removeIf(parcelaId -> parcelaId.startsWith(prefijo));
+    }
+
+    @Override
+    public void cleared() {
+        generation.incrementAndGet();
+        series.clear();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("series", series.size());
+        stats.put("lecturasEvaluadas", evaluadas.get());
+        stats.put("picos", (long) picos.count());
+        stats.put("congelados", (long) congelados.count());
+        return stats;
+    }
+
+    private void apply(List<SensorData> batch) {
+        for (SensorData reading : batch) {
+            if (reading.getParcelaId() == null || reading.getFecha() == null) {
+                continue;
+            }
+            Series s = series(reading.getParcelaId());
+            synchronized (s) {
+                evaluate(s, CompressedSeries.toMicros(reading.getFecha()), values(reading), 0, true);
+            }
+        }
+        evaluadas.addAndGet(batch.size());
+    }
+
+    private Series series(String parcelaId) {
+        Series s = series.get(parcelaId);
+        return s != null ? s : series.computeIfAbsent(parcelaId, id -> new Series());
+    }
+
+    // Las parcelas sin serie se evalúan sobre una vacía que no se registra hasta el commit
+    private Series snapshot(String parcelaId) {
+        Series s = series.get(parcelaId);
+        if (s == null) {
+            return new Series();
+        }
+        synchronized (s) {
+            return s.copy();
+        }
+    }
+
+    // conocidas: máscara ya persistida (carga inicial); esos valores no actualizan la serie.
+    // El llamante sincroniza sobre s si es una serie compartida.
+    private int evaluate(Series s, long fecha, double[] valores, int conocidas, boolean contar) {
+        int mask = 0;
+        boolean avanza = fecha > s.ultimaFecha;
+        if (avanza && s.ultimaFecha != Series.VACIA && fecha - s.ultimaFecha > resetGapMicros) {
+            s.reset();
+        }
+        for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+            double x = valores[m];
+            if (x != x || StatsAccumulator.isAnomaly(conocidas, m)) {
+                continue;
+            }
+            double media = s.media[m];
+            double sigma = Math.max(Math.sqrt(s.varianza[m]), SIGMA_MINIMA + SIGMA_RELATIVA * Math.abs(media));
+            boolean listo = s.muestras[m] >= warmupReadings;
+            boolean pico = listo && Math.abs(x - media) > zThreshold * sigma;
+            int repeticiones = s.muestras[m] > 0 && x == s.ultimo[m] ? s.repeticiones[m] + 1 : 0;
+            boolean congelado = avanza && listo && CONGELABLE[m] && repeticiones + 1 >= stuckReadings;
+            if (pico || congelado) {
+                mask |= 1 << m;
+                if (contar) {
+                    (pico ? picos : congelados).increment();
+                }
+            }
+            if (!avanza) {
+                continue;
+            }
+            s.ultimo[m] = x;
+            s.repeticiones[m] = repeticiones;
+            if (!congelado) {
+                double y = pico ? Math.max(media - zThreshold * sigma, Math.min(media + zThreshold * sigma, x)) : x;
+                s.update(m, y, alpha, warmupReadings);
+            }
+        }
+        if (avanza) {
+            s.ultimaFecha = fecha;
+        }
+        return mask;
+    }
+
+    // Carga las últimas warm-hours desde sensor_readings. Si una serie ya recibió lecturas en
+    // vivo, las filas anteriores llegan como tardías y no la modifican.
+    private void warm() {
+        long gen = generation.get();
+        try {
+            long start = System.currentTimeMillis();
+            long[] cargadas = {0};
+            double[] valores = new double[StatsAccumulator.METRICAS];
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(WARM_SQL);
+                ps.setFetchSize(1000);
+                ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minusHours(warmHours)));
+                return ps;
+            }, (ResultSet rs) -> {
+                if (generation.get() != gen) {
+                    return;
+                }
+                for (int m = 0; m < valores.length; m++) {
+                    valores[m] = getDouble(rs, m + 2);
+                }
+                if (parcelaCache.isSimulated(rs.getString(1))) {
+                    return;
+                }
+                Series s = series(rs.getString(1));
+                synchronized (s) {
+                    evaluate(s, CompressedSeries.toMicros(rs.getTimestamp(7).toLocalDateTime()),
+                        valores, rs.getInt(8), false);
+                }
+                cargadas[0]++;
+            });
+            logger.info("Detector de anomalías cargado: " + cargadas[0] + " lecturas de " + series.size() +
+                        " parcelas en " + (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "No se pudo cargar el detector de anomalías; las series empiezan vacías", e);
+        }
+    }
+
+    private static double[] values(SensorData reading) {
+        return new double[] {value(reading.getHumedad()), value(reading.getNitrogeno()), value(reading.getPh()),
+            value(reading.getTemperatura()), value(reading.getLuminosidad())};
+    }
+
+    private static double value(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static double getDouble(ResultSet rs, int index) throws SQLException {
+        double value = rs.getDouble(index);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+
+    // Estado de una parcela: unos 200 bytes, sin importar cuántas lecturas haya visto
+    private static final class Series {
+        static final long VACIA = Long.MIN_VALUE;
+
+        long ultimaFecha = VACIA;
+        final int[] muestras = new int[StatsAccumulator.METRICAS];
+        final double[] media = new double[StatsAccumulator.METRICAS];
+        final double[] varianza = new double[StatsAccumulator.METRICAS];
+        final double[] ultimo = new double[StatsAccumulator.METRICAS];
+        final int[] repeticiones = new int[StatsAccumulator.METRICAS];
+
+        // Mientras se calienta el peso es 1/n (media simple); después, alpha
+        void update(int m, double x, double alpha, int warmup) {
+            if (muestras[m] < warmup) {
+                muestras[m]++;
+            }
+            double a = Math.max(alpha, 1.0 / muestras[m]);
+            double delta = x - media[m];
+            media[m] += a * delta;
+            varianza[m] = (1 - a) * (varianza[m] + a * delta * delta);
+        }
+
+        Series copy() {
+            Series c = new Series();
+            c.ultimaFecha = ultimaFecha;
+            System.arraycopy(muestras, 0, c.muestras, 0, muestras.length);
+            System.arraycopy(media, 0, c.media, 0, media.length);
+            System.arraycopy(varianza, 0, c.varianza, 0, varianza.length);
+            System.arraycopy(ultimo, 0, c.ultimo, 0, ultimo.length);
+            System.arraycopy(repeticiones, 0, c.repeticiones, 0, repeticiones.length);
+            return c;
+        }
+
+        void reset() {
+            ultimaFecha = VACIA;
+            for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+                muestras[m] = 0;
+                media[m] = 0;
+                varianza[m] = 0;
+                repeticiones[m] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Listener TCP opcional (NIO, un hilo) para gateways con enlaces limitados.
+// Protocolo binario big-endian, una trama por mensaje:
+//   trama    = u32 longitud | u8 tipo | cuerpo
+//   DEFINE   (1) = u16 n | n x (u16 dictId | u8 len | parcelaId UTF-8)   diccionario propio de la conexión
+//   READINGS (2) = u16 n | n x (u16 dictId | i64 epochMillis | 5 x f32)  humedad, nitrogeno, ph, temperatura, luminosidad (NaN = sin dato)
+//   ACK (respuesta a cada trama) = u8 estado (0 OK, 1 BUSY, 2 ERROR) | u16 aceptadas (incluye duplicadas) | u16 rechazadas
+// Las lecturas decodificadas siguen el mismo camino que POST /api/sensors/ingest. El hilo del
+// selector solo decodifica: el envío (validación, deduplicación, cola) corre en un pool de
+// workers y el ACK vuelve por el selector. Cada conexión tiene como mucho un lote en curso, así
+// los ACK salen en el orden de las tramas y una conexión lenta no frena a las demás.
+// Cada lectura se decodifica a un SensorData como las de JSON (validación, WAL y escritura son
+// las mismas): el ahorro está en el enlace y en el parseo, no en los objetos por lectura.
+@Component
+public class BinaryIngestListener {
+    private static final Logger logger = Logger.getLogger(BinaryIngestListener.class.getName());
+
+    private static final byte TYPE_DEFINE = 1;
+    private static final byte TYPE_READINGS = 2;
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_BUSY = 1;
+    private static final byte STATUS_ERROR = 2;
+    private static final int RECORD_BYTES = 2 + 8 + 5 * 4;
+    private static final int ACK_BYTES = 5;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final int ACK_BUFFER_BYTES = 64 * ACK_BYTES;
+
+    @Autowired
+    private SensorIngestService sensorIngestService;
+
+    @Value("${agroapp.ingest.binary.enabled:false}")
+    private boolean enabled;
+
+    @Value("${agroapp.ingest.binary.port:9090}")
+    private int port;
+
+    @Value("${agroapp.ingest.binary.max-frame-bytes:4194304}")
+    private int maxFrameBytes;
+
+    @Value("${agroapp.ingest.binary.workers:2}")
+    private int workers;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private ExecutorService executor;
+    private final Queue<Completada> completadas = new ConcurrentLinkedQueue<>();
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger numero = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread worker = new Thread(r, "binary-ingest-worker-" + numero.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        running = true;
+        thread = new Thread(this::run, "binary-ingest");
+        thread.start();
+        logger.info("Listener binario de ingesta escuchando en el puerto " + port);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                for (Completada completada; (completada = completadas.poll()) != null; ) {
+                    try {
+                        complete(completada);
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Conexión binaria cerrada", e);
+                        close(completada.key());
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isWritable()) {
+                                flush(key);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Conexión binaria cerrada", e);
+                        close(key);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("Error en el listener binario: " + e.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(connection.in) < 0) {
+            close(key);
+            return;
+        }
+        processFrames(key, connection);
+    }
+
+    // Procesa las tramas completas del buffer de entrada; deja las parciales para la siguiente lectura
+    private void processFrames(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        in.flip();
+        while (!connection.enCurso && in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 1 || length > maxFrameBytes) {
+                throw new IOException("Longitud de trama inválida: " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                if (in.capacity() < 4 + length) {
+                    connection.in = grow(in, 4 + length);
+                    in = connection.in;
+                    in.flip();
+                }
+                break;
+            }
+            if (connection.out.remaining() < ACK_BYTES) {
+                // El cliente no lee los ACK: dejar de leer hasta vaciar la salida
+                key.interestOps(SelectionKey.OP_WRITE);
+                break;
+            }
+            int start = in.position() + 4;
+            handleFrame(key, connection, in, start, length);
+            in.position(start + length);
+        }
+        in.compact();
+        flush(key);
+    }
+
+    private void handleFrame(SelectionKey key, Connection connection, ByteBuffer in, int p, int length) {
+        byte type = in.get(p);
+        try {
+            if (type == TYPE_DEFINE) {
+                int count = define(connection, in, p + 1, p + length);
+                ack(connection, STATUS_OK, count, 0);
+            } else if (type == TYPE_READINGS) {
+                handleReadings(key, connection, in, p + 1, length - 1);
+            } else {
+                ack(connection, STATUS_ERROR, 0, 0);
+            }
+        } catch (RuntimeException e) {
+            logger.warning("Trama binaria rechazada: " + e.getMessage());
+            ack(connection, STATUS_ERROR, 0, 0);
+        }
+    }
+
+    private int define(Connection connection, ByteBuffer in, int p, int end) {
+        if (p + 2 > end) {
+            throw new IllegalArgumentException("Trama DEFINE sin número de entradas");
+        }
+        int count = Short.toUnsignedInt(in.getShort(p));
+        p += 2;
+        byte[] bytes = new byte[255];
+        for (int i = 0; i < count; i++) {
+            // Cabecera de la entrada antes de leerla: el buffer puede contener ya la trama siguiente
+            if (p + 3 > end) {
+                throw new IllegalArgumentException("Entrada DEFINE truncada");
+            }
+            int dictId = Short.toUnsignedInt(in.getShort(p));
+            int len = Byte.toUnsignedInt(in.get(p + 2));
+            if (p + 3 + len > end) {
+                throw new IllegalArgumentException("Entrada DEFINE truncada");
+            }
+            in.get(p + 3, bytes, 0, len);
+            connection.define(dictId, new String(bytes, 0, len, StandardCharsets.UTF_8));
+            p += 3 + len;
+        }
+        return count;
+    }
+
+    private void handleReadings(SelectionKey key, Connection connection, ByteBuffer in, int p, int length) {
+        if (length < 2) {
+            throw new IllegalArgumentException("Trama READINGS sin número de lecturas");
+        }
+        int count = Short.toUnsignedInt(in.getShort(p));
+        if (length != 2 + count * RECORD_BYTES) {
+            throw new IllegalArgumentException("Trama READINGS con longitud " + length + " para " + count + " lecturas");
+        }
+        p += 2;
+
+        List<SensorData> readings = new ArrayList<>(count);
+        int sinDiccionario = 0;
+        for (int i = 0; i < count; i++, p += RECORD_BYTES) {
+            String parcelaId = connection.lookup(Short.toUnsignedInt(in.getShort(p)));
+            if (parcelaId == null) {
+                sinDiccionario++;
+                continue;
+            }
+            LocalDateTime fecha = LocalDateTime.ofInstant(Instant.ofEpochMilli(in.getLong(p + 2)), zone);
+            readings.add(new SensorData(parcelaId,
+                value(in.getFloat(p + 10)), value(in.getFloat(p + 14)), value(in.getFloat(p + 18)),
+                value(in.getFloat(p + 22)), value(in.getFloat(p + 26)), fecha));
+        }
+
+        int rechazadas = sinDiccionario;
+        try {
+            executor.execute(() -> submit(key, readings, rechazadas));
+            connection.enCurso = true;
+        } catch (RejectedExecutionException e) {
+            // Solo durante el apagado
+            ack(connection, STATUS_BUSY, 0, rechazadas);
+        }
+    }
+
+    // En un worker: puede consultar la base de datos y esperar la cola sin parar el selector
+    private void submit(SelectionKey key, List<SensorData> readings, int sinDiccionario) {
+        Completada completada;
+        try {
+            SensorIngestService.SubmitResult result = sensorIngestService.submit(readings);
+            // Los duplicados ya están guardados: para el gateway cuentan como aceptados
+            completada = new Completada(key, result.queued() ? STATUS_OK : STATUS_BUSY,
+                result.accepted() + result.duplicates(), result.rejected() + sinDiccionario);
+        } catch (RuntimeException e) {
+            logger.warning("Trama binaria rechazada: " + e.getMessage());
+            completada = new Completada(key, STATUS_ERROR, 0, 0);
+        }
+        completadas.add(completada);
+        selector.wakeup();
+    }
+
+    // De vuelta en el selector: escribe el ACK del lote y reanuda las tramas pendientes
+    private void complete(Completada completada) throws IOException {
+        SelectionKey key = completada.key();
+        if (!key.isValid()) {
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        connection.enCurso = false;
+        ack(connection, completada.status(), completada.accepted(), completada.rejected());
+        flush(key);
+    }
+
+    private void ack(Connection connection, byte status, int accepted, int rejected) {
+        connection.out.put(status)
+            .putShort((short) Math.min(accepted, 0xFFFF))
+            .putShort((short) Math.min(rejected, 0xFFFF));
+    }
+
+    private void flush(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer out = connection.out;
+        out.flip();
+        ((SocketChannel) key.channel()).write(out);
+        boolean pending = out.hasRemaining();
+        out.compact();
+        if (pending) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else if (connection.enCurso) {
+            // Sin leer mientras el lote está en un worker: las tramas siguientes esperan en el socket
+            key.interestOps(0);
+        } else if (key.interestOps() != SelectionKey.OP_READ) {
+            key.interestOps(SelectionKey.OP_READ);
+            // Reanudar las tramas que quedaron en espera de espacio para ACK
+            if (connection.in.position() > 0) {
+                processFrames(key, connection);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error al cerrar la conexión binaria", e);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(minCapacity, buffer.capacity() * 2));
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    // Redondeo a la escala de las columnas NUMBER(x,2): evita arrastrar el ruido de f32
+    private static Double value(float raw) {
+        return Float.isNaN(raw) ? null : Math.round(raw * 100.0) / 100.0;
+    }
+
+    private record Completada(SelectionKey key, byte status, int accepted, int rejected) {
+    }
+
+    private static final class Connection {
+        boolean enCurso;
+        ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_BUFFER_BYTES);
+        final ByteBuffer out = ByteBuffer.allocateDirect(ACK_BUFFER_BYTES);
+        String[] dictionary = new String[16];
+
+        void define(int dictId, String parcelaId) {
+            if (dictId >= dictionary.length) {
+                dictionary = Arrays.copyOf(dictionary, Math.max(dictId + 1, dictionary.length * 2));
+            }
+            dictionary[dictId] = parcelaId;
+        }
+
+        String lookup(int dictId) {
+            return dictId < dictionary.length ? dictionary[dictId] : null;
+        }
+    }
+}
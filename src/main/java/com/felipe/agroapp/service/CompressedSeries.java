@@ -0,0 +1,558 @@
+package com.felipe.agroapp.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bloque comprimido con las lecturas de una parcela, al estilo Gorilla: fechas como
+// delta-of-delta y cada métrica (humedad, nitrogeno, ph, temperatura, luminosidad) como XOR
+// con el valor anterior. El estado va como "igual que el anterior" o código de 7 bits, la
+// máscara de anomalías igual con 5 bits (una por métrica) y el id (opcional) como
+// delta-of-delta. Los null se guardan como NaN. Los bloques sin FLAG_ANOMALIAS (escritos
+// antes de guardarla) se leen con máscara 0.
+//
+// Las métricas que en todo el bloque tienen pocos decimales exactos (los generadores y la
+// mayoría de sensores redondean a centésimas) se guardan en su lugar como enteros escalados
+// con delta zigzag: el XOR de dos valores con ruido en la segunda cifra decimal apenas comparte
+// bits de mantisa, mientras que su diferencia en centésimas cabe en 9-16 bits.
+//
+// Layout (big-endian): magic, flags, lecturas, unidad de fecha en micros, primera y última
+// fecha, decimales por métrica (-1 = XOR), diccionario de estados y los bits. Un bloque se lee
+// desde cualquier ByteBuffer (heap o un archivo mapeado) sin copiarlo y se recorre con un
+// Cursor, sin crear SensorData.
+public final class CompressedSeries {
+
+    static final int MAGIC = 0x47524C31; // "GRL1"
+    static final int METRICS = 5;
+    private static final byte FLAG_IDS = 1;
+    private static final byte FLAG_ANOMALIAS = 2;
+    private static final int MAX_ESTADOS = 128;
+    private static final int MAX_DECIMALS = 4;
+    private static final double[] POW10 = {1, 10, 100, 1000, 10000};
+    // Un NaN en una métrica escalada se guarda como este entero (las deltas envuelven en 64 bits)
+    private static final long NAN_SCALED = Long.MIN_VALUE;
+    // Bits de cada cubeta de los enteros zigzag; el prefijo unario elige la cubeta
+    private static final int[] BUCKET_BITS = {7, 9, 12, 16, 24, 32, 64};
+
+    private final ByteBuffer buffer;
+    private final boolean withIds;
+    private final boolean withAnomalias;
+    private final int count;
+    private final long unit;
+    private final long firstFecha;
+    private final long lastFecha;
+    private final int[] decimals = new int[METRICS];
+    private final String[] estados;
+    private final int bitsOffset;
+
+    private CompressedSeries(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("No es un bloque de serie comprimida");
+        }
+        ByteBuffer header = buffer.duplicate();
+        header.position(4);
+        byte flags = header.get();
+        withIds = (flags & FLAG_IDS) != 0;
+        withAnomalias = (flags & FLAG_ANOMALIAS) != 0;
+        count = header.getInt();
+        unit = header.getLong();
+        firstFecha = header.getLong();
+        lastFecha = header.getLong();
+        for (int m = 0; m < METRICS; m++) {
+            decimals[m] = header.get();
+        }
+        estados = new String[header.get() & 0xFF];
+        for (int i = 0; i < estados.length; i++) {
+            byte[] bytes = new byte[header.getShort() & 0xFFFF];
+            header.get(bytes);
+            estados[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int bitsLength = header.getInt();
+        bitsOffset = header.position();
+        if (bitsOffset + bitsLength > buffer.limit()) {
+            throw new IllegalArgumentException("Bloque de serie comprimida truncado");
+        }
+    }
+
+    // Envuelve el bloque que empieza en la posición actual del buffer y avanza hasta su final
+    public static CompressedSeries read(ByteBuffer source) {
+        ByteBuffer slice = source.slice();
+        CompressedSeries series = new CompressedSeries(slice);
+        int size = series.sizeBytes();
+        slice.limit(size);
+        source.position(source.position() + size);
+        return series;
+    }
+
+    public static Encoder encoder(long unitMicros, boolean withIds) {
+        return new Encoder(unitMicros, withIds, new int[] {-1, -1, -1, -1, -1});
+    }
+
+    // decimals por métrica, de decimalsFor(); -1 codifica la métrica con XOR
+    public static Encoder encoder(long unitMicros, boolean withIds, int[] decimals) {
+        return new Encoder(unitMicros, withIds, decimals);
+    }
+
+    // Menor número de decimales (hasta 4) con el que todos los valores se reconstruyen bit a bit
+    // desde un entero escalado, o -1 si no lo hay. Los NaN no cuentan.
+    public static int decimalsFor(double[] values, int from, int to) {
+        for (int d = 0; d <= MAX_DECIMALS; d++) {
+            if (fitsDecimals(values, from, to, d)) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean fitsDecimals(double[] values, int from, int to, int d) {
+        for (int i = from; i < to; i++) {
+            double v = values[i];
+            if (Double.isNaN(v)) {
+                continue;
+            }
+            if (Math.abs(v) * POW10[d] >= 1L << 52
+                || Double.doubleToLongBits(Math.round(v * POW10[d]) / POW10[d]) != Double.doubleToLongBits(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Mayor unidad (segundo, milisegundo o microsegundo) en la que todas las fechas son exactas
+    public static long unitFor(long[] fechas, int from, int to) {
+        long unit = 1_000_000L;
+        for (int i = from; i < to && unit > 1; i++) {
+            while (fechas[i] % unit != 0) {
+                unit /= 1000;
+            }
+        }
+        return unit;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long firstFecha() {
+        return firstFecha;
+    }
+
+    public long lastFecha() {
+        return lastFecha;
+    }
+
+    public boolean hasIds() {
+        return withIds;
+    }
+
+    public int decimals(int metric) {
+        return decimals[metric];
+    }
+
+    public int sizeBytes() {
+        return bitsOffset + buffer.getInt(bitsOffset - 4);
+    }
+
+    // Copia el bloque tal cual (p. ej. a un archivo del archivo frío)
+    public void writeTo(ByteBuffer target) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(0).limit(sizeBytes());
+        target.put(source);
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public static LocalDateTime toLocalDateTime(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+            (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+
+    public static long toMicros(LocalDateTime fecha) {
+        return fecha.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + fecha.getNano() / 1000;
+    }
+
+    // Recorrido secuencial; cada llamada a next() decodifica una lectura sobre los mismos campos
+    public final class Cursor {
+        private final BitReader bits = new BitReader(buffer, bitsOffset);
+        private final long[] valueBits = new long[METRICS];
+        private final int[] leading = new int[METRICS];
+        private final int[] trailing = new int[METRICS];
+        private final double[] values = new double[METRICS];
+        private int index;
+        private long fecha;
+        private long delta;
+        private long id;
+        private long idDelta;
+        private int estado = -1;
+        private int anomalias;
+
+        public boolean next() {
+            if (index == count) {
+                return false;
+            }
+            if (index == 0) {
+                fecha = firstFecha;
+            } else {
+                delta += unzigzag(readBucket(bits));
+                fecha += delta * unit;
+            }
+            if (withIds) {
+                idDelta += unzigzag(readBucket(bits));
+                id += idDelta;
+            }
+            for (int m = 0; m < METRICS; m++) {
+                values[m] = readValue(m);
+            }
+            if (index == 0 || bits.read(1) == 1) {
+                estado = (int) bits.read(7);
+            }
+            if (withAnomalias && (index == 0 || bits.read(1) == 1)) {
+                anomalias = (int) bits.read(METRICS);
+            }
+            index++;
+            return true;
+        }
+
+        public long fecha() {
+            return fecha;
+        }
+
+        public long id() {
+            return id;
+        }
+
+        // Orden de CompressedSeries: humedad, nitrogeno, ph, temperatura, luminosidad
+        public double value(int metric) {
+            return values[metric];
+        }
+
+        public Double valueOrNull(int metric) {
+            return Double.isNaN(values[metric]) ? null : values[metric];
+        }
+
+        public String estado() {
+            return estados[estado];
+        }
+
+        // Bit m = métrica m marcada como anómala
+        public int anomalias() {
+            return anomalias;
+        }
+
+        private double readValue(int m) {
+            if (decimals[m] >= 0) {
+                // valueBits guarda el entero escalado
+                valueBits[m] += unzigzag(readBucket(bits));
+                return valueBits[m] == NAN_SCALED ? Double.NaN : valueBits[m] / POW10[decimals[m]];
+            }
+            if (index == 0) {
+                valueBits[m] = bits.read(64);
+                leading[m] = -1;
+            } else if (bits.read(1) == 1) {
+                if (bits.read(1) == 1) {
+                    leading[m] = (int) bits.read(5);
+                    int meaningful = (int) bits.read(6) + 1;
+                    trailing[m] = 64 - leading[m] - meaningful;
+                }
+                int meaningful = 64 - leading[m] - trailing[m];
+                valueBits[m] ^= bits.read(meaningful) << trailing[m];
+            }
+            return Double.longBitsToDouble(valueBits[m]);
+        }
+    }
+
+    // Codificador incremental: las lecturas se añaden en orden de fecha y finish() arma el bloque
+    public static final class Encoder {
+        private final long unit;
+        private final boolean withIds;
+        private final int[] decimals;
+        private final BitWriter bits = new BitWriter();
+        private final long[] valueBits = new long[METRICS];
+        private final int[] leading = new int[METRICS];
+        private final int[] trailing = new int[METRICS];
+        private final Map<String, Integer> estadoCodes = new HashMap<>();
+        private final List<String> estados = new ArrayList<>();
+        private int count;
+        private long firstFecha;
+        private long fecha;
+        private long delta;
+        private long id;
+        private long idDelta;
+        private int estado = -1;
+        private int anomalias;
+
+        private Encoder(long unit, boolean withIds, int[] decimals) {
+            if (unit < 1) {
+                throw new IllegalArgumentException("Unidad de fecha inválida: " + unit);
+            }
+            if (decimals.length != METRICS) {
+                throw new IllegalArgumentException("Se esperan decimales para " + METRICS + " métricas");
+            }
+            for (int d : decimals) {
+                if (d < -1 || d > MAX_DECIMALS) {
+                    throw new IllegalArgumentException("Decimales fuera de rango: " + d);
+                }
+            }
+            this.unit = unit;
+            this.withIds = withIds;
+            this.decimals = decimals.clone();
+        }
+
+        // fecha en epoch micros, múltiplo de la unidad; métricas nulas como NaN
+        public void append(long fechaMicros, long readingId, double humedad, double nitrogeno, double ph,
+                           double temperatura, double luminosidad, String estadoName, int anomaliasMask) {
+            if (count > 0 && fechaMicros < fecha) {
+                throw new IllegalArgumentException("Las lecturas deben llegar ordenadas por fecha");
+            }
+            if (fechaMicros % unit != 0) {
+                throw new IllegalArgumentException("Fecha no múltiplo de la unidad del bloque: " + fechaMicros);
+            }
+            if (anomaliasMask < 0 || anomaliasMask >= 1 << METRICS) {
+                throw new IllegalArgumentException("Máscara de anomalías fuera de rango: " + anomaliasMask);
+            }
+            if (count == 0) {
+                firstFecha = fechaMicros;
+            } else {
+                long nuevoDelta = (fechaMicros - fecha) / unit;
+                writeBucket(bits, zigzag(nuevoDelta - delta));
+                delta = nuevoDelta;
+            }
+            fecha = fechaMicros;
+            if (withIds) {
+                long nuevoDelta = readingId - id;
+                writeBucket(bits, zigzag(nuevoDelta - idDelta));
+                idDelta = nuevoDelta;
+                id = readingId;
+            }
+            writeValue(0, humedad);
+            writeValue(1, nitrogeno);
+            writeValue(2, ph);
+            writeValue(3, temperatura);
+            writeValue(4, luminosidad);
+
+            int code = code(estadoName);
+            if (count == 0) {
+                bits.write(code, 7);
+            } else if (code == estado) {
+                bits.write(0, 1);
+            } else {
+                bits.write(1, 1);
+                bits.write(code, 7);
+            }
+            estado = code;
+            if (count == 0) {
+                bits.write(anomaliasMask, METRICS);
+            } else if (anomaliasMask == anomalias) {
+                bits.write(0, 1);
+            } else {
+                bits.write(1, 1);
+                bits.write(anomaliasMask, METRICS);
+            }
+            anomalias = anomaliasMask;
+            count++;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public int sizeBytes() {
+            return bits.sizeBytes();
+        }
+
+        public CompressedSeries finish() {
+            byte[][] nombres = new byte[estados.size()][];
+            int headerSize = 4 + 1 + 4 + 8 + 8 + 8 + METRICS + 1 + 4;
+            for (int i = 0; i < nombres.length; i++) {
+                nombres[i] = estados.get(i).getBytes(StandardCharsets.UTF_8);
+                headerSize += 2 + nombres[i].length;
+            }
+            byte[] payload = bits.toByteArray();
+            ByteBuffer out = ByteBuffer.allocate(headerSize + payload.length);
+            out.putInt(MAGIC);
+            out.put((byte) (FLAG_ANOMALIAS | (withIds ? FLAG_IDS : 0)));
+            out.putInt(count);
+            out.putLong(unit);
+            out.putLong(firstFecha);
+            out.putLong(fecha);
+            for (int d : decimals) {
+                out.put((byte) d);
+            }
+            out.put((byte) nombres.length);
+            for (byte[] nombre : nombres) {
+                out.putShort((short) nombre.length);
+                out.put(nombre);
+            }
+            out.putInt(payload.length);
+            out.put(payload);
+            out.flip();
+            return new CompressedSeries(out);
+        }
+
+        private void writeValue(int m, double value) {
+            if (decimals[m] >= 0) {
+                long scaled = Double.isNaN(value) ? NAN_SCALED : Math.round(value * POW10[decimals[m]]);
+                if (scaled != NAN_SCALED
+                    && Double.doubleToLongBits(scaled / POW10[decimals[m]]) != Double.doubleToLongBits(value)) {
+                    throw new IllegalArgumentException("Valor con más decimales que los del bloque: " + value);
+                }
+                writeBucket(bits, zigzag(scaled - valueBits[m]));
+                valueBits[m] = scaled;
+                return;
+            }
+            long raw = Double.doubleToLongBits(value);
+            if (count == 0) {
+                bits.write(raw, 64);
+                valueBits[m] = raw;
+                leading[m] = -1;
+                return;
+            }
+            long xor = raw ^ valueBits[m];
+            valueBits[m] = raw;
+            if (xor == 0) {
+                bits.write(0, 1);
+                return;
+            }
+            bits.write(1, 1);
+            int lz = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int tz = Long.numberOfTrailingZeros(xor);
+            if (leading[m] >= 0 && lz >= leading[m] && tz >= trailing[m]) {
+                // Los bits significativos caben en la ventana de la lectura anterior
+                bits.write(0, 1);
+                bits.write(xor >>> trailing[m], 64 - leading[m] - trailing[m]);
+                return;
+            }
+            int meaningful = 64 - lz - tz;
+            bits.write(1, 1);
+            bits.write(lz, 5);
+            bits.write(meaningful - 1, 6);
+            bits.write(xor >>> tz, meaningful);
+            leading[m] = lz;
+            trailing[m] = tz;
+        }
+
+        private int code(String estadoName) {
+            String nombre = estadoName == null || estadoName.trim().isEmpty() ? "NORMAL" : estadoName;
+            Integer code = estadoCodes.get(nombre);
+            if (code == null) {
+                if (estados.size() == MAX_ESTADOS) {
+                    throw new IllegalStateException("Demasiados estados distintos en un bloque");
+                }
+                code = estados.size();
+                estadoCodes.put(nombre, code);
+                estados.add(nombre);
+            }
+            return code;
+        }
+    }
+
+    // Entero zigzag en la cubeta más pequeña que lo contiene: "0" para cero y, si no,
+    // prefijo unario (10, 110, ...; la última sin 0 final) seguido de los bits de la cubeta
+    private static void writeBucket(BitWriter bits, long zz) {
+        if (zz == 0) {
+            bits.write(0, 1);
+            return;
+        }
+        for (int b = 0; b < BUCKET_BITS.length; b++) {
+            if (b == BUCKET_BITS.length - 1 || zz >>> BUCKET_BITS[b] == 0) {
+                bits.write(1, 1);
+                if (b < BUCKET_BITS.length - 1) {
+                    bits.write(0, 1);
+                }
+                bits.write(zz, BUCKET_BITS[b]);
+                return;
+            }
+            bits.write(1, 1);
+        }
+    }
+
+    private static long readBucket(BitReader bits) {
+        if (bits.read(1) == 0) {
+            return 0;
+        }
+        for (int b = 0; b < BUCKET_BITS.length - 1; b++) {
+            if (bits.read(1) == 0) {
+                return bits.read(BUCKET_BITS[b]);
+            }
+        }
+        return bits.read(BUCKET_BITS[BUCKET_BITS.length - 1]);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes = new byte[256];
+        private long bitCount;
+
+        // Escribe los n bits bajos de value, del más significativo al menos
+        void write(long value, int n) {
+            ensure(bitCount + n);
+            for (int i = n - 1; i >= 0; ) {
+                int pos = (int) (bitCount >>> 3);
+                int libres = 8 - (int) (bitCount & 7);
+                int tomar = Math.min(libres, i + 1);
+                int chunk = (int) ((value >>> (i + 1 - tomar)) & ((1 << tomar) - 1));
+                bytes[pos] |= (byte) (chunk << (libres - tomar));
+                bitCount += tomar;
+                i -= tomar;
+            }
+        }
+
+        int sizeBytes() {
+            return (int) ((bitCount + 7) >>> 3);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, sizeBytes());
+        }
+
+        private void ensure(long bits) {
+            int needed = (int) ((bits + 7) >>> 3);
+            if (needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+            }
+        }
+    }
+
+    // Lee con get(índice) absoluto: varios cursores pueden compartir el mismo buffer
+    private static final class BitReader {
+        private final ByteBuffer buffer;
+        private long bitPos;
+
+        BitReader(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.bitPos = (long) offset << 3;
+        }
+
+        long read(int n) {
+            long value = 0;
+            int remaining = n;
+            while (remaining > 0) {
+                int pos = (int) (bitPos >>> 3);
+                int disponibles = 8 - (int) (bitPos & 7);
+                int tomar = Math.min(disponibles, remaining);
+                int current = buffer.get(pos) & 0xFF;
+                int chunk = (current >>> (disponibles - tomar)) & ((1 << tomar) - 1);
+                value = (value << tomar) | chunk;
+                bitPos += tomar;
+                remaining -= tomar;
+            }
+            return value;
+        }
+    }
+}
@@ -4,39 +4,87 @@ import com.felipe.agroapp.model.Parcela;
 import com.felipe.agroapp.model.SensorData;
 import com.felipe.agroapp.repository.ParcelaRepository;
 import com.felipe.agroapp.repository.SensorDataRepository;
+import com.felipe.agroapp.service.ParcelaCache.Umbrales;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 @Service
 public class DataGeneratorService {
+    private static final Logger logger = Logger.getLogger(DataGeneratorService.class.getName());
+
+    private static final String INSERT_PARCELA_SQL =
+        "INSERT INTO parcelas (parcela_id, nombre, tipo_cultivo, area_hectareas, ubicacion, fecha_siembra, estado, " +
+        "humedad_optima_min, humedad_optima_max, ph_optimo_min, ph_optimo_max, nitrogeno_optimo_min, nitrogeno_optimo_max) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
     @Autowired
     private ParcelaRepository parcelaRepository;
 
+    @Autowired
+    private ParcelaCache parcelaCache;
+
     @Autowired
     private SensorDataRepository sensorDataRepository;
 
+    @Autowired
+    private SensorBatchWriter batchWriter;
+
+    @Autowired
+    private AnomalyDetector anomalyDetector;
+
+    @Autowired
+    private SensorRollupService rollupService;
+
+    @Autowired
+    private ReadingsEvents readingsEvents;
+
+    @Autowired
+    private SensorRetentionService retentionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private final Random random = new Random();
 
-    @Transactional
+    private volatile LoadRun loadRun;
+
     public void generateSampleData() {
-        // Limpiar datos existentes
-        sensorDataRepository.deleteAll();
-        parcelaRepository.deleteAll();
+        // Limpiar datos existentes por conjuntos (TRUNCATE / DELETE), no entidad a entidad
+        retentionService.resetAll();
 
         // Crear parcelas de muestra
         List<Parcela> parcelas = createSampleParcelas();
         parcelaRepository.saveAll(parcelas);
+        parcelaCache.invalidate();
 
         // Generar datos de sensores para cada parcela
+        List<SensorData> lecturas = new ArrayList<>();
         for (Parcela parcela : parcelas) {
-            generateSensorDataForParcela(parcela, 100); // 100 lecturas por parcela
+            generateSensorDataForParcela(parcela, 100, lecturas); // 100 lecturas por parcela
         }
+
+        // Por SensorBatchWriter: rollups y almacén en memoria se actualizan con el lote
+        batchWriter.write(lecturas);
     }
 
     private List<Parcela> createSampleParcelas() {
@@ -68,8 +116,9 @@ public class DataGeneratorService {
         return parcela;
     }
 
-    private void generateSensorDataForParcela(Parcela parcela, int numReadings) {
+    private void generateSensorDataForParcela(Parcela parcela, int numReadings, List<SensorData> lecturas) {
         LocalDateTime startDate = LocalDateTime.now().minusDays(30);
+        Umbrales umbrales = Umbrales.of(parcela);
         
         for (int i = 0; i < numReadings; i++) {
             LocalDateTime fecha = startDate.plusHours(i * 7 + random.nextInt(6)); // cada ~7 horas con variación
@@ -102,14 +151,14 @@ public class DataGeneratorService {
             luminosidad = Math.max(100.0, Math.min(1500.0, luminosidad));
             
             // Determinar estado basado en si los valores están en rango óptimo
-            String estado = determineStatus(parcela, humedad, ph, nitrogeno);
+            String estado = umbrales.estadoLectura(humedad, ph, nitrogeno);
             
             SensorData sensorData = new SensorData(
                 parcela.getParcelaId(), humedad, nitrogeno, ph, temperatura, luminosidad, fecha
             );
             sensorData.setEstado(estado);
             
-            sensorDataRepository.save(sensorData);
+            lecturas.add(sensorData);
         }
     }
 
@@ -140,28 +189,22 @@ public class DataGeneratorService {
         return Math.max(lowerBound, Math.min(upperBound, value));
     }
 
-    private String determineStatus(Parcela parcela, Double humedad, Double ph, Double nitrogeno) {
-        boolean humedadOk = humedad >= parcela.getHumedadOptimaMin() && humedad <= parcela.getHumedadOptimaMax();
-        boolean phOk = ph >= parcela.getPhOptimoMin() && ph <= parcela.getPhOptimoMax();
-        boolean nitrogenoOk = nitrogeno >= parcela.getNitrogenoOptimoMin() && nitrogeno <= parcela.getNitrogenoOptimoMax();
-        
-        int okCount = (humedadOk ? 1 : 0) + (phOk ? 1 : 0) + (nitrogenoOk ? 1 : 0);
-        
-        if (okCount == 3) return "NORMAL";
-        if (okCount >= 2) return "ALERTA";
-        return "CRITICO";
-    }
-
     public void addRecentReadings() {
         // Añadir algunas lecturas recientes para simular datos en tiempo real
-        List<Parcela> parcelas = parcelaRepository.findAll();
+        List<Parcela> parcelas = parcelaCache.findAll();
         LocalDateTime now = LocalDateTime.now();
+        List<SensorData> nuevas = new ArrayList<>();
         
         for (Parcela parcela : parcelas) {
             // Solo añadir 1-3 lecturas recientes
             int numReadings = random.nextInt(3) + 1;
+            Set<Integer> minutos = new HashSet<>();
             for (int i = 0; i < numReadings; i++) {
-                LocalDateTime fecha = now.minusMinutes(random.nextInt(180)); // últimas 3 horas
+                int minuto = random.nextInt(180);
+                if (!minutos.add(minuto)) {
+                    continue; // (parcela_id, fecha) es única
+                }
+                LocalDateTime fecha = now.minusMinutes(minuto); // últimas 3 horas
                 
                 Double humedad = generateRealisticValue(
                     parcela.getHumedadOptimaMin(), 
@@ -187,16 +230,25 @@ public class DataGeneratorService {
                 Double luminosidad = 700.0 + (random.nextGaussian() * 300.0);
                 luminosidad = Math.max(100.0, Math.min(1500.0, luminosidad));
                 
-                String estado = determineStatus(parcela, humedad, ph, nitrogeno);
+                String estado = parcelaCache.umbrales(parcela).estadoLectura(humedad, ph, nitrogeno);
                 
                 SensorData sensorData = new SensorData(
                     parcela.getParcelaId(), humedad, nitrogeno, ph, temperatura, luminosidad, fecha
                 );
                 sensorData.setEstado(estado);
-                
-                sensorDataRepository.save(sensorData);
+                nuevas.add(sensorData);
             }
         }
+
+        // El detector evalúa el lote entero en orden; las series avanzan al confirmar
+        anomalyDetector.flag(nuevas);
+        List<SensorData> guardadas = new ArrayList<>(nuevas.size());
+        for (SensorData sensorData : nuevas) {
+            guardadas.add(sensorDataRepository.save(sensorData));
+        }
+
+        rollupService.reconcileAfterCommit(now.minusMinutes(180));
+        readingsEvents.saved(guardadas);
     }
 
     private SensorData generateSensorData(Parcela parcela, LocalDateTime baseTime, int dayOffset, int readingIndex) {
@@ -244,24 +296,286 @@ public class DataGeneratorService {
         sensorData.setLuminosidad((double) Math.round(luminosidad));
         
         // Estado basado en condiciones
-        String estado = determineEstado(sensorData, parcela);
+        String estado = Umbrales.of(parcela).estadoLectura(sensorData.getHumedad(), sensorData.getPh(), sensorData.getNitrogeno());
         sensorData.setEstado(estado);
         
         return sensorData;
     }
 
-    private String determineEstado(SensorData sensorData, Parcela parcela) {
-        boolean humedadOk = sensorData.getHumedad() >= parcela.getHumedadOptimaMin() && 
-                           sensorData.getHumedad() <= parcela.getHumedadOptimaMax();
-        boolean phOk = sensorData.getPh() >= parcela.getPhOptimoMin() && 
-                      sensorData.getPh() <= parcela.getPhOptimoMax();
-        boolean nitrogenoOk = sensorData.getNitrogeno() >= parcela.getNitrogenoOptimoMin() && 
-                             sensorData.getNitrogeno() <= parcela.getNitrogenoOptimoMax();
-        
-        int okCount = (humedadOk ? 1 : 0) + (phOk ? 1 : 0) + (nitrogenoOk ? 1 : 0);
-        
-        if (okCount == 3) return "NORMAL";
-        if (okCount >= 2) return "ALERTA";
-        return "CRITICO";
+    // Modo de carga masiva: N parcelas x M lecturas con inserts JDBC por lotes en paralelo.
+    // Cada parcela recibe su propio SplittableRandom derivado de la semilla en orden,
+    // así el dataset es idéntico sea cual sea el número de hilos o su planificación.
+    public synchronized Map<String, Object> startLoadGeneration(LoadSpec spec) {
+        if (loadRun != null && loadRun.isRunning()) {
+            throw new IllegalStateException("Ya hay una generación de carga en curso");
+        }
+        spec.validate();
+        // Sus lecturas no deben abrir alertas ni mover tendencias o anomalías de parcelas reales
+        if (!parcelaCache.isSimulated(spec.prefix())) {
+            throw new IllegalArgumentException("prefix debe empezar por uno de agroapp.simulation.prefixes " +
+                                               parcelaCache.simulationPrefixes());
+        }
+        LoadRun run = new LoadRun(spec);
+        loadRun = run;
+        Thread thread = new Thread(() -> runLoadGeneration(run), "load-generator");
+        thread.setDaemon(true);
+        thread.start();
+        return run.status();
+    }
+
+    public Map<String, Object> getLoadStatus() {
+        LoadRun run = loadRun;
+        return run == null ? Map.of("state", "IDLE") : run.status();
+    }
+
+    private void runLoadGeneration(LoadRun run) {
+        LoadSpec spec = run.spec;
+        ExecutorService executor = Executors.newFixedThreadPool(spec.workers());
+        try {
+            if (spec.reset()) {
+                // Borrado por tramos: una sola sentencia no escala a decenas de millones
+                long borradas = retentionService.deleteParcelas(spec.prefix());
+                logger.info("Generación de carga: " + borradas + " lecturas previas eliminadas");
+            }
+
+            SplittableRandom root = new SplittableRandom(spec.seed());
+            List<Parcela> parcelas = new ArrayList<>(spec.parcelas());
+            List<SplittableRandom> randoms = new ArrayList<>(spec.parcelas());
+            for (int i = 0; i < spec.parcelas(); i++) {
+                SplittableRandom rng = root.split();
+                parcelas.add(createLoadParcela(spec, i, rng));
+                randoms.add(rng);
+            }
+            jdbcTemplate.batchUpdate(INSERT_PARCELA_SQL, parcelas, spec.batchSize(), (ps, parcela) -> {
+                ps.setString(1, parcela.getParcelaId());
+                ps.setString(2, parcela.getNombre());
+                ps.setString(3, parcela.getTipoCultivo());
+                ps.setDouble(4, parcela.getAreaHectareas());
+                ps.setString(5, parcela.getUbicacion());
+                ps.setTimestamp(6, Timestamp.valueOf(parcela.getFechaSiembra()));
+                ps.setString(7, parcela.getEstado());
+                ps.setDouble(8, parcela.getHumedadOptimaMin());
+                ps.setDouble(9, parcela.getHumedadOptimaMax());
+                ps.setDouble(10, parcela.getPhOptimoMin());
+                ps.setDouble(11, parcela.getPhOptimoMax());
+                ps.setDouble(12, parcela.getNitrogenoOptimoMin());
+                ps.setDouble(13, parcela.getNitrogenoOptimoMax());
+            });
+            parcelaCache.invalidate();
+
+            AtomicInteger siguiente = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < spec.workers(); w++) {
+                futures.add(executor.submit(() -> {
+                    List<SensorData> batch = new ArrayList<>(spec.batchSize());
+                    for (int i = siguiente.getAndIncrement(); i < parcelas.size(); i = siguiente.getAndIncrement()) {
+                        generateLoadReadings(spec, parcelas.get(i), randoms.get(i), batch, run);
+                        run.parcelasDone.incrementAndGet();
+                    }
+                    flushLoadBatch(batch, run);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            run.finish(null);
+            logger.info("Generación de carga completada: " + run.rowsWritten.get() + " lecturas en " +
+                        run.elapsedMillis() + " ms");
+        } catch (Exception e) {
+            Throwable causa = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            run.finish(causa.getMessage());
+            logger.severe("Generación de carga fallida: " + causa.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Parcela createLoadParcela(LoadSpec spec, int index, SplittableRandom rng) {
+        Parcela plantilla = createSampleParcelas().get(index % 5);
+        String id = String.format("%s%06d", spec.prefix(), index + 1);
+        double escala = 0.95 + rng.nextDouble() * 0.1; // óptimos ±5% respecto al cultivo
+        Parcela parcela = new Parcela(id, plantilla.getTipoCultivo() + " " + (index + 1), plantilla.getTipoCultivo(),
+                                      round(1.0 + rng.nextDouble() * 20.0), "Carga " + spec.prefix());
+        parcela.setFechaSiembra(spec.end().minusDays(30 + rng.nextInt(90)));
+        parcela.setHumedadOptimaMin(round(plantilla.getHumedadOptimaMin() * escala));
+        parcela.setHumedadOptimaMax(round(plantilla.getHumedadOptimaMax() * escala));
+        parcela.setPhOptimoMin(round(plantilla.getPhOptimoMin() * escala));
+        parcela.setPhOptimoMax(round(plantilla.getPhOptimoMax() * escala));
+        parcela.setNitrogenoOptimoMin(round(plantilla.getNitrogenoOptimoMin() * escala));
+        parcela.setNitrogenoOptimoMax(round(plantilla.getNitrogenoOptimoMax() * escala));
+        return parcela;
+    }
+
+    // Serie de una parcela: humedad, pH y nitrógeno como procesos AR(1) alrededor del
+    // óptimo más una deriva lineal; temperatura y luminosidad con ciclo diario. Las
+    // fallas simulan sensores caídos (null), picos y valores congelados.
+    private void generateLoadReadings(LoadSpec spec, Parcela parcela, SplittableRandom rng,
+                                      List<SensorData> batch, LoadRun run) {
+        double humedadOpt = (parcela.getHumedadOptimaMin() + parcela.getHumedadOptimaMax()) / 2.0;
+        double phOpt = (parcela.getPhOptimoMin() + parcela.getPhOptimoMax()) / 2.0;
+        double nitrogenoOpt = (parcela.getNitrogenoOptimoMin() + parcela.getNitrogenoOptimoMax()) / 2.0;
+        double humedadRango = parcela.getHumedadOptimaMax() - parcela.getHumedadOptimaMin();
+        double phRango = parcela.getPhOptimoMax() - parcela.getPhOptimoMin();
+        double nitrogenoRango = parcela.getNitrogenoOptimoMax() - parcela.getNitrogenoOptimoMin();
+        double diasPorLectura = spec.cadenceMinutes() / 1440.0;
+        Umbrales umbrales = Umbrales.of(parcela);
+        // La deriva va hacia abajo en humedad y nitrógeno (secado, consumo) y hacia arriba en pH
+        double deriva = spec.driftPerDay() * (0.5 + rng.nextDouble());
+
+        double humedad = 0, ph = 0, nitrogeno = 0;
+        SensorData anterior = null;
+        int congeladas = 0;
+        LocalDateTime inicio = spec.end().minusMinutes((long) (spec.readingsPerParcela() - 1) * spec.cadenceMinutes());
+        int jitterSegundos = spec.cadenceMinutes() * 30; // < media cadencia: las fechas siguen siendo únicas
+
+        for (int i = 0; i < spec.readingsPerParcela(); i++) {
+            LocalDateTime fecha = inicio.plusMinutes((long) i * spec.cadenceMinutes())
+                                        .plusSeconds(rng.nextInt(jitterSegundos + 1));
+            double dias = i * diasPorLectura;
+
+            humedad = 0.9 * humedad + rng.nextGaussian() * 0.1 * humedadRango;
+            ph = 0.9 * ph + rng.nextGaussian() * 0.05 * phRango;
+            nitrogeno = 0.9 * nitrogeno + rng.nextGaussian() * 0.1 * nitrogenoRango;
+            double hora = fecha.getHour() + fecha.getMinute() / 60.0;
+            double ciclo = Math.sin(2 * Math.PI * (hora - 9) / 24.0);
+            double sol = Math.max(0.0, Math.sin(Math.PI * (hora - 6) / 12.0));
+
+            SensorData reading;
+            if (congeladas > 0 && anterior != null) {
+                congeladas--;
+                reading = new SensorData(parcela.getParcelaId(), anterior.getHumedad(), anterior.getNitrogeno(),
+                    anterior.getPh(), anterior.getTemperatura(), anterior.getLuminosidad(), fecha);
+                reading.setEstado(anterior.getEstado());
+            } else {
+                double h = clamp(humedadOpt + humedad - deriva * humedadRango * dias, 0.0, 100.0);
+                double p = clamp(phOpt + ph + deriva * phRango * dias, 0.0, 14.0);
+                double n = clamp(nitrogenoOpt + nitrogeno - deriva * nitrogenoRango * dias, 0.0, 1000.0);
+                double t = clamp(22.0 + 7.0 * ciclo + rng.nextGaussian() * 1.5, -60.0, 70.0);
+                double l = clamp(1100.0 * sol + rng.nextGaussian() * 50.0, 0.0, 200000.0);
+                reading = new SensorData(parcela.getParcelaId(), round(h), round(n), round(p), round(t), round(l), fecha);
+                reading.setEstado(umbrales.estadoLectura(reading.getHumedad(), reading.getPh(), reading.getNitrogeno()));
+            }
+
+            if (spec.faultRate() > 0 && rng.nextDouble() < spec.faultRate()) {
+                switch (rng.nextInt(3)) {
+                    case 0 -> { // sensor caído: una magnitud sin dato
+                        switch (rng.nextInt(3)) {
+                            case 0 -> reading.setHumedad(null);
+                            case 1 -> reading.setPh(null);
+                            default -> reading.setNitrogeno(null);
+                        }
+                    }
+                    case 1 -> { // pico eléctrico
+                        reading.setHumedad(rng.nextBoolean() ? 0.0 : 100.0);
+                        reading.setTemperatura(round(rng.nextBoolean() ? -20.0 : 60.0));
+                        reading.setEstado("CRITICO");
+                    }
+                    default -> congeladas = 1 + rng.nextInt(12); // sensor congelado
+                }
+            }
+
+            batch.add(reading);
+            anterior = reading;
+            if (batch.size() >= spec.batchSize()) {
+                flushLoadBatch(batch, run);
+            }
+        }
+    }
+
+    private void flushLoadBatch(List<SensorData> batch, LoadRun run) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        run.rowsWritten.addAndGet(batchWriter.write(batch));
+        batch.clear();
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    // Parámetros del modo de carga; los ausentes toman el valor por defecto. Con la misma
+    // semilla y el mismo "end" se obtiene exactamente el mismo dataset.
+    public record LoadSpec(Integer parcelas, Integer readingsPerParcela, Integer cadenceMinutes,
+                           Double driftPerDay, Double faultRate, Long seed, Integer workers,
+                           Integer batchSize, String prefix, LocalDateTime end, Boolean reset) {
+
+        public LoadSpec {
+            parcelas = parcelas != null ? parcelas : 100;
+            readingsPerParcela = readingsPerParcela != null ? readingsPerParcela : 1000;
+            cadenceMinutes = cadenceMinutes != null ? cadenceMinutes : 15;
+            driftPerDay = driftPerDay != null ? driftPerDay : 0.01;
+            faultRate = faultRate != null ? faultRate : 0.001;
+            seed = seed != null ? seed : 42L;
+            workers = workers != null ? workers : Runtime.getRuntime().availableProcessors();
+            batchSize = batchSize != null ? batchSize : 5000;
+            prefix = prefix != null ? prefix : "LOAD-";
+            end = end != null ? end : LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+            reset = reset != null ? reset : true;
+        }
+
+        void validate() {
+            if (parcelas < 1 || parcelas > 1_000_000) throw new IllegalArgumentException("parcelas debe estar entre 1 y 1000000");
+            if (readingsPerParcela < 1) throw new IllegalArgumentException("readingsPerParcela debe ser positivo");
+            if ((long) parcelas * readingsPerParcela > 1_000_000_000L) throw new IllegalArgumentException("Máximo 1000 millones de lecturas por ejecución");
+            if (cadenceMinutes < 1) throw new IllegalArgumentException("cadenceMinutes debe ser al menos 1");
+            if (driftPerDay < 0 || driftPerDay > 1) throw new IllegalArgumentException("driftPerDay debe estar entre 0 y 1");
+            if (faultRate < 0 || faultRate > 1) throw new IllegalArgumentException("faultRate debe estar entre 0 y 1");
+            if (workers < 1 || workers > 64) throw new IllegalArgumentException("workers debe estar entre 1 y 64");
+            if (batchSize < 1 || batchSize > 50_000) throw new IllegalArgumentException("batchSize debe estar entre 1 y 50000");
+            if (!prefix.matches("[A-Za-z0-9-]{1,40}")) throw new IllegalArgumentException("prefix inválido: " + prefix);
+        }
+    }
+
+    private static final class LoadRun {
+        final LoadSpec spec;
+        final long startNanos = System.nanoTime();
+        final AtomicLong rowsWritten = new AtomicLong();
+        final AtomicInteger parcelasDone = new AtomicInteger();
+        private volatile long endNanos;
+        private volatile String state = "RUNNING";
+        private volatile String error;
+
+        LoadRun(LoadSpec spec) {
+            this.spec = spec;
+        }
+
+        boolean isRunning() {
+            return "RUNNING".equals(state);
+        }
+
+        void finish(String error) {
+            this.endNanos = System.nanoTime();
+            this.error = error;
+            this.state = error == null ? "COMPLETED" : "FAILED";
+        }
+
+        long elapsedMillis() {
+            return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1_000_000;
+        }
+
+        Map<String, Object> status() {
+            long total = (long) spec.parcelas() * spec.readingsPerParcela();
+            long rows = rowsWritten.get();
+            long elapsed = elapsedMillis();
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("state", state);
+            status.put("spec", spec);
+            status.put("totalRows", total);
+            status.put("rowsWritten", rows);
+            status.put("parcelasDone", parcelasDone.get());
+            status.put("progress", Math.round(rows * 1000.0 / total) / 10.0);
+            status.put("elapsedMs", elapsed);
+            status.put("rowsPerSecond", elapsed == 0 ? 0 : rows * 1000 / elapsed);
+            if (error != null) {
+                status.put("error", error);
+            }
+            return status;
+        }
     }
-} 
\ No newline at end of file
+}
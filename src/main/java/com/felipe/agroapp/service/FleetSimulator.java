@@ -0,0 +1,358 @@
+package com.felipe.agroapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.felipe.agroapp.model.Parcela;
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.ParcelaRepository;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// Simulador de una flota de sensores virtuales emitiendo a un ritmo agregado fijo.
+// Planificación en lazo abierto: las lecturas se generan según el reloj, no cuando
+// termina el envío anterior, y la latencia se mide desde el instante previsto de cada
+// lote. Si el servidor se frena, la latencia y el backlog crecen en vez de ocultarse.
+@Component
+public class FleetSimulator {
+    private static final Logger logger = Logger.getLogger(FleetSimulator.class.getName());
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final String[] PERCENTILE_LABELS = {"p50", "p95", "p99", "p99.9"};
+
+    @Autowired
+    private SensorIngestService sensorIngestService;
+
+    @Autowired
+    private ParcelaRepository parcelaRepository;
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private volatile SimulatorRun current;
+
+    public synchronized Map<String, Object> start(SimulatorSpec spec) {
+        if (current != null && current.isRunning()) {
+            throw new IllegalStateException("El simulador ya está en marcha");
+        }
+        spec.validate();
+        // Sólo parcelas sintéticas: la simulación no toca los datos ni las alertas de las reales
+        List<Parcela> parcelas = parcelaRepository.findAll().stream()
+            .filter(parcela -> parcelaCache.isSimulated(parcela.getParcelaId()))
+            .toList();
+        if (parcelas.isEmpty()) {
+            throw new IllegalStateException("No hay parcelas sintéticas: genere datos de carga primero");
+        }
+        SimulatorRun run = new SimulatorRun(spec, parcelas);
+        current = run;
+        run.scheduler.start();
+        logger.info("Simulador iniciado: " + spec.sensors() + " sensores a " + spec.rate() + " lecturas/s durante " +
+                    spec.durationSeconds() + " s (" + spec.transport() + ")");
+        return run.status();
+    }
+
+    public Map<String, Object> stop() {
+        SimulatorRun run = current;
+        if (run == null) {
+            return Map.of("state", "IDLE");
+        }
+        run.stopRequested = true;
+        try {
+            run.scheduler.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return run.status();
+    }
+
+    public Map<String, Object> status() {
+        SimulatorRun run = current;
+        return run == null ? Map.of("state", "IDLE") : run.status();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        SimulatorRun run = current;
+        if (run != null && run.isRunning()) {
+            stop();
+        }
+    }
+
+    // transport: "service" llama a SensorIngestService.submit en el mismo proceso;
+    // "http" envía JSON a POST /api/sensors/ingest e incluye la capa web en la medida.
+    public record SimulatorSpec(Integer sensors, Integer rate, Integer durationSeconds, Integer batchSize,
+                                Integer lingerMs, Integer senders, String transport, Long seed) {
+
+        public SimulatorSpec {
+            sensors = sensors != null ? sensors : 5000;
+            rate = rate != null ? rate : 20000;
+            durationSeconds = durationSeconds != null ? durationSeconds : 60;
+            batchSize = batchSize != null ? batchSize : 500;
+            lingerMs = lingerMs != null ? lingerMs : 100;
+            senders = senders != null ? senders : 4;
+            transport = transport != null ? transport : "service";
+            seed = seed != null ? seed : 42L;
+        }
+
+        void validate() {
+            if (sensors < 1 || sensors > 1_000_000) throw new IllegalArgumentException("sensors debe estar entre 1 y 1000000");
+            // Con más de 200k/s dos lecturas podrían caer en el mismo microsegundo
+            if (rate < 1 || rate > 200_000) throw new IllegalArgumentException("rate debe estar entre 1 y 200000 lecturas/s");
+            if (durationSeconds < 1 || durationSeconds > 86_400) throw new IllegalArgumentException("durationSeconds debe estar entre 1 y 86400");
+            if (batchSize < 1 || batchSize > 10_000) throw new IllegalArgumentException("batchSize debe estar entre 1 y 10000");
+            if (lingerMs < 0 || lingerMs > 60_000) throw new IllegalArgumentException("lingerMs debe estar entre 0 y 60000");
+            if (senders < 1 || senders > 256) throw new IllegalArgumentException("senders debe estar entre 1 y 256");
+            if (!"service".equals(transport) && !"http".equals(transport)) throw new IllegalArgumentException("transport debe ser service o http");
+        }
+    }
+
+    private final class SimulatorRun {
+        final SimulatorSpec spec;
+        final List<Parcela> parcelas;
+        final double[] humedad;
+        final double[] nitrogeno;
+        final double[] ph;
+        final Thread scheduler;
+        final ExecutorService senders;
+        final HttpClient httpClient;
+        final SplittableRandom rng;
+
+        // Latencias de esta ejecución: registro propio para que los percentiles no mezclen corridas
+        final Timer latency = Timer.builder("agroapp.simulator.latency")
+            .publishPercentiles(0.5, 0.95, 0.99, 0.999)
+            .distributionStatisticExpiry(Duration.ofDays(1))
+            .register(new SimpleMeterRegistry());
+
+        final AtomicLong scheduled = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong accepted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong missed = new AtomicLong();
+        final long maxBacklog;
+        final long startNanos = System.nanoTime();
+        final LocalDateTime startTime = LocalDateTime.now();
+        volatile long scheduleEndNanos;
+        volatile long endNanos;
+        volatile boolean stopRequested;
+        volatile String state = "RUNNING";
+
+        SimulatorRun(SimulatorSpec spec, List<Parcela> parcelas) {
+            this.spec = spec;
+            this.parcelas = parcelas;
+            this.rng = new SplittableRandom(spec.seed());
+            this.humedad = new double[spec.sensors()];
+            this.nitrogeno = new double[spec.sensors()];
+            this.ph = new double[spec.sensors()];
+            for (int s = 0; s < spec.sensors(); s++) {
+                Parcela parcela = parcelas.get(s % parcelas.size());
+                humedad[s] = (valor(parcela.getHumedadOptimaMin(), 40.0) + valor(parcela.getHumedadOptimaMax(), 70.0)) / 2;
+                nitrogeno[s] = (valor(parcela.getNitrogenoOptimoMin(), 100.0) + valor(parcela.getNitrogenoOptimoMax(), 160.0)) / 2;
+                ph[s] = (valor(parcela.getPhOptimoMin(), 6.0) + valor(parcela.getPhOptimoMax(), 7.0)) / 2;
+            }
+            // 10 s de lecturas pendientes como máximo
+            this.maxBacklog = spec.rate() * 10L;
+            this.senders = Executors.newFixedThreadPool(spec.senders());
+            // HTTP/1.1 explícito: el intento de upgrade h2c con POST concurrentes bloquea el cliente
+            this.httpClient = "http".equals(spec.transport())
+                ? HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build() : null;
+            this.scheduler = new Thread(this::schedule, "fleet-simulator");
+            this.scheduler.setDaemon(true);
+        }
+
+        boolean isRunning() {
+            return "RUNNING".equals(state) || "DRAINING".equals(state);
+        }
+
+        private void schedule() {
+            long durationNanos = TimeUnit.SECONDS.toNanos(spec.durationSeconds());
+            double nanosPerReading = 1_000_000_000.0 / spec.rate();
+            long lingerNanos = TimeUnit.MILLISECONDS.toNanos(spec.lingerMs());
+            long issued = 0;
+            int sensor = 0;
+            List<SensorData> pending = null;
+            long pendingDeadline = 0;
+            try {
+                while (!stopRequested) {
+                    long elapsed = System.nanoTime() - startNanos;
+                    if (elapsed >= durationNanos) {
+                        break;
+                    }
+                    // Lecturas que ya deberían haberse emitido según el reloj. Se agrupan como
+                    // lo haría un gateway: el lote sale al llenarse o al cumplirse lingerMs
+                    // desde su primera lectura, y ese es su instante previsto de envío.
+                    long due = (long) (elapsed / nanosPerReading);
+                    while (issued < due) {
+                        long intended = startNanos + (long) (issued * nanosPerReading);
+                        if (pending == null) {
+                            pending = new ArrayList<>(spec.batchSize());
+                            pendingDeadline = intended + lingerNanos;
+                        }
+                        pending.add(reading(sensor, issued, nanosPerReading));
+                        issued++;
+                        sensor = sensor + 1 == spec.sensors() ? 0 : sensor + 1;
+                        if (pending.size() >= spec.batchSize()) {
+                            dispatch(pending, intended);
+                            pending = null;
+                        }
+                    }
+                    long now = System.nanoTime();
+                    if (pending != null && now >= pendingDeadline) {
+                        dispatch(pending, pendingDeadline);
+                        pending = null;
+                    }
+                    long next = startNanos + (long) ((issued + 1) * nanosPerReading);
+                    long sleep = Math.min(TICK_NANOS, next - now);
+                    if (sleep > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    }
+                }
+                if (pending != null) {
+                    dispatch(pending, System.nanoTime());
+                }
+                scheduleEndNanos = System.nanoTime();
+                state = "DRAINING";
+                senders.shutdown();
+                senders.awaitTermination(30, TimeUnit.SECONDS);
+                state = stopRequested ? "STOPPED" : "COMPLETED";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                state = "STOPPED";
+            } finally {
+                senders.shutdownNow();
+                endNanos = System.nanoTime();
+                logger.info("Simulador finalizado: " + status());
+            }
+        }
+
+        private void dispatch(List<SensorData> batch, long intendedNanos) {
+            // Tope de memoria: lo que no cabe en el backlog se cuenta como perdido
+            if (scheduled.get() - completed.get() + batch.size() > maxBacklog) {
+                missed.addAndGet(batch.size());
+                return;
+            }
+            scheduled.addAndGet(batch.size());
+            senders.execute(() -> send(batch, intendedNanos));
+        }
+
+        // Paseo aleatorio por sensor; la fecha es el instante previsto, única por lectura
+        private SensorData reading(int sensor, long index, double nanosPerReading) {
+            humedad[sensor] = clamp(humedad[sensor] + rng.nextGaussian() * 0.3, 0.0, 100.0);
+            nitrogeno[sensor] = clamp(nitrogeno[sensor] + rng.nextGaussian() * 0.5, 0.0, 1000.0);
+            ph[sensor] = clamp(ph[sensor] + rng.nextGaussian() * 0.01, 0.0, 14.0);
+            long offsetMicros = (long) (index * nanosPerReading / 1000.0);
+            return new SensorData(parcelas.get(sensor % parcelas.size()).getParcelaId(),
+                round(humedad[sensor]), round(nitrogeno[sensor]), round(ph[sensor]),
+                round(22.0 + rng.nextGaussian() * 3.0), round(Math.max(0.0, 700.0 + rng.nextGaussian() * 200.0)),
+                startTime.plusNanos(offsetMicros * 1000));
+        }
+
+        private void send(List<SensorData> batch, long intendedNanos) {
+            try {
+                if (httpClient != null) {
+                    sendHttp(batch);
+                } else {
+                    SensorIngestService.SubmitResult result = sensorIngestService.submit(batch);
+                    if (result.queued()) {
+                        accepted.addAndGet(result.accepted());
+                        duplicates.addAndGet(result.duplicates());
+                        rejected.addAndGet(result.rejected());
+                    } else {
+                        rejected.addAndGet(batch.size());
+                    }
+                }
+            } catch (Exception e) {
+                errors.addAndGet(batch.size());
+            } finally {
+                latency.record(System.nanoTime() - intendedNanos, TimeUnit.NANOSECONDS);
+                completed.addAndGet(batch.size());
+            }
+        }
+
+        private void sendHttp(List<SensorData> batch) throws Exception {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + serverPort + "/api/sensors/ingest"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(batch)))
+                .build();
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 202) {
+                Map<?, ?> body = objectMapper.readValue(response.body(), Map.class);
+                accepted.addAndGet(((Number) body.get("accepted")).longValue());
+                duplicates.addAndGet(((Number) body.get("duplicates")).longValue());
+                rejected.addAndGet(((Number) body.get("rejected")).longValue());
+            } else if (response.statusCode() == 429) {
+                rejected.addAndGet(batch.size());
+            } else {
+                errors.addAndGet(batch.size());
+            }
+        }
+
+        Map<String, Object> status() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            double seconds = Math.max(1e-9, (end - startNanos) / 1e9);
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("state", state);
+            status.put("spec", spec);
+            status.put("elapsedSeconds", Math.round(seconds * 10.0) / 10.0);
+            status.put("targetRate", spec.rate());
+            long scheduleEnd = scheduleEndNanos != 0 ? scheduleEndNanos : end;
+            status.put("offeredRate", Math.round(scheduled.get() / Math.max(1e-9, (scheduleEnd - startNanos) / 1e9)));
+            status.put("achievedRate", Math.round(accepted.get() / seconds));
+            status.put("scheduled", scheduled.get());
+            status.put("accepted", accepted.get());
+            status.put("duplicates", duplicates.get());
+            status.put("rejected", rejected.get());
+            status.put("errors", errors.get());
+            status.put("missed", missed.get());
+            status.put("backlog", scheduled.get() - completed.get());
+
+            Map<String, Object> latencias = new LinkedHashMap<>();
+            ValueAtPercentile[] percentiles = latency.takeSnapshot().percentileValues();
+            for (int i = 0; i < percentiles.length && i < PERCENTILE_LABELS.length; i++) {
+                latencias.put(PERCENTILE_LABELS[i], Math.round(percentiles[i].value(TimeUnit.MILLISECONDS) * 100.0) / 100.0);
+            }
+            latencias.put("max", Math.round(latency.max(TimeUnit.MILLISECONDS) * 100.0) / 100.0);
+            status.put("latencyMs", latencias);
+            return status;
+        }
+    }
+
+    private static double valor(Double value, double porDefecto) {
+        return value != null ? value : porDefecto;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
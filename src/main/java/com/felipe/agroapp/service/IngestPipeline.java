@@ -0,0 +1,475 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Cola acotada entre los hilos HTTP y la base de datos. Los escritores agrupan
+// lecturas hasta commit-batch-size o commit-interval-ms y confirman cada grupo
+// en una sola transacción, así un commit lento de Oracle no bloquea Tomcat.
+// Con el WAL activo la cola es el propio log en disco: las lecturas se añaden al WAL
+// y un único hilo de replay lo drena en orden, reintentando mientras la base no responda.
+// En ese modo queue-capacity y workers no se usan: el orden del log (y su checkpoint único)
+// exige un solo escritor, y el límite de la cola es el tamaño del WAL.
+// Un lote que la base rechaza por sus datos se reparte en lecturas sueltas y las que siguen
+// fallando se apartan (agroapp.wal.quarantined.records); un error que no deja avanzar del
+// mismo LSN MAX_REPLAY_FAILURES veces seguidas detiene el replayer (STOPPED).
+@Component
+public class IngestPipeline {
+    private static final Logger logger = Logger.getLogger(IngestPipeline.class.getName());
+
+    private static final long POLL_TIMEOUT_MS = 250;
+    private static final int MAX_COMMIT_ATTEMPTS = 3;
+    private static final long MAX_REPLAY_BACKOFF_MS = 30_000;
+    private static final int MAX_REPLAY_FAILURES = 5;
+
+    @Autowired
+    private SensorBatchWriter batchWriter;
+
+    @Autowired
+    private WriteAheadLog writeAheadLog;
+
+    @Autowired
+    private ReadingDeduplicator deduplicator;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.ingest.pipeline.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Value("${agroapp.ingest.pipeline.workers:2}")
+    private int workers;
+
+    @Value("${agroapp.ingest.pipeline.commit-batch-size:2000}")
+    private int commitBatchSize;
+
+    @Value("${agroapp.ingest.pipeline.commit-interval-ms:200}")
+    private long commitIntervalMs;
+
+    @Value("${agroapp.ingest.pipeline.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    private BlockingQueue<SensorData> queue;
+    private final List<Thread> writerThreads = new ArrayList<>();
+    private volatile boolean running;
+    private volatile long walPendingRecords;
+    // El replayer vivo es lo único que vacía el WAL: sin él no se aceptan más envíos
+    private volatile boolean replayerAlive;
+    private volatile String replayerError;
+    private Exception replayerCause;
+
+    private Timer commitLatency;
+    private DistributionSummary commitSize;
+    private Counter rejectedSubmissions;
+    private Counter failedRows;
+    private Counter quarantinedRows;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Gauge.builder("agroapp.ingest.queue.depth", queue, BlockingQueue::size)
+            .description("Lecturas en cola pendientes de commit")
+            .register(meterRegistry);
+        commitLatency = Timer.builder("agroapp.ingest.commit.latency")
+            .description("Duración de cada commit agrupado")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        commitSize = DistributionSummary.builder("agroapp.ingest.commit.batch.size")
+            .description("Lecturas por commit agrupado")
+            .register(meterRegistry);
+        rejectedSubmissions = Counter.builder("agroapp.ingest.rejected.submissions")
+            .description("Envíos rechazados por cola llena (HTTP 429)")
+            .register(meterRegistry);
+        failedRows = Counter.builder("agroapp.ingest.failed.rows")
+            .description("Lecturas descartadas tras agotar los reintentos de commit")
+            .register(meterRegistry);
+
+        running = true;
+        if (writeAheadLog.isEnabled()) {
+            Gauge.builder("agroapp.wal.backlog.bytes", writeAheadLog, wal -> wal.getWriteLsn() - wal.getCheckpointLsn())
+                .description("Bytes del WAL pendientes de replay")
+                .register(meterRegistry);
+            quarantinedRows = Counter.builder("agroapp.wal.quarantined.records")
+                .description("Lecturas del WAL apartadas porque la base de datos rechaza sus valores")
+                .register(meterRegistry);
+            FunctionCounter.builder("agroapp.wal.corrupt.records", writeAheadLog, WriteAheadLog::getCorruptRecords)
+                .description("Registros del WAL descartados en el replay por CRC inválido o ilegibles")
+                .register(meterRegistry);
+            replayerAlive = true;
+            Thread thread = new Thread(this::runWalReplayer, "wal-replayer");
+            thread.start();
+            writerThreads.add(thread);
+            logger.info("Pipeline de ingesta iniciado sobre WAL (un escritor; queue-capacity y workers no " +
+                        "aplican): commit cada " + commitBatchSize + " lecturas o " + commitIntervalMs + " ms");
+            return;
+        }
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::runWriter, "ingest-writer-" + i);
+            thread.start();
+            writerThreads.add(thread);
+        }
+        logger.info("Pipeline de ingesta iniciado: cola=" + queueCapacity + ", escritores=" + workers +
+                    ", commit cada " + commitBatchSize + " lecturas o " + commitIntervalMs + " ms");
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread thread : writerThreads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queue.isEmpty()) {
+            logger.warning("Pipeline detenido con " + queue.size() + " lecturas sin confirmar");
+        }
+        if (writeAheadLog.isEnabled() && walPendingRecords > 0) {
+            logger.info("Pipeline detenido con " + walPendingRecords + " lecturas en el WAL, se aplicarán al reiniciar");
+        }
+    }
+
+    // Encola el lote completo o nada; los escritores sólo retiran elementos,
+    // así que la capacidad libre comprobada aquí no puede disminuir.
+    public synchronized boolean submit(List<SensorData> readings) {
+        if (readings.isEmpty()) {
+            return true;
+        }
+        if (writeAheadLog.isEnabled()) {
+            if (running && replayerAlive && writeAheadLog.append(readings)) {
+                return true;
+            }
+            rejectedSubmissions.increment();
+            return false;
+        }
+        if (!running || queue.remainingCapacity() < readings.size()) {
+            rejectedSubmissions.increment();
+            return false;
+        }
+        queue.addAll(readings);
+        return true;
+    }
+
+    public int queueDepth() {
+        if (writeAheadLog.isEnabled()) {
+            return (int) Math.min(Integer.MAX_VALUE, walPendingRecords + writeAheadLog.getRecordsAppended());
+        }
+        return queue.size();
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queueDepth());
+        if (writeAheadLog.isEnabled()) {
+            stats.put("mode", "wal");
+            stats.put("walSegments", writeAheadLog.segmentCount());
+            stats.put("walBacklogBytes", writeAheadLog.getWriteLsn() - writeAheadLog.getCheckpointLsn());
+            stats.put("walCheckpointLsn", writeAheadLog.getCheckpointLsn());
+            stats.put("walReplayer", !replayerAlive ? "STOPPED" : replayerError != null ? "RETRYING" : "RUNNING");
+            if (replayerError != null) {
+                stats.put("walReplayerError", replayerError);
+            }
+            stats.put("walCorruptRecords", writeAheadLog.getCorruptRecords());
+            stats.put("walQuarantinedRecords", Math.round(quarantinedRows.count()));
+        } else {
+            stats.put("mode", "memory");
+            stats.put("queueCapacity", queueCapacity);
+            stats.put("workers", workers);
+        }
+        stats.put("commits", commitLatency.count());
+        stats.put("rowsCommitted", Math.round(commitSize.totalAmount()));
+        stats.put("avgCommitBatchSize", Math.round(commitSize.mean() * 10.0) / 10.0);
+        stats.put("maxCommitBatchSize", Math.round(commitSize.max()));
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("avg", round(commitLatency.mean(TimeUnit.MILLISECONDS)));
+        for (ValueAtPercentile p : commitLatency.takeSnapshot().percentileValues()) {
+            latency.put("p" + Math.round(p.percentile() * 100), round(p.value(TimeUnit.MILLISECONDS)));
+        }
+        latency.put("max", round(commitLatency.max(TimeUnit.MILLISECONDS)));
+        stats.put("commitLatencyMs", latency);
+
+        stats.put("rejectedSubmissions", Math.round(rejectedSubmissions.count()));
+        stats.put("failedRows", Math.round(failedRows.count()));
+        return stats;
+    }
+
+    private void runWriter() {
+        while (running || !queue.isEmpty()) {
+            try {
+                SensorData first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<SensorData> batch = new ArrayList<>(commitBatchSize);
+                batch.add(first);
+
+                // Group commit: esperar hasta llenar el lote o agotar el intervalo
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitIntervalMs);
+                while (batch.size() < commitBatchSize) {
+                    queue.drainTo(batch, commitBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= commitBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    SensorData next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Drena el WAL en orden desde el checkpoint guardado en la base de datos. Un fallo
+    // inesperado se reintenta como uno de escritura; si aun así el hilo termina fuera del
+    // apagado, submit deja de aceptar envíos y stats lo muestra como STOPPED.
+    private void runWalReplayer() {
+        try {
+            replayWal();
+        } catch (RuntimeException e) {
+            replayerError = e.getMessage();
+            throw e;
+        } finally {
+            if (running) {
+                replayerAlive = false;
+                logger.severe("El replayer del WAL terminó: se rechazan los envíos hasta reiniciar");
+            }
+        }
+    }
+
+    private void replayWal() {
+        long lsn = resolveCheckpoint();
+        if (lsn < 0) {
+            return;
+        }
+        walPendingRecords = writeAheadLog.countRecords(lsn) - writeAheadLog.getRecordsAppended();
+
+        List<SensorData> batch = new ArrayList<>(commitBatchSize);
+        List<SensorData> leidas = new ArrayList<>(commitBatchSize);
+        long readLsn = lsn;
+        long batchStart = 0;
+        long backoff = 500;
+        // Fallos seguidos sin avanzar el checkpoint: los de escritura del lote actual y los demás
+        int fallosEscritura = 0;
+        int fallos = 0;
+        while (running || readLsn < writeAheadLog.getWriteLsn() || !batch.isEmpty()) {
+            try {
+                if (batch.size() < commitBatchSize) {
+                    // A una lista aparte: si read falla a medias, el lote no se queda con medio tramo
+                    long corruptas = writeAheadLog.getCorruptRecords();
+                    leidas.clear();
+                    readLsn = writeAheadLog.read(readLsn, commitBatchSize - batch.size(), leidas);
+                    batch.addAll(leidas);
+                    walPendingRecords -= writeAheadLog.getCorruptRecords() - corruptas;
+                }
+                if (batch.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    replayerError = null;
+                    Thread.sleep(Math.min(POLL_TIMEOUT_MS, commitIntervalMs));
+                    continue;
+                }
+                if (batchStart == 0) {
+                    batchStart = System.nanoTime();
+                }
+                long waited = System.nanoTime() - batchStart;
+                if (running && batch.size() < commitBatchSize && waited < TimeUnit.MILLISECONDS.toNanos(commitIntervalMs)) {
+                    Thread.sleep(Math.max(1, commitIntervalMs / 10));
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    if (fallosEscritura >= MAX_COMMIT_ATTEMPTS && isDataError(replayerCause)) {
+                        writeIsolatingRejected(batch, readLsn);
+                    } else {
+                        write(batch, writeAheadLog.getLogId(), readLsn);
+                    }
+                } catch (Exception e) {
+                    // Los datos siguen en disco: reintentar sin descartar. Una base caída se
+                    // espera sin límite; un lote con datos que rechaza se aísla al tercer intento
+                    fallosEscritura++;
+                    replayerCause = e;
+                    replayerError = "LSN " + readLsn + ": " + e.getMessage();
+                    logger.warning("Replay del WAL fallido, reintento en " + backoff + " ms: " + e.getMessage());
+                    if (!running) {
+                        return;
+                    }
+                    Thread.sleep(backoff);
+                    backoff = Math.min(MAX_REPLAY_BACKOFF_MS, backoff * 2);
+                    continue;
+                }
+                commitLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                commitSize.record(batch.size());
+                writeAheadLog.checkpoint(readLsn);
+                walPendingRecords -= batch.size();
+                batch = new ArrayList<>(commitBatchSize);
+                batchStart = 0;
+                backoff = 500;
+                fallosEscritura = 0;
+                fallos = 0;
+                replayerError = null;
+                replayerCause = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                replayerError = "LSN " + readLsn + ": " + e.getMessage();
+                if (++fallos >= MAX_REPLAY_FAILURES) {
+                    // Lo que no se puede leer no tiene límites de registro fiables para saltarlo
+                    logger.severe("El replay del WAL no avanza de LSN " + readLsn + " tras " + fallos +
+                                  " intentos: " + e.getMessage());
+                    throw e;
+                }
+                logger.severe("Error en el replay del WAL en LSN " + readLsn + ", reintento en " + backoff +
+                              " ms: " + e.getMessage());
+                if (!running) {
+                    return;
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(MAX_REPLAY_BACKOFF_MS, backoff * 2);
+            }
+        }
+    }
+
+    // Reparte el lote en escrituras de una lectura: las que la base sigue rechazando se apartan
+    // y el checkpoint avanza al final del lote. Si el proceso cae a mitad, el replay repite
+    // el lote y la restricción única descarta lo ya escrito.
+    private void writeIsolatingRejected(List<SensorData> batch, long lsn) {
+        int apartadas = 0;
+        for (SensorData reading : batch) {
+            try {
+                write(List.of(reading), null, 0);
+            } catch (DataIntegrityViolationException e) {
+                apartadas++;
+                logger.severe("Lectura del WAL apartada, la base de datos rechaza sus valores: parcela=" +
+                              reading.getParcelaId() + " fecha=" + reading.getFecha() + " humedad=" +
+                              reading.getHumedad() + " nitrogeno=" + reading.getNitrogeno() + " ph=" + reading.getPh() +
+                              " temperatura=" + reading.getTemperatura() + " luminosidad=" + reading.getLuminosidad() +
+                              " estado=" + reading.getEstado() + " (" + e.getMostSpecificCause().getMessage() + ")");
+            }
+        }
+        batchWriter.write(List.of(), writeAheadLog.getLogId(), lsn);
+        quarantinedRows.increment(apartadas);
+        if (apartadas > 0) {
+            logger.warning("Lote del WAL hasta LSN " + lsn + " aplicado sin " + apartadas + " lecturas rechazadas");
+        }
+    }
+
+    // Errores de los propios valores (restricciones, tipos): repetirlos no los arregla
+    private static boolean isDataError(Exception e) {
+        return e instanceof DataIntegrityViolationException;
+    }
+
+    private long resolveCheckpoint() {
+        long backoff = 500;
+        while (running) {
+            try {
+                // Manda el checkpoint de la base de datos: se confirma junto con las filas,
+                // el fichero local sólo sirve para liberar segmentos
+                long lsn = batchWriter.readCheckpoint(writeAheadLog.getLogId());
+                if (lsn < writeAheadLog.getFirstLsn()) {
+                    logger.warning("Checkpoint " + lsn + " anterior al primer segmento del WAL, se replaya desde " +
+                                   writeAheadLog.getFirstLsn());
+                    lsn = writeAheadLog.getFirstLsn();
+                }
+                writeAheadLog.ensureWriteAfter(lsn);
+                writeAheadLog.checkpoint(lsn);
+                logger.info("Replay del WAL desde LSN " + lsn);
+                return lsn;
+            } catch (Exception e) {
+                logger.warning("Base de datos no disponible para leer el checkpoint del WAL: " + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+                backoff = Math.min(MAX_REPLAY_BACKOFF_MS, backoff * 2);
+            }
+        }
+        return -1;
+    }
+
+    private void commit(List<SensorData> batch) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                write(batch, null, 0);
+                commitLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                commitSize.record(batch.size());
+                return;
+            } catch (Exception e) {
+                if (attempt >= MAX_COMMIT_ATTEMPTS) {
+                    // El reenvío del gateway no debe tomarse por duplicado de lo que no se escribió
+                    deduplicator.forget(batch);
+                    failedRows.increment(batch.size());
+                    logger.severe("Se descartan " + batch.size() + " lecturas tras " + attempt +
+                                  " intentos de commit: " + e.getMessage());
+                    return;
+                }
+                logger.warning("Commit fallido (intento " + attempt + "), reintentando: " + e.getMessage());
+                Thread.sleep(500L * attempt);
+            }
+        }
+    }
+
+    // La restricción única (parcela_id, fecha) arbitra los duplicados que el deduplicador no
+    // pudo descartar en memoria. Los que marcó como posibles ya van al insert condicional; si
+    // aun así choca una clave que el filtro no conocía, se repite el lote omitiéndolos.
+    private void write(List<SensorData> batch, String logId, long lsn) {
+        int written;
+        try {
+            written = logId == null ? batchWriter.write(batch) : batchWriter.write(batch, logId, lsn);
+        } catch (DuplicateKeyException e) {
+            written = logId == null
+                ? batchWriter.writeSkippingDuplicates(batch)
+                : batchWriter.writeSkippingDuplicates(batch, logId, lsn);
+        }
+        deduplicator.recordDatabaseDuplicates(batch.size() - written);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,39 @@
+package com.felipe.agroapp.service;
+
+import java.util.concurrent.CompletableFuture;
+
+// Proveedor de texto para los insights (OpenAI o el stub local). Las llamadas no bloquean: el
+// resultado llega en el CompletableFuture y LlmClient le pone tiempo máximo, reintentos y
+// circuito. Un fallo se entrega como ProviderException dentro del futuro.
+public interface InsightProvider {
+
+    record ChatRequest(String modelo, String systemPrompt, String userPrompt, int maxTokens, double temperature) {
+    }
+
+    // retryable: vale la pena repetir (timeout, 429, 5xx); un 400 o un 401 no
+    class ProviderException extends RuntimeException {
+        private final boolean retryable;
+
+        public ProviderException(String message, boolean retryable) {
+            super(message);
+            this.retryable = retryable;
+        }
+
+        public ProviderException(String message, Throwable cause, boolean retryable) {
+            super(message, cause);
+            this.retryable = retryable;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+
+    // Valor de agroapp.llm.provider que lo selecciona
+    String name();
+
+    // false si falta configuración (p. ej. la API key): se usan los insights básicos sin llamar
+    boolean isConfigured();
+
+    CompletableFuture<String> complete(ChatRequest request);
+}
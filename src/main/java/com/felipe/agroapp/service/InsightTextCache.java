@@ -0,0 +1,342 @@
+package com.felipe.agroapp.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Textos generados por el LLM, direccionados por contenido: la clave es el SHA-256 del modelo y
+// de una huella canónica (JSON con claves ordenadas) de lo que entra en el prompt, con los
+// valores ya redondeados por quien llama. Mismos datos, mismo texto, sin volver a pagar la llamada.
+//  - LRU de max-entries entradas que caducan a los ttl-minutes.
+//  - Una sola llamada en curso por clave: las peticiones idénticas concurrentes esperan su resultado.
+//  - Los errores no se guardan: la siguiente petición vuelve a intentarlo.
+//  - Con dir configurado cada entrada es además <clave>.json en disco y se recupera al arrancar.
+@Component
+public class InsightTextCache {
+    private static final Logger logger = Logger.getLogger(InsightTextCache.class.getName());
+
+    private static final String FILE_SUFFIX = ".json";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.insights.llm-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.insights.llm-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${agroapp.insights.llm-cache.ttl-minutes:360}")
+    private long ttlMinutes;
+
+    // Vacío: sólo en memoria
+    @Value("${agroapp.insights.llm-cache.dir:}")
+    private String directory;
+
+    // Orden de acceso: el primero es el menos usado. Protegido por su propio monitor
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Entrada>> enCurso = new ConcurrentHashMap<>();
+    private final ObjectMapper canonical = JsonMapper.builder()
+        .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+        .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+        .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong ahorradoMs = new AtomicLong();
+    private final AtomicLong upstreamMs = new AtomicLong();
+    private Path dir;
+    private long ttlMillis;
+    private Counter aciertos;
+    private Counter fallos;
+    private Counter compartidas;
+
+    public record Entrada(String clave, String modelo, String texto, long creadoEn, long latenciaMs) {
+    }
+
+    @PostConstruct
+    public void init() {
+        if (maxEntries < 1 || ttlMinutes <= 0) {
+            throw new IllegalArgumentException("Configuración de agroapp.insights.llm-cache inválida");
+        }
+        ttlMillis = ttlMinutes * 60_000L;
+        aciertos = Counter.builder("agroapp.insights.llm.cache").tag("resultado", "hit")
+            .description("Textos de insights pedidos a la caché del LLM")
+            .register(meterRegistry);
+        fallos = Counter.builder("agroapp.insights.llm.cache").tag("resultado", "miss")
+            .description("Textos de insights pedidos a la caché del LLM")
+            .register(meterRegistry);
+        compartidas = Counter.builder("agroapp.insights.llm.cache").tag("resultado", "shared")
+            .description("Textos de insights pedidos a la caché del LLM")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.insights.llm.cache.saved", ahorradoMs, a -> a.get() / 1000.0)
+            .description("Segundos de llamadas al LLM evitados por la caché")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.insights.llm.cache.entries", this, InsightTextCache::size)
+            .description("Textos de insights en la caché del LLM")
+            .register(meterRegistry);
+        if (enabled && !directory.isBlank()) {
+            dir = Paths.get(directory);
+            load();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Texto para esta huella: de la caché, de la llamada idéntica en curso o de llamada().
+    // Si llamada() falla la excepción llega a todos los que la esperaban y no se guarda nada
+    public String get(String modelo, Object huella, Supplier<String> llamada) {
+        if (!enabled) {
+            return llamada.get();
+        }
+        String clave = key(modelo, huella);
+        Entrada entrada = lookup(clave);
+        if (entrada != null) {
+            aciertos.increment();
+            ahorradoMs.addAndGet(entrada.latenciaMs());
+            return entrada.texto();
+        }
+        CompletableFuture<Entrada> propia = new CompletableFuture<>();
+        CompletableFuture<Entrada> otra = enCurso.putIfAbsent(clave, propia);
+        if (otra != null) {
+            compartidas.increment();
+            try {
+                return otra.join().texto();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException r ? r : e;
+            }
+        }
+        try {
+            // La llamada anterior pudo terminar entre la consulta y el registro de esta
+            Entrada guardada = lookup(clave);
+            if (guardada != null) {
+                aciertos.increment();
+                ahorradoMs.addAndGet(guardada.latenciaMs());
+                propia.complete(guardada);
+                return guardada.texto();
+            }
+            fallos.increment();
+            long start = System.nanoTime();
+            String texto = llamada.get();
+            long latenciaMs = (System.nanoTime() - start) / 1_000_000;
+            upstreamMs.addAndGet(latenciaMs);
+            Entrada nueva = new Entrada(clave, modelo, texto, System.currentTimeMillis(), latenciaMs);
+            store(nueva);
+            propia.complete(nueva);
+            return texto;
+        } catch (RuntimeException e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(clave, propia);
+        }
+    }
+
+    public void clear() {
+        synchronized (entradas) {
+            entradas.clear();
+        }
+        if (dir != null) {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (file.getFileName().toString().endsWith(FILE_SUFFIX)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo vaciar " + dir, e);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long hits = (long) aciertos.count();
+        long misses = (long) fallos.count();
+        long shared = (long) compartidas.count();
+        long pedidas = hits + misses + shared;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entradas", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttlMinutes", ttlMinutes);
+        stats.put("dir", dir == null ? null : dir.toAbsolutePath().toString());
+        stats.put("aciertos", hits);
+        stats.put("fallos", misses);
+        stats.put("compartidas", shared);
+        stats.put("tasaAciertos", pedidas == 0 ? 0.0 : Math.round((hits + shared) * 1000.0 / pedidas) / 1000.0);
+        stats.put("llamadasEnCurso", enCurso.size());
+        stats.put("latenciaMediaMs", misses == 0 ? 0 : upstreamMs.get() / misses);
+        stats.put("latenciaAhorradaMs", ahorradoMs.get());
+        return stats;
+    }
+
+    // Redondea los números de una estructura de mapas y listas (p. ej. los datos que manda el
+    // cliente) para que diferencias por debajo de la precisión no cambien la huella
+    public static Object redondear(Object valor, int decimales) {
+        if (valor instanceof Map<?, ?> map) {
+            Map<String, Object> copia = new LinkedHashMap<>();
+            map.forEach((k, v) -> copia.put(String.valueOf(k), redondear(v, decimales)));
+            return copia;
+        }
+        if (valor instanceof List<?> list) {
+            List<Object> copia = new ArrayList<>(list.size());
+            list.forEach(v -> copia.add(redondear(v, decimales)));
+            return copia;
+        }
+        if ((valor instanceof Double || valor instanceof Float) && Double.isFinite(((Number) valor).doubleValue())) {
+            return BigDecimal.valueOf(((Number) valor).doubleValue()).setScale(decimales, RoundingMode.HALF_UP)
+                .doubleValue();
+        }
+        return valor;
+    }
+
+    private String key(String modelo, Object huella) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(modelo.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) '\n');
+            sha.update(canonical.writeValueAsBytes(huella));
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo calcular la huella del prompt", e);
+        }
+    }
+
+    private Entrada lookup(String clave) {
+        Entrada entrada;
+        synchronized (entradas) {
+            entrada = entradas.get(clave);
+            if (entrada == null || !expired(entrada)) {
+                return entrada;
+            }
+            entradas.remove(clave);
+        }
+        deleteFile(clave);
+        return null;
+    }
+
+    private boolean expired(Entrada entrada) {
+        return System.currentTimeMillis() - entrada.creadoEn() >= ttlMillis;
+    }
+
+    private void store(Entrada entrada) {
+        List<String> desalojadas = new ArrayList<>();
+        synchronized (entradas) {
+            entradas.put(entrada.clave(), entrada);
+            var it = entradas.keySet().iterator();
+            while (entradas.size() > maxEntries && it.hasNext()) {
+                desalojadas.add(it.next());
+                it.remove();
+            }
+        }
+        if (dir == null) {
+            return;
+        }
+        desalojadas.forEach(this::deleteFile);
+        // Se escribe aparte y se renombra: un arranque nunca lee un archivo a medias
+        try {
+            Path tmp = dir.resolve(entrada.clave() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), entrada);
+            Files.move(tmp, dir.resolve(entrada.clave() + FILE_SUFFIX),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "No se pudo guardar en disco el texto " + entrada.clave(), e);
+        }
+    }
+
+    private void deleteFile(String clave) {
+        if (dir == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(dir.resolve(clave + FILE_SUFFIX));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "No se pudo borrar el texto " + clave, e);
+        }
+    }
+
+    // Carga las entradas vigentes, las más recientes primero hasta max-entries; borra el resto
+    private void load() {
+        try {
+            Files.createDirectories(dir);
+            List<Entrada> leidas = new ArrayList<>();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String nombre = file.getFileName().toString();
+                    if (nombre.endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    if (!nombre.endsWith(FILE_SUFFIX)) {
+                        continue;
+                    }
+                    try {
+                        Entrada entrada = objectMapper.readValue(file.toFile(), Entrada.class);
+                        if (!expired(entrada) && nombre.equals(entrada.clave() + FILE_SUFFIX)) {
+                            leidas.add(entrada);
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Texto en caché ilegible, se descarta: " + file, e);
+                    }
+                    Files.deleteIfExists(file);
+                }
+            }
+            leidas.sort(Comparator.comparingLong(Entrada::creadoEn));
+            int sobran = Math.max(0, leidas.size() - maxEntries);
+            for (int i = 0; i < sobran; i++) {
+                deleteFile(leidas.get(i).clave());
+            }
+            synchronized (entradas) {
+                for (Entrada entrada : leidas.subList(sobran, leidas.size())) {
+                    entradas.put(entrada.clave(), entrada);
+                }
+            }
+            logger.info("Caché de textos del LLM: " + (leidas.size() - sobran) + " entradas recuperadas de " + dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir la caché de textos en " + dir, e);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.felipe.agroapp.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Respuesta de GET /api/insights precalculada. Las escrituras de lecturas (y los cambios de
+// parcelas, vía ParcelaCache.generation) la marcan como pendiente; un hilo propio la rehace
+// cuando pasan debounce-ms sin cambios nuevos, o como mucho max-delay-ms después del primero
+// si la ingesta no para, y además cada refresh-interval-ms porque la ventana de 7 días avanza.
+// La versión sólo sube si el contenido cambia: es la ETag que permite responder 304.
+// Si un recálculo falla se sigue sirviendo la instantánea anterior con su ETag, los cambios
+// siguen pendientes y el siguiente intento espera el doble cada vez (hasta refresh-interval-ms).
+@Component
+public class InsightsMaterializer {
+    private static final Logger logger = Logger.getLogger(InsightsMaterializer.class.getName());
+
+    @Autowired
+    private InsightsService insightsService;
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.insights.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.insights.snapshot.debounce-ms:2000}")
+    private long debounceMs;
+
+    @Value("${agroapp.insights.snapshot.max-delay-ms:15000}")
+    private long maxDelayMs;
+
+    @Value("${agroapp.insights.snapshot.refresh-interval-ms:60000}")
+    private long refreshIntervalMs;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    // Cambios de datos registrados; cada instantánea recuerda hasta cuál incluye
+    private final AtomicLong cambios = new AtomicLong();
+    // Momento (epoch millis) del primer cambio no incluido y del último; 0 si no hay
+    private final AtomicLong primerCambio = new AtomicLong();
+    private volatile long ultimoCambio;
+    // Distingue las ETags de cada arranque: la versión vuelve a empezar en 1
+    private final String instancia = Long.toString(System.currentTimeMillis(), 36);
+    private ScheduledExecutorService executor;
+    private Counter recalculos;
+    private Counter fallos;
+    private int fallosSeguidos;
+    private volatile long reintentoEn;
+
+    public record Snapshot(long version, String etag, List<Map<String, Object>> insights, Instant generadoEn,
+                           long calculoMs, long cambios, long generacionParcelas) {
+    }
+
+    @PostConstruct
+    public void init() {
+        if (debounceMs < 0 || maxDelayMs < debounceMs || refreshIntervalMs <= 0) {
+            throw new IllegalArgumentException("Configuración de agroapp.insights.snapshot inválida");
+        }
+        recalculos = Counter.builder("agroapp.insights.snapshot.recomputes")
+            .description("Recálculos de la instantánea de insights generales")
+            .register(meterRegistry);
+        fallos = Counter.builder("agroapp.insights.snapshot.failures")
+            .description("Recálculos de la instantánea de insights que fallaron")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.insights.snapshot.age", this, m -> m.ageMillis() / 1000.0)
+            .description("Segundos desde que se calculó la instantánea de insights")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "insights-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(100, debounceMs / 4);
+        executor.scheduleWithFixedDelay(this::tick, 0, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Instantánea vigente; la primera se calcula en el acto
+    public Snapshot current() {
+        Snapshot current = snapshot.get();
+        return current != null ? current : recompute();
+    }
+
+    // Lecturas confirmadas o borradas (ReadingsEvents) desde la última instantánea
+    public void markChanged() {
+        long ahora = System.currentTimeMillis();
+        ultimoCambio = ahora;
+        primerCambio.compareAndSet(0, ahora);
+        cambios.incrementAndGet();
+    }
+
+    // true si hay cambios confirmados que la instantánea aún no incluye
+    public boolean isStale(Snapshot s) {
+        return cambios.get() != s.cambios() || parcelaCache.generation() != s.generacionParcelas();
+    }
+
+    public long ageMillis() {
+        Snapshot current = snapshot.get();
+        return current == null ? 0 : Math.max(0, System.currentTimeMillis() - current.generadoEn().toEpochMilli());
+    }
+
+    public Map<String, Object> stats() {
+        Snapshot current = current();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("version", current.version());
+        stats.put("etag", current.etag());
+        stats.put("generadoEn", current.generadoEn().toString());
+        stats.put("edadMs", ageMillis());
+        stats.put("calculoMs", current.calculoMs());
+        boolean desactualizado = isStale(current);
+        long primero = primerCambio.get();
+        stats.put("desactualizado", desactualizado);
+        stats.put("cambioPendienteDesdeMs", !desactualizado || primero == 0 ? 0 : System.currentTimeMillis() - primero);
+        stats.put("recalculos", (long) recalculos.count());
+        stats.put("fallos", (long) fallos.count());
+        stats.put("fallosSeguidos", fallosSeguidos);
+        stats.put("debounceMs", debounceMs);
+        stats.put("maxDelayMs", maxDelayMs);
+        stats.put("refreshIntervalMs", refreshIntervalMs);
+        return stats;
+    }
+
+    private void tick() {
+        try {
+            Snapshot current = snapshot.get();
+            long ahora = System.currentTimeMillis();
+            if (ahora < reintentoEn) {
+                return;
+            }
+            if (current == null) {
+                recompute();
+            } else if (parcelaCache.generation() != current.generacionParcelas()) {
+                recompute();
+            } else if (cambios.get() != current.cambios()) {
+                long primero = primerCambio.get();
+                if (ahora - ultimoCambio >= debounceMs || (primero != 0 && ahora - primero >= maxDelayMs)) {
+                    recompute();
+                }
+            } else if (ahora - current.generadoEn().toEpochMilli() >= refreshIntervalMs) {
+                recompute();
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "No se pudo recalcular la instantánea de insights", e);
+        }
+    }
+
+    // Los contadores se leen antes de calcular: lo que cambie durante el cálculo queda pendiente
+    private synchronized Snapshot recompute() {
+        long primero = primerCambio.getAndSet(0);
+        long incluidos = cambios.get();
+        long generacion = parcelaCache.generation();
+        long start = System.nanoTime();
+        List<Map<String, Object>> insights;
+        try {
+            insights = List.copyOf(insightsService.computeGeneralInsights());
+        } catch (RuntimeException e) {
+            // La instantánea anterior se queda; el primer cambio sigue contando para max-delay-ms
+            primerCambio.compareAndSet(0, primero);
+            fallos.increment();
+            fallosSeguidos++;
+            long espera = Math.max(1000, debounceMs) << Math.min(fallosSeguidos - 1, 16);
+            reintentoEn = System.currentTimeMillis() + Math.min(refreshIntervalMs, espera);
+            throw e;
+        }
+        fallosSeguidos = 0;
+        reintentoEn = 0;
+        long calculoMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        recalculos.increment();
+
+        Snapshot anterior = snapshot.get();
+        long version = anterior == null ? 1
+            : anterior.insights().equals(insights) ? anterior.version() : anterior.version() + 1;
+        Snapshot nuevo = new Snapshot(version, "\"" + instancia + "-" + version + "\"", insights, Instant.now(),
+            calculoMs, incluidos, generacion);
+        snapshot.set(nuevo);
+        return nuevo;
+    }
+}
@@ -1,51 +1,116 @@
 package com.felipe.agroapp.service;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.felipe.agroapp.model.Parcela;
-import com.felipe.agroapp.model.SensorData;
-import com.felipe.agroapp.repository.ParcelaRepository;
-import com.felipe.agroapp.repository.SensorDataRepository;
+import com.felipe.agroapp.service.ParcelaCache.Umbrales;
+import com.felipe.agroapp.service.SensorRollupService.Aggregate;
 import org.springframework.beans.factory.annotation.Autowired;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 public class InsightsService {
 
-    @Value("${openai.api.key}")
-    private String apiKey;
+    // Hilos para analizar las parcelas de getGeneralInsights en paralelo (0: uno por núcleo;
+    // 1: siempre secuencial)
+    @Value("${agroapp.insights.parallelism:0}")
+    private int parallelism;
 
-    @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}")
-    private String apiUrl;
+    // Parcelas por partición; no depende de los hilos, así el resultado es el mismo en ambos modos
+    @Value("${agroapp.insights.partition-size:256}")
+    private int partitionSize;
 
     @Autowired
-    private ParcelaRepository parcelaRepository;
+    private ParcelaCache parcelaCache;
 
     @Autowired
-    private SensorDataRepository sensorDataRepository;
+    private SensorRollupService rollupService;
+
+    @Autowired
+    private SensorHotStore hotStore;
+
+    @Autowired
+    private LatestReadingIndex latestIndex;
+
+    @Autowired
+    private TrendTracker trendTracker;
+
+    @Autowired
+    private AlertEngine alertEngine;
+
+    @Autowired
+    private AnomalyDetector anomalyDetector;
+
+    @Autowired
+    private InsightTextCache textCache;
+
+    @Autowired
+    private LlmClient llmClient;
+
+    private static final String MODELO_ANALISIS = "gpt-3.5-turbo";
+    private static final String MODELO_REPORTE = "gpt-4";
+    // Versión de cada prompt: cambiar su texto exige subirla para no servir textos de la caché
+    // generados con el anterior
+    private static final int PROMPT_ANALISIS = 1;
+    private static final int PROMPT_REPORTE = 1;
 
-    private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    // null si el modo paralelo está desactivado
+    private ForkJoinPool fanOutPool;
 
     public InsightsService() {
-        this.restTemplate = new RestTemplate();
         this.objectMapper = new ObjectMapper();
     }
 
+    // Análisis de cada parcela y agregado de las que entran en una partición
+    private record Particion(List<Map<String, Object>> analisis, Aggregate total) {
+    }
+
+    // Huellas de los prompts para InsightTextCache
+    private record HuellaAnalisis(int plantilla, Object sensorData) {
+    }
+
+    private record HuellaReporte(int plantilla, String parcelaId, String nombre, String cultivo, Object area,
+                                 Map<String, Object> promedios, Map<String, Object> rangos,
+                                 Map<String, String> tendencias) {
+    }
+
+    @PostConstruct
+    public void init() {
+        if (partitionSize < 1) {
+            throw new IllegalArgumentException("agroapp.insights.partition-size debe ser positivo");
+        }
+        int hilos = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (hilos > 1) {
+            fanOutPool = new ForkJoinPool(hilos, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("insights-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (fanOutPool != null) {
+            fanOutPool.shutdownNow();
+        }
+    }
+
     public List<Map<String, String>> generateInsights(Map<String, Object> request) {
         try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(apiKey);
-
             // Create the system prompt
             String systemPrompt = "Eres un asistente experto en agricultura que analiza datos de sensores de cultivos y proporciona recomendaciones prácticas. Responde en español.";
             
@@ -73,22 +138,11 @@ public class InsightsService {
                 objectMapper.writeValueAsString(request.get("sensorData"))
             );
 
-            // Create the request body
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", "gpt-3.5-turbo");
-            requestBody.put("messages", Arrays.asList(
-                Map.of("role", "system", "content", systemPrompt),
-                Map.of("role", "user", "content", userPrompt)
-            ));
-            requestBody.put("temperature", 0.7);
-            requestBody.put("max_tokens", 800);
-
-            // Make the API call
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-            Map<String, Object> response = restTemplate.postForObject(apiUrl, entity, Map.class);
-
-            // Parse the response
-            String content = ((Map<String, String>) ((List<Map<String, Object>>) response.get("choices")).get(0).get("message")).get("content");
+            // Make the API call (or reuse the text for the same rounded sensor data)
+            HuellaAnalisis huella = new HuellaAnalisis(PROMPT_ANALISIS,
+                InsightTextCache.redondear(request.get("sensorData"), 2));
+            String content = textCache.get(llmClient.providerName() + ":" + MODELO_ANALISIS, huella,
+                () -> chatCompletion(MODELO_ANALISIS, systemPrompt, userPrompt, 800));
             
             // Extract JSON array from response
             int startIndex = content.indexOf('[');
@@ -106,50 +160,152 @@ public class InsightsService {
 
     public List<Map<String, Object>> getGeneralInsights() {
         try {
-            // Obtener datos recientes de todas las parcelas
-            LocalDateTime since = LocalDateTime.now().minusDays(7);
-            List<SensorData> recentData = sensorDataRepository.findRecentData(since);
-            List<Parcela> parcelas = parcelaRepository.findAll();
+            return computeGeneralInsights();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
 
-            List<Map<String, Object>> insights = new ArrayList<>();
+    // Igual que getGeneralInsights pero propaga los errores: un fallo de la base de datos no
+    // debe confundirse con "no hay datos"
+    public List<Map<String, Object>> computeGeneralInsights() {
+        LocalDateTime now = LocalDateTime.now();
+        return generalInsights(now.minusDays(7), now, fanOutPool != null);
+    }
 
-            // Análisis general por parcela
-            Map<String, List<SensorData>> dataByParcela = recentData.stream()
-                .collect(Collectors.groupingBy(SensorData::getParcelaId));
+    // Mide getGeneralInsights secuencial y en paralelo sobre los datos actuales (mejor tiempo de
+    // cada modo) y comprueba que ambos devuelven lo mismo
+    public Map<String, Object> benchmarkGeneralInsights(int repeticiones) {
+        if (repeticiones < 1 || repeticiones > 50) {
+            throw new IllegalArgumentException("repeticiones debe estar entre 1 y 50");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime desde = now.minusDays(7);
+        // Primera pasada de cada modo sin medir (JIT, cachés)
+        List<Map<String, Object>> secuencial = generalInsights(desde, now, false);
+        List<Map<String, Object>> paralelo = generalInsights(desde, now, fanOutPool != null);
+        long mejorSecuencial = Long.MAX_VALUE;
+        long mejorParalelo = Long.MAX_VALUE;
+        for (int i = 0; i < repeticiones; i++) {
+            long start = System.nanoTime();
+            generalInsights(desde, now, false);
+            mejorSecuencial = Math.min(mejorSecuencial, System.nanoTime() - start);
+            start = System.nanoTime();
+            generalInsights(desde, now, fanOutPool != null);
+            mejorParalelo = Math.min(mejorParalelo, System.nanoTime() - start);
+        }
 
-            for (Parcela parcela : parcelas) {
-                List<SensorData> parcelaData = dataByParcela.getOrDefault(parcela.getParcelaId(), Collections.emptyList());
-                
-                if (!parcelaData.isEmpty()) {
-                    Map<String, Object> parcelaInsight = analyzeParcela(parcela, parcelaData);
-                    insights.add(parcelaInsight);
-                }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("parcelas", parcelaCache.findAll().size());
+        result.put("parcelasConDatos", secuencial.size() - 1);
+        result.put("particiones", (parcelaCache.findAll().size() + partitionSize - 1) / partitionSize);
+        result.put("hilos", fanOutPool != null ? fanOutPool.getParallelism() : 1);
+        result.put("fuente", hotStore.covers(desde) ? "memoria" : "rollups");
+        result.put("repeticiones", repeticiones);
+        result.put("secuencialMs", mejorSecuencial / 1_000_000.0);
+        result.put("paraleloMs", mejorParalelo / 1_000_000.0);
+        result.put("aceleracion", Math.round(mejorSecuencial * 100.0 / mejorParalelo) / 100.0);
+        result.put("resultadosIguales", secuencial.equals(paralelo));
+        return result;
+    }
+
+    // Estadísticas generales seguidas del análisis de cada parcela con datos en [desde, hasta).
+    // Las parcelas se parten en tramos contiguos de partition-size; cada tramo produce sus
+    // análisis y su agregado, y se juntan en el orden de los tramos. El resultado no depende
+    // de cuántos hilos corran los tramos: en paralelo sale idéntico al secuencial.
+    private List<Map<String, Object>> generalInsights(LocalDateTime desde, LocalDateTime hasta, boolean paralelo) {
+        List<Parcela> parcelas = parcelaCache.findAll();
+        // Con el almacén en memoria cada tramo agrega sus propias parcelas; si no, una sola
+        // consulta de rollups (+ bordes de hora en crudo) para todas
+        boolean enMemoria = hotStore.covers(desde);
+        Map<String, Aggregate> dataByParcela = enMemoria ? null : rollupService.aggregate(null, desde, hasta);
+        Function<String, Aggregate> datos = enMemoria
+            ? parcelaId -> hotStore.aggregate(parcelaId, desde, hasta, new StatsAccumulator()).orElse(null)
+            : dataByParcela::get;
+
+        List<List<Parcela>> tramos = new ArrayList<>();
+        for (int inicio = 0; inicio < parcelas.size(); inicio += partitionSize) {
+            tramos.add(parcelas.subList(inicio, Math.min(parcelas.size(), inicio + partitionSize)));
+        }
+        List<Particion> particiones = new ArrayList<>(tramos.size());
+        if (paralelo && tramos.size() > 1) {
+            particiones.addAll(invokeAll(tramos, datos));
+        } else {
+            for (List<Parcela> tramo : tramos) {
+                particiones.add(analyzePartition(tramo, datos));
             }
+        }
 
-            // Agregar estadísticas generales
-            Map<String, Object> generalStats = generateGeneralStats(parcelas, recentData);
-            insights.add(0, generalStats);
+        List<Map<String, Object>> insights = new ArrayList<>();
+        Aggregate total = new Aggregate();
+        for (Particion particion : particiones) {
+            insights.addAll(particion.analisis());
+            total.merge(particion.total());
+        }
+        // Lecturas de parcelas que ya no existen: cuentan en el total, en orden de id
+        Set<String> conocidas = new HashSet<>();
+        parcelas.forEach(parcela -> conocidas.add(parcela.getParcelaId()));
+        List<String> huerfanas = new ArrayList<>(enMemoria ? hotStore.parcelaIds() : dataByParcela.keySet());
+        huerfanas.removeIf(conocidas::contains);
+        Collections.sort(huerfanas);
+        for (String parcelaId : huerfanas) {
+            Aggregate data = datos.apply(parcelaId);
+            if (data != null) {
+                total.merge(data);
+            }
+        }
 
-            return insights;
+        insights.add(0, generateGeneralStats(parcelas, total));
+        return insights;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return Collections.emptyList();
+    // Un tramo por tarea en el pool; los resultados vuelven en el orden de los tramos
+    private List<Particion> invokeAll(List<List<Parcela>> tramos, Function<String, Aggregate> datos) {
+        List<Callable<Particion>> tareas = new ArrayList<>(tramos.size());
+        for (List<Parcela> tramo : tramos) {
+            tareas.add(() -> analyzePartition(tramo, datos));
+        }
+        try {
+            List<Particion> particiones = new ArrayList<>(tramos.size());
+            for (Future<Particion> future : fanOutPool.invokeAll(tareas)) {
+                particiones.add(future.get());
+            }
+            return particiones;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Análisis de parcelas interrumpido", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error al analizar las parcelas", e.getCause());
+        }
+    }
+
+    private Particion analyzePartition(List<Parcela> parcelas, Function<String, Aggregate> datos) {
+        List<Map<String, Object>> analisis = new ArrayList<>();
+        Aggregate total = new Aggregate();
+        for (Parcela parcela : parcelas) {
+            Aggregate parcelaData = datos.apply(parcela.getParcelaId());
+            if (parcelaData != null) {
+                total.merge(parcelaData);
+                if (parcelaData.readings() > 0) {
+                    analisis.add(analyzeParcela(parcela, parcelaData));
+                }
+            }
         }
+        return new Particion(analisis, total);
     }
 
     public Map<String, Object> getParcelaInsights(String parcelaId) {
         try {
-            Optional<Parcela> parcelaOpt = parcelaRepository.findById(parcelaId);
+            Optional<Parcela> parcelaOpt = parcelaCache.findById(parcelaId);
             if (parcelaOpt.isEmpty()) {
                 return Map.of("error", "Parcela no encontrada");
             }
 
             Parcela parcela = parcelaOpt.get();
-            LocalDateTime since = LocalDateTime.now().minusDays(7);
-            List<SensorData> recentData = sensorDataRepository.findByParcelaIdAndFechaBetween(
-                parcelaId, since, LocalDateTime.now()
-            );
+            LocalDateTime now = LocalDateTime.now();
+            Aggregate recentData = aggregate(parcelaId, now.minusDays(7), now)
+                .getOrDefault(parcelaId, new Aggregate());
 
             return analyzeParcela(parcela, recentData);
 
@@ -159,9 +315,38 @@ public class InsightsService {
         }
     }
 
+    // Valores anómalos por parcela en los últimos días (marcados al ingerir y excluidos de los
+    // promedios), de más a menos
+    public Map<String, Object> getAnomalies(int dias) {
+        if (dias < 1) {
+            throw new IllegalArgumentException("dias debe ser al menos 1");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<Map<String, Object>> parcelas = new ArrayList<>();
+        aggregate(null, now.minusDays(dias), now).forEach((parcelaId, data) -> {
+            Map<String, Long> anomalias = contarAnomalias(data.stats());
+            if (!anomalias.isEmpty()) {
+                Map<String, Object> parcela = new LinkedHashMap<>();
+                parcela.put("parcelaId", parcelaId);
+                parcela.put("total", anomalias.values().stream().mapToLong(Long::longValue).sum());
+                parcela.put("lecturas", data.readings());
+                parcela.put("metricas", anomalias);
+                parcelas.add(parcela);
+            }
+        });
+        parcelas.sort(Comparator.comparingLong((Map<String, Object> p) -> (Long) p.get("total")).reversed()
+            .thenComparing(p -> (String) p.get("parcelaId")));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("dias", dias);
+        result.put("parcelas", parcelas);
+        result.put("detector", anomalyDetector.stats());
+        return result;
+    }
+
     public Map<String, Object> generateDetailedReport(String parcelaId) {
         try {
-            Optional<Parcela> parcelaOpt = parcelaRepository.findById(parcelaId);
+            Optional<Parcela> parcelaOpt = parcelaCache.findById(parcelaId);
             if (parcelaOpt.isEmpty()) {
                 return Map.of("error", "Parcela no encontrada");
             }
@@ -169,22 +354,20 @@ public class InsightsService {
             Parcela parcela = parcelaOpt.get();
             
             // Datos de los últimos 30 días
-            LocalDateTime since = LocalDateTime.now().minusDays(30);
-            List<SensorData> historicalData = sensorDataRepository.findByParcelaIdAndFechaBetween(
-                parcelaId, since, LocalDateTime.now()
-            );
+            LocalDateTime now = LocalDateTime.now();
+            Aggregate historicalData = aggregateWithRanges(parcela, now.minusDays(30), now);
 
             Map<String, Object> report = new HashMap<>();
             report.put("parcela", parcela);
-            report.put("fechaGeneracion", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            report.put("fechaGeneracion", now.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
             report.put("periodoAnalisis", "Últimos 30 días");
-            report.put("totalLecturas", historicalData.size());
+            report.put("totalLecturas", historicalData.readings());
 
             // Estadísticas detalladas
-            if (!historicalData.isEmpty()) {
+            if (historicalData.readings() > 0) {
                 report.put("estadisticas", generateDetailedStats(historicalData, parcela));
-                report.put("tendencias", analyzeTrends(historicalData));
-                report.put("alertas", generateAlerts(historicalData, parcela));
+                report.put("tendencias", analyzeTrends(parcela));
+                report.put("alertas", generateAlerts(parcela, now.minusDays(30)));
                 report.put("recomendaciones", generateRecommendations(historicalData, parcela));
             }
 
@@ -199,25 +382,24 @@ public class InsightsService {
     public Map<String, Object> exportReport(String parcelaId, String format) {
         try {
             // Obtener datos detallados de la parcela
-            Optional<Parcela> parcelaOpt = parcelaRepository.findById(parcelaId);
+            Optional<Parcela> parcelaOpt = parcelaCache.findById(parcelaId);
             if (parcelaOpt.isEmpty()) {
                 return Map.of("error", "Parcela no encontrada");
             }
 
             Parcela parcela = parcelaOpt.get();
             
-            // Datos de los últimos 30 días para análisis completo
-            LocalDateTime since = LocalDateTime.now().minusDays(30);
-            List<SensorData> historicalData = sensorDataRepository.findByParcelaIdAndFechaBetween(
-                parcelaId, since, LocalDateTime.now()
-            );
+            // Últimos 30 días para análisis completo; las tendencias salen de TrendTracker
+            LocalDateTime now = LocalDateTime.now();
+            Aggregate data = aggregate(parcelaId, now.minusDays(30), now)
+                .getOrDefault(parcelaId, new Aggregate());
 
-            if (historicalData.isEmpty()) {
+            if (data.readings() == 0) {
                 return Map.of("error", "No hay datos suficientes para generar el reporte");
             }
 
             // Generar reporte Markdown con IA
-            String markdownContent = generateMarkdownReport(parcela, historicalData);
+            String markdownContent = generateMarkdownReport(parcela, data);
             
             // Estructura de respuesta
             Map<String, Object> exportData = new HashMap<>();
@@ -236,11 +418,15 @@ public class InsightsService {
         }
     }
 
-    private String generateAIInsightsText(Parcela parcela, List<SensorData> data, Map<String, Object> estadisticas) {
+    private String generateAIInsightsText(Parcela parcela, Aggregate data, Map<String, Object> estadisticas) {
         try {
             Map<String, Object> promedios = (Map<String, Object>) estadisticas.get("promedios");
-            Map<String, Object> tendencias = (Map<String, Object>) estadisticas.get("tendencias");
+            Map<String, TrendTracker.Tendencia> tendencias = (Map<String, TrendTracker.Tendencia>) estadisticas.get("tendencias");
             Map<String, Object> rangos = (Map<String, Object>) estadisticas.get("rangos");
+            StringBuilder lineasTendencia = new StringBuilder();
+            tendencias.forEach((metrica, tendencia) -> lineasTendencia.append(String.format("• %s: %s%s\n", metrica,
+                tendencia.direccion(),
+                Double.isNaN(tendencia.pendientePorDia()) ? "" : String.format(" (%+.3f/día, R² %.2f)", tendencia.pendientePorDia(), tendencia.r2()))));
             
             String prompt = String.format("""
                 Analiza estos datos agronómicos y genera un reporte ejecutivo en español para un manager de agricultura.
@@ -260,6 +446,8 @@ public class InsightsService {
                 • Humedad: %.1f%% - %.1f%%
                 • Temperatura: %.1f°C - %.1f°C
                 
+                **TENDENCIAS (últimas %d horas):**
+                %s
                 Genera un análisis estructurado con:
                 
                 ## 🎯 RESUMEN EJECUTIVO
@@ -288,7 +476,7 @@ public class InsightsService {
                 parcela.getParcelaId(),
                 parcela.getTipoCultivo(),
                 parcela.getAreaHectareas(),
-                data.size(),
+                data.readings(),
                 (Double) promedios.get("humedad"),
                 (Double) promedios.get("ph"),
                 (Double) promedios.get("nitrogeno"),
@@ -297,12 +485,14 @@ public class InsightsService {
                 ((Map<String, Double>) rangos.get("humedad")).get("max"),
                 ((Map<String, Double>) rangos.get("temperatura")).get("min"),
                 ((Map<String, Double>) rangos.get("temperatura")).get("max"),
+                trendTracker.windowHours(),
+                lineasTendencia.length() > 0 ? lineasTendencia : "Sin datos suficientes\n",
                 parcela.getTipoCultivo()
             );
 
-            // Llamar a la API de OpenAI (si está configurada)
-            if (apiKey != null && !apiKey.trim().isEmpty()) {
-                return callOpenAIForInsights(prompt, parcela, data, estadisticas);
+            // Llamar al proveedor de insights (si está configurado)
+            if (llmClient.isAvailable()) {
+                return callProviderForInsights(prompt, parcela, data, estadisticas);
             } else {
                 // Fallback: generar insights básicos sin IA externa
                 return generateBasicInsights(parcela, data, estadisticas);
@@ -314,27 +504,15 @@ public class InsightsService {
         }
     }
 
-    private String callOpenAIForInsights(String prompt, Parcela parcela, List<SensorData> data, Map<String, Object> estadisticas) {
+    private String callProviderForInsights(String prompt, Parcela parcela, Aggregate data, Map<String, Object> estadisticas) {
         try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(apiKey);
-
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", "gpt-4");
-            requestBody.put("messages", Arrays.asList(
-                Map.of("role", "system", "content", "Eres un agrónomo experto que analiza datos de cultivos y genera reportes ejecutivos claros y actionables en español."),
-                Map.of("role", "user", "content", prompt)
-            ));
-            requestBody.put("temperature", 0.7);
-            requestBody.put("max_tokens", 1500);
-
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-            Map<String, Object> response = restTemplate.postForObject(apiUrl, entity, Map.class);
-
-            String content = ((Map<String, String>) ((List<Map<String, Object>>) response.get("choices")).get(0).get("message")).get("content");
-            return content;
+            return textCache.get(llmClient.providerName() + ":" + MODELO_REPORTE, huellaReporte(parcela, estadisticas), () -> chatCompletion(MODELO_REPORTE,
+                "Eres un agrónomo experto que analiza datos de cultivos y genera reportes ejecutivos claros y actionables en español.",
+                prompt, 1500));
 
+        } catch (LlmClient.RejectedException e) {
+            // Circuito abierto o bulkhead lleno: falla al instante, ya contado en agroapp.llm.calls
+            return generateBasicInsights(parcela, data, estadisticas);
         } catch (Exception e) {
             e.printStackTrace();
             // En caso de error con IA, usar análisis básico
@@ -342,15 +520,41 @@ public class InsightsService {
         }
     }
 
-    private String generateBasicInsights(Parcela parcela, List<SensorData> data, Map<String, Object> estadisticas) {
+    // Lo que decide el texto del reporte, con la precisión con la que aparece en el prompt; el
+    // número de lecturas y las pendientes exactas no entran, así que un reporte repetido con los
+    // mismos promedios reutiliza el texto
+    private HuellaReporte huellaReporte(Parcela parcela, Map<String, Object> estadisticas) {
+        Map<String, Object> promedios = (Map<String, Object>) estadisticas.get("promedios");
+        Map<String, Map<String, Double>> rangos = (Map<String, Map<String, Double>>) estadisticas.get("rangos");
+        Map<String, TrendTracker.Tendencia> tendencias = (Map<String, TrendTracker.Tendencia>) estadisticas.get("tendencias");
+        Map<String, Object> huellaPromedios = new TreeMap<>();
+        promedios.forEach((metrica, valor) -> huellaPromedios.put(metrica,
+            InsightTextCache.redondear(valor, "ph".equals(metrica) ? 2 : 1)));
+        Map<String, Object> huellaRangos = new TreeMap<>();
+        for (String metrica : List.of("humedad", "temperatura")) {
+            huellaRangos.put(metrica, InsightTextCache.redondear(rangos.get(metrica), 1));
+        }
+        Map<String, String> direcciones = new TreeMap<>();
+        tendencias.forEach((metrica, tendencia) -> direcciones.put(metrica, tendencia.direccion()));
+        return new HuellaReporte(PROMPT_REPORTE, parcela.getParcelaId(), parcela.getNombre(), parcela.getTipoCultivo(),
+            InsightTextCache.redondear(parcela.getAreaHectareas(), 2), huellaPromedios, huellaRangos, direcciones);
+    }
+
+    // Una llamada de chat a través de LlmClient (tiempo máximo, bulkhead, reintentos y circuito);
+    // cualquier fallo es una excepción, así no queda en la caché
+    private String chatCompletion(String modelo, String systemPrompt, String userPrompt, int maxTokens) {
+        return llmClient.completeAndWait(new InsightProvider.ChatRequest(modelo, systemPrompt, userPrompt, maxTokens, 0.7));
+    }
+
+    private String generateBasicInsights(Parcela parcela, Aggregate data, Map<String, Object> estadisticas) {
         Map<String, Object> promedios = (Map<String, Object>) estadisticas.get("promedios");
         StringBuilder insights = new StringBuilder();
         
         insights.append("## 🎯 RESUMEN EJECUTIVO\n\n");
         insights.append(String.format("La parcela %s presenta condiciones **%s** con %d lecturas analizadas en los últimos 30 días. ", 
             parcela.getNombre(), 
-            determineOverallStatus((Double) promedios.get("humedad"), (Double) promedios.get("ph"), (Double) promedios.get("nitrogeno"), parcela),
-            data.size()));
+            parcelaCache.umbrales(parcela).calificacion((Double) promedios.get("humedad"), (Double) promedios.get("ph"), (Double) promedios.get("nitrogeno")),
+            data.readings()));
         insights.append("El análisis indica un estado general estable que requiere monitoreo continuo.\n\n");
         
         insights.append("## 📊 ANÁLISIS DETALLADO\n\n");
@@ -416,69 +620,71 @@ public class InsightsService {
         return "🟢 Óptimo";
     }
 
-    private Map<String, Object> calcularEstadisticasCompletas(List<SensorData> data) {
+    private Map<String, Object> calcularEstadisticasCompletas(Aggregate data, Parcela parcela) {
         Map<String, Object> stats = new HashMap<>();
         
-        if (data.isEmpty()) {
+        if (data.readings() == 0) {
             return stats;
         }
 
-        // Promedios
-        double avgHumedad = data.stream().filter(s -> s.getHumedad() != null).mapToDouble(SensorData::getHumedad).average().orElse(0.0);
-        double avgPh = data.stream().filter(s -> s.getPh() != null).mapToDouble(SensorData::getPh).average().orElse(0.0);
-        double avgNitrogeno = data.stream().filter(s -> s.getNitrogeno() != null).mapToDouble(SensorData::getNitrogeno).average().orElse(0.0);
-        double avgTemperatura = data.stream().filter(s -> s.getTemperatura() != null).mapToDouble(SensorData::getTemperatura).average().orElse(0.0);
-
-        // Rangos
-        double maxHumedad = data.stream().filter(s -> s.getHumedad() != null).mapToDouble(SensorData::getHumedad).max().orElse(0.0);
-        double minHumedad = data.stream().filter(s -> s.getHumedad() != null).mapToDouble(SensorData::getHumedad).min().orElse(0.0);
-        double maxTemperatura = data.stream().filter(s -> s.getTemperatura() != null).mapToDouble(SensorData::getTemperatura).max().orElse(0.0);
-        double minTemperatura = data.stream().filter(s -> s.getTemperatura() != null).mapToDouble(SensorData::getTemperatura).min().orElse(0.0);
+        // Promedios y rangos salen de un único agregado calculado en la base de datos
+        SensorRollupService.MetricStats humedad = data.metric("humedad");
+        SensorRollupService.MetricStats temperatura = data.metric("temperatura");
 
         stats.put("promedios", Map.of(
-            "humedad", Math.round(avgHumedad * 100.0) / 100.0,
-            "ph", Math.round(avgPh * 100.0) / 100.0,
-            "nitrogeno", Math.round(avgNitrogeno * 100.0) / 100.0,
-            "temperatura", Math.round(avgTemperatura * 100.0) / 100.0
+            "humedad", Math.round(humedad.mean() * 100.0) / 100.0,
+            "ph", Math.round(data.metric("ph").mean() * 100.0) / 100.0,
+            "nitrogeno", Math.round(data.metric("nitrogeno").mean() * 100.0) / 100.0,
+            "temperatura", Math.round(temperatura.mean() * 100.0) / 100.0
         ));
 
         stats.put("rangos", Map.of(
-            "humedad", Map.of("min", Math.round(minHumedad * 100.0) / 100.0, "max", Math.round(maxHumedad * 100.0) / 100.0),
-            "temperatura", Map.of("min", Math.round(minTemperatura * 100.0) / 100.0, "max", Math.round(maxTemperatura * 100.0) / 100.0)
+            "humedad", Map.of("min", Math.round(humedad.min() * 100.0) / 100.0, "max", Math.round(humedad.max() * 100.0) / 100.0),
+            "temperatura", Map.of("min", Math.round(temperatura.min() * 100.0) / 100.0, "max", Math.round(temperatura.max() * 100.0) / 100.0)
         ));
 
-        // Tendencias simples (últimos 7 días vs anteriores)
-        LocalDateTime cutoff = LocalDateTime.now().minusDays(7);
-        List<SensorData> recent = data.stream().filter(s -> s.getFecha().isAfter(cutoff)).collect(Collectors.toList());
-        List<SensorData> previous = data.stream().filter(s -> s.getFecha().isBefore(cutoff)).collect(Collectors.toList());
-        
-        Map<String, String> tendencias = new HashMap<>();
-        if (!recent.isEmpty() && !previous.isEmpty()) {
-            double recentHumedad = recent.stream().mapToDouble(SensorData::getHumedad).average().orElse(0.0);
-            double previousHumedad = previous.stream().mapToDouble(SensorData::getHumedad).average().orElse(0.0);
-            tendencias.put("humedad", recentHumedad > previousHumedad ? "Aumentando" : "Disminuyendo");
-        }
+        // Tendencia de cada métrica en la ventana de TrendTracker
+        Map<String, TrendTracker.Tendencia> tendencias = trendTracker.get(parcela.getParcelaId()).orElse(Map.of());
         stats.put("tendencias", tendencias);
 
         return stats;
     }
 
-    private Map<String, Object> analyzeParcela(Parcela parcela, List<SensorData> data) {
+    // Ventanas dentro de los últimos 30 días se calculan sobre el almacén en memoria;
+    // si aún no está cargado (o la ventana es más larga) se leen los rollups
+    private Map<String, Aggregate> aggregate(String parcelaId, LocalDateTime desde, LocalDateTime hasta) {
+        if (hotStore.covers(desde)) {
+            return hotStore.aggregate(parcelaId, desde, hasta);
+        }
+        return rollupService.aggregate(parcelaId, desde, hasta);
+    }
+
+    // Como aggregate, para una parcela y contando además las lecturas dentro de sus rangos óptimos
+    private Aggregate aggregateWithRanges(Parcela parcela, LocalDateTime desde, LocalDateTime hasta) {
+        Umbrales umbrales = parcelaCache.umbrales(parcela);
+        if (hotStore.covers(desde)) {
+            return hotStore.aggregate(parcela.getParcelaId(), desde, hasta, StatsAccumulator.withRanges(umbrales))
+                .orElseGet(Aggregate::new);
+        }
+        return rollupService.aggregate(parcela.getParcelaId(), desde, hasta, umbrales);
+    }
+
+    private Map<String, Object> analyzeParcela(Parcela parcela, Aggregate data) {
         Map<String, Object> analysis = new HashMap<>();
         analysis.put("parcelaId", parcela.getParcelaId());
         analysis.put("nombre", parcela.getNombre());
         analysis.put("cultivo", parcela.getTipoCultivo());
 
-        if (data.isEmpty()) {
+        if (data.readings() == 0) {
             analysis.put("status", "Sin datos recientes");
             return analysis;
         }
 
         // Calcular promedios
-        double avgHumedad = data.stream().mapToDouble(SensorData::getHumedad).average().orElse(0.0);
-        double avgPh = data.stream().mapToDouble(SensorData::getPh).average().orElse(0.0);
-        double avgNitrogeno = data.stream().mapToDouble(SensorData::getNitrogeno).average().orElse(0.0);
-        double avgTemperatura = data.stream().mapToDouble(SensorData::getTemperatura).average().orElse(0.0);
+        double avgHumedad = data.metric("humedad").mean();
+        double avgPh = data.metric("ph").mean();
+        double avgNitrogeno = data.metric("nitrogeno").mean();
+        double avgTemperatura = data.metric("temperatura").mean();
 
         analysis.put("promedios", Map.of(
             "humedad", Math.round(avgHumedad * 100.0) / 100.0,
@@ -487,28 +693,36 @@ public class InsightsService {
             "temperatura", Math.round(avgTemperatura * 100.0) / 100.0
         ));
 
+        // Valores descartados de los promedios por anómalos (sensor congelado o picos)
+        Map<String, Long> anomalias = contarAnomalias(data.stats());
+        if (!anomalias.isEmpty()) {
+            analysis.put("anomalias", anomalias);
+        }
+
         // Determinar estado general
-        String status = determineOverallStatus(avgHumedad, avgPh, avgNitrogeno, parcela);
+        String status = parcelaCache.umbrales(parcela).calificacion(avgHumedad, avgPh, avgNitrogeno);
         analysis.put("status", status);
 
-        // Última lectura
-        SensorData ultimaLectura = data.get(0); // asumiendo que están ordenados por fecha desc
-        analysis.put("ultimaLectura", Map.of(
-            "fecha", ultimaLectura.getFecha().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-            "humedad", ultimaLectura.getHumedad(),
-            "ph", ultimaLectura.getPh(),
-            "nitrogeno", ultimaLectura.getNitrogeno(),
-            "temperatura", ultimaLectura.getTemperatura()
-        ));
+        // Última lectura (los agregados no la conservan), desde el índice en memoria
+        latestIndex.get(parcela.getParcelaId()).ifPresent(ultimaLectura -> {
+            // LinkedHashMap: una métrica sin dato (null) no debe tumbar el análisis
+            Map<String, Object> lectura = new LinkedHashMap<>();
+            lectura.put("fecha", ultimaLectura.fecha().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            lectura.put("humedad", ultimaLectura.humedad());
+            lectura.put("ph", ultimaLectura.ph());
+            lectura.put("nitrogeno", ultimaLectura.nitrogeno());
+            lectura.put("temperatura", ultimaLectura.temperatura());
+            analysis.put("ultimaLectura", lectura);
+        });
 
         return analysis;
     }
 
-    private Map<String, Object> generateGeneralStats(List<Parcela> parcelas, List<SensorData> recentData) {
+    private Map<String, Object> generateGeneralStats(List<Parcela> parcelas, Aggregate recentData) {
         Map<String, Object> stats = new HashMap<>();
         stats.put("tipo", "estadisticas_generales");
         stats.put("totalParcelas", parcelas.size());
-        stats.put("totalLecturas", recentData.size());
+        stats.put("totalLecturas", recentData.readings());
 
         // Distribución por cultivo - filtrar nulls y vacíos
         Map<String, Long> cultivoCount = parcelas.stream()
@@ -516,34 +730,16 @@ public class InsightsService {
             .collect(Collectors.groupingBy(Parcela::getTipoCultivo, Collectors.counting()));
         stats.put("distribucionCultivos", cultivoCount);
 
-        // Estados de sensores - filtrar nulls y vacíos, usar estado por defecto si es null
-        Map<String, Long> estadoCount = recentData.stream()
-            .map(s -> s.getEstado() != null && !s.getEstado().trim().isEmpty() ? s.getEstado() : "NORMAL")
-            .collect(Collectors.groupingBy(estado -> estado, Collectors.counting()));
-        stats.put("distribucionEstados", estadoCount);
+        // Estados de sensores (el agregado ya cuenta los null/vacíos como NORMAL)
+        stats.put("distribucionEstados", recentData.estados());
 
         // Agregar estadísticas adicionales
-        if (!recentData.isEmpty()) {
+        if (recentData.readings() > 0) {
             // Promedios generales
-            double avgHumedad = recentData.stream()
-                .filter(s -> s.getHumedad() != null)
-                .mapToDouble(SensorData::getHumedad)
-                .average().orElse(0.0);
-            
-            double avgPh = recentData.stream()
-                .filter(s -> s.getPh() != null)
-                .mapToDouble(SensorData::getPh)
-                .average().orElse(0.0);
-            
-            double avgNitrogeno = recentData.stream()
-                .filter(s -> s.getNitrogeno() != null)
-                .mapToDouble(SensorData::getNitrogeno)
-                .average().orElse(0.0);
-            
-            double avgTemperatura = recentData.stream()
-                .filter(s -> s.getTemperatura() != null)
-                .mapToDouble(SensorData::getTemperatura)
-                .average().orElse(0.0);
+            double avgHumedad = recentData.metric("humedad").mean();
+            double avgPh = recentData.metric("ph").mean();
+            double avgNitrogeno = recentData.metric("nitrogeno").mean();
+            double avgTemperatura = recentData.metric("temperatura").mean();
 
             stats.put("promediosGenerales", Map.of(
                 "humedad", Math.round(avgHumedad * 100.0) / 100.0,
@@ -556,95 +752,113 @@ public class InsightsService {
         return stats;
     }
 
-    private String determineOverallStatus(double humedad, double ph, double nitrogeno, Parcela parcela) {
-        try {
-            // Verificar si la parcela tiene rangos óptimos definidos
-            if (parcela.getHumedadOptimaMin() == null || parcela.getHumedadOptimaMax() == null ||
-                parcela.getPhOptimoMin() == null || parcela.getPhOptimoMax() == null ||
-                parcela.getNitrogenoOptimoMin() == null || parcela.getNitrogenoOptimoMax() == null) {
-                
-                // Usar rangos por defecto basados en el tipo de cultivo
-                return determineStatusByDefaults(humedad, ph, nitrogeno, parcela.getTipoCultivo());
+    private Map<String, Object> generateDetailedStats(Aggregate data, Parcela parcela) {
+        StatsAccumulator stats = data.stats();
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+            if (stats.count(m) == 0) {
+                continue;
             }
-
-            boolean humedadOk = humedad >= parcela.getHumedadOptimaMin() && humedad <= parcela.getHumedadOptimaMax();
-            boolean phOk = ph >= parcela.getPhOptimoMin() && ph <= parcela.getPhOptimoMax();
-            boolean nitrogenoOk = nitrogeno >= parcela.getNitrogenoOptimoMin() && nitrogeno <= parcela.getNitrogenoOptimoMax();
-
-            int okCount = (humedadOk ? 1 : 0) + (phOk ? 1 : 0) + (nitrogenoOk ? 1 : 0);
-
-            if (okCount == 3) return "EXCELENTE";
-            if (okCount >= 2) return "BUENO";
-            if (okCount == 1) return "REGULAR";
-            return "CRITICO";
-            
-        } catch (Exception e) {
-            // En caso de error, usar evaluación por defecto
-            return determineStatusByDefaults(humedad, ph, nitrogeno, parcela.getTipoCultivo());
+            Map<String, Object> metrica = new LinkedHashMap<>();
+            metrica.put("lecturas", stats.count(m));
+            metrica.put("promedio", redondear(stats.mean(m)));
+            metrica.put("desviacionEstandar", redondear(stats.stddev(m)));
+            metrica.put("varianza", redondear(stats.variance(m)));
+            metrica.put("minimo", redondear(stats.min(m)));
+            metrica.put("maximo", redondear(stats.max(m)));
+            metrica.put("anomalias", stats.anomalies(m));
+            // Sólo humedad, pH y nitrógeno tienen rango óptimo
+            ParcelaCache.Rango rango = stats.range(m);
+            if (rango != null) {
+                metrica.put("rangoOptimo", Map.of("min", rango.min(), "max", rango.max()));
+                metrica.put("porcentajeEnRango", redondear(stats.inRangePercent(m)));
+            }
+            metricas.put(SensorRollupService.METRICAS[m], metrica);
         }
-    }
-
-    private String determineStatusByDefaults(double humedad, double ph, double nitrogeno, String tipoCultivo) {
-        // Rangos por defecto según tipo de cultivo
-        Map<String, Map<String, double[]>> rangosPorCultivo = Map.of(
-            "Maíz", Map.of(
-                "humedad", new double[]{60.0, 80.0},
-                "ph", new double[]{6.0, 7.0},
-                "nitrogeno", new double[]{120.0, 180.0}
-            ),
-            "Trigo", Map.of(
-                "humedad", new double[]{50.0, 70.0},
-                "ph", new double[]{6.5, 7.5},
-                "nitrogeno", new double[]{100.0, 150.0}
-            ),
-            "Soja", Map.of(
-                "humedad", new double[]{55.0, 75.0},
-                "ph", new double[]{6.0, 7.0},
-                "nitrogeno", new double[]{80.0, 120.0}
-            )
-        );
-
-        // Usar rangos por defecto (Maíz si no se encuentra el cultivo)
-        Map<String, double[]> rangos = rangosPorCultivo.getOrDefault(
-            tipoCultivo != null ? tipoCultivo : "Maíz", 
-            rangosPorCultivo.get("Maíz")
-        );
-
-        boolean humedadOk = humedad >= rangos.get("humedad")[0] && humedad <= rangos.get("humedad")[1];
-        boolean phOk = ph >= rangos.get("ph")[0] && ph <= rangos.get("ph")[1];
-        boolean nitrogenoOk = nitrogeno >= rangos.get("nitrogeno")[0] && nitrogeno <= rangos.get("nitrogeno")[1];
 
-        int okCount = (humedadOk ? 1 : 0) + (phOk ? 1 : 0) + (nitrogenoOk ? 1 : 0);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalLecturas", data.readings());
+        result.put("metricas", metricas);
+        result.put("distribucionEstados", data.estados());
+        result.put("rangosPorDefecto", parcelaCache.umbrales(parcela).porDefecto());
+        return result;
+    }
 
-        if (okCount == 3) return "EXCELENTE";
-        if (okCount >= 2) return "BUENO";
-        if (okCount == 1) return "REGULAR";
-        return "CRITICO";
+    // Métricas con valores anómalos y cuántos, en el orden de SensorRollupService.METRICAS
+    private static Map<String, Long> contarAnomalias(StatsAccumulator stats) {
+        Map<String, Long> anomalias = new LinkedHashMap<>();
+        for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+            if (stats.anomalies(m) > 0) {
+                anomalias.put(SensorRollupService.METRICAS[m], stats.anomalies(m));
+            }
+        }
+        return anomalias;
     }
 
-    private Map<String, Object> generateDetailedStats(List<SensorData> data, Parcela parcela) {
-        // Implementar estadísticas detalladas
-        return Map.of("mensaje", "Estadísticas detalladas en desarrollo");
+    private static double redondear(double valor) {
+        return Math.round(valor * 100.0) / 100.0;
     }
 
-    private Map<String, Object> analyzeTrends(List<SensorData> data) {
-        // Implementar análisis de tendencias
-        return Map.of("mensaje", "Análisis de tendencias en desarrollo");
+    // Regresión lineal y EWMA por métrica, ya mantenidas al ingerir (lectura O(1))
+    private Map<String, Object> analyzeTrends(Parcela parcela) {
+        if (!trendTracker.isEnabled()) {
+            return Map.of("mensaje", "Análisis de tendencias desactivado (agroapp.trends.enabled)");
+        }
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        trendTracker.get(parcela.getParcelaId()).orElse(Map.of()).forEach((metrica, tendencia) -> {
+            Map<String, Object> valores = new LinkedHashMap<>();
+            valores.put("direccion", tendencia.direccion());
+            valores.put("lecturas", tendencia.muestras());
+            // NaN no se serializa en JSON: sin pendiente, sin campo
+            if (!Double.isNaN(tendencia.pendientePorDia())) {
+                valores.put("pendientePorDia", Math.round(tendencia.pendientePorDia() * 10000.0) / 10000.0);
+                valores.put("r2", Math.round(tendencia.r2() * 10000.0) / 10000.0);
+            }
+            if (!Double.isNaN(tendencia.ewma())) {
+                valores.put("ewma", redondear(tendencia.ewma()));
+            }
+            metricas.put(metrica, valores);
+        });
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ventanaHoras", trendTracker.windowHours());
+        if (!trendTracker.isReady()) {
+            // Ventana aún cargándose: las métricas pueden estar incompletas o vacías
+            result.put("cargando", true);
+        }
+        result.put("metricas", metricas);
+        return result;
     }
 
-    private List<Map<String, Object>> generateAlerts(List<SensorData> data, Parcela parcela) {
-        // Implementar generación de alertas
-        return List.of(Map.of("mensaje", "Sistema de alertas en desarrollo"));
+    // Alertas del motor de reglas (evaluadas al ingerir): abiertas ahora y cerradas desde la fecha
+    private List<Map<String, Object>> generateAlerts(Parcela parcela, LocalDateTime desde) {
+        List<Map<String, Object>> alertas = new ArrayList<>();
+        for (AlertEngine.Alerta alerta : alertEngine.alertas(parcela.getParcelaId(), desde)) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", alerta.id());
+            item.put("regla", alerta.regla());
+            item.put("metrica", alerta.metrica());
+            item.put("severidad", alerta.severidad());
+            item.put("estado", alerta.fin() == null ? "ABIERTA" : "CERRADA");
+            item.put("umbral", alerta.umbral());
+            item.put("peorValor", alerta.peorValor() == null ? null : redondear(alerta.peorValor()));
+            item.put("inicio", alerta.inicio().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            if (alerta.fin() != null) {
+                item.put("fin", alerta.fin().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            }
+            alertas.add(item);
+        }
+        return alertas;
     }
 
-    private List<Map<String, Object>> generateRecommendations(List<SensorData> data, Parcela parcela) {
+    private List<Map<String, Object>> generateRecommendations(Aggregate data, Parcela parcela) {
         // Implementar generación de recomendaciones
         return List.of(Map.of("mensaje", "Sistema de recomendaciones en desarrollo"));
     }
 
-    private String generateMarkdownReport(Parcela parcela, List<SensorData> data) {
+    private String generateMarkdownReport(Parcela parcela, Aggregate data) {
         // Generar análisis estadístico
-        Map<String, Object> estadisticas = calcularEstadisticasCompletas(data);
+        Map<String, Object> estadisticas = calcularEstadisticasCompletas(data, parcela);
         
         // Generar insights AI
         String aiInsights = generateAIInsightsText(parcela, data, estadisticas);
@@ -666,7 +880,7 @@ public class InsightsService {
         markdown.append(String.format("| **Ubicación** | %s |\n", parcela.getUbicacion()));
         markdown.append(String.format("| **Fecha de Reporte** | %s |\n", LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"))));
         markdown.append(String.format("| **Período Analizado** | Últimos 30 días |\n"));
-        markdown.append(String.format("| **Total de Lecturas** | %d |\n", data.size()));
+        markdown.append(String.format("| **Total de Lecturas** | %d |\n", data.readings()));
         
         markdown.append("\n---\n\n");
         
@@ -701,6 +915,18 @@ public class InsightsService {
             humedadRange.get("min"), humedadRange.get("max"), humedadRange.get("max") - humedadRange.get("min")));
         markdown.append(String.format("| 🌡️ **Temperatura** | %.1f°C | %.1f°C | %.1f°C |\n", 
             tempRange.get("min"), tempRange.get("max"), tempRange.get("max") - tempRange.get("min")));
+
+        Map<String, TrendTracker.Tendencia> tendencias = (Map<String, TrendTracker.Tendencia>) estadisticas.get("tendencias");
+        if (!tendencias.isEmpty()) {
+            markdown.append(String.format("\n### Tendencias (últimas %d horas)\n\n", trendTracker.windowHours()));
+            markdown.append("| Parámetro | Tendencia | Pendiente/día | R² | Media móvil |\n");
+            markdown.append("|-----------|-----------|---------------|----|-------------|\n");
+            tendencias.forEach((metrica, tendencia) -> markdown.append(String.format("| **%s** | %s | %s | %s | %s |\n",
+                metrica, tendencia.direccion(),
+                Double.isNaN(tendencia.pendientePorDia()) ? "-" : String.format("%+.3f", tendencia.pendientePorDia()),
+                Double.isNaN(tendencia.r2()) ? "-" : String.format("%.2f", tendencia.r2()),
+                Double.isNaN(tendencia.ewma()) ? "-" : String.format("%.2f", tendencia.ewma()))));
+        }
         
         markdown.append("\n---\n\n");
         
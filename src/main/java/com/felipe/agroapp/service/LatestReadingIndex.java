@@ -0,0 +1,195 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.SensorDataRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+// Última lectura de cada parcela, en memoria. Se alimenta de las mismas escrituras que el
+// almacén en memoria (al confirmar cada lote) y sustituye la entrada con compare-and-set
+// sólo si la lectura es más nueva: una lectura que llega tarde nunca pisa a una posterior.
+// Empates de fecha: gana el id mayor, igual que en la carga inicial.
+@Component
+public class LatestReadingIndex implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(LatestReadingIndex.class.getName());
+
+    // Una fila por parcela (la de fecha máxima; con empate, todas y el CAS se queda con el id mayor)
+    private static final String WARM_SQL =
+        "SELECT s.id, s.parcela_id, s.humedad, s.nitrogeno, s.ph, s.temperatura, s.luminosidad, s.fecha, s.estado " +
+        "FROM sensor_readings s JOIN (SELECT parcela_id, MAX(fecha) AS fecha FROM sensor_readings GROUP BY parcela_id) m " +
+        "ON s.parcela_id = m.parcela_id AND s.fecha = m.fecha";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SensorDataRepository sensorDataRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, AtomicReference<Latest>> latest = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    private Counter stale;
+
+    // Copia inmutable: la entidad puede seguir modificándose después de indexarla
+    public record Latest(String parcelaId, Long id, LocalDateTime fecha, Double humedad, Double nitrogeno,
+                         Double ph, Double temperatura, Double luminosidad, String estado) {
+
+        // Fecha a microsegundos, la precisión con la que queda en sensor_readings
+        static Latest of(SensorData reading) {
+            return new Latest(reading.getParcelaId(), reading.getId(), reading.getFecha().truncatedTo(ChronoUnit.MICROS),
+                reading.getHumedad(), reading.getNitrogeno(), reading.getPh(), reading.getTemperatura(),
+                reading.getLuminosidad(), reading.getEstado());
+        }
+
+        boolean isNewerThan(Latest other) {
+            int cmp = fecha.compareTo(other.fecha);
+            if (cmp != 0) {
+                return cmp > 0;
+            }
+            return id != null && (other.id == null || id >= other.id);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("agroapp.latest.parcelas", latest, Map::size)
+            .description("Parcelas en el índice de última lectura")
+            .register(meterRegistry);
+        stale = Counter.builder("agroapp.latest.stale")
+            .description("Lecturas más antiguas que la ya indexada para su parcela (llegadas fuera de orden)")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStartup() {
+        warm();
+    }
+
+    public Optional<Latest> get(String parcelaId) {
+        if (!ready) {
+            return Optional.ofNullable(sensorDataRepository.findLatestByParcelaId(parcelaId)).map(Latest::of);
+        }
+        AtomicReference<Latest> ref = latest.get(parcelaId);
+        return ref == null ? Optional.empty() : Optional.ofNullable(ref.get());
+    }
+
+    // Última lectura de todas las parcelas, ordenadas por parcela
+    public List<Latest> all() {
+        if (!ready) {
+            warm();
+        }
+        List<Latest> result = new ArrayList<>(latest.size());
+        for (AtomicReference<Latest> ref : latest.values()) {
+            Latest value = ref.get();
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        result.sort(Comparator.comparing(Latest::parcelaId));
+        return result;
+    }
+
+    // Como SensorHotStore: sólo lo confirmado llega al índice
+    @Override
+    public void committed(List<SensorData> readings) {
+        List<Latest> batch = new ArrayList<>(readings.size());
+        for (SensorData reading : readings) {
+            if (reading.getParcelaId() != null && reading.getFecha() != null) {
+                batch.add(Latest.of(reading));
+            }
+        }
+        offer(batch);
+    }
+
+    // Retención: la entrada desaparece si su lectura quedó antes del corte (y nadie la ha
+    // sustituido entretanto por una más nueva)
+    @Override
+    public void removedBefore(String parcelaId, LocalDateTime corte) {
+        AtomicReference<Latest> ref = latest.get(parcelaId);
+        if (ref != null) {
+            Latest current = ref.get();
+            if (current != null && current.fecha().isBefore(corte)) {
+                ref.compareAndSet(current, null);
+            }
+        }
+    }
+
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        latest.keySet().removeIf(parcelaId -> parcelaId.startsWith(prefijo));
+    }
+
+    @Override
+    public void cleared() {
+        latest.clear();
+    }
+
+    private void offer(List<Latest> batch) {
+        for (Latest candidate : batch) {
+            AtomicReference<Latest> ref = latest.get(candidate.parcelaId());
+            if (ref == null) {
+                ref = latest.computeIfAbsent(candidate.parcelaId(), id -> new AtomicReference<>());
+            }
+            while (true) {
+                Latest current = ref.get();
+                if (current != null && !candidate.isNewerThan(current)) {
+                    stale.increment();
+                    break;
+                }
+                if (ref.compareAndSet(current, candidate)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Las escrituras concurrentes pasan por el mismo CAS: si confirman durante la carga,
+    // la fila de la base de datos (más antigua) no las sustituye
+    private synchronized void warm() {
+        if (ready) {
+            return;
+        }
+        long inicio = System.currentTimeMillis();
+        List<Latest> rows = jdbcTemplate.query(WARM_SQL, LatestReadingIndex::mapRow);
+        offer(rows);
+        ready = true;
+        logger.info("Índice de última lectura: " + latest.size() + " parcelas cargadas en " +
+                    (System.currentTimeMillis() - inicio) + " ms");
+    }
+
+    private static Latest mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp fecha = rs.getTimestamp("fecha");
+        return new Latest(rs.getString("parcela_id"), rs.getLong("id"), fecha.toLocalDateTime(),
+            getDouble(rs, "humedad"), getDouble(rs, "nitrogeno"), getDouble(rs, "ph"),
+            getDouble(rs, "temperatura"), getDouble(rs, "luminosidad"), rs.getString("estado"));
+    }
+
+    private static Double getDouble(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+}
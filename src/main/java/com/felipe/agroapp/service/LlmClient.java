@@ -0,0 +1,378 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.service.InsightProvider.ChatRequest;
+import com.felipe.agroapp.service.InsightProvider.ProviderException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// Cliente del proveedor de insights (agroapp.llm.provider) con las protecciones que le faltaban
+// a la llamada directa con RestTemplate, todas sin bloquear hilos mientras se espera:
+//  - Tiempo máximo por intento (timeout-ms): un endpoint colgado no retiene a nadie.
+//  - Bulkhead: como mucho max-concurrent llamadas en vuelo; las demás fallan al instante.
+//  - Reintentos de los fallos recuperables (timeout, 429, 5xx) hasta retries veces, con
+//    backoff exponencial y jitter completo para que los clientes no reintenten a la vez.
+//  - Circuito: si fallan failure-rate-percent de los últimos window-size intentos (con al menos
+//    minimum-calls), se abre y todo falla al instante durante open-ms; después un solo intento
+//    de prueba decide si se cierra o vuelve a abrirse.
+// Quien llama decide qué hacer con el fallo (InsightsService usa los insights básicos).
+@Component
+public class LlmClient {
+    private static final Logger logger = Logger.getLogger(LlmClient.class.getName());
+
+    @Autowired
+    private List<InsightProvider> providers;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.llm.provider:openai}")
+    private String providerName;
+
+    @Value("${agroapp.llm.timeout-ms:30000}")
+    private long timeoutMs;
+
+    @Value("${agroapp.llm.max-concurrent:8}")
+    private int maxConcurrent;
+
+    @Value("${agroapp.llm.retries:1}")
+    private int retries;
+
+    @Value("${agroapp.llm.retry-base-delay-ms:500}")
+    private long retryBaseDelayMs;
+
+    @Value("${agroapp.llm.retry-max-delay-ms:5000}")
+    private long retryMaxDelayMs;
+
+    @Value("${agroapp.llm.circuit.window-size:20}")
+    private int windowSize;
+
+    @Value("${agroapp.llm.circuit.minimum-calls:10}")
+    private int minimumCalls;
+
+    @Value("${agroapp.llm.circuit.failure-rate-percent:50}")
+    private int failureRatePercent;
+
+    @Value("${agroapp.llm.circuit.open-ms:30000}")
+    private long openMs;
+
+    private InsightProvider provider;
+    private Semaphore bulkhead;
+    private Circuit circuit;
+    private final Map<String, Counter> resultados = new ConcurrentHashMap<>();
+    private Counter reintentos;
+    private Timer latencia;
+
+    // Llamada rechazada sin llegar al proveedor: bulkhead lleno o circuito abierto
+    public static class RejectedException extends RuntimeException {
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (timeoutMs <= 0 || maxConcurrent < 1 || retries < 0 || retryBaseDelayMs < 0 || retryMaxDelayMs < retryBaseDelayMs
+            || windowSize < 1 || minimumCalls < 1 || failureRatePercent < 1 || failureRatePercent > 100 || openMs <= 0) {
+            throw new IllegalArgumentException("Configuración de agroapp.llm inválida");
+        }
+        provider = providers.stream().filter(p -> p.name().equals(providerName)).findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("agroapp.llm.provider desconocido: " + providerName +
+                " (disponibles: " + providers.stream().map(InsightProvider::name).toList() + ")"));
+        bulkhead = new Semaphore(maxConcurrent);
+        circuit = new Circuit();
+        reintentos = Counter.builder("agroapp.llm.retries")
+            .description("Reintentos de llamadas al proveedor de insights")
+            .register(meterRegistry);
+        latencia = Timer.builder("agroapp.llm.latency")
+            .description("Duración de las llamadas al proveedor de insights, reintentos incluidos")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.llm.inflight", this, c -> c.maxConcurrent - c.bulkhead.availablePermits())
+            .description("Llamadas al proveedor de insights en vuelo")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.llm.circuit.state", this, c -> c.circuit.estado().ordinal())
+            .description("Estado del circuito del proveedor de insights (0 cerrado, 1 semiabierto, 2 abierto)")
+            .register(meterRegistry);
+        logger.info("Proveedor de insights: " + provider.name() + (provider.isConfigured() ? "" : " (sin configurar)"));
+    }
+
+    public String providerName() {
+        return provider.name();
+    }
+
+    public boolean isAvailable() {
+        return provider.isConfigured();
+    }
+
+    // Para quien necesita el texto ya: espera sin límite propio porque cada intento tiene el suyo
+    public String completeAndWait(ChatRequest request) {
+        try {
+            return complete(request).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException r ? r : e;
+        }
+    }
+
+    public CompletableFuture<String> complete(ChatRequest request) {
+        if (!circuit.permitir()) {
+            contar("circuito_abierto");
+            return CompletableFuture.failedFuture(new RejectedException("Circuito abierto: proveedor " + provider.name() + " no disponible"));
+        }
+        if (!bulkhead.tryAcquire()) {
+            // El permiso del circuito no se usó: si era el intento de prueba, queda libre otra vez
+            circuit.liberar();
+            contar("bulkhead");
+            return CompletableFuture.failedFuture(new RejectedException("Demasiadas llamadas al proveedor " + provider.name() + " en curso"));
+        }
+        long start = System.nanoTime();
+        return attempt(request, 0)
+            .whenComplete((texto, error) -> {
+                bulkhead.release();
+                latencia.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                contar(error == null ? "ok" : causa(error) instanceof TimeoutException ? "timeout" : "error");
+            });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("provider", provider.name());
+        stats.put("configurado", provider.isConfigured());
+        stats.put("timeoutMs", timeoutMs);
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("enVuelo", maxConcurrent - bulkhead.availablePermits());
+        stats.put("retries", retries);
+        stats.put("circuito", circuit.stats());
+        Map<String, Long> llamadas = new LinkedHashMap<>();
+        resultados.forEach((resultado, counter) -> llamadas.put(resultado, (long) counter.count()));
+        stats.put("llamadas", llamadas);
+        stats.put("reintentos", (long) reintentos.count());
+        stats.put("latenciaMediaMs", latencia.count() == 0 ? 0 : Math.round(latencia.mean(TimeUnit.MILLISECONDS)));
+        stats.put("latenciaMaxMs", Math.round(latencia.max(TimeUnit.MILLISECONDS)));
+        return stats;
+    }
+
+    // Prueba de carga contra el proveedor stub: llamadas con como mucho concurrencia en vuelo
+    // (por encima de max-concurrent el bulkhead rechaza el exceso), sin pasar por la caché
+    public Map<String, Object> loadTest(int llamadas, int concurrencia) {
+        if (!"stub".equals(provider.name())) {
+            throw new IllegalStateException("La prueba de carga sólo se permite con agroapp.llm.provider=stub");
+        }
+        if (llamadas < 1 || llamadas > 10_000 || concurrencia < 1 || concurrencia > 1_000) {
+            throw new IllegalArgumentException("llamadas debe estar entre 1 y 10000 y concurrencia entre 1 y 1000");
+        }
+        Map<String, Object> antes = circuit.stats();
+        Semaphore enVuelo = new Semaphore(concurrencia);
+        CountDownLatch fin = new CountDownLatch(llamadas);
+        long[] latencias = new long[llamadas];
+        Map<String, AtomicInteger> porResultado = new ConcurrentHashMap<>();
+        long reintentosAntes = (long) reintentos.count();
+        long start = System.nanoTime();
+        for (int i = 0; i < llamadas; i++) {
+            enVuelo.acquireUninterruptibly();
+            int n = i;
+            long inicio = System.nanoTime();
+            complete(new ChatRequest("stub-load-test", "prueba", "prueba de carga " + i, 10, 0))
+                .whenComplete((texto, error) -> {
+                    latencias[n] = System.nanoTime() - inicio;
+                    Throwable causa = causa(error);
+                    String resultado = error == null ? "ok" : causa instanceof TimeoutException ? "timeout"
+                        : causa instanceof RejectedException ? "rechazada" : "error";
+                    porResultado.computeIfAbsent(resultado, k -> new AtomicInteger()).incrementAndGet();
+                    enVuelo.release();
+                    fin.countDown();
+                });
+        }
+        try {
+            fin.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Prueba de carga interrumpida", e);
+        }
+        long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Arrays.sort(latencias);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("llamadas", llamadas);
+        result.put("concurrencia", concurrencia);
+        result.put("totalMs", totalMs);
+        result.put("llamadasPorSegundo", totalMs == 0 ? llamadas : Math.round(llamadas * 10000.0 / totalMs) / 10.0);
+        Map<String, Integer> resultados = new LinkedHashMap<>();
+        porResultado.forEach((k, v) -> resultados.put(k, v.get()));
+        result.put("resultados", resultados);
+        result.put("reintentos", (long) reintentos.count() - reintentosAntes);
+        result.put("p50Ms", percentil(latencias, 50));
+        result.put("p95Ms", percentil(latencias, 95));
+        result.put("p99Ms", percentil(latencias, 99));
+        result.put("maxMs", TimeUnit.NANOSECONDS.toMillis(latencias[latencias.length - 1]));
+        result.put("circuitoAntes", antes);
+        result.put("circuitoDespues", circuit.stats());
+        return result;
+    }
+
+    private CompletableFuture<String> attempt(ChatRequest request, int intento) {
+        CompletableFuture<String> llamada = call(request);
+        // Sobre una copia: al vencer el plazo la llamada original se cancela aparte
+        CompletableFuture<String> conLimite = llamada.copy().orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        return conLimite.handle((texto, error) -> {
+            if (error == null) {
+                circuit.registrar(true);
+                return CompletableFuture.completedFuture(texto);
+            }
+            Throwable causa = causa(error);
+            if (causa instanceof TimeoutException) {
+                // Que el proveedor deje de esperar la respuesta si sabe hacerlo
+                llamada.cancel(true);
+            }
+            circuit.registrar(false);
+            boolean recuperable = causa instanceof TimeoutException
+                || causa instanceof ProviderException p && p.isRetryable();
+            if (!recuperable || intento >= retries || !circuit.permitir()) {
+                return CompletableFuture.<String>failedFuture(causa);
+            }
+            reintentos.increment();
+            // Jitter completo: espera aleatoria entre 0 y base * 2^intento (con tope)
+            long tope = Math.min(retryMaxDelayMs, retryBaseDelayMs << Math.min(intento, 20));
+            long espera = tope > 0 ? ThreadLocalRandom.current().nextLong(tope + 1) : 0;
+            return CompletableFuture.supplyAsync(() -> request, CompletableFuture.delayedExecutor(espera, TimeUnit.MILLISECONDS))
+                .thenCompose(r -> attempt(r, intento + 1));
+        }).thenCompose(f -> f);
+    }
+
+    private CompletableFuture<String> call(ChatRequest request) {
+        try {
+            return provider.complete(request);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void contar(String resultado) {
+        resultados.computeIfAbsent(resultado, r -> Counter.builder("agroapp.llm.calls").tag("resultado", r)
+            .description("Llamadas al proveedor de insights por resultado")
+            .register(meterRegistry)).increment();
+    }
+
+    private static Throwable causa(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static long percentil(long[] ordenadas, int p) {
+        int index = Math.min(ordenadas.length - 1, (int) Math.ceil(p / 100.0 * ordenadas.length) - 1);
+        return TimeUnit.NANOSECONDS.toMillis(ordenadas[Math.max(0, index)]);
+    }
+
+    enum Estado { CERRADO, SEMIABIERTO, ABIERTO }
+
+    // Ventana circular con el resultado de los últimos window-size intentos
+    private final class Circuit {
+        private final boolean[] fallos = new boolean[windowSize];
+        private int posicion;
+        private int llenos;
+        private int fallidos;
+        private Estado estado = Estado.CERRADO;
+        private long abiertoHasta;
+        private boolean pruebaEnCurso;
+        private final AtomicLong aperturas = new AtomicLong();
+
+        synchronized Estado estado() {
+            if (estado == Estado.ABIERTO && System.currentTimeMillis() >= abiertoHasta) {
+                return Estado.SEMIABIERTO;
+            }
+            return estado;
+        }
+
+        // Abierto: nada pasa hasta open-ms; después pasa un único intento de prueba
+        synchronized boolean permitir() {
+            if (estado == Estado.ABIERTO) {
+                if (System.currentTimeMillis() < abiertoHasta) {
+                    return false;
+                }
+                estado = Estado.SEMIABIERTO;
+                pruebaEnCurso = false;
+            }
+            if (estado == Estado.SEMIABIERTO) {
+                if (pruebaEnCurso) {
+                    return false;
+                }
+                pruebaEnCurso = true;
+            }
+            return true;
+        }
+
+        synchronized void liberar() {
+            pruebaEnCurso = false;
+        }
+
+        synchronized void registrar(boolean ok) {
+            if (estado == Estado.SEMIABIERTO) {
+                pruebaEnCurso = false;
+                if (ok) {
+                    estado = Estado.CERRADO;
+                    Arrays.fill(fallos, false);
+                    posicion = llenos = fallidos = 0;
+                    logger.info("Circuito del proveedor " + provider.name() + " cerrado");
+                } else {
+                    abrir();
+                }
+                return;
+            }
+            if (estado == Estado.ABIERTO) {
+                return;
+            }
+            if (llenos == fallos.length) {
+                fallidos -= fallos[posicion] ? 1 : 0;
+            } else {
+                llenos++;
+            }
+            fallos[posicion] = !ok;
+            fallidos += ok ? 0 : 1;
+            posicion = (posicion + 1) % fallos.length;
+            if (llenos >= minimumCalls && fallidos * 100 >= failureRatePercent * llenos) {
+                abrir();
+            }
+        }
+
+        private void abrir() {
+            estado = Estado.ABIERTO;
+            abiertoHasta = System.currentTimeMillis() + openMs;
+            aperturas.incrementAndGet();
+            logger.warning("Circuito del proveedor " + provider.name() + " abierto durante " + openMs + " ms");
+        }
+
+        synchronized Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            Estado actual = estado();
+            stats.put("estado", actual.name());
+            stats.put("ventana", llenos);
+            stats.put("fallosEnVentana", fallidos);
+            stats.put("aperturas", aperturas.get());
+            if (actual == Estado.ABIERTO) {
+                stats.put("reabreEnMs", Math.max(0, abiertoHasta - System.currentTimeMillis()));
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.felipe.agroapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Chat completions de OpenAI con el HttpClient asíncrono del JDK: ningún hilo queda bloqueado
+// esperando la respuesta, y la conexión y la petición tienen su propio tiempo máximo.
+@Component
+public class OpenAiInsightProvider implements InsightProvider {
+
+    @Value("${openai.api.key:}")
+    private String apiKey;
+
+    @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}")
+    private String apiUrl;
+
+    @Value("${agroapp.llm.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${agroapp.llm.timeout-ms:30000}")
+    private long timeoutMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HttpClient httpClient;
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+            .build();
+    }
+
+    @Override
+    public String name() {
+        return "openai";
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return apiKey != null && !apiKey.isBlank();
+    }
+
+    @Override
+    public CompletableFuture<String> complete(ChatRequest request) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("model", request.modelo());
+        body.put("messages", List.of(
+            Map.of("role", "system", "content", request.systemPrompt()),
+            Map.of("role", "user", "content", request.userPrompt())
+        ));
+        body.put("temperature", request.temperature());
+        body.put("max_tokens", request.maxTokens());
+        HttpRequest httpRequest;
+        try {
+            httpRequest = HttpRequest.newBuilder(URI.create(apiUrl))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                .build();
+        } catch (IOException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new ProviderException("Petición a OpenAI inválida", e, false));
+        }
+        return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
+            .handle((response, error) -> {
+                if (error != null) {
+                    // Conexión rechazada, timeout de conexión o de lectura: vale la pena reintentar
+                    throw new ProviderException("Error de conexión con OpenAI: " + error.getMessage(), error, true);
+                }
+                return content(request, response);
+            });
+    }
+
+    private String content(ChatRequest request, HttpResponse<String> response) {
+        int status = response.statusCode();
+        if (status >= 400) {
+            throw new ProviderException("OpenAI respondió HTTP " + status, status == 429 || status >= 500);
+        }
+        try {
+            JsonNode content = objectMapper.readTree(response.body()).path("choices").path(0).path("message").path("content");
+            if (!content.isTextual() || content.asText().isBlank()) {
+                throw new ProviderException("Respuesta de " + request.modelo() + " sin contenido", false);
+            }
+            return content.asText();
+        } catch (IOException e) {
+            throw new ProviderException("Respuesta de OpenAI ilegible", e, false);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.Parcela;
+import com.felipe.agroapp.repository.ParcelaRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// Caché de lectura de PARCELAS, que cambia muy poco. Mientras la tabla no pase de max-entries
+// se guarda entera en una instantánea inmutable (por id, por estado y por tipo de cultivo, con
+// los umbrales ya calculados) que se carga en una sola consulta. Por encima, sólo se guardan
+// por id las max-entries más usadas y las listas van a la base de datos.
+// Las escrituras llaman a invalidate(); ttl-seconds cubre las que hagan otras instancias.
+// Las entidades devueltas son compartidas: no se modifican.
+@Component
+public class ParcelaCache {
+    private static final Logger logger = Logger.getLogger(ParcelaCache.class.getName());
+
+    // Rangos por defecto según tipo de cultivo, para parcelas sin rangos óptimos completos
+    // (Maíz si no se encuentra el cultivo)
+    private static final Map<String, Umbrales> UMBRALES_POR_CULTIVO = Map.of(
+        "Maíz", new Umbrales(new Rango(60.0, 80.0), new Rango(6.0, 7.0), new Rango(120.0, 180.0), true),
+        "Trigo", new Umbrales(new Rango(50.0, 70.0), new Rango(6.5, 7.5), new Rango(100.0, 150.0), true),
+        "Soja", new Umbrales(new Rango(55.0, 75.0), new Rango(6.0, 7.0), new Rango(80.0, 120.0), true)
+    );
+
+    @Autowired
+    private ParcelaRepository parcelaRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.parcelas.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.parcelas.cache.max-entries:50000}")
+    private int maxEntries;
+
+    @Value("${agroapp.parcelas.cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    // "LOAD-,SIM-": ids de las parcelas sintéticas del generador de carga y el simulador
+    @Value("${agroapp.simulation.prefixes:LOAD-}")
+    private String simulationPrefixesSpec;
+
+    private List<String> simulationPrefixes;
+
+    private volatile Snapshot snapshot;
+    // Modo acotado (tabla mayor que max-entries): LRU por id
+    private volatile boolean bounded;
+    private volatile long boundedSince;
+    private final Map<String, Entry> recientes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    // Cada invalidación la incrementa: una carga que empezó antes no instala datos viejos
+    private final AtomicLong generation = new AtomicLong();
+
+    private Counter hits;
+    private Counter misses;
+    private Counter loads;
+    private Counter invalidations;
+
+    public record Rango(double min, double max) {
+        public boolean contains(double valor) {
+            return valor >= min && valor <= max;
+        }
+    }
+
+    // Umbrales óptimos de una parcela; porDefecto si vienen de su tipo de cultivo
+    public record Umbrales(Rango humedad, Rango ph, Rango nitrogeno, boolean porDefecto) {
+
+        public static Umbrales of(Parcela parcela) {
+            if (parcela.getHumedadOptimaMin() == null || parcela.getHumedadOptimaMax() == null ||
+                parcela.getPhOptimoMin() == null || parcela.getPhOptimoMax() == null ||
+                parcela.getNitrogenoOptimoMin() == null || parcela.getNitrogenoOptimoMax() == null) {
+                String cultivo = parcela.getTipoCultivo() != null ? parcela.getTipoCultivo() : "Maíz";
+                return UMBRALES_POR_CULTIVO.getOrDefault(cultivo, UMBRALES_POR_CULTIVO.get("Maíz"));
+            }
+            return new Umbrales(
+                new Rango(parcela.getHumedadOptimaMin(), parcela.getHumedadOptimaMax()),
+                new Rango(parcela.getPhOptimoMin(), parcela.getPhOptimoMax()),
+                new Rango(parcela.getNitrogenoOptimoMin(), parcela.getNitrogenoOptimoMax()),
+                false);
+        }
+
+        // Métricas dentro de su rango óptimo (0 a 3)
+        public int dentroDeRango(double humedad, double ph, double nitrogeno) {
+            return (this.humedad.contains(humedad) ? 1 : 0) + (this.ph.contains(ph) ? 1 : 0)
+                + (this.nitrogeno.contains(nitrogeno) ? 1 : 0);
+        }
+
+        // Estado de una lectura, el que se guarda en sensor_readings: NORMAL con las tres
+        // métricas en rango, ALERTA con una fuera y CRITICO con más. Sin dato no cuenta como fuera.
+        public String estadoLectura(Double humedad, Double ph, Double nitrogeno) {
+            int fuera = (humedad != null && !this.humedad.contains(humedad) ? 1 : 0)
+                + (ph != null && !this.ph.contains(ph) ? 1 : 0)
+                + (nitrogeno != null && !this.nitrogeno.contains(nitrogeno) ? 1 : 0);
+            if (fuera == 0) return "NORMAL";
+            if (fuera == 1) return "ALERTA";
+            return "CRITICO";
+        }
+
+        // Calificación de la parcela según sus promedios
+        public String calificacion(double humedad, double ph, double nitrogeno) {
+            int okCount = dentroDeRango(humedad, ph, nitrogeno);
+            if (okCount == 3) return "EXCELENTE";
+            if (okCount >= 2) return "BUENO";
+            if (okCount == 1) return "REGULAR";
+            return "CRITICO";
+        }
+    }
+
+    // loadedAt: en modo acotado cada entrada caduca por su cuenta a los ttl-seconds
+    private record Entry(Parcela parcela, Umbrales umbrales, long loadedAt) {
+    }
+
+    private record Snapshot(List<Parcela> all, Map<String, Entry> byId, Map<String, List<Parcela>> byEstado,
+                            Map<String, List<Parcela>> byCultivo, long loadedAt) {
+    }
+
+    @PostConstruct
+    public void init() {
+        simulationPrefixes = new ArrayList<>();
+        for (String prefijo : simulationPrefixesSpec.split(",")) {
+            if (!prefijo.isBlank()) {
+                simulationPrefixes.add(prefijo.trim());
+            }
+        }
+        hits = Counter.builder("agroapp.parcelas.cache.requests").tag("result", "hit")
+            .description("Consultas de parcelas servidas por la caché")
+            .register(meterRegistry);
+        misses = Counter.builder("agroapp.parcelas.cache.requests").tag("result", "miss")
+            .description("Consultas de parcelas que fueron a la base de datos")
+            .register(meterRegistry);
+        loads = Counter.builder("agroapp.parcelas.cache.loads")
+            .description("Cargas completas de la tabla de parcelas")
+            .register(meterRegistry);
+        invalidations = Counter.builder("agroapp.parcelas.cache.invalidations")
+            .description("Invalidaciones por escrituras en parcelas")
+            .register(meterRegistry);
+    }
+
+    // Parcela sintética: sus lecturas se guardan y se consultan como las demás, pero no abren
+    // alertas ni mueven tendencias, series de anomalías o la instantánea de insights
+    public boolean isSimulated(String parcelaId) {
+        for (String prefijo : simulationPrefixes) {
+            if (parcelaId.startsWith(prefijo)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<String> simulationPrefixes() {
+        return simulationPrefixes;
+    }
+
+    public Optional<Parcela> findById(String parcelaId) {
+        return entry(parcelaId).map(Entry::parcela);
+    }
+
+    public List<Parcela> findAll() {
+        Snapshot current = current();
+        if (current == null) {
+            misses.increment();
+            return parcelaRepository.findAll();
+        }
+        return current.all();
+    }
+
+    public List<Parcela> findByEstado(String estado) {
+        Snapshot current = current();
+        if (current == null) {
+            misses.increment();
+            return parcelaRepository.findByEstado(estado);
+        }
+        return current.byEstado().getOrDefault(estado, List.of());
+    }
+
+    public List<Parcela> findByTipoCultivo(String tipoCultivo) {
+        Snapshot current = current();
+        if (current == null) {
+            misses.increment();
+            return parcelaRepository.findByTipoCultivo(tipoCultivo);
+        }
+        return current.byCultivo().getOrDefault(tipoCultivo, List.of());
+    }
+
+    public Umbrales umbrales(Parcela parcela) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            Entry entry = current.byId().get(parcela.getParcelaId());
+            if (entry != null && entry.parcela() == parcela) {
+                return entry.umbrales();
+            }
+        }
+        return Umbrales.of(parcela);
+    }
+
+    // Tras escribir en PARCELAS. Dentro de una transacción se invalida también al confirmar:
+    // una lectura entre medias habría vuelto a cargar el estado anterior
+    public void invalidate() {
+        invalidateNow();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateNow();
+                }
+            });
+        }
+    }
+
+    // Cambia con cada invalidación: quien derive datos de las parcelas sabe cuándo rehacerlos
+    public long generation() {
+        return generation.get();
+    }
+
+    public Map<String, Object> stats() {
+        double hitCount = hits.count();
+        double total = hitCount + misses.count();
+        Snapshot current = snapshot;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("mode", bounded ? "bounded" : "snapshot");
+        stats.put("maxEntries", maxEntries);
+        synchronized (recientes) {
+            stats.put("entries", bounded ? recientes.size() : current != null ? current.all().size() : 0);
+        }
+        stats.put("hits", Math.round(hitCount));
+        stats.put("misses", Math.round(misses.count()));
+        stats.put("hitRate", total == 0 ? 0.0 : Math.round(hitCount / total * 10000.0) / 10000.0);
+        stats.put("loads", Math.round(loads.count()));
+        stats.put("invalidations", Math.round(invalidations.count()));
+        return stats;
+    }
+
+    private void invalidateNow() {
+        generation.incrementAndGet();
+        snapshot = null;
+        bounded = false;
+        synchronized (recientes) {
+            recientes.clear();
+        }
+        invalidations.increment();
+    }
+
+    private Optional<Entry> entry(String parcelaId) {
+        Snapshot current = current();
+        if (current != null) {
+            return Optional.ofNullable(current.byId().get(parcelaId));
+        }
+        if (bounded) {
+            Entry entry;
+            synchronized (recientes) {
+                entry = recientes.get(parcelaId);
+                if (entry != null && expired(entry.loadedAt(), System.nanoTime())) {
+                    recientes.remove(parcelaId);
+                    entry = null;
+                }
+            }
+            if (entry != null) {
+                hits.increment();
+                return Optional.of(entry);
+            }
+        }
+        misses.increment();
+        long gen = generation.get();
+        long now = System.nanoTime();
+        Optional<Entry> loaded = parcelaRepository.findById(parcelaId).map(p -> new Entry(p, Umbrales.of(p), now));
+        if (bounded && loaded.isPresent()) {
+            synchronized (recientes) {
+                if (generation.get() == gen) {
+                    recientes.put(parcelaId, loaded.get());
+                }
+            }
+        }
+        return loaded;
+    }
+
+    // Instantánea vigente, cargándola si hace falta (cuenta el acierto o el fallo); null si la
+    // caché está desactivada o la tabla no cabe, y entonces el fallo lo cuenta el llamador
+    private Snapshot current() {
+        if (!enabled) {
+            return null;
+        }
+        long now = System.nanoTime();
+        Snapshot current = snapshot;
+        if (current != null && !expired(current.loadedAt(), now)) {
+            hits.increment();
+            return current;
+        }
+        if (bounded && !expired(boundedSince, now)) {
+            return null;
+        }
+        return load(now);
+    }
+
+    private synchronized Snapshot load(long now) {
+        Snapshot current = snapshot;
+        if (current != null && !expired(current.loadedAt(), now)) {
+            hits.increment();
+            return current;
+        }
+        long gen = generation.get();
+        loads.increment();
+        if (parcelaRepository.count() > maxEntries) {
+            if (!bounded) {
+                logger.info("Caché de parcelas: más de " + maxEntries + " parcelas, sólo se guardan por id");
+                // Lo que quedara de un paso anterior por el modo acotado puede estar desfasado
+                synchronized (recientes) {
+                    recientes.clear();
+                }
+            }
+            snapshot = null;
+            bounded = true;
+            boundedSince = now;
+            return null;
+        }
+        misses.increment();
+        Snapshot loaded = build(parcelaRepository.findAll(), now);
+        if (generation.get() == gen) {
+            snapshot = loaded;
+            if (bounded) {
+                bounded = false;
+                synchronized (recientes) {
+                    recientes.clear();
+                }
+            }
+        }
+        // Aunque una invalidación la deje sin instalar, esta llamada puede usarla: se leyó después
+        return loaded;
+    }
+
+    private boolean expired(long loadedAt, long now) {
+        return now - loadedAt > TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    private static Snapshot build(List<Parcela> parcelas, long loadedAt) {
+        Map<String, Entry> byId = new HashMap<>(parcelas.size() * 2);
+        Map<String, List<Parcela>> byEstado = new HashMap<>();
+        Map<String, List<Parcela>> byCultivo = new HashMap<>();
+        for (Parcela parcela : parcelas) {
+            byId.put(parcela.getParcelaId(), new Entry(parcela, Umbrales.of(parcela), loadedAt));
+            if (parcela.getEstado() != null) {
+                byEstado.computeIfAbsent(parcela.getEstado(), k -> new ArrayList<>()).add(parcela);
+            }
+            if (parcela.getTipoCultivo() != null) {
+                byCultivo.computeIfAbsent(parcela.getTipoCultivo(), k -> new ArrayList<>()).add(parcela);
+            }
+        }
+        byEstado.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        byCultivo.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        return new Snapshot(Collections.unmodifiableList(new ArrayList<>(parcelas)), Collections.unmodifiableMap(byId),
+            Collections.unmodifiableMap(byEstado), Collections.unmodifiableMap(byCultivo), loadedAt);
+    }
+}
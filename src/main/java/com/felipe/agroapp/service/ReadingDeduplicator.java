@@ -0,0 +1,407 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.SensorDataRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+// Deduplicación de reintentos de gateways por (parcela_id, fecha) antes de encolar.
+// Por parcela se guarda una ventana exacta de las claves más recientes y un filtro de
+// Bloom con dos generaciones para el histórico. Sólo la ventana rechaza: un positivo del
+// Bloom fuera de la ventana puede ser falso, así que la lectura sigue marcada como
+// duplicadoPosible y SensorBatchWriter la inserta con el INSERT condicional, donde la
+// restricción única uk_sensor_readings_parcela_fecha arbitra. Las negativas van al insert
+// por lotes normal.
+@Component
+public class ReadingDeduplicator implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(ReadingDeduplicator.class.getName());
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long WARM_RETRY_MS = 5_000;
+
+    @Autowired
+    private SensorDataRepository sensorDataRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.ingest.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.ingest.dedup.window-size:4096}")
+    private int windowSize;
+
+    @Value("${agroapp.ingest.dedup.filter-max-readings:65536}")
+    private int filterMaxReadings;
+
+    @Value("${agroapp.ingest.dedup.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${agroapp.ingest.dedup.warmup-hours:24}")
+    private int warmupHours;
+
+    private final Map<String, ParcelaFilter> filters = new ConcurrentHashMap<>();
+
+    private Counter checked;
+    private Counter memoryDuplicates;
+    private Counter databaseDuplicates;
+    private Counter databaseArbitrations;
+
+    @PostConstruct
+    public void init() {
+        checked = Counter.builder("agroapp.ingest.dedup.checked")
+            .description("Lecturas comprobadas por el deduplicador")
+            .register(meterRegistry);
+        memoryDuplicates = Counter.builder("agroapp.ingest.duplicates")
+            .tag("detected", "memory")
+            .description("Lecturas duplicadas descartadas")
+            .register(meterRegistry);
+        databaseDuplicates = Counter.builder("agroapp.ingest.duplicates")
+            .tag("detected", "database")
+            .description("Lecturas duplicadas descartadas")
+            .register(meterRegistry);
+        databaseArbitrations = Counter.builder("agroapp.ingest.dedup.arbitrations")
+            .description("Positivos del filtro de Bloom fuera de la ventana exacta, resueltos por la base de datos")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.ingest.duplicate.rate", this, ReadingDeduplicator::duplicateRate)
+            .description("Fracción de lecturas recibidas que eran duplicadas")
+            .register(meterRegistry);
+    }
+
+    // Devuelve las lecturas nuevas y las registra; las duplicadas (también dentro del
+    // propio lote) se descartan. Si el lote no llega a encolarse hay que llamar a forget.
+    public List<SensorData> admit(List<SensorData> readings) {
+        if (!enabled || readings.isEmpty()) {
+            return readings;
+        }
+        List<SensorData> admitted = new ArrayList<>(readings.size());
+        int duplicates = 0;
+        int suspects = 0;
+        for (SensorData reading : readings) {
+            ParcelaFilter filter = filterFor(reading.getParcelaId());
+            long key = key(reading.getFecha());
+            synchronized (filter) {
+                if (!filter.warmed && System.currentTimeMillis() >= filter.warmRetryAt) {
+                    warm(reading.getParcelaId(), filter);
+                }
+                if (filter.window.contains(key)) {
+                    duplicates++;
+                    continue;
+                }
+                boolean posible = filter.mightContain(key);
+                if (posible) {
+                    suspects++;
+                }
+                reading.setDuplicadoPosible(posible);
+                filter.add(key);
+            }
+            admitted.add(reading);
+        }
+        checked.increment(readings.size());
+        memoryDuplicates.increment(duplicates);
+        databaseArbitrations.increment(suspects);
+        return admitted;
+    }
+
+    // Deshace admit para un lote que no se aceptó (cola llena o fallo de escritura),
+    // así el reintento del gateway no se toma por duplicado. El Bloom no admite
+    // borrado: como mucho deja un falso positivo más para la base de datos.
+    public void forget(List<SensorData> readings) {
+        if (!enabled) {
+            return;
+        }
+        for (SensorData reading : readings) {
+            ParcelaFilter filter = filters.get(reading.getParcelaId());
+            if (filter != null) {
+                synchronized (filter) {
+                    filter.window.forget(key(reading.getFecha()));
+                }
+            }
+        }
+    }
+
+    // Tras borrar parcelas: sus ventanas y filtros ya no reflejan la tabla
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        filters.keySet().removeIf(parcelaId -> parcelaId.startsWith(prefijo));
+    }
+
+    @Override
+    public void cleared() {
+        filters.clear();
+    }
+
+    public void recordDatabaseDuplicates(int count) {
+        if (count > 0) {
+            databaseDuplicates.increment(count);
+        }
+    }
+
+    public double duplicateRate() {
+        double total = checked.count();
+        return total == 0 ? 0.0 : (memoryDuplicates.count() + databaseDuplicates.count()) / total;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("checked", Math.round(checked.count()));
+        stats.put("duplicatesMemory", Math.round(memoryDuplicates.count()));
+        stats.put("duplicatesDatabase", Math.round(databaseDuplicates.count()));
+        stats.put("databaseArbitrations", Math.round(databaseArbitrations.count()));
+        stats.put("duplicateRate", Math.round(duplicateRate() * 10000.0) / 10000.0);
+        stats.put("parcelasTracked", filters.size());
+        return stats;
+    }
+
+    private ParcelaFilter filterFor(String parcelaId) {
+        ParcelaFilter filter = filters.get(parcelaId);
+        return filter != null ? filter
+            : filters.computeIfAbsent(parcelaId, id -> new ParcelaFilter(windowSize, filterMaxReadings, falsePositiveRate));
+    }
+
+    // La primera vez que aparece una parcela se precargan sus fechas más recientes (como
+    // mucho una ventana), así los reintentos tras un reinicio se siguen descartando en
+    // memoria. Se ejecuta con el lock de la parcela: una sola consulta aunque lleguen
+    // varios lotes a la vez. Lo anterior a la ventana lo arbitra la base de datos.
+    // Si la consulta falla se reintenta pasados WARM_RETRY_MS, no en cada lectura.
+    private void warm(String parcelaId, ParcelaFilter filter) {
+        try {
+            List<LocalDateTime> fechas = sensorDataRepository.findRecentFechasByParcelaId(
+                parcelaId, LocalDateTime.now().minusHours(warmupHours), PageRequest.of(0, windowSize));
+            for (int i = fechas.size() - 1; i >= 0; i--) {
+                filter.add(key(fechas.get(i)));
+            }
+            filter.warmed = true;
+        } catch (Exception e) {
+            filter.warmRetryAt = System.currentTimeMillis() + WARM_RETRY_MS;
+            logger.warning("No se pudieron precargar las fechas de " + parcelaId + ": " + e.getMessage());
+        }
+    }
+
+    // Microsegundos: la precisión de las columnas TIMESTAMP de Oracle y H2
+    private static long key(LocalDateTime fecha) {
+        return fecha.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + fecha.getNano() / 1_000;
+    }
+
+    private static final class ParcelaFilter {
+        final RecentWindow window;
+        boolean warmed;
+        long warmRetryAt;
+        private final int maxReadings;
+        private final double falsePositiveRate;
+        private BloomFilter current;
+        private BloomFilter previous;
+
+        ParcelaFilter(int windowSize, int maxReadings, double falsePositiveRate) {
+            this.window = new RecentWindow(windowSize);
+            this.maxReadings = maxReadings;
+            this.falsePositiveRate = falsePositiveRate;
+            this.current = new BloomFilter(Math.min(INITIAL_CAPACITY, maxReadings), falsePositiveRate);
+        }
+
+        boolean mightContain(long key) {
+            return current.mightContain(key) || (previous != null && previous.mightContain(key));
+        }
+
+        // Al llenarse la generación actual pasa a ser la anterior y se descarta la más
+        // vieja; la capacidad se duplica hasta el máximo, así las parcelas con poco
+        // tráfico ocupan poca memoria.
+        void add(long key) {
+            if (current.isFull()) {
+                previous = current;
+                current = new BloomFilter(Math.min(maxReadings, current.capacity * 2), falsePositiveRate);
+            }
+            current.add(key);
+            window.add(key);
+        }
+    }
+
+    private static final class BloomFilter {
+        final int capacity;
+        private final long[] bits;
+        private final long numBits;
+        private final int hashes;
+        private int count;
+
+        BloomFilter(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) ((m + 63) / 64)];
+            this.numBits = bits.length * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+        }
+
+        boolean isFull() {
+            return count >= capacity;
+        }
+
+        void add(long key) {
+            long hash = mix(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+            count++;
+        }
+
+        boolean mightContain(long key) {
+            long hash = mix(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Conjunto exacto de las últimas claves por orden de llegada: anillo FIFO para la
+    // expulsión más tabla hash abierta de longs (sin boxing). Crece hasta maxSize.
+    // Una clave olvidada deja su hueco del anillo vacío (EMPTY) hasta que le toca salir.
+    private static final class RecentWindow {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private final int maxSize;
+        private long[] ring;
+        private int head;
+        private int size;
+        private long[] table;
+
+        RecentWindow(int maxSize) {
+            this.maxSize = Math.max(1, maxSize);
+            this.ring = new long[Math.min(64, this.maxSize)];
+            this.table = newTable(128);
+        }
+
+        boolean contains(long key) {
+            int mask = table.length - 1;
+            for (int i = (int) mix(key) & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+                if (table[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long key) {
+            if (contains(key)) {
+                return;
+            }
+            if (size == ring.length) {
+                if (ring.length < maxSize) {
+                    grow();
+                } else {
+                    if (ring[head] != EMPTY) {
+                        remove(ring[head]);
+                    }
+                    head = (head + 1) % ring.length;
+                    size--;
+                }
+            }
+            ring[(head + size) % ring.length] = key;
+            size++;
+            insert(key);
+        }
+
+        // Saca la clave de la tabla y vacía su hueco: si el hueco la conservara, su expulsión
+        // borraría más tarde la misma clave admitida de nuevo. Se busca desde la más reciente,
+        // que es lo que se olvida (lotes recién admitidos).
+        void forget(long key) {
+            for (int i = size - 1; i >= 0; i--) {
+                int slot = (head + i) % ring.length;
+                if (ring[slot] == key) {
+                    ring[slot] = EMPTY;
+                    remove(key);
+                    return;
+                }
+            }
+        }
+
+        // Borrado con desplazamiento hacia atrás (sondeo lineal, sin lápidas)
+        private void remove(long key) {
+            int mask = table.length - 1;
+            int i = (int) mix(key) & mask;
+            while (table[i] != key) {
+                if (table[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            int hole = i;
+            for (int j = (hole + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+                int home = (int) mix(table[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    table[hole] = table[j];
+                    hole = j;
+                }
+            }
+            table[hole] = EMPTY;
+        }
+
+        private void insert(long key) {
+            int mask = table.length - 1;
+            int i = (int) mix(key) & mask;
+            while (table[i] != EMPTY) {
+                if (table[i] == key) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = key;
+        }
+
+        // Los huecos vacíos no se copian
+        private void grow() {
+            long[] bigger = new long[Math.min(maxSize, ring.length * 2)];
+            int copied = 0;
+            for (int i = 0; i < size; i++) {
+                long key = ring[(head + i) % ring.length];
+                if (key != EMPTY) {
+                    bigger[copied++] = key;
+                }
+            }
+            ring = bigger;
+            head = 0;
+            size = copied;
+            table = newTable(Integer.highestOneBit(Math.max(2, ring.length - 1)) * 4);
+            for (int i = 0; i < size; i++) {
+                insert(ring[i]);
+            }
+        }
+
+        private static long[] newTable(int length) {
+            long[] table = new long[length];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+    }
+
+    // Finalizador de SplitMix64
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,121 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Punto único por el que los caminos de escritura y de borrado avisan a los ReadingsListener.
+// Lo confirmado se publica en afterCommit (o en el acto sin transacción): un rollback no deja
+// rastro en memoria. El fallo de un listener tras el commit se registra y no frena al resto,
+// porque las filas ya están escritas. Los insights se marcan al final, con el resto al día.
+// Las lecturas de parcelas sintéticas sólo llegan a los listeners que las aceptan.
+@Component
+public class ReadingsEvents {
+    private static final Logger logger = Logger.getLogger(ReadingsEvents.class.getName());
+
+    @Autowired
+    private List<ReadingsListener> listeners;
+
+    @Autowired
+    private InsightsMaterializer insightsMaterializer;
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    // Desde la transacción del insert por lotes (SensorBatchWriter)
+    public void inserted(List<SensorData> readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+        List<SensorData> copy = List.copyOf(readings);
+        for (ReadingsListener listener : listeners) {
+            listener.inserted(copy);
+        }
+        saved(copy);
+    }
+
+    // Escrituras que no pasan por SensorBatchWriter (repositorio JPA)
+    public void saved(List<SensorData> readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+        List<SensorData> copy = List.copyOf(readings);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    committed(copy);
+                }
+            });
+        } else {
+            committed(copy);
+        }
+    }
+
+    public void removedBefore(String parcelaId, LocalDateTime corte) {
+        for (ReadingsListener listener : listeners) {
+            listener.removedBefore(parcelaId, corte);
+        }
+        insightsMaterializer.markChanged();
+    }
+
+    public void parcelasRemoved(String prefijo) {
+        for (ReadingsListener listener : listeners) {
+            listener.parcelasRemoved(prefijo);
+        }
+        insightsMaterializer.markChanged();
+    }
+
+    public void cleared() {
+        for (ReadingsListener listener : listeners) {
+            listener.cleared();
+        }
+        insightsMaterializer.markChanged();
+    }
+
+    private void committed(List<SensorData> readings) {
+        List<SensorData> reales = null;
+        for (ReadingsListener listener : listeners) {
+            List<SensorData> lote = readings;
+            if (!listener.acceptsSimulated()) {
+                if (reales == null) {
+                    reales = withoutSimulated(readings);
+                }
+                lote = reales;
+            }
+            if (lote.isEmpty()) {
+                continue;
+            }
+            try {
+                listener.committed(lote);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, listener.getClass().getSimpleName() + " no pudo procesar " +
+                           readings.size() + " lecturas confirmadas", e);
+            }
+        }
+        if (reales == null) {
+            reales = withoutSimulated(readings);
+        }
+        if (!reales.isEmpty()) {
+            insightsMaterializer.markChanged();
+        }
+    }
+
+    private List<SensorData> withoutSimulated(List<SensorData> readings) {
+        List<SensorData> reales = new ArrayList<>(readings.size());
+        for (SensorData reading : readings) {
+            if (!parcelaCache.isSimulated(reading.getParcelaId())) {
+                reales.add(reading);
+            }
+        }
+        return reales;
+    }
+}
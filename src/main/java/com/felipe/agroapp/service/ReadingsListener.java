@@ -0,0 +1,37 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Copia derivada de sensor_readings (rollups, memoria, archivo, alertas...). ReadingsEvents
+// le publica cada escritura y cada borrado; implementa sólo las fases que le afectan.
+public interface ReadingsListener {
+
+    // Dentro de la transacción del insert por lotes: un rollback deshace también lo que haga aquí
+    default void inserted(List<SensorData> readings) {
+    }
+
+    // Lecturas ya confirmadas, en el hilo que confirmó; la lista no se debe modificar
+    default void committed(List<SensorData> readings) {
+    }
+
+    // Retención: la parcela ya no tiene lecturas anteriores al corte
+    default void removedBefore(String parcelaId, LocalDateTime corte) {
+    }
+
+    // Se borraron las parcelas cuyo id empieza por el prefijo, con todas sus lecturas
+    default void parcelasRemoved(String prefijo) {
+    }
+
+    // Reinicio completo: no queda ninguna lectura
+    default void cleared() {
+    }
+
+    // false para efectos de negocio (alertas, tendencias, anomalías): committed no recibe las
+    // lecturas de parcelas sintéticas (ParcelaCache.isSimulated)
+    default boolean acceptsSimulated() {
+        return true;
+    }
+}
@@ -0,0 +1,440 @@
+package com.felipe.agroapp.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.felipe.agroapp.model.ReportJob;
+import com.felipe.agroapp.repository.ReportJobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+// Reportes y exportaciones en segundo plano: la petición sólo encola y devuelve un id, y el
+// trabajo corre en un pool de workers hilos, fuera de los de Tomcat. Cada tenant tiene como mucho
+// per-tenant-concurrency trabajos en curso y max-pending-per-tenant en cola; los huecos libres se
+// reparten por turnos entre tenants, así uno con muchos trabajos no bloquea a los demás.
+// El estado y el resultado viven en report_jobs: sobreviven a un reinicio (lo que quedó a medias
+// se vuelve a encolar) y se pueden descargar hasta retention-days después de terminar.
+@Service
+public class ReportJobService {
+    private static final Logger logger = Logger.getLogger(ReportJobService.class.getName());
+
+    public static final String DEFAULT_TENANT = "default";
+    private static final int ERROR_MAX_BYTES = 1000;
+    private static final Pattern TENANT = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Autowired
+    private ReportJobRepository repository;
+
+    @Autowired
+    private InsightsService insightsService;
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.reports.jobs.workers:2}")
+    private int workers;
+
+    @Value("${agroapp.reports.jobs.per-tenant-concurrency:1}")
+    private int perTenantConcurrency;
+
+    @Value("${agroapp.reports.jobs.max-pending-per-tenant:20}")
+    private int maxPendingPerTenant;
+
+    @Value("${agroapp.reports.jobs.max-pending:200}")
+    private int maxPending;
+
+    @Value("${agroapp.reports.jobs.retention-days:7}")
+    private int retentionDays;
+
+    @Value("${agroapp.reports.jobs.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+
+    // Colas por tenant en orden de turno: el que recibe un hueco pasa al final. Todo el estado de
+    // reparto se protege con el monitor de este servicio
+    private final LinkedHashMap<String, Deque<String>> pendientes = new LinkedHashMap<>();
+    private final Map<String, Integer> enCursoPorTenant = new HashMap<>();
+    private int pendientesTotal;
+    private int enCurso;
+    // Esperas de GET ?waitSeconds: se completan cuando el trabajo termina
+    private final Map<String, CompletableFuture<Void>> esperas = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private Counter completados;
+    private Counter fallidos;
+
+    public record Envio(ReportJob job, String rechazo) {
+        public boolean aceptado() {
+            return job != null;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (workers < 1 || perTenantConcurrency < 1 || maxPendingPerTenant < 1 || maxPending < 1 || retentionDays < 1) {
+            throw new IllegalArgumentException("Configuración de agroapp.reports.jobs inválida");
+        }
+        AtomicInteger numero = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "report-job-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        completados = Counter.builder("agroapp.reports.jobs").tag("estado", "completado")
+            .description("Trabajos de reporte terminados")
+            .register(meterRegistry);
+        fallidos = Counter.builder("agroapp.reports.jobs").tag("estado", "fallido")
+            .description("Trabajos de reporte terminados")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.reports.jobs.pending", this, s -> s.contar(false))
+            .description("Trabajos de reporte en cola")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.reports.jobs.running", this, s -> s.contar(true))
+            .description("Trabajos de reporte en curso")
+            .register(meterRegistry);
+    }
+
+    // Lo que un reinicio dejó pendiente o en curso vuelve a la cola, en orden de llegada
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        try {
+            List<ReportJob> sinTerminar = repository.findByEstadoInOrderByCreadoAsc(List.of(ReportJob.PENDIENTE, ReportJob.EN_CURSO));
+            synchronized (this) {
+                for (ReportJob job : sinTerminar) {
+                    pendientes.computeIfAbsent(job.getTenant(), t -> new ArrayDeque<>()).addLast(job.getId());
+                    pendientesTotal++;
+                }
+            }
+            if (!sinTerminar.isEmpty()) {
+                logger.info("Trabajos de reporte reanudados: " + sinTerminar.size());
+            }
+            dispatch();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "No se pudieron reanudar los trabajos de reporte", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public String tenant(String header) {
+        if (header == null || header.isBlank()) {
+            return DEFAULT_TENANT;
+        }
+        if (!TENANT.matcher(header).matches()) {
+            throw new IllegalArgumentException("Tenant inválido: hasta 64 letras, dígitos, '.', '_' o '-'");
+        }
+        return header;
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public Envio submit(String tenant, String tipo, String parcelaId, String formato) {
+        String tipoNormalizado = tipo == null ? ReportJob.EXPORTACION : tipo.trim().toUpperCase();
+        if (!ReportJob.REPORTE.equals(tipoNormalizado) && !ReportJob.EXPORTACION.equals(tipoNormalizado)) {
+            throw new IllegalArgumentException("tipo debe ser REPORTE o EXPORTACION");
+        }
+        if (parcelaId == null || parcelaCache.findById(parcelaId).isEmpty()) {
+            throw new IllegalArgumentException("Parcela no encontrada: " + parcelaId);
+        }
+        ReportJob job = new ReportJob(UUID.randomUUID().toString(), tenant, tipoNormalizado, parcelaId,
+            formato == null || formato.isBlank() ? "json" : formato);
+        synchronized (this) {
+            Deque<String> cola = pendientes.get(tenant);
+            if (pendientesTotal >= maxPending) {
+                return new Envio(null, "Cola de reportes llena, reintente más tarde");
+            }
+            if (cola != null && cola.size() >= maxPendingPerTenant) {
+                return new Envio(null, "Demasiados reportes en cola para el tenant " + tenant);
+            }
+            // Se guarda antes de encolar: un worker no puede encontrar un id que aún no existe
+            repository.save(job);
+            pendientes.computeIfAbsent(tenant, t -> new ArrayDeque<>()).addLast(job.getId());
+            pendientesTotal++;
+        }
+        dispatch();
+        return new Envio(job, null);
+    }
+
+    public Optional<ReportJob> find(String tenant, String id) {
+        return repository.findById(id).filter(job -> job.getTenant().equals(tenant));
+    }
+
+    public List<Map<String, Object>> list(String tenant) {
+        List<Map<String, Object>> trabajos = new ArrayList<>();
+        for (ReportJob job : repository.findTop50ByTenantOrderByCreadoDesc(tenant)) {
+            trabajos.add(status(job));
+        }
+        return trabajos;
+    }
+
+    // Estado del trabajo; con espera > 0 responde en cuanto termine o al cumplirse la espera
+    public CompletableFuture<Optional<Map<String, Object>>> status(String tenant, String id, Duration espera) {
+        Optional<ReportJob> job = find(tenant, id);
+        if (job.isEmpty() || job.get().isTerminado() || espera.isZero() || espera.isNegative()) {
+            return CompletableFuture.completedFuture(job.map(this::status));
+        }
+        CompletableFuture<Void> fin = esperas.computeIfAbsent(id, k -> new CompletableFuture<>());
+        // Pudo terminar entre la lectura y el registro de la espera
+        Optional<ReportJob> releido = find(tenant, id);
+        if (releido.isEmpty() || releido.get().isTerminado()) {
+            esperas.remove(id, fin);
+            return CompletableFuture.completedFuture(releido.map(this::status));
+        }
+        return fin.copy()
+            .completeOnTimeout(null, espera.toMillis(), TimeUnit.MILLISECONDS)
+            .thenApply(v -> find(tenant, id).map(this::status));
+    }
+
+    public Map<String, Object> status(ReportJob job) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", job.getId());
+        status.put("tenant", job.getTenant());
+        status.put("tipo", job.getTipo());
+        status.put("parcelaId", job.getParcelaId());
+        status.put("formato", job.getFormato());
+        status.put("estado", job.getEstado());
+        status.put("creado", job.getCreado());
+        status.put("iniciado", job.getIniciado());
+        status.put("terminado", job.getTerminado());
+        // 0: ya tiene worker aunque aún no consta como EN_CURSO
+        if (ReportJob.PENDIENTE.equals(job.getEstado())) {
+            status.put("posicion", position(job));
+        }
+        if (job.getIniciado() != null) {
+            LocalDateTime fin = job.getTerminado() != null ? job.getTerminado() : LocalDateTime.now();
+            status.put("duracionMs", Duration.between(job.getIniciado(), fin).toMillis());
+        }
+        if (job.getError() != null) {
+            status.put("error", job.getError());
+        }
+        if (ReportJob.COMPLETADO.equals(job.getEstado())) {
+            status.put("resultado", "/api/reports/jobs/" + job.getId() + "/result");
+        }
+        return status;
+    }
+
+    // Resultado de un trabajo completado, tal como lo devolvería el endpoint síncrono
+    public Map<String, Object> result(ReportJob job) {
+        if (!ReportJob.COMPLETADO.equals(job.getEstado())) {
+            throw new IllegalStateException("El trabajo " + job.getId() + " está " + job.getEstado());
+        }
+        try {
+            return objectMapper.readValue(job.getResultado(), new TypeReference<Map<String, Object>>() {});
+        } catch (Exception e) {
+            throw new IllegalStateException("Resultado ilegible del trabajo " + job.getId(), e);
+        }
+    }
+
+    // Cancela un trabajo en cola o borra uno terminado (con su resultado); uno en curso no se toca
+    public void delete(ReportJob job) {
+        synchronized (this) {
+            Deque<String> cola = pendientes.get(job.getTenant());
+            if (cola != null && cola.remove(job.getId())) {
+                pendientesTotal--;
+                job.setEstado(ReportJob.CANCELADO);
+                job.setTerminado(LocalDateTime.now());
+                repository.save(job);
+                finish(job.getId());
+                return;
+            }
+        }
+        if (!job.isTerminado()) {
+            throw new IllegalStateException("El trabajo " + job.getId() + " está en curso");
+        }
+        repository.deleteById(job.getId());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workers);
+        stats.put("perTenantConcurrency", perTenantConcurrency);
+        stats.put("maxPendingPerTenant", maxPendingPerTenant);
+        stats.put("maxPending", maxPending);
+        Map<String, Map<String, Integer>> tenants = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("pendientes", pendientesTotal);
+            stats.put("enCurso", enCurso);
+            pendientes.forEach((tenant, cola) -> tenants.computeIfAbsent(tenant, t -> new LinkedHashMap<>())
+                .put("pendientes", cola.size()));
+            enCursoPorTenant.forEach((tenant, n) -> tenants.computeIfAbsent(tenant, t -> new LinkedHashMap<>())
+                .put("enCurso", n));
+        }
+        stats.put("tenants", tenants);
+        stats.put("completados", (long) completados.count());
+        stats.put("fallidos", (long) fallidos.count());
+        stats.put("retentionDays", retentionDays);
+        return stats;
+    }
+
+    @Scheduled(cron = "${agroapp.reports.jobs.cleanup-cron:0 15 4 * * *}")
+    @Transactional
+    public void purgeExpired() {
+        int borrados = repository.deleteByTerminadoBefore(LocalDateTime.now().minusDays(retentionDays));
+        if (borrados > 0) {
+            logger.info("Trabajos de reporte caducados borrados: " + borrados);
+        }
+    }
+
+    private synchronized int contar(boolean corriendo) {
+        return corriendo ? enCurso : pendientesTotal;
+    }
+
+    // Posición en la cola de su tenant, empezando en 1
+    private synchronized int position(ReportJob job) {
+        Deque<String> cola = pendientes.get(job.getTenant());
+        int posicion = 1;
+        if (cola != null) {
+            for (String id : cola) {
+                if (id.equals(job.getId())) {
+                    return posicion;
+                }
+                posicion++;
+            }
+        }
+        return 0;
+    }
+
+    // Llena los workers libres por turnos: el primer tenant con trabajo en cola y por debajo de
+    // su límite recibe el hueco y pasa al final del turno
+    private void dispatch() {
+        synchronized (this) {
+            boolean asignado = true;
+            while (enCurso < workers && asignado) {
+                asignado = false;
+                Iterator<Map.Entry<String, Deque<String>>> it = pendientes.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Deque<String>> entry = it.next();
+                    String tenant = entry.getKey();
+                    if (enCursoPorTenant.getOrDefault(tenant, 0) >= perTenantConcurrency) {
+                        continue;
+                    }
+                    String id = entry.getValue().pollFirst();
+                    it.remove();
+                    if (id == null) {
+                        continue;
+                    }
+                    if (!entry.getValue().isEmpty()) {
+                        pendientes.put(tenant, entry.getValue());
+                    }
+                    pendientesTotal--;
+                    enCurso++;
+                    enCursoPorTenant.merge(tenant, 1, Integer::sum);
+                    executor.execute(() -> run(tenant, id));
+                    asignado = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void run(String tenant, String id) {
+        try {
+            repository.findById(id).ifPresent(this::execute);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error en el trabajo de reporte " + id, e);
+        } finally {
+            synchronized (this) {
+                enCurso--;
+                enCursoPorTenant.computeIfPresent(tenant, (t, n) -> n > 1 ? n - 1 : null);
+            }
+            finish(id);
+            dispatch();
+        }
+    }
+
+    private void execute(ReportJob job) {
+        job.setEstado(ReportJob.EN_CURSO);
+        job.setIniciado(LocalDateTime.now());
+        repository.save(job);
+        try {
+            Map<String, Object> resultado = ReportJob.REPORTE.equals(job.getTipo())
+                ? insightsService.generateDetailedReport(job.getParcelaId())
+                : insightsService.exportReport(job.getParcelaId(), job.getFormato());
+            // Los servicios informan los fallos con una clave "error" en lugar de excepciones
+            if (resultado.containsKey("error")) {
+                fail(job, String.valueOf(resultado.get("error")));
+                return;
+            }
+            job.setResultado(objectMapper.writeValueAsString(resultado));
+            job.setEstado(ReportJob.COMPLETADO);
+            job.setTerminado(LocalDateTime.now());
+            repository.save(job);
+            completados.increment();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Falló el trabajo de reporte " + job.getId(), e);
+            fail(job, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+        }
+    }
+
+    private void fail(ReportJob job, String error) {
+        job.setEstado(ReportJob.FALLIDO);
+        job.setError(truncateUtf8(error, ERROR_MAX_BYTES));
+        job.setResultado(null);
+        job.setTerminado(LocalDateTime.now());
+        repository.save(job);
+        fallidos.increment();
+    }
+
+    // La columna es VARCHAR2(1000 BYTE) en Oracle: se corta por bytes UTF-8, sin partir un
+    // carácter. Si el guardado fallara, el trabajo se quedaría EN_CURSO para siempre.
+    static String truncateUtf8(String text, int maxBytes) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            int len = cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+            if (bytes + len > maxBytes) {
+                return text.substring(0, i);
+            }
+            bytes += len;
+            i += Character.charCount(cp);
+        }
+        return text;
+    }
+
+    private void finish(String id) {
+        CompletableFuture<Void> fin = esperas.remove(id);
+        if (fin != null) {
+            fin.complete(null);
+        }
+    }
+}
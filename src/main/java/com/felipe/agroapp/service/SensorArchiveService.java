@@ -0,0 +1,519 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Archivo frío de sensor_readings en disco local: las lecturas más antiguas que
+// agroapp.archive.after-days se pasan a archivos <dir>/<parcela>/<yyyy-MM>.grl (bloques
+// CompressedSeries con id y máscara de anomalías, uno por tramo archivado) y se borran de la
+// tabla por lotes de ids.
+// SensorQueryService (páginas y NDJSON) y SensorDataRepository.findByParcelaIdAndFechaBetween
+// completan desde aquí los rangos que empiezan antes de archivedUntil().
+@Component
+public class SensorArchiveService implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(SensorArchiveService.class.getName());
+
+    private static final String FILE_SUFFIX = ".grl";
+
+    private static final String PARCELAS_SQL =
+        "SELECT DISTINCT parcela_id FROM sensor_readings WHERE fecha < ?";
+
+    // Keyset sobre (fecha, id) dentro de la parcela, igual que la paginación de /api/sensors
+    private static final String CHUNK_SQL =
+        "SELECT id, humedad, nitrogeno, ph, temperatura, luminosidad, fecha, estado, anomalias FROM sensor_readings " +
+        "WHERE parcela_id = ? AND fecha < ? AND (fecha > ? OR (fecha = ? AND id > ?)) ORDER BY fecha, id";
+
+    private static final LocalDateTime MIN_FECHA = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${agroapp.archive.dir:data/archive}")
+    private String directory;
+
+    @Value("${agroapp.archive.after-days:90}")
+    private int afterDays;
+
+    @Value("${agroapp.archive.chunk-size:50000}")
+    private int chunkSize;
+
+    // Oracle admite como mucho 1000 expresiones en un IN
+    @Value("${agroapp.archive.delete-chunk-size:1000}")
+    private int deleteChunkSize;
+
+    @Value("${agroapp.hot.window-days:30}")
+    private int hotWindowDays;
+
+    // Escritura de archivos (archivado, borrados) exclusiva frente a las lecturas mapeadas
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Path dir;
+    private Counter archived;
+    private volatile Map<String, Object> lastRun = Map.of("state", "IDLE");
+    // Nada archivado tiene fecha igual o posterior; null mientras el directorio esté vacío
+    private volatile LocalDateTime archivedUntil;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (enabled && afterDays < hotWindowDays) {
+            // El almacén en memoria no se entera de los borrados: no puede solaparse con lo archivado
+            throw new IllegalStateException("agroapp.archive.after-days (" + afterDays +
+                ") no puede ser menor que agroapp.hot.window-days (" + hotWindowDays + ")");
+        }
+        dir = Paths.get(directory);
+        if (enabled) {
+            Files.createDirectories(dir);
+        }
+        archivedUntil = scanArchivedUntil();
+        archived = Counter.builder("agroapp.archive.readings")
+            .description("Lecturas movidas de sensor_readings al archivo frío")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Scheduled(cron = "${agroapp.archive.cron:0 30 3 * * *}")
+    public void archiveScheduled() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            archive();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error en el archivado de lecturas", e);
+        }
+    }
+
+    // Archiva y borra todo lo anterior al corte (hoy a las 00:00 menos after-days)
+    public synchronized Map<String, Object> archive() {
+        if (!enabled) {
+            throw new IllegalStateException("El archivado está deshabilitado (agroapp.archive.enabled)");
+        }
+        LocalDateTime corte = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).minusDays(afterDays);
+        long start = System.currentTimeMillis();
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("state", "RUNNING");
+        progress.put("cutoff", corte.toString());
+        progress.put("startedAt", LocalDateTime.now().toString());
+        lastRun = new LinkedHashMap<>(progress);
+
+        List<String> parcelas = jdbcTemplate.queryForList(PARCELAS_SQL, String.class, Timestamp.valueOf(corte));
+        long lecturas = 0;
+        long bytes = 0;
+        int hechas = 0;
+        for (String parcelaId : parcelas) {
+            long[] resultado = archiveParcela(parcelaId, corte);
+            lecturas += resultado[0];
+            bytes += resultado[1];
+            hechas++;
+            progress.put("parcelas", hechas + "/" + parcelas.size());
+            progress.put("readings", lecturas);
+            // Copia: stats() puede estar serializando la anterior desde otro hilo
+            lastRun = new LinkedHashMap<>(progress);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>(progress);
+        result.put("state", "COMPLETED");
+        result.put("parcelas", parcelas.size());
+        result.put("readings", lecturas);
+        result.put("bytes", bytes);
+        result.put("bytesPerReading", lecturas == 0 ? 0.0 : Math.round(bytes * 100.0 / lecturas) / 100.0);
+        result.put("elapsedMs", System.currentTimeMillis() - start);
+        lastRun = result;
+        if (lecturas > 0 && (archivedUntil == null || archivedUntil.isBefore(corte))) {
+            archivedUntil = corte;
+        }
+        if (lecturas > 0) {
+            logger.info("Archivado: " + lecturas + " lecturas de " + parcelas.size() + " parcelas anteriores a " +
+                        corte + " (" + bytes + " bytes)");
+        }
+        return result;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("afterDays", afterDays);
+        stats.put("dir", dir.toAbsolutePath().toString());
+        stats.put("archivedUntil", archivedUntil == null ? null : archivedUntil.toString());
+        stats.put("lastRun", lastRun);
+        return stats;
+    }
+
+    public LocalDateTime archivedUntil() {
+        return archivedUntil;
+    }
+
+    // Si un rango que empieza en desde puede tener lecturas archivadas; sin esto no se toca el disco
+    public boolean mayHold(LocalDateTime desde) {
+        LocalDateTime hasta = archivedUntil;
+        return hasta != null && desde.isBefore(hasta);
+    }
+
+    // Como read(), para todas las parcelas archivadas
+    public List<SensorData> readAll(LocalDateTime desde, LocalDateTime hasta) {
+        List<SensorData> result = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return result;
+        }
+        List<String> parcelas = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(dir)) {
+            for (Path parcelaDir : (Iterable<Path>) dirs::iterator) {
+                parcelas.add(decode(parcelaDir.getFileName().toString()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer el archivo frío", e);
+        }
+        for (String parcelaId : parcelas) {
+            result.addAll(read(parcelaId, desde, hasta));
+        }
+        return result;
+    }
+
+    // Lecturas archivadas de la parcela con fecha en [desde, hasta], sin orden definido.
+    // Cada archivo mensual se mapea en memoria y sus bloques se recorren sin copiarlos.
+    public List<SensorData> read(String parcelaId, LocalDateTime desde, LocalDateTime hasta) {
+        Path parcelaDir = dir.resolve(encode(parcelaId));
+        List<SensorData> result = new ArrayList<>();
+        if (!Files.isDirectory(parcelaDir)) {
+            return result;
+        }
+        long inicio = CompressedSeries.toMicros(desde);
+        long fin = CompressedSeries.toMicros(hasta);
+        YearMonth primerMes = YearMonth.from(desde);
+        YearMonth ultimoMes = YearMonth.from(hasta);
+        // Un reintento tras una caída entre la escritura y el borrado puede repetir lecturas
+        Set<Long> vistos = new HashSet<>();
+
+        lock.readLock().lock();
+        try (Stream<Path> files = Files.list(parcelaDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                YearMonth mes = month(file);
+                if (mes == null || mes.isBefore(primerMes) || mes.isAfter(ultimoMes)) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    if (channel.size() == 0) {
+                        continue;
+                    }
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    while (buffer.hasRemaining()) {
+                        CompressedSeries block = CompressedSeries.read(buffer);
+                        if (block.lastFecha() < inicio || block.firstFecha() > fin) {
+                            continue;
+                        }
+                        CompressedSeries.Cursor cursor = block.cursor();
+                        while (cursor.next()) {
+                            if (cursor.fecha() >= inicio && cursor.fecha() <= fin && vistos.add(cursor.id())) {
+                                result.add(toSensorData(parcelaId, cursor));
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer el archivo de " + parcelaId, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    // Borra los archivos de las parcelas cuyo id empieza por el prefijo
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try (Stream<Path> parcelas = Files.list(dir)) {
+            for (Path parcelaDir : (Iterable<Path>) parcelas::iterator) {
+                if (decode(parcelaDir.getFileName().toString()).startsWith(prefijo)) {
+                    deleteDirectory(parcelaDir);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo borrar el archivo frío", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void cleared() {
+        parcelasRemoved("");
+    }
+
+    // Retención: borra los meses de la parcela enteramente anteriores al corte. El mes del
+    // corte se conserva; read() sigue filtrando por rango.
+    @Override
+    public void removedBefore(String parcelaId, LocalDateTime corte) {
+        Path parcelaDir = dir.resolve(encode(parcelaId));
+        if (!Files.isDirectory(parcelaDir)) {
+            return;
+        }
+        YearMonth mesCorte = YearMonth.from(corte);
+        lock.writeLock().lock();
+        try (Stream<Path> meses = Files.list(parcelaDir)) {
+            for (Path file : (Iterable<Path>) meses::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(FILE_SUFFIX)
+                        && YearMonth.parse(name.substring(0, name.length() - FILE_SUFFIX.length())).isBefore(mesCorte)) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo borrar el archivo de " + parcelaId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Recorre la parcela por tramos de chunk-size filas: cada tramo se escribe (un bloque por
+    // mes), se sincroniza a disco y sólo entonces se borran sus ids de la tabla.
+    // Devuelve {lecturas, bytes}.
+    private long[] archiveParcela(String parcelaId, LocalDateTime corte) {
+        Chunk chunk = new Chunk(chunkSize);
+        LocalDateTime fecha = MIN_FECHA;
+        long id = Long.MIN_VALUE;
+        long lecturas = 0;
+        long bytes = 0;
+        while (true) {
+            chunk.clear();
+            LocalDateTime desdeFecha = fecha;
+            long desdeId = id;
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(CHUNK_SQL);
+                ps.setFetchSize(1000);
+                ps.setMaxRows(chunkSize);
+                ps.setString(1, parcelaId);
+                ps.setTimestamp(2, Timestamp.valueOf(corte));
+                ps.setTimestamp(3, Timestamp.valueOf(desdeFecha));
+                ps.setTimestamp(4, Timestamp.valueOf(desdeFecha));
+                ps.setLong(5, desdeId);
+                return ps;
+            }, (ResultSet rs) -> {
+                chunk.add(rs);
+            });
+            if (chunk.size == 0) {
+                return new long[] {lecturas, bytes};
+            }
+
+            bytes += writeBlocks(parcelaId, chunk);
+            deleteIds(chunk.ids, chunk.size);
+            archived.increment(chunk.size);
+            lecturas += chunk.size;
+
+            fecha = CompressedSeries.toLocalDateTime(chunk.fechas[chunk.size - 1]);
+            id = chunk.ids[chunk.size - 1];
+            if (chunk.size < chunkSize) {
+                return new long[] {lecturas, bytes};
+            }
+        }
+    }
+
+    private long writeBlocks(String parcelaId, Chunk chunk) {
+        lock.writeLock().lock();
+        try {
+            Path parcelaDir = dir.resolve(encode(parcelaId));
+            Files.createDirectories(parcelaDir);
+            long bytes = 0;
+            int from = 0;
+            while (from < chunk.size) {
+                // Las filas llegan ordenadas por fecha: cada mes es un tramo contiguo
+                YearMonth mes = YearMonth.from(CompressedSeries.toLocalDateTime(chunk.fechas[from]));
+                int to = from + 1;
+                while (to < chunk.size && YearMonth.from(CompressedSeries.toLocalDateTime(chunk.fechas[to])).equals(mes)) {
+                    to++;
+                }
+                CompressedSeries block = chunk.encode(from, to);
+                ByteBuffer buffer = ByteBuffer.allocate(block.sizeBytes());
+                block.writeTo(buffer);
+                buffer.flip();
+                try (FileChannel channel = FileChannel.open(parcelaDir.resolve(mes + FILE_SUFFIX),
+                         StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                bytes += block.sizeBytes();
+                from = to;
+            }
+            return bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir el archivo de " + parcelaId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Borrado por lotes acotados, cada uno en su propia transacción (autocommit de JdbcTemplate)
+    private void deleteIds(long[] ids, int size) {
+        for (int from = 0; from < size; from += deleteChunkSize) {
+            int to = Math.min(size, from + deleteChunkSize);
+            StringBuilder sql = new StringBuilder("DELETE FROM sensor_readings WHERE id IN (");
+            Object[] args = new Object[to - from];
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ", ?");
+                args[i - from] = ids[i];
+            }
+            jdbcTemplate.update(sql.append(')').toString(), args);
+        }
+    }
+
+    // Fin del mes más reciente con archivo: cota superior de lo archivado en ejecuciones anteriores
+    private LocalDateTime scanArchivedUntil() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        YearMonth ultimo = null;
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                YearMonth mes = month(file);
+                if (mes != null && Files.isRegularFile(file) && (ultimo == null || mes.isAfter(ultimo))) {
+                    ultimo = mes;
+                }
+            }
+        }
+        return ultimo == null ? null : ultimo.plusMonths(1).atDay(1).atStartOfDay();
+    }
+
+    private static SensorData toSensorData(String parcelaId, CompressedSeries.Cursor cursor) {
+        SensorData reading = new SensorData(parcelaId, cursor.valueOrNull(0), cursor.valueOrNull(1),
+            cursor.valueOrNull(2), cursor.valueOrNull(3), cursor.valueOrNull(4),
+            CompressedSeries.toLocalDateTime(cursor.fecha()));
+        reading.setId(cursor.id());
+        reading.setEstado(cursor.estado());
+        reading.setAnomalias(cursor.anomalias());
+        return reading;
+    }
+
+    private static YearMonth month(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(FILE_SUFFIX)) {
+            return null;
+        }
+        try {
+            return YearMonth.parse(name.substring(0, name.length() - FILE_SUFFIX.length()));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static void deleteDirectory(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // El id de parcela va codificado para que sea un nombre de directorio válido
+    private static String encode(String parcelaId) {
+        return URLEncoder.encode(parcelaId, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String name) {
+        return URLDecoder.decode(name, StandardCharsets.UTF_8);
+    }
+
+    // Tramo de lecturas en columnas, reutilizado entre consultas
+    private static final class Chunk {
+        final long[] ids;
+        final long[] fechas;
+        final double[][] metricas;
+        final String[] estados;
+        final int[] anomalias;
+        int size;
+
+        Chunk(int capacity) {
+            ids = new long[capacity];
+            fechas = new long[capacity];
+            metricas = new double[CompressedSeries.METRICS][capacity];
+            estados = new String[capacity];
+            anomalias = new int[capacity];
+        }
+
+        void clear() {
+            size = 0;
+            Arrays.fill(estados, null);
+        }
+
+        void add(ResultSet rs) throws SQLException {
+            ids[size] = rs.getLong(1);
+            for (int m = 0; m < CompressedSeries.METRICS; m++) {
+                double value = rs.getDouble(m + 2);
+                metricas[m][size] = rs.wasNull() ? Double.NaN : value;
+            }
+            fechas[size] = CompressedSeries.toMicros(rs.getTimestamp(7).toLocalDateTime());
+            estados[size] = rs.getString(8);
+            // getInt devuelve 0 para NULL: filas anteriores a la detección
+            anomalias[size] = rs.getInt(9);
+            size++;
+        }
+
+        CompressedSeries encode(int from, int to) {
+            int[] decimals = new int[CompressedSeries.METRICS];
+            for (int m = 0; m < decimals.length; m++) {
+                decimals[m] = CompressedSeries.decimalsFor(metricas[m], from, to);
+            }
+            CompressedSeries.Encoder encoder = CompressedSeries.encoder(
+                CompressedSeries.unitFor(fechas, from, to), true, decimals);
+            for (int i = from; i < to; i++) {
+                encoder.append(fechas[i], ids[i], metricas[0][i], metricas[1][i], metricas[2][i],
+                    metricas[3][i], metricas[4][i], estados[i], anomalias[i]);
+            }
+            return encoder.finish();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.IngestCheckpoint;
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.IngestCheckpointRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Escritura masiva de lecturas con inserts JDBC por lotes. Los IDs se asignan
+// antes del insert, así que el trigger trg_sensor_readings_id no toca la secuencia, y
+// AnomalyDetector marca antes las lecturas anómalas.
+// Los rollups horarios y diarios se actualizan en la misma transacción; el almacén
+// en memoria de insights y el índice de última lectura reciben el lote cuando ésta confirma.
+// Las lecturas marcadas duplicadoPosible por ReadingDeduplicator van al INSERT condicional;
+// el resto, al insert por lotes.
+@Component
+public class SensorBatchWriter {
+
+    private static final String INSERT_SQL =
+        "INSERT INTO sensor_readings (id, parcela_id, humedad, nitrogeno, ph, temperatura, luminosidad, fecha, estado, anomalias) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Variante para lotes con duplicados que se escaparon al deduplicador en memoria:
+    // cada fila se inserta sólo si (parcela_id, fecha) no existe todavía
+    private static final String INSERT_IF_ABSENT_SQL =
+        "INSERT INTO sensor_readings (id, parcela_id, humedad, nitrogeno, ph, temperatura, luminosidad, fecha, estado, anomalias) " +
+        "SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ? FROM DUAL " +
+        "WHERE NOT EXISTS (SELECT 1 FROM sensor_readings WHERE parcela_id = ? AND fecha = ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SensorIdAllocator idAllocator;
+
+    @Autowired
+    private AnomalyDetector anomalyDetector;
+
+    @Autowired
+    private IngestCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private ReadingsEvents readingsEvents;
+
+    @Value("${agroapp.ingest.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    // Devuelve las filas insertadas: menos que el lote sólo si alguna duplicadoPosible lo era
+    @Transactional
+    public int write(List<SensorData> readings) {
+        if (readings.isEmpty()) {
+            return 0;
+        }
+
+        assignIds(readings);
+        anomalyDetector.flag(readings);
+        List<SensorData> posibles = new ArrayList<>();
+        List<SensorData> seguras = new ArrayList<>(readings.size());
+        for (SensorData reading : readings) {
+            (reading.isDuplicadoPosible() ? posibles : seguras).add(reading);
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, seguras, jdbcBatchSize, SensorBatchWriter::bind);
+        List<SensorData> inserted = readings;
+        if (!posibles.isEmpty()) {
+            Set<Long> omitidas = insertIfAbsent(posibles);
+            if (!omitidas.isEmpty()) {
+                inserted = new ArrayList<>(readings.size() - omitidas.size());
+                for (SensorData reading : readings) {
+                    if (!omitidas.contains(reading.getId())) {
+                        inserted.add(reading);
+                    }
+                }
+            }
+        }
+        readingsEvents.inserted(inserted);
+        return inserted.size();
+    }
+
+    // Inserta el lote y avanza el checkpoint del WAL en la misma transacción:
+    // tras una caída el replay retoma exactamente desde el último lote confirmado.
+    @Transactional
+    public int write(List<SensorData> readings, String logId, long lsn) {
+        int written = write(readings);
+        checkpointRepository.save(new IngestCheckpoint(logId, lsn, LocalDateTime.now()));
+        return written;
+    }
+
+    // Se usa tras un DuplicateKeyException de write(): aquella transacción ya se deshizo
+    // entera, así que aquí se reintenta el lote completo. Devuelve las filas insertadas.
+    @Transactional
+    public int writeSkippingDuplicates(List<SensorData> readings) {
+        if (readings.isEmpty()) {
+            return 0;
+        }
+
+        assignIds(readings);
+        anomalyDetector.flag(readings);
+        Set<Long> omitidas = insertIfAbsent(readings);
+        List<SensorData> inserted = new ArrayList<>(readings.size() - omitidas.size());
+        for (SensorData reading : readings) {
+            if (!omitidas.contains(reading.getId())) {
+                inserted.add(reading);
+            }
+        }
+        readingsEvents.inserted(inserted);
+        return inserted.size();
+    }
+
+    @Transactional
+    public int writeSkippingDuplicates(List<SensorData> readings, String logId, long lsn) {
+        int written = writeSkippingDuplicates(readings);
+        checkpointRepository.save(new IngestCheckpoint(logId, lsn, LocalDateTime.now()));
+        return written;
+    }
+
+    private void assignIds(List<SensorData> readings) {
+        long[] ids = idAllocator.allocate(readings.size());
+        for (int i = 0; i < readings.size(); i++) {
+            readings.get(i).setId(ids[i]);
+        }
+    }
+
+    // INSERT condicional por lotes; devuelve los ids de las filas que ya existían
+    private Set<Long> insertIfAbsent(List<SensorData> readings) {
+        Set<Long> omitidas = new HashSet<>();
+        int index = 0;
+        for (int[] counts : jdbcTemplate.batchUpdate(INSERT_IF_ABSENT_SQL, readings, jdbcBatchSize, (ps, reading) -> {
+            bind(ps, reading);
+            ps.setString(11, reading.getParcelaId());
+            ps.setTimestamp(12, Timestamp.valueOf(reading.getFecha()));
+        })) {
+            for (int count : counts) {
+                // SUCCESS_NO_INFO (-2): el driver no informa, se cuenta como insertada
+                // (si no lo era, el reconciliador de rollups corrige el conteo)
+                if (count == 0) {
+                    omitidas.add(readings.get(index).getId());
+                }
+                index++;
+            }
+        }
+        return omitidas;
+    }
+
+
+    public long readCheckpoint(String logId) {
+        return checkpointRepository.findById(logId).map(IngestCheckpoint::getLastLsn).orElse(0L);
+    }
+
+    private static void bind(PreparedStatement ps, SensorData reading) throws SQLException {
+        ps.setLong(1, reading.getId());
+        ps.setString(2, reading.getParcelaId());
+        setDouble(ps, 3, reading.getHumedad());
+        setDouble(ps, 4, reading.getNitrogeno());
+        setDouble(ps, 5, reading.getPh());
+        setDouble(ps, 6, reading.getTemperatura());
+        setDouble(ps, 7, reading.getLuminosidad());
+        ps.setTimestamp(8, Timestamp.valueOf(reading.getFecha()));
+        ps.setString(9, reading.getEstado());
+        ps.setInt(10, StatsAccumulator.mask(reading));
+    }
+
+    private static void setDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.DOUBLE);
+        } else {
+            ps.setDouble(index, value);
+        }
+    }
+}
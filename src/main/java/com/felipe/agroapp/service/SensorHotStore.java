@@ -0,0 +1,570 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.service.SensorRollupService.Aggregate;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Copia en memoria de las lecturas de los últimos días (30 por defecto), en columnas primitivas
+// por parcela: fecha en epoch micros, un double[] por métrica, el estado codificado en un byte
+// y otro byte con la máscara de anomalías.
+// Se carga desde sensor_readings al arrancar, se alimenta de SensorBatchWriter al confirmar cada
+// lote y descarta lo que sale de la ventana. Mientras no está lista (carga inicial, recarga o
+// desborde de capacidad) las consultas de insights siguen yendo a los rollups; tras un desborde
+// no vuelve a cargar hasta que la ventana quepa en max-readings.
+@Component
+public class SensorHotStore implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(SensorHotStore.class.getName());
+
+    private static final String WARM_SQL =
+        "SELECT parcela_id, humedad, nitrogeno, ph, temperatura, luminosidad, fecha, estado, anomalias " +
+        "FROM sensor_readings WHERE fecha >= ? ORDER BY fecha";
+
+    // Bytes por lectura en columnas: fecha + 5 métricas + estado + anomalías
+    private static final int BYTES_PER_READING = Long.BYTES + 5 * Double.BYTES + 2;
+    // Estimación de una entidad SensorData en el heap (objeto, Long, 5 Double, LocalDateTime)
+    private static final int BYTES_PER_ENTITY = 216;
+    private static final int INITIAL_CAPACITY = 16;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.hot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.hot.window-days:30}")
+    private int windowDays;
+
+    @Value("${agroapp.hot.max-readings:5000000}")
+    private long maxReadings;
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final AtomicLong readings = new AtomicLong();
+    private final EstadoCodes estados = new EstadoCodes();
+
+    // Límite inferior (epoch micros) desde el que la copia está completa
+    private volatile long coveredFrom = Long.MAX_VALUE;
+    private volatile boolean ready;
+    private volatile boolean warming;
+    // Tras un desborde: no se recarga (ni se acumulan lecturas) mientras la ventana no quepa
+    private volatile boolean desbordado;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("agroapp.hot.readings", readings, AtomicLong::get)
+            .description("Lecturas en el almacén en memoria de insights")
+            .register(meterRegistry);
+        Gauge.builder("agroapp.hot.bytes", this, store -> (double) store.capacityBytes())
+            .description("Bytes reservados por las columnas del almacén en memoria")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::warm, "hot-store-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // true si [desde, ...) cae entero dentro de lo que la copia tiene cargado
+    public boolean covers(LocalDateTime desde) {
+        return ready && toMicros(desde) >= coveredFrom;
+    }
+
+    // Mismo contrato que SensorRollupService.aggregate: agregados por parcela en [desde, hasta)
+    public Map<String, Aggregate> aggregate(String parcelaId, LocalDateTime desde, LocalDateTime hasta) {
+        long inicio = toMicros(desde);
+        long fin = toMicros(hasta);
+        Map<String, Aggregate> result = new HashMap<>();
+        if (parcelaId != null) {
+            aggregate(parcelaId, desde, hasta, new StatsAccumulator()).ifPresent(a -> result.put(parcelaId, a));
+            return result;
+        }
+        series.forEach((id, s) -> s.aggregate(inicio, fin, estados, new StatsAccumulator())
+            .ifPresent(a -> result.put(id, a)));
+        return result;
+    }
+
+    // Parcelas con lecturas en la copia (instantánea)
+    public List<String> parcelaIds() {
+        return new ArrayList<>(series.keySet());
+    }
+
+    // Una parcela, acumulando sobre stats (p. ej. StatsAccumulator.withRanges para contar
+    // las lecturas dentro de los rangos óptimos)
+    public Optional<Aggregate> aggregate(String parcelaId, LocalDateTime desde, LocalDateTime hasta,
+                                         StatsAccumulator stats) {
+        Series s = series.get(parcelaId);
+        return s == null ? Optional.empty() : s.aggregate(toMicros(desde), toMicros(hasta), estados, stats);
+    }
+
+    @Override
+    public void committed(List<SensorData> readings) {
+        if (enabled) {
+            append(readings);
+        }
+    }
+
+    // Reinicio completo del conjunto de datos: el almacén queda vacío y sigue cubriendo la
+    // ventana, las lecturas nuevas llegan por committed
+    @Override
+    public void cleared() {
+        series.clear();
+        readings.set(0);
+    }
+
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        series.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(prefijo)) {
+                return false;
+            }
+            readings.addAndGet(-entry.getValue().size());
+            return true;
+        });
+    }
+
+    // Retención: descarta las lecturas de la parcela anteriores al corte
+    @Override
+    public void removedBefore(String parcelaId, LocalDateTime corte) {
+        Series s = series.get(parcelaId);
+        if (s != null) {
+            readings.addAndGet(-s.evictBefore(toMicros(corte)));
+            series.computeIfPresent(parcelaId, (k, v) -> v.isEmpty() ? null : v);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${agroapp.hot.evict-interval-ms:600000}",
+               initialDelayString = "${agroapp.hot.evict-interval-ms:600000}")
+    public void evictExpired() {
+        if (!enabled || warming) {
+            return;
+        }
+        if (!ready) {
+            // Tras un desborde sólo se recarga cuando la ventana vuelve a caber (retención,
+            // borrados); contar por idx_sensor_fecha es mucho más barato que otra carga completa
+            if (desbordado && windowCount() > maxReadings) {
+                return;
+            }
+            warm();
+            return;
+        }
+        long limite = toMicros(horizon());
+        long removed = 0;
+        for (Series s : series.values()) {
+            removed += s.evictBefore(limite);
+        }
+        for (String id : series.keySet()) {
+            series.computeIfPresent(id, (k, s) -> s.isEmpty() ? null : s);
+        }
+        readings.addAndGet(-removed);
+        coveredFrom = limite;
+        if (removed > 0) {
+            logger.fine("Almacén en memoria: " + removed + " lecturas fuera de la ventana descartadas");
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = readings.get();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("overflow", desbordado);
+        stats.put("windowDays", windowDays);
+        stats.put("parcelas", series.size());
+        stats.put("readings", total);
+        stats.put("columnBytes", total * BYTES_PER_READING);
+        stats.put("allocatedBytes", capacityBytes());
+        stats.put("entityBytesEstimate", total * BYTES_PER_ENTITY);
+        if (coveredFrom != Long.MAX_VALUE) {
+            stats.put("coveredFrom", CompressedSeries.toLocalDateTime(coveredFrom).toString());
+        }
+        return stats;
+    }
+
+    // Codifica cada serie de la ventana con CompressedSeries y la vuelve a recorrer: mide bytes
+    // por lectura y velocidad del formato sobre datos reales, sin cambiar lo que guarda el almacén
+    public Map<String, Object> compressionStats() {
+        long lecturas = 0;
+        long bytes = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (Series s : series.values()) {
+            long start = System.nanoTime();
+            CompressedSeries chunk = s.compress(estados);
+            encodeNanos += System.nanoTime() - start;
+            if (chunk == null) {
+                continue;
+            }
+            start = System.nanoTime();
+            CompressedSeries.Cursor cursor = chunk.cursor();
+            while (cursor.next()) {
+                // sólo se mide el recorrido
+            }
+            decodeNanos += System.nanoTime() - start;
+            lecturas += chunk.count();
+            bytes += chunk.sizeBytes();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("readings", lecturas);
+        stats.put("compressedBytes", bytes);
+        stats.put("bytesPerReading", lecturas == 0 ? 0.0 : Math.round(bytes * 100.0 / lecturas) / 100.0);
+        stats.put("columnBytesPerReading", BYTES_PER_READING);
+        stats.put("encodeMs", Duration.ofNanos(encodeNanos).toMillis());
+        stats.put("decodeMs", Duration.ofNanos(decodeNanos).toMillis());
+        stats.put("decodedReadingsPerSecond", decodeNanos == 0 ? 0 : lecturas * 1_000_000_000L / decodeNanos);
+        return stats;
+    }
+
+    // Carga completa desde sensor_readings. Las lecturas que llegan mientras tanto por
+    // committed entran también: (parcela_id, fecha) es único, así que una fila vista
+    // por los dos caminos se sobrescribe en vez de duplicarse.
+    synchronized void warm() {
+        warming = true;
+        ready = false;
+        desbordado = false;
+        try {
+            LocalDateTime desde = horizon();
+            long limite = toMicros(desde);
+            coveredFrom = limite;
+            series.clear();
+            readings.set(0);
+
+            long start = System.nanoTime();
+            long[] cargadas = {0};
+            boolean[] desborde = {false};
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(WARM_SQL);
+                ps.setFetchSize(1000);
+                ps.setTimestamp(1, Timestamp.valueOf(desde));
+                return ps;
+            }, (ResultSet rs) -> {
+                if (desborde[0]) {
+                    return;
+                }
+                insert(rs.getString(1), toMicros(rs.getTimestamp(7).toLocalDateTime()),
+                    getDouble(rs, 2), getDouble(rs, 3), getDouble(rs, 4), getDouble(rs, 5), getDouble(rs, 6),
+                    estados.code(rs.getString(8)), (byte) rs.getInt(9));
+                if (++cargadas[0] % 100_000 == 0 && readings.get() > maxReadings) {
+                    desborde[0] = true;
+                }
+            });
+            if (desborde[0] || readings.get() > maxReadings) {
+                overflow();
+                return;
+            }
+            // Recuento exacto: un append concurrente con el clear() pudo contar en una serie ya descartada
+            readings.set(series.values().stream().mapToLong(Series::size).sum());
+            ready = true;
+            logger.info("Almacén en memoria cargado: " + readings.get() + " lecturas de " + series.size() +
+                        " parcelas en " + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+        } catch (RuntimeException e) {
+            series.clear();
+            readings.set(0);
+            logger.log(Level.WARNING, "No se pudo cargar el almacén en memoria; insights desde rollups", e);
+        } finally {
+            warming = false;
+        }
+    }
+
+    private void append(List<SensorData> batch) {
+        if (desbordado) {
+            return;
+        }
+        long limite = coveredFrom;
+        for (SensorData reading : batch) {
+            long fecha = toMicros(reading.getFecha());
+            if (fecha < limite) {
+                continue;
+            }
+            insert(reading.getParcelaId(), fecha, value(reading.getHumedad()), value(reading.getNitrogeno()),
+                value(reading.getPh()), value(reading.getTemperatura()), value(reading.getLuminosidad()),
+                estados.code(reading.getEstado()), (byte) StatsAccumulator.mask(reading));
+        }
+        if (ready && readings.get() > maxReadings) {
+            overflow();
+        }
+    }
+
+    private void insert(String parcelaId, long fecha, double humedad, double nitrogeno, double ph,
+                        double temperatura, double luminosidad, byte estado, byte anomalias) {
+        // compute y no computeIfAbsent: la eviction quita series vacías con computeIfPresent
+        boolean[] added = {false};
+        series.compute(parcelaId, (k, s) -> {
+            Series target = s != null ? s : new Series();
+            added[0] = target.insert(fecha, humedad, nitrogeno, ph, temperatura, luminosidad, estado, anomalias);
+            return target;
+        });
+        if (added[0]) {
+            readings.incrementAndGet();
+        }
+    }
+
+    private void overflow() {
+        desbordado = true;
+        ready = false;
+        series.clear();
+        readings.set(0);
+        logger.warning("Almacén en memoria desactivado: la ventana supera agroapp.hot.max-readings=" + maxReadings +
+                       "; insights desde rollups");
+    }
+
+    private long windowCount() {
+        Long n = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sensor_readings WHERE fecha >= ?", Long.class,
+            Timestamp.valueOf(horizon()));
+        return n == null ? 0 : n;
+    }
+
+    private long capacityBytes() {
+        long total = 0;
+        for (Series s : series.values()) {
+            total += s.capacity() * (long) BYTES_PER_READING;
+        }
+        return total;
+    }
+
+    private LocalDateTime horizon() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusDays(windowDays).minusHours(1);
+    }
+
+    static long toMicros(LocalDateTime fecha) {
+        return CompressedSeries.toMicros(fecha);
+    }
+
+    private static double value(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static double getDouble(ResultSet rs, int index) throws SQLException {
+        double value = rs.getDouble(index);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+
+    // Serie de una parcela ordenada por fecha. Las métricas nulas se guardan como NaN.
+    // La fecha va en micros y no en millis porque la unicidad de (parcela_id, fecha) es de
+    // microsegundo: con millis dos lecturas distintas podrían pisarse en insert().
+    static final class Series {
+        private long[] fechas = new long[INITIAL_CAPACITY];
+        private final double[][] metricas = new double[5][INITIAL_CAPACITY];
+        private byte[] estados = new byte[INITIAL_CAPACITY];
+        private byte[] anomalias = new byte[INITIAL_CAPACITY];
+        private int size;
+
+        // Devuelve false si ya había una lectura con esa fecha (se sobrescribe)
+        synchronized boolean insert(long fecha, double humedad, double nitrogeno, double ph,
+                                    double temperatura, double luminosidad, byte estado, byte anomalia) {
+            int pos;
+            if (size == 0 || fecha > fechas[size - 1]) {
+                pos = size;
+            } else {
+                pos = Arrays.binarySearch(fechas, 0, size, fecha);
+                if (pos >= 0) {
+                    set(pos, fecha, humedad, nitrogeno, ph, temperatura, luminosidad, estado, anomalia);
+                    return false;
+                }
+                pos = -pos - 1;
+            }
+            if (size == fechas.length) {
+                resize(size * 2);
+            }
+            if (pos < size) {
+                // Lectura tardía: se abre hueco manteniendo el orden
+                System.arraycopy(fechas, pos, fechas, pos + 1, size - pos);
+                for (double[] columna : metricas) {
+                    System.arraycopy(columna, pos, columna, pos + 1, size - pos);
+                }
+                System.arraycopy(estados, pos, estados, pos + 1, size - pos);
+                System.arraycopy(anomalias, pos, anomalias, pos + 1, size - pos);
+            }
+            set(pos, fecha, humedad, nitrogeno, ph, temperatura, luminosidad, estado, anomalia);
+            size++;
+            return true;
+        }
+
+        synchronized int evictBefore(long limite) {
+            int corte = lowerBound(limite);
+            if (corte == 0) {
+                return 0;
+            }
+            int restantes = size - corte;
+            System.arraycopy(fechas, corte, fechas, 0, restantes);
+            for (double[] columna : metricas) {
+                System.arraycopy(columna, corte, columna, 0, restantes);
+            }
+            System.arraycopy(estados, corte, estados, 0, restantes);
+            System.arraycopy(anomalias, corte, anomalias, 0, restantes);
+            size = restantes;
+            if (fechas.length > INITIAL_CAPACITY && size < fechas.length / 4) {
+                resize(Math.max(INITIAL_CAPACITY, size * 2));
+            }
+            return corte;
+        }
+
+        // Una pasada por las filas del rango; stats llega vacío (con o sin rangos óptimos)
+        synchronized Optional<Aggregate> aggregate(long desde, long hasta, EstadoCodes codes, StatsAccumulator stats) {
+            int inicio = lowerBound(desde);
+            int fin = lowerBound(hasta);
+            if (inicio >= fin) {
+                return Optional.empty();
+            }
+            double[] humedad = metricas[0];
+            double[] nitrogeno = metricas[1];
+            double[] ph = metricas[2];
+            double[] temperatura = metricas[3];
+            double[] luminosidad = metricas[4];
+            long[] conteos = new long[EstadoCodes.MAX_CODES];
+            for (int i = inicio; i < fin; i++) {
+                stats.add(humedad[i], nitrogeno[i], ph[i], temperatura[i], luminosidad[i], anomalias[i]);
+                conteos[estados[i]]++;
+            }
+            Aggregate result = new Aggregate(stats);
+            for (int code = 0; code < conteos.length; code++) {
+                if (conteos[code] > 0) {
+                    result.addEstado(codes.name(code), conteos[code]);
+                }
+            }
+            return Optional.of(result);
+        }
+
+        synchronized CompressedSeries compress(EstadoCodes codes) {
+            if (size == 0) {
+                return null;
+            }
+            int[] decimals = new int[metricas.length];
+            for (int m = 0; m < metricas.length; m++) {
+                decimals[m] = CompressedSeries.decimalsFor(metricas[m], 0, size);
+            }
+            CompressedSeries.Encoder encoder = CompressedSeries.encoder(
+                CompressedSeries.unitFor(fechas, 0, size), false, decimals);
+            for (int i = 0; i < size; i++) {
+                encoder.append(fechas[i], 0, metricas[0][i], metricas[1][i], metricas[2][i], metricas[3][i],
+                    metricas[4][i], codes.name(estados[i]), anomalias[i]);
+            }
+            return encoder.finish();
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int capacity() {
+            return fechas.length;
+        }
+
+        synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void set(int pos, long fecha, double humedad, double nitrogeno, double ph,
+                         double temperatura, double luminosidad, byte estado, byte anomalia) {
+            fechas[pos] = fecha;
+            metricas[0][pos] = humedad;
+            metricas[1][pos] = nitrogeno;
+            metricas[2][pos] = ph;
+            metricas[3][pos] = temperatura;
+            metricas[4][pos] = luminosidad;
+            estados[pos] = estado;
+            anomalias[pos] = anomalia;
+        }
+
+        private void resize(int capacity) {
+            fechas = Arrays.copyOf(fechas, capacity);
+            for (int m = 0; m < metricas.length; m++) {
+                metricas[m] = Arrays.copyOf(metricas[m], capacity);
+            }
+            estados = Arrays.copyOf(estados, capacity);
+            anomalias = Arrays.copyOf(anomalias, capacity);
+        }
+
+        // Primera posición con fecha >= valor
+        private int lowerBound(long valor) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (fechas[mid] < valor) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    // Diccionario estado -> byte compartido por todas las series. El 0 es NORMAL, que también
+    // recibe los estados nulos o vacíos como en Aggregate.add.
+    static final class EstadoCodes {
+        static final int MAX_CODES = 128;
+        private final Map<String, Byte> codes = new ConcurrentHashMap<>();
+        private final String[] names = new String[MAX_CODES];
+        private int next = 1;
+
+        EstadoCodes() {
+            codes.put("NORMAL", (byte) 0);
+            names[0] = "NORMAL";
+        }
+
+        byte code(String estado) {
+            if (estado == null || estado.trim().isEmpty()) {
+                return 0;
+            }
+            Byte code = codes.get(estado);
+            return code != null ? code : register(estado);
+        }
+
+        String name(int code) {
+            return names[code];
+        }
+
+        private synchronized byte register(String estado) {
+            Byte code = codes.get(estado);
+            if (code != null) {
+                return code;
+            }
+            if (next == MAX_CODES) {
+                throw new IllegalStateException("Demasiados estados distintos para el almacén en memoria");
+            }
+            names[next] = estado;
+            codes.put(estado, (byte) next);
+            return (byte) next++;
+        }
+    }
+}
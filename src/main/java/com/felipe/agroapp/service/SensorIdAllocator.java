@@ -0,0 +1,77 @@
+package com.felipe.agroapp.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.util.logging.Logger;
+
+// Reparte IDs de sensor_readings_seq por bloques: una sola consulta trae blockSize
+// valores y los inserts siguientes los toman de memoria sin ir a la secuencia.
+@Component
+public class SensorIdAllocator {
+    private static final Logger logger = Logger.getLogger(SensorIdAllocator.class.getName());
+
+    private static final String ORACLE_BLOCK_SQL =
+        "SELECT sensor_readings_seq.NEXTVAL FROM DUAL CONNECT BY LEVEL <= ?";
+    private static final String H2_BLOCK_SQL =
+        "SELECT NEXT VALUE FOR sensor_readings_seq FROM SYSTEM_RANGE(1, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${agroapp.ingest.id-block-size:1000}")
+    private int blockSize;
+
+    private long[] pool = new long[0];
+    private int next = 0;
+    private String blockSql;
+
+    public synchronized long[] allocate(int count) {
+        long[] ids = new long[count];
+        int filled = 0;
+        while (filled < count) {
+            if (next == pool.length) {
+                refill(Math.max(blockSize, count - filled));
+            }
+            int take = Math.min(count - filled, pool.length - next);
+            System.arraycopy(pool, next, ids, filled, take);
+            next += take;
+            filled += take;
+        }
+        return ids;
+    }
+
+    private void refill(int size) {
+        long[] block = new long[size];
+        int[] index = {0};
+        jdbcTemplate.query(blockSql(), (RowCallbackHandler) rs -> block[index[0]++] = rs.getLong(1), size);
+        if (index[0] != size) {
+            throw new IllegalStateException("La secuencia devolvió " + index[0] + " IDs de " + size + " solicitados");
+        }
+        pool = block;
+        next = 0;
+    }
+
+    private String blockSql() {
+        if (blockSql == null) {
+            try {
+                String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+                blockSql = product != null && product.toUpperCase().contains("H2") ? H2_BLOCK_SQL : ORACLE_BLOCK_SQL;
+                logger.info("Asignación de IDs por bloques de " + blockSize + " (" + product + ")");
+            } catch (Exception e) {
+                logger.warning("No se pudo detectar la base de datos, usando sintaxis Oracle: " + e.getMessage());
+                blockSql = ORACLE_BLOCK_SQL;
+            }
+        }
+        return blockSql;
+    }
+}
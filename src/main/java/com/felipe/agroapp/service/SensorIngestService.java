@@ -0,0 +1,165 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.ParcelaRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+@Service
+public class SensorIngestService {
+    private static final Logger logger = Logger.getLogger(SensorIngestService.class.getName());
+
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final long PARCELA_IDS_TTL_SECONDS = 30;
+    private static final Set<String> ESTADOS_VALIDOS = Set.of("NORMAL", "ALERTA", "CRITICO");
+
+    @Autowired
+    private SensorBatchWriter batchWriter;
+
+    @Autowired
+    private IngestPipeline ingestPipeline;
+
+    @Autowired
+    private ReadingDeduplicator deduplicator;
+
+    @Autowired
+    private ParcelaRepository parcelaRepository;
+
+    @Value("${agroapp.ingest.max-batch-size:10000}")
+    private int maxBatchSize;
+
+    private volatile Set<String> parcelaIds = Set.of();
+    private volatile long parcelaIdsLoadedAt = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+
+    public BatchResult ingestBatch(List<SensorData> readings) {
+        long start = System.nanoTime();
+        Validation validation = validateBatch(readings);
+        List<SensorData> nuevas = deduplicator.admit(validation.valid());
+        int accepted;
+        try {
+            try {
+                accepted = batchWriter.write(nuevas);
+            } catch (DuplicateKeyException e) {
+                accepted = batchWriter.writeSkippingDuplicates(nuevas);
+            }
+            deduplicator.recordDatabaseDuplicates(nuevas.size() - accepted);
+        } catch (RuntimeException e) {
+            deduplicator.forget(nuevas);
+            throw e;
+        }
+        int duplicates = validation.valid().size() - accepted;
+        return new BatchResult(accepted, validation.rejected(), duplicates, validation.errors(), System.nanoTime() - start);
+    }
+
+    // Variante asíncrona: valida en el hilo HTTP y deja el commit al pipeline.
+    // Los duplicados detectados en memoria no se encolan; los que lleguen a la base
+    // de datos se descartan allí sin fallar el lote.
+    public SubmitResult submit(List<SensorData> readings) {
+        Validation validation = validateBatch(readings);
+        List<SensorData> nuevas = deduplicator.admit(validation.valid());
+        boolean queued = ingestPipeline.submit(nuevas);
+        if (!queued) {
+            deduplicator.forget(nuevas);
+        }
+        return new SubmitResult(queued, queued ? nuevas.size() : 0, validation.rejected(),
+                                queued ? validation.valid().size() - nuevas.size() : 0,
+                                validation.errors(), ingestPipeline.queueDepth());
+    }
+
+    private Validation validateBatch(List<SensorData> readings) {
+        if (readings.size() > maxBatchSize) {
+            throw new IllegalArgumentException("El lote supera el máximo de " + maxBatchSize + " lecturas");
+        }
+
+        Set<String> parcelas = parcelasConocidas(readings);
+
+        List<SensorData> validas = new ArrayList<>(readings.size());
+        List<String> errores = new ArrayList<>();
+        int rejected = 0;
+        for (int i = 0; i < readings.size(); i++) {
+            SensorData reading = readings.get(i);
+            String error = validate(reading, parcelas);
+            if (error == null) {
+                validas.add(reading);
+            } else {
+                rejected++;
+                if (errores.size() < MAX_REPORTED_ERRORS) {
+                    errores.add("#" + i + ": " + error);
+                }
+            }
+        }
+        return new Validation(validas, rejected, errores);
+    }
+
+    // IDs de parcela cacheados: si la base de datos cae se sigue validando con la
+    // última lista conocida, así la ingesta sobre WAL no depende de Oracle.
+    private Set<String> parcelasConocidas(List<SensorData> readings) {
+        long now = System.nanoTime();
+        Set<String> parcelas = parcelaIds;
+        boolean caducada = now - parcelaIdsLoadedAt > TimeUnit.SECONDS.toNanos(PARCELA_IDS_TTL_SECONDS);
+        boolean desconocida = now - parcelaIdsLoadedAt > TimeUnit.SECONDS.toNanos(1) &&
+            readings.stream().anyMatch(r -> r != null && r.getParcelaId() != null && !parcelas.contains(r.getParcelaId()));
+        if (caducada || desconocida) {
+            try {
+                parcelaIds = new HashSet<>(parcelaRepository.findAllIds());
+                parcelaIdsLoadedAt = now;
+            } catch (Exception e) {
+                if (parcelas.isEmpty()) {
+                    throw e;
+                }
+                logger.warning("No se pudieron recargar las parcelas, se usa la última lista conocida: " + e.getMessage());
+            }
+        }
+        return parcelaIds;
+    }
+
+    private String validate(SensorData reading, Set<String> parcelas) {
+        if (reading == null) return "lectura vacía";
+        if (reading.getParcelaId() == null || reading.getParcelaId().isBlank()) return "parcelaId requerido";
+        if (!parcelas.contains(reading.getParcelaId())) return "parcela desconocida " + reading.getParcelaId();
+        if (reading.getFecha() == null) return "fecha requerida";
+
+        // Límites físicos y de precisión de las columnas NUMBER de sensor_readings
+        if (!inRange(reading.getHumedad(), 0.0, 100.0)) return "humedad fuera de rango";
+        if (!inRange(reading.getPh(), 0.0, 14.0)) return "ph fuera de rango";
+        if (!inRange(reading.getNitrogeno(), 0.0, 99_999_999.0)) return "nitrogeno fuera de rango";
+        if (!inRange(reading.getTemperatura(), -60.0, 70.0)) return "temperatura fuera de rango";
+        if (!inRange(reading.getLuminosidad(), 0.0, 9_999_999_999.0)) return "luminosidad fuera de rango";
+
+        if (reading.getEstado() == null) {
+            reading.setEstado("NORMAL");
+        } else if (!ESTADOS_VALIDOS.contains(reading.getEstado())) {
+            return "estado inválido " + reading.getEstado();
+        }
+        return null;
+    }
+
+    private boolean inRange(Double value, double min, double max) {
+        return value == null || (value >= min && value <= max);
+    }
+
+    private record Validation(List<SensorData> valid, int rejected, List<String> errors) {}
+
+    public record SubmitResult(boolean queued, int accepted, int rejected, int duplicates,
+                               List<String> errors, int queueDepth) {}
+
+    public record BatchResult(int accepted, int rejected, int duplicates, List<String> errors, long elapsedNanos) {
+
+        public double elapsedMillis() {
+            return elapsedNanos / 1_000_000.0;
+        }
+
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : accepted * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+}
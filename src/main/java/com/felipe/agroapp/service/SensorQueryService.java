@@ -0,0 +1,305 @@
+package com.felipe.agroapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.SensorDataRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+// Lectura masiva de sensor_readings: páginas por keyset con cursor opaco y exportación
+// NDJSON en streaming. Ninguno de los dos caminos carga la tabla entera en memoria.
+// Cuando el rango empieza antes de lo archivado, las lecturas del archivo frío se intercalan
+// en el mismo orden (fecha, id), descomprimiendo un mes cada vez.
+@Service
+public class SensorQueryService {
+
+    // Límites del rango cuando no se indica desde/hasta (válidos como TIMESTAMP de Oracle)
+    private static final LocalDateTime MIN_FECHA = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime MAX_FECHA = LocalDateTime.of(9999, 12, 31, 0, 0);
+    private static final int FLUSH_EVERY = 1000;
+    private static final Comparator<SensorData> ORDEN =
+        Comparator.comparing(SensorData::getFecha).thenComparing(SensorData::getId);
+
+    @Autowired
+    private SensorDataRepository sensorDataRepository;
+
+    @Autowired
+    private SensorArchiveService archiveService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${agroapp.query.page-size:1000}")
+    private int defaultPageSize;
+
+    @Value("${agroapp.query.max-page-size:10000}")
+    private int maxPageSize;
+
+    // Sin desde la primera página son las lecturas más recientes (fecha DESC, id DESC); con
+    // desde se recorre hacia adelante desde ese instante. orden lo fuerza y el cursor conserva
+    // el sentido de la página que lo generó.
+    @Transactional(readOnly = true)
+    public Page page(String parcelaId, LocalDateTime desde, LocalDateTime hasta, String orden, String cursor, Integer limit) {
+        int size = limit == null ? defaultPageSize : limit;
+        if (size < 1 || size > maxPageSize) {
+            throw new IllegalArgumentException("limit debe estar entre 1 y " + maxPageSize);
+        }
+        LocalDateTime inicio = desde != null ? desde : MIN_FECHA;
+        LocalDateTime fin = hasta != null ? hasta : MAX_FECHA;
+
+        boolean descendente;
+        LocalDateTime fecha;
+        long id;
+        if (cursor != null && !cursor.isBlank()) {
+            Cursor position = Cursor.decode(cursor);
+            descendente = position.descendente();
+            fecha = position.fecha();
+            id = position.id();
+        } else {
+            descendente = orden == null ? desde == null : parseOrden(orden);
+            // Sin cursor se arranca justo fuera del extremo del rango por el que se empieza
+            fecha = descendente ? fin : inicio;
+            id = descendente ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+
+        // Se pide una fila de más para saber si hay página siguiente sin un COUNT
+        PageRequest pageable = PageRequest.of(0, size + 1);
+        List<SensorData> rows;
+        if (descendente) {
+            rows = parcelaId == null
+                ? sensorDataRepository.findPageBefore(inicio, fin, fecha, id, pageable)
+                : sensorDataRepository.findPageBeforeByParcelaId(parcelaId, inicio, fin, fecha, id, pageable);
+        } else {
+            rows = parcelaId == null
+                ? sensorDataRepository.findPageAfter(inicio, fin, fecha, id, pageable)
+                : sensorDataRepository.findPageAfterByParcelaId(parcelaId, inicio, fin, fecha, id, pageable);
+        }
+
+        if (archiveService.mayHold(inicio)) {
+            Iterator<SensorData> merged = new Merged(rows.iterator(),
+                new Archivadas(parcelaId, inicio, fin, descendente, fecha, id), descendente ? ORDEN.reversed() : ORDEN);
+            rows = new ArrayList<>(size + 1);
+            while (rows.size() <= size && merged.hasNext()) {
+                rows.add(merged.next());
+            }
+        }
+
+        if (rows.size() <= size) {
+            return new Page(rows, null);
+        }
+        List<SensorData> items = rows.subList(0, size);
+        SensorData last = items.get(size - 1);
+        return new Page(items, new Cursor(last.getFecha(), last.getId(), descendente).encode());
+    }
+
+    private static boolean parseOrden(String orden) {
+        if ("desc".equalsIgnoreCase(orden)) {
+            return true;
+        }
+        if ("asc".equalsIgnoreCase(orden)) {
+            return false;
+        }
+        throw new IllegalArgumentException("orden debe ser asc o desc");
+    }
+
+    // Escribe una lectura JSON por línea a medida que llegan del cursor JDBC. Cada entidad se
+    // separa del contexto de persistencia tras escribirla, así la memoria no crece con las filas.
+    @Transactional(readOnly = true)
+    public long streamNdjson(String parcelaId, LocalDateTime desde, LocalDateTime hasta, OutputStream out) throws IOException {
+        LocalDateTime inicio = desde != null ? desde : MIN_FECHA;
+        LocalDateTime fin = hasta != null ? hasta : MAX_FECHA;
+        long written = 0;
+        try (Stream<SensorData> rows = parcelaId == null
+                 ? sensorDataRepository.streamByFechaBetween(inicio, fin)
+                 : sensorDataRepository.streamByParcelaIdAndFechaBetween(parcelaId, inicio, fin);
+             SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(out)) {
+            Iterator<SensorData> readings = archiveService.mayHold(inicio)
+                ? new Merged(rows.iterator(), new Archivadas(parcelaId, inicio, fin, false, inicio, Long.MIN_VALUE), ORDEN)
+                : rows.iterator();
+            for (SensorData reading : (Iterable<SensorData>) () -> readings) {
+                writer.write(reading);
+                if (entityManager.contains(reading)) {
+                    entityManager.detach(reading);
+                }
+                if (++written % FLUSH_EVERY == 0) {
+                    writer.flush();
+                }
+            }
+            if (written > 0) {
+                writer.flush();
+                out.write('\n');
+            }
+        }
+        return written;
+    }
+
+    public record Page(List<SensorData> items, String nextCursor) {}
+
+    // Mezcla dos secuencias ya ordenadas; una lectura que sigue en la tabla y también se archivó
+    // (archivado interrumpido antes del borrado) tiene la misma clave en ambas y sale una vez
+    private static final class Merged implements Iterator<SensorData> {
+        private final Iterator<SensorData> tabla;
+        private final Iterator<SensorData> archivo;
+        private final Comparator<SensorData> orden;
+        private SensorData a;
+        private SensorData b;
+
+        Merged(Iterator<SensorData> tabla, Iterator<SensorData> archivo, Comparator<SensorData> orden) {
+            this.tabla = tabla;
+            this.archivo = archivo;
+            this.orden = orden;
+            a = tabla.hasNext() ? tabla.next() : null;
+            b = archivo.hasNext() ? archivo.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return a != null || b != null;
+        }
+
+        @Override
+        public SensorData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int c = a == null ? 1 : b == null ? -1 : orden.compare(a, b);
+            SensorData next = c <= 0 ? a : b;
+            if (c <= 0) {
+                a = tabla.hasNext() ? tabla.next() : null;
+            }
+            if (c >= 0) {
+                b = archivo.hasNext() ? archivo.next() : null;
+            }
+            return next;
+        }
+    }
+
+    // Lecturas archivadas de [inicio, fin) posteriores a (fecha, id) en el sentido de la página.
+    // Se lee un mes cada vez y sólo cuando el anterior se agota: una página toca los meses que
+    // entrega y no el archivo entero.
+    private final class Archivadas implements Iterator<SensorData> {
+        private final String parcelaId;
+        private final LocalDateTime inicio;
+        private final LocalDateTime fin;
+        private final boolean descendente;
+        private final LocalDateTime fecha;
+        private final long id;
+        private final YearMonth ultimo;
+        private YearMonth mes;
+        private Iterator<SensorData> actual = Collections.emptyIterator();
+
+        Archivadas(String parcelaId, LocalDateTime inicio, LocalDateTime fin, boolean descendente,
+                   LocalDateTime fecha, long id) {
+            LocalDateTime tope = archiveService.archivedUntil();
+            this.parcelaId = parcelaId;
+            this.inicio = inicio;
+            this.fin = tope != null && tope.isBefore(fin) ? tope : fin;
+            this.descendente = descendente;
+            this.fecha = fecha;
+            this.id = id;
+            // La fila del cursor puede compartir fecha con las siguientes: ese instante se incluye
+            boolean vacio = tope == null || !inicio.isBefore(this.fin)
+                || (descendente ? fecha.isBefore(inicio) : !fecha.isBefore(this.fin));
+            if (vacio) {
+                ultimo = null;
+                mes = null;
+            } else if (descendente) {
+                mes = YearMonth.from(min(this.fin, fecha));
+                ultimo = YearMonth.from(inicio);
+            } else {
+                mes = YearMonth.from(max(inicio, fecha));
+                ultimo = YearMonth.from(this.fin);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!actual.hasNext()) {
+                if (mes == null) {
+                    return false;
+                }
+                LocalDateTime desdeMes = max(inicio, mes.atDay(1).atStartOfDay());
+                LocalDateTime hastaMes = min(fin, mes.plusMonths(1).atDay(1).atStartOfDay());
+                List<SensorData> lecturas = parcelaId == null
+                    ? archiveService.readAll(desdeMes, hastaMes)
+                    : archiveService.read(parcelaId, desdeMes, hastaMes);
+                // read() incluye el extremo superior; el rango de la consulta no
+                lecturas.removeIf(reading -> !reading.getFecha().isBefore(hastaMes) || !pendiente(reading));
+                lecturas.sort(descendente ? ORDEN.reversed() : ORDEN);
+                actual = lecturas.iterator();
+                mes = mes.equals(ultimo) ? null : descendente ? mes.minusMonths(1) : mes.plusMonths(1);
+            }
+            return true;
+        }
+
+        @Override
+        public SensorData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return actual.next();
+        }
+
+        private boolean pendiente(SensorData reading) {
+            int c = reading.getFecha().compareTo(fecha);
+            if (c == 0) {
+                c = Long.compare(reading.getId(), id);
+            }
+            return descendente ? c < 0 : c > 0;
+        }
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    // Cursor opaco: base64url de "fecha|id|sentido" de la última fila entregada. Los cursores
+    // anteriores, sin sentido, son ascendentes.
+    record Cursor(LocalDateTime fecha, long id, boolean descendente) {
+        String encode() {
+            String raw = fecha + "|" + id + "|" + (descendente ? "desc" : "asc");
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String token) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|");
+                if (parts.length < 2 || parts.length > 3) {
+                    throw new IllegalArgumentException();
+                }
+                boolean descendente = parts.length == 3 && parseOrden(parts[2]);
+                return new Cursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]), descendente);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new IllegalArgumentException("cursor inválido");
+            }
+        }
+    }
+}
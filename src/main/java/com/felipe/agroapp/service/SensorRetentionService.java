@@ -0,0 +1,264 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.Parcela;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Retención de sensor_readings y reinicios masivos. Los borrados van por tramos de
+// chunk-size filas, cada uno en su propia transacción (autocommit de JdbcTemplate): nunca
+// una sola transacción que bloquee la tabla y llene el undo. Los días de retención se
+// configuran por parcela, por tipo de cultivo o por defecto (0 = sin límite). Rollups, memoria,
+// archivo y alertas se ponen al día por ReadingsEvents tras cada borrado.
+@Component
+public class SensorRetentionService {
+    private static final Logger logger = Logger.getLogger(SensorRetentionService.class.getName());
+
+    // ROWNUM acota cada DELETE (Oracle; H2 también lo admite)
+    private static final String PURGE_CHUNK_SQL =
+        "DELETE FROM sensor_readings WHERE parcela_id = ? AND fecha < ? AND ROWNUM <= ?";
+
+    private static final String DELETE_PARCELAS_CHUNK_SQL =
+        "DELETE FROM sensor_readings WHERE parcela_id LIKE ? ESCAPE '\\' AND ROWNUM <= ?";
+
+    private static final String[] RESET_TABLES = {"sensor_readings", "sensor_rollups_hourly", "sensor_rollups_daily", "alert_events"};
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    @Autowired
+    private ReadingsEvents readingsEvents;
+
+    @Value("${agroapp.retention.default-days:0}")
+    private int defaultDays;
+
+    // "Maíz:365,Trigo:180"
+    @Value("${agroapp.retention.by-cultivo:}")
+    private String byCultivoSpec;
+
+    // "PAR-001:30,PAR-002:60"; tiene prioridad sobre el cultivo
+    @Value("${agroapp.retention.by-parcela:}")
+    private String byParcelaSpec;
+
+    @Value("${agroapp.retention.chunk-size:5000}")
+    private int chunkSize;
+
+    // TRUNCATE no genera undo pero es DDL (confirma la transacción en curso);
+    // con false el reinicio usa DELETE por conjuntos
+    @Value("${agroapp.retention.reset-truncate:true}")
+    private boolean resetTruncate;
+
+    private Map<String, Integer> byCultivo;
+    private Map<String, Integer> byParcela;
+    private volatile PurgeRun purgeRun;
+
+    @PostConstruct
+    public void init() {
+        byCultivo = parsePolicies(byCultivoSpec);
+        byParcela = parsePolicies(byParcelaSpec);
+    }
+
+    // Días de retención de la parcela; 0 si se conserva todo
+    public int retentionDays(Parcela parcela) {
+        Integer days = byParcela.get(parcela.getParcelaId());
+        if (days == null && parcela.getTipoCultivo() != null) {
+            days = byCultivo.get(parcela.getTipoCultivo());
+        }
+        return days != null ? days : defaultDays;
+    }
+
+    public boolean hasPolicies() {
+        return defaultDays > 0 || !byCultivo.isEmpty() || !byParcela.isEmpty();
+    }
+
+    @Scheduled(cron = "${agroapp.retention.cron:0 0 4 * * *}")
+    public void purgeScheduled() {
+        if (!hasPolicies()) {
+            return;
+        }
+        try {
+            PurgeRun run = begin();
+            runPurge(run);
+        } catch (IllegalStateException e) {
+            logger.info("Purga programada omitida: " + e.getMessage());
+        }
+    }
+
+    // Lanza la purga en segundo plano; el progreso se consulta con getPurgeStatus()
+    public Map<String, Object> startPurge() {
+        if (!hasPolicies()) {
+            throw new IllegalStateException("No hay políticas de retención configuradas (agroapp.retention.*)");
+        }
+        PurgeRun run = begin();
+        Thread thread = new Thread(() -> runPurge(run), "retention-purge");
+        thread.setDaemon(true);
+        thread.start();
+        return run.status();
+    }
+
+    public Map<String, Object> getPurgeStatus() {
+        PurgeRun run = purgeRun;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("defaultDays", defaultDays);
+        status.put("byCultivo", byCultivo);
+        status.put("byParcela", byParcela);
+        status.put("lastRun", run == null ? Map.of("state", "IDLE") : run.status());
+        return status;
+    }
+
+    // Reinicio completo: tablas de lecturas, rollups y alertas vaciadas por conjuntos (no entidad a
+    // entidad como deleteAll() de Spring Data), parcelas con DELETE (la FK de sensor_readings
+    // impide truncarla en Oracle) y las copias en memoria y en disco.
+    public void resetAll() {
+        for (String table : RESET_TABLES) {
+            jdbcTemplate.execute((resetTruncate ? "TRUNCATE TABLE " : "DELETE FROM ") + table);
+        }
+        jdbcTemplate.update("DELETE FROM parcelas");
+        parcelaCache.invalidate();
+        readingsEvents.cleared();
+    }
+
+    // Borra las parcelas cuyo id empieza por el prefijo y todas sus lecturas, por tramos.
+    // Devuelve las lecturas borradas.
+    public long deleteParcelas(String prefijo) {
+        // Literal: un '_' o '%' del prefijo no puede alcanzar otras parcelas (la memoria usa startsWith)
+        String patron = likePrefix(prefijo);
+        long borradas = 0;
+        int n;
+        do {
+            n = jdbcTemplate.update(DELETE_PARCELAS_CHUNK_SQL, patron, chunkSize);
+            borradas += n;
+        } while (n == chunkSize);
+        jdbcTemplate.update("DELETE FROM alert_events WHERE parcela_id LIKE ? ESCAPE '\\'", patron);
+        jdbcTemplate.update("DELETE FROM parcelas WHERE parcela_id LIKE ? ESCAPE '\\'", patron);
+        parcelaCache.invalidate();
+        readingsEvents.parcelasRemoved(prefijo);
+        return borradas;
+    }
+
+    // Patrón LIKE (con ESCAPE '\') de los ids que empiezan por el prefijo tal cual
+    static String likePrefix(String prefijo) {
+        return prefijo.replace("\\", "\\\\").replace("_", "\\_").replace("%", "\\%") + "%";
+    }
+
+    private synchronized PurgeRun begin() {
+        if (purgeRun != null && purgeRun.isRunning()) {
+            throw new IllegalStateException("Ya hay una purga en curso");
+        }
+        purgeRun = new PurgeRun();
+        return purgeRun;
+    }
+
+    private void runPurge(PurgeRun run) {
+        try {
+            List<Parcela> parcelas = parcelaCache.findAll();
+            run.parcelasTotal = parcelas.size();
+            LocalDateTime hoy = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS);
+            for (Parcela parcela : parcelas) {
+                int days = retentionDays(parcela);
+                if (days > 0) {
+                    run.current = parcela.getParcelaId();
+                    purgeParcela(run, parcela.getParcelaId(), hoy.minusDays(days));
+                }
+                run.parcelasDone.incrementAndGet();
+            }
+            run.current = null;
+            run.finish(null);
+            logger.info("Purga de retención: " + run.rowsDeleted.get() + " lecturas borradas en " +
+                        run.chunks.get() + " tramos, " + run.elapsedMillis() + " ms");
+        } catch (RuntimeException e) {
+            run.finish(e.getMessage());
+            logger.log(Level.WARNING, "Purga de retención fallida", e);
+        }
+    }
+
+    private void purgeParcela(PurgeRun run, String parcelaId, LocalDateTime corte) {
+        Timestamp limite = Timestamp.valueOf(corte);
+        int n;
+        do {
+            n = jdbcTemplate.update(PURGE_CHUNK_SQL, parcelaId, limite, chunkSize);
+            run.rowsDeleted.addAndGet(n);
+            run.chunks.incrementAndGet();
+        } while (n == chunkSize);
+        readingsEvents.removedBefore(parcelaId, corte);
+    }
+
+    private static Map<String, Integer> parsePolicies(String spec) {
+        Map<String, Integer> policies = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return policies;
+        }
+        for (String entry : spec.split(",")) {
+            int separator = entry.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Política de retención inválida: '" + entry.trim() + "'");
+            }
+            policies.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+        }
+        return policies;
+    }
+
+    private static final class PurgeRun {
+        final long startNanos = System.nanoTime();
+        final AtomicLong rowsDeleted = new AtomicLong();
+        final AtomicLong chunks = new AtomicLong();
+        final AtomicInteger parcelasDone = new AtomicInteger();
+        volatile int parcelasTotal;
+        volatile String current;
+        private volatile long endNanos;
+        private volatile String state = "RUNNING";
+        private volatile String error;
+
+        boolean isRunning() {
+            return "RUNNING".equals(state);
+        }
+
+        void finish(String error) {
+            this.endNanos = System.nanoTime();
+            this.error = error;
+            this.state = error == null ? "COMPLETED" : "FAILED";
+        }
+
+        long elapsedMillis() {
+            return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1_000_000;
+        }
+
+        Map<String, Object> status() {
+            long rows = rowsDeleted.get();
+            long elapsed = elapsedMillis();
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("state", state);
+            status.put("parcelasDone", parcelasDone.get());
+            status.put("parcelasTotal", parcelasTotal);
+            if (current != null) {
+                status.put("currentParcela", current);
+            }
+            status.put("rowsDeleted", rows);
+            status.put("chunks", chunks.get());
+            status.put("elapsedMs", elapsed);
+            status.put("rowsPerSecond", elapsed == 0 ? 0 : rows * 1000 / elapsed);
+            if (error != null) {
+                status.put("error", error);
+            }
+            return status;
+        }
+    }
+}
@@ -0,0 +1,677 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.SensorDataRepository;
+import com.felipe.agroapp.repository.SensorStatsRow;
+import com.felipe.agroapp.service.ParcelaCache.Umbrales;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Rollups por hora y por día de cada parcela (sensor_rollups_hourly / _daily).
+// SensorBatchWriter los actualiza en la misma transacción que inserta las lecturas;
+// el reconciliador periódico recalcula desde sensor_readings las horas recientes cuyos
+// conteos no cuadran (lecturas guardadas por JPA, tardías o borradas). Los valores anómalos
+// no entran en las sumas: cada cubo los cuenta en filas "anomalia:<métrica>".
+@Component
+public class SensorRollupService implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(SensorRollupService.class.getName());
+
+    static final String[] METRICAS = {"humedad", "nitrogeno", "ph", "temperatura", "luminosidad"};
+    static final String ESTADO_PREFIX = "estado:";
+    static final String ANOMALIA_PREFIX = "anomalia:";
+
+    private static final Duration CLOSE_GRACE = Duration.ofMinutes(5);
+
+    private static final String HOURLY = "sensor_rollups_hourly";
+    private static final String DAILY = "sensor_rollups_daily";
+
+    // Suma el delta de un lote a la fila del periodo, creándola si no existe.
+    // Los CAST tipan los parámetros del USING (H2 no los infiere; Oracle los acepta igual).
+    private static final String MERGE_SQL =
+        "MERGE INTO %s t USING (SELECT CAST(? AS VARCHAR(50)) AS parcela_id, CAST(? AS TIMESTAMP) AS periodo, " +
+        "CAST(? AS VARCHAR(30)) AS metrica, CAST(? AS NUMERIC(19)) AS muestras, CAST(? AS DOUBLE PRECISION) AS suma, " +
+        "CAST(? AS DOUBLE PRECISION) AS suma_cuadrados, CAST(? AS DOUBLE PRECISION) AS minimo, " +
+        "CAST(? AS DOUBLE PRECISION) AS maximo FROM DUAL) s " +
+        "ON (t.parcela_id = s.parcela_id AND t.periodo = s.periodo AND t.metrica = s.metrica) " +
+        "WHEN MATCHED THEN UPDATE SET t.muestras = t.muestras + s.muestras, t.suma = t.suma + s.suma, " +
+        "t.suma_cuadrados = t.suma_cuadrados + s.suma_cuadrados, " +
+        "t.minimo = LEAST(t.minimo, s.minimo), t.maximo = GREATEST(t.maximo, s.maximo) " +
+        "WHEN NOT MATCHED THEN INSERT (parcela_id, periodo, metrica, muestras, suma, suma_cuadrados, minimo, maximo) " +
+        "VALUES (s.parcela_id, s.periodo, s.metrica, s.muestras, s.suma, s.suma_cuadrados, s.minimo, s.maximo)";
+
+    private static final String INSERT_SQL =
+        "INSERT INTO %s (parcela_id, periodo, metrica, muestras, suma, suma_cuadrados, minimo, maximo) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_SQL =
+        "SELECT parcela_id, metrica, SUM(muestras), SUM(suma), SUM(suma_cuadrados), MIN(minimo), MAX(maximo) " +
+        "FROM %s WHERE periodo >= ? AND periodo < ?%s GROUP BY parcela_id, metrica";
+
+    private static final String COUNT_SQL =
+        "SELECT parcela_id, periodo, SUM(muestras) FROM %s " +
+        "WHERE periodo >= ? AND periodo < ? AND metrica LIKE 'estado:%%' GROUP BY parcela_id, periodo";
+
+    private static final String DAY_FROM_HOURLY_SQL =
+        "SELECT metrica, SUM(muestras), SUM(suma), SUM(suma_cuadrados), MIN(minimo), MAX(maximo) " +
+        "FROM " + HOURLY + " WHERE parcela_id = ? AND periodo >= ? AND periodo < ? GROUP BY metrica";
+
+    // Filas diarias de una parcela en el orden en que las bloquea inserted (por métrica)
+    private static final String DAILY_METRICS_SQL =
+        "SELECT metrica FROM " + DAILY + " WHERE parcela_id = ? AND periodo = ? ORDER BY metrica";
+
+    private static final String LOCK_DAILY_SQL =
+        "SELECT metrica FROM " + DAILY + " WHERE parcela_id = ? AND periodo = ? AND metrica = ? FOR UPDATE";
+
+    private static final String UPDATE_DAILY_SQL =
+        "UPDATE " + DAILY + " SET muestras = ?, suma = ?, suma_cuadrados = ?, minimo = ?, maximo = ? " +
+        "WHERE parcela_id = ? AND periodo = ? AND metrica = ?";
+
+    // Lecturas dentro de los rangos óptimos (BETWEEN incluye los extremos, como Rango.contains),
+    // sin los valores anómalos (bits 1, 2 y 4 de anomalias: humedad, nitrógeno y pH)
+    private static final String IN_RANGE_SQL =
+        "SELECT COUNT(CASE WHEN humedad BETWEEN ? AND ? AND BITAND(COALESCE(anomalias, 0), 1) = 0 THEN 1 END), " +
+        "COUNT(CASE WHEN nitrogeno BETWEEN ? AND ? AND BITAND(COALESCE(anomalias, 0), 2) = 0 THEN 1 END), " +
+        "COUNT(CASE WHEN ph BETWEEN ? AND ? AND BITAND(COALESCE(anomalias, 0), 4) = 0 THEN 1 END) " +
+        "FROM sensor_readings WHERE parcela_id = ? AND fecha >= ? AND fecha < ?";
+
+    private static final String RAW_SQL =
+        "SELECT parcela_id, humedad, nitrogeno, ph, temperatura, luminosidad, fecha, estado, anomalias " +
+        "FROM sensor_readings WHERE fecha >= ? AND fecha < ?";
+
+    private static final String RAW_PARCELA_SQL = RAW_SQL + " AND parcela_id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private SensorDataRepository sensorDataRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${agroapp.rollups.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.rollups.reconcile-days:2}")
+    private int reconcileDays;
+
+    @Value("${agroapp.ingest.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    private Counter corrections;
+    private TransactionTemplate transactionTemplate;
+    private volatile boolean backfilled;
+
+    @PostConstruct
+    public void init() {
+        // REQUIRES_NEW: reconcileAfterCommit corre en afterCommit, donde la transacción anterior sigue ligada al hilo
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        corrections = Counter.builder("agroapp.rollups.corrections")
+            .description("Horas de parcela recalculadas por el reconciliador de rollups")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Se llama dentro de la transacción del insert con las lecturas efectivamente insertadas.
+    // Las filas se ordenan para que dos escritores concurrentes no se bloqueen en orden cruzado,
+    // y los días van antes que las horas: la fila diaria hace de cerrojo frente a reconcileDay.
+    @Override
+    public void inserted(List<SensorData> readings) {
+        if (!enabled || readings.isEmpty()) {
+            return;
+        }
+        Map<BucketKey, Aggregate> hours = new TreeMap<>();
+        Map<BucketKey, Aggregate> days = new TreeMap<>();
+        for (SensorData reading : readings) {
+            LocalDateTime hora = reading.getFecha().truncatedTo(ChronoUnit.HOURS);
+            hours.computeIfAbsent(new BucketKey(reading.getParcelaId(), hora), k -> new Aggregate()).add(reading);
+            days.computeIfAbsent(new BucketKey(reading.getParcelaId(), hora.truncatedTo(ChronoUnit.DAYS)),
+                k -> new Aggregate()).add(reading);
+        }
+        batch(MERGE_SQL.formatted(DAILY), rows(days));
+        batch(MERGE_SQL.formatted(HOURLY), rows(hours));
+    }
+
+    // Agregados por parcela en [desde, hasta). Las horas y días completos salen de los rollups;
+    // los bordes que no caen en hora exacta se agregan con GROUP BY sobre sensor_readings.
+    public Map<String, Aggregate> aggregate(String parcelaId, LocalDateTime desde, LocalDateTime hasta) {
+        Map<String, Aggregate> result = new HashMap<>();
+        LocalDateTime horaInicio = ceil(desde, ChronoUnit.HOURS);
+        LocalDateTime horaFin = hasta.truncatedTo(ChronoUnit.HOURS);
+        if (!enabled || !horaInicio.isBefore(horaFin)) {
+            readRaw(result, parcelaId, desde, hasta);
+            return result;
+        }
+
+        LocalDateTime diaInicio = ceil(desde, ChronoUnit.DAYS);
+        LocalDateTime diaFin = hasta.truncatedTo(ChronoUnit.DAYS);
+        if (diaInicio.isBefore(diaFin)) {
+            readRollups(result, DAILY, parcelaId, diaInicio, diaFin);
+            readRollups(result, HOURLY, parcelaId, horaInicio, diaInicio);
+            readRollups(result, HOURLY, parcelaId, diaFin, horaFin);
+        } else {
+            readRollups(result, HOURLY, parcelaId, horaInicio, horaFin);
+        }
+        readRaw(result, parcelaId, desde, horaInicio);
+        readRaw(result, parcelaId, horaFin, hasta);
+        return result;
+    }
+
+    // Una parcela con el porcentaje en rango óptimo: los rollups no lo guardan (depende de los
+    // umbrales), así que se cuenta en sensor_readings con una sola consulta por índice
+    public Aggregate aggregate(String parcelaId, LocalDateTime desde, LocalDateTime hasta, Umbrales umbrales) {
+        Aggregate result = new Aggregate(StatsAccumulator.withRanges(umbrales));
+        Aggregate sinRangos = aggregate(parcelaId, desde, hasta).get(parcelaId);
+        if (sinRangos == null) {
+            return result;
+        }
+        result.merge(sinRangos);
+        jdbcTemplate.query(IN_RANGE_SQL, rs -> {
+            result.stats().addInRange(StatsAccumulator.HUMEDAD, rs.getLong(1));
+            result.stats().addInRange(StatsAccumulator.NITROGENO, rs.getLong(2));
+            result.stats().addInRange(StatsAccumulator.PH, rs.getLong(3));
+        }, umbrales.humedad().min(), umbrales.humedad().max(), umbrales.nitrogeno().min(), umbrales.nitrogeno().max(),
+            umbrales.ph().min(), umbrales.ph().max(), parcelaId, Timestamp.valueOf(desde), Timestamp.valueOf(hasta));
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "${agroapp.rollups.reconcile-interval-ms:300000}",
+               initialDelayString = "${agroapp.rollups.reconcile-initial-delay-ms:30000}")
+    public void reconcileRecent() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime desde = now.truncatedTo(ChronoUnit.DAYS).minusDays(reconcileDays);
+            if (!backfilled) {
+                // Primera pasada: si los rollups están vacíos (tablas nuevas) se construyen desde el inicio
+                desde = backfillStart(desde);
+                backfilled = true;
+            }
+            // Sólo horas cerradas hace al menos CLOSE_GRACE: la hora en curso la mantiene la ingesta
+            int corregidas = reconcile(desde, now.minus(CLOSE_GRACE).truncatedTo(ChronoUnit.HOURS));
+            if (corregidas > 0) {
+                logger.info("Rollups: " + corregidas + " horas de parcela recalculadas");
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error al reconciliar los rollups", e);
+        }
+    }
+
+    // Recalcula desde sensor_readings las horas de [desde, hasta) cuyo conteo no cuadra y
+    // rehace los días afectados. hasta se redondea a la hora. Devuelve las horas reescritas.
+    public synchronized int reconcile(LocalDateTime desde, LocalDateTime hasta) {
+        LocalDateTime limite = hasta.truncatedTo(ChronoUnit.HOURS);
+        int corregidas = 0;
+        for (LocalDateTime dia = desde.truncatedTo(ChronoUnit.DAYS); dia.isBefore(limite); dia = dia.plusDays(1)) {
+            LocalDateTime fin = dia.plusDays(1).isBefore(limite) ? dia.plusDays(1) : limite;
+            corregidas += reconcileDay(dia, fin);
+        }
+        corrections.increment(corregidas);
+        return corregidas;
+    }
+
+    // Para escrituras que no pasan por SensorBatchWriter (repositorio JPA): reconcilia
+    // cuando la transacción en curso confirma, o en el acto si no hay transacción.
+    // Incluye la hora en curso, a diferencia de la pasada periódica.
+    public void reconcileAfterCommit(LocalDateTime desde) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    reconcile(desde, LocalDateTime.now().plusHours(1));
+                }
+            });
+        } else {
+            reconcile(desde, LocalDateTime.now().plusHours(1));
+        }
+    }
+
+    // Borrado por conjuntos de los rollups de las parcelas cuyo id empieza por el prefijo
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        String patron = SensorRetentionService.likePrefix(prefijo);
+        jdbcTemplate.update("DELETE FROM " + HOURLY + " WHERE parcela_id LIKE ? ESCAPE '\\'", patron);
+        jdbcTemplate.update("DELETE FROM " + DAILY + " WHERE parcela_id LIKE ? ESCAPE '\\'", patron);
+    }
+
+    public void deleteAll() {
+        jdbcTemplate.update("DELETE FROM " + HOURLY);
+        jdbcTemplate.update("DELETE FROM " + DAILY);
+    }
+
+    // Retención: descarta los cubos anteriores al corte. El día del corte se conserva
+    // entero en el rollup diario aunque parte de sus lecturas ya no existan.
+    @Override
+    public void removedBefore(String parcelaId, LocalDateTime corte) {
+        jdbcTemplate.update("DELETE FROM " + HOURLY + " WHERE parcela_id = ? AND periodo < ?",
+            parcelaId, Timestamp.valueOf(corte.truncatedTo(ChronoUnit.HOURS)));
+        jdbcTemplate.update("DELETE FROM " + DAILY + " WHERE parcela_id = ? AND periodo < ?",
+            parcelaId, Timestamp.valueOf(corte.truncatedTo(ChronoUnit.DAYS)));
+    }
+
+    private LocalDateTime backfillStart(LocalDateTime desde) {
+        Integer filas = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM " + DAILY + " WHERE ROWNUM <= 1", Integer.class);
+        if (filas != null && filas > 0) {
+            return desde;
+        }
+        Timestamp primera = jdbcTemplate.queryForObject("SELECT MIN(fecha) FROM sensor_readings", Timestamp.class);
+        if (primera == null || !primera.toLocalDateTime().isBefore(desde)) {
+            return desde;
+        }
+        logger.info("Rollups vacíos: construyendo desde " + primera.toLocalDateTime().toLocalDate());
+        return primera.toLocalDateTime();
+    }
+
+    // Detecta las parcelas con horas o día desalineados y las reescribe en una transacción que
+    // antes bloquea sus filas diarias, una a una y en el orden de inserted: un lote que llega
+    // entretanto espera y suma su delta encima; uno confirmado antes ya está en el crudo que se
+    // vuelve a leer con el bloqueo tomado.
+    private int reconcileDay(LocalDateTime dia, LocalDateTime fin) {
+        Map<BucketKey, Aggregate> crudo = new TreeMap<>();
+        scanRaw(dia, fin, reading -> crudo.computeIfAbsent(
+            new BucketKey(reading.getParcelaId(), reading.getFecha().truncatedTo(ChronoUnit.HOURS)),
+            k -> new Aggregate()).add(reading));
+        Map<BucketKey, Long> conteos = counts(HOURLY, dia, fin);
+
+        Set<BucketKey> horas = new HashSet<>();
+        crudo.forEach((key, aggregate) -> {
+            if (conteos.getOrDefault(key, 0L) != aggregate.readings()) {
+                horas.add(key);
+            }
+        });
+        for (BucketKey key : conteos.keySet()) {
+            if (!crudo.containsKey(key)) {
+                horas.add(key);
+            }
+        }
+
+        // Días cuyo conteo no coincide con la suma de sus horas (incluye la hora en curso)
+        Set<String> dias = new HashSet<>();
+        horas.forEach(key -> dias.add(key.parcelaId()));
+        Map<String, Long> sumaHoras = new HashMap<>();
+        counts(HOURLY, dia, dia.plusDays(1)).forEach((key, count) -> sumaHoras.merge(key.parcelaId(), count, Long::sum));
+        Map<BucketKey, Long> conteosDia = counts(DAILY, dia, dia.plusDays(1));
+        sumaHoras.forEach((parcelaId, count) -> {
+            if (!count.equals(conteosDia.get(new BucketKey(parcelaId, dia)))) {
+                dias.add(parcelaId);
+            }
+        });
+        conteosDia.keySet().forEach(key -> {
+            if (!sumaHoras.containsKey(key.parcelaId())) {
+                dias.add(key.parcelaId());
+            }
+        });
+        if (dias.isEmpty()) {
+            return 0;
+        }
+
+        List<String> parcelas = new ArrayList<>(dias);
+        parcelas.sort(null);
+        Timestamp inicio = Timestamp.valueOf(dia);
+        transactionTemplate.executeWithoutResult(status -> {
+            for (String parcelaId : parcelas) {
+                for (String metrica : jdbcTemplate.queryForList(DAILY_METRICS_SQL, String.class, parcelaId, inicio)) {
+                    jdbcTemplate.queryForList(LOCK_DAILY_SQL, String.class, parcelaId, inicio, metrica);
+                }
+            }
+            for (String parcelaId : parcelas) {
+                rewrite(parcelaId, dia, fin);
+            }
+        });
+        return horas.size();
+    }
+
+    // Con el día de la parcela bloqueado: sus horas de [dia, fin) salen del crudo y el día de la
+    // suma de todas sus horas. Las filas diarias se actualizan en su sitio, sin borrarlas, para
+    // que un MERGE en espera encuentre la misma fila al despertar.
+    private void rewrite(String parcelaId, LocalDateTime dia, LocalDateTime fin) {
+        Map<BucketKey, Aggregate> horas = new TreeMap<>();
+        scanRaw(RAW_PARCELA_SQL, parcelaId, dia, fin, reading -> horas.computeIfAbsent(
+            new BucketKey(parcelaId, reading.getFecha().truncatedTo(ChronoUnit.HOURS)), k -> new Aggregate()).add(reading));
+        jdbcTemplate.update("DELETE FROM " + HOURLY + " WHERE parcela_id = ? AND periodo >= ? AND periodo < ?",
+            parcelaId, Timestamp.valueOf(dia), Timestamp.valueOf(fin));
+        batch(INSERT_SQL.formatted(HOURLY), rows(horas));
+
+        Timestamp inicio = Timestamp.valueOf(dia);
+        List<Object[]> filas = jdbcTemplate.query(DAY_FROM_HOURLY_SQL, (rs, i) -> new Object[]{parcelaId, dia,
+            rs.getString(1), rs.getLong(2), getDouble(rs, 3), getDouble(rs, 4), getDouble(rs, 5), getDouble(rs, 6)},
+            parcelaId, inicio, Timestamp.valueOf(dia.plusDays(1)));
+        Set<String> existentes = new HashSet<>(jdbcTemplate.queryForList(DAILY_METRICS_SQL, String.class, parcelaId, inicio));
+        List<Object[]> nuevas = new ArrayList<>();
+        for (Object[] fila : filas) {
+            String metrica = (String) fila[2];
+            if (existentes.remove(metrica)) {
+                jdbcTemplate.update(UPDATE_DAILY_SQL, fila[3], fila[4], fila[5], fila[6], fila[7], parcelaId, inicio, metrica);
+            } else {
+                nuevas.add(fila);
+            }
+        }
+        batch(INSERT_SQL.formatted(DAILY), nuevas);
+        for (String metrica : existentes) {
+            jdbcTemplate.update("DELETE FROM " + DAILY + " WHERE parcela_id = ? AND periodo = ? AND metrica = ?",
+                parcelaId, inicio, metrica);
+        }
+    }
+
+    private Map<BucketKey, Long> counts(String table, LocalDateTime desde, LocalDateTime hasta) {
+        Map<BucketKey, Long> counts = new HashMap<>();
+        jdbcTemplate.query(COUNT_SQL.formatted(table), rs -> {
+            counts.put(new BucketKey(rs.getString(1), rs.getTimestamp(2).toLocalDateTime()), rs.getLong(3));
+        }, Timestamp.valueOf(desde), Timestamp.valueOf(hasta));
+        return counts;
+    }
+
+    private void readRollups(Map<String, Aggregate> result, String table, String parcelaId,
+                             LocalDateTime desde, LocalDateTime hasta) {
+        if (!desde.isBefore(hasta)) {
+            return;
+        }
+        String sql = SELECT_SQL.formatted(table, parcelaId == null ? "" : " AND parcela_id = ?");
+        Object[] args = parcelaId == null
+            ? new Object[]{Timestamp.valueOf(desde), Timestamp.valueOf(hasta)}
+            : new Object[]{Timestamp.valueOf(desde), Timestamp.valueOf(hasta), parcelaId};
+        jdbcTemplate.query(sql, rs -> {
+            result.computeIfAbsent(rs.getString(1), k -> new Aggregate()).addRow(rs.getString(2),
+                rs.getLong(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6), rs.getDouble(7));
+        }, args);
+    }
+
+    private void readRaw(Map<String, Aggregate> result, String parcelaId, LocalDateTime desde, LocalDateTime hasta) {
+        if (!desde.isBefore(hasta)) {
+            return;
+        }
+        List<SensorStatsRow> rows = parcelaId == null
+            ? sensorDataRepository.aggregateByParcela(desde, hasta)
+            : sensorDataRepository.aggregateForParcela(parcelaId, desde, hasta);
+        for (SensorStatsRow row : rows) {
+            result.computeIfAbsent(row.parcelaId(), k -> new Aggregate()).add(row);
+        }
+    }
+
+    // Recorre las lecturas crudas sin pasar por JPA; la misma instancia se reutiliza por fila
+    private void scanRaw(LocalDateTime desde, LocalDateTime hasta, Consumer<SensorData> consumer) {
+        scanRaw(RAW_SQL, null, desde, hasta, consumer);
+    }
+
+    private void scanRaw(String sql, String parcelaId, LocalDateTime desde, LocalDateTime hasta,
+                         Consumer<SensorData> consumer) {
+        SensorData reading = new SensorData();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setFetchSize(1000);
+            ps.setTimestamp(1, Timestamp.valueOf(desde));
+            ps.setTimestamp(2, Timestamp.valueOf(hasta));
+            if (parcelaId != null) {
+                ps.setString(3, parcelaId);
+            }
+            return ps;
+        }, rs -> {
+            reading.setParcelaId(rs.getString(1));
+            reading.setHumedad(getDouble(rs, 2));
+            reading.setNitrogeno(getDouble(rs, 3));
+            reading.setPh(getDouble(rs, 4));
+            reading.setTemperatura(getDouble(rs, 5));
+            reading.setLuminosidad(getDouble(rs, 6));
+            reading.setFecha(rs.getTimestamp(7).toLocalDateTime());
+            reading.setEstado(rs.getString(8));
+            reading.setAnomalias(rs.getInt(9));
+            consumer.accept(reading);
+        });
+    }
+
+    private void batch(String sql, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(sql, rows, jdbcBatchSize, (ps, row) -> {
+            ps.setString(1, (String) row[0]);
+            ps.setTimestamp(2, Timestamp.valueOf((LocalDateTime) row[1]));
+            ps.setString(3, (String) row[2]);
+            ps.setLong(4, (Long) row[3]);
+            for (int i = 4; i < 8; i++) {
+                if (row[i] == null) {
+                    ps.setNull(i + 1, Types.DOUBLE);
+                } else {
+                    ps.setDouble(i + 1, (Double) row[i]);
+                }
+            }
+        });
+    }
+
+    private static List<Object[]> rows(Map<BucketKey, Aggregate> buckets) {
+        List<Object[]> rows = new ArrayList<>();
+        buckets.forEach((key, aggregate) -> {
+            StatsAccumulator stats = aggregate.stats;
+            for (int i = 0; i < METRICAS.length; i++) {
+                if (stats.count(i) > 0) {
+                    rows.add(new Object[]{key.parcelaId(), key.periodo(), METRICAS[i], stats.count(i),
+                        stats.sum(i), stats.sumSquares(i), stats.min(i), stats.max(i)});
+                }
+                if (stats.anomalies(i) > 0) {
+                    rows.add(new Object[]{key.parcelaId(), key.periodo(), ANOMALIA_PREFIX + METRICAS[i],
+                        stats.anomalies(i), null, null, null, null});
+                }
+            }
+            aggregate.estados.forEach((estado, count) -> rows.add(new Object[]{key.parcelaId(), key.periodo(),
+                ESTADO_PREFIX + estado, count, null, null, null, null}));
+        });
+        // Orden de bloqueo común a todos los escritores: parcela, periodo, métrica
+        rows.sort(ROW_ORDER);
+        return rows;
+    }
+
+    private static final Comparator<Object[]> ROW_ORDER = Comparator
+        .comparing((Object[] row) -> (String) row[0])
+        .thenComparing(row -> (LocalDateTime) row[1])
+        .thenComparing(row -> (String) row[2]);
+
+    private static LocalDateTime ceil(LocalDateTime value, ChronoUnit unit) {
+        LocalDateTime truncated = value.truncatedTo(unit);
+        return truncated.equals(value) ? value : truncated.plus(1, unit);
+    }
+
+    private static Double getDouble(ResultSet rs, int index) throws SQLException {
+        double value = rs.getDouble(index);
+        return rs.wasNull() ? null : value;
+    }
+
+    private record BucketKey(String parcelaId, LocalDateTime periodo) implements Comparable<BucketKey> {
+        @Override
+        public int compareTo(BucketKey other) {
+            int cmp = parcelaId.compareTo(other.parcelaId);
+            return cmp != 0 ? cmp : periodo.compareTo(other.periodo);
+        }
+    }
+
+    // Agregado mergeable de un conjunto de lecturas: estadísticas por métrica (StatsAccumulator)
+    // y conteo por estado
+    public static final class Aggregate {
+        private final StatsAccumulator stats;
+        private final Map<String, Long> estados = new TreeMap<>();
+
+        public Aggregate() {
+            this(new StatsAccumulator());
+        }
+
+        Aggregate(StatsAccumulator stats) {
+            this.stats = stats;
+        }
+
+        public void add(SensorData reading) {
+            stats.add(reading);
+            // Estado vacío cuenta como NORMAL, igual que en las estadísticas generales
+            String estado = reading.getEstado() != null && !reading.getEstado().trim().isEmpty()
+                ? reading.getEstado() : "NORMAL";
+            estados.merge(estado, 1L, Long::sum);
+        }
+
+        public void merge(Aggregate other) {
+            stats.merge(other.stats);
+            other.estados.forEach((estado, count) -> estados.merge(estado, count, Long::sum));
+        }
+
+        void addRow(String metrica, long count, double sum, double sumSquares, double min, double max) {
+            if (metrica.startsWith(ESTADO_PREFIX)) {
+                estados.merge(metrica.substring(ESTADO_PREFIX.length()), count, Long::sum);
+                return;
+            }
+            if (metrica.startsWith(ANOMALIA_PREFIX)) {
+                stats.addAnomalies(index(metrica.substring(ANOMALIA_PREFIX.length())), count);
+                return;
+            }
+            stats.addSums(index(metrica), count, sum, sumSquares, min, max);
+        }
+
+        void addEstado(String estado, long count) {
+            estados.merge(estado, count, Long::sum);
+        }
+
+        // Fila de las consultas agregadas de SensorDataRepository (una por parcela, estado y
+        // máscara de anomalías: las métricas marcadas en la fila sólo se cuentan como anómalas)
+        void add(SensorStatsRow row) {
+            int mask = row.anomalias() == null ? 0 : row.anomalias();
+            addSums(mask, StatsAccumulator.HUMEDAD, row.humedadN(), row.humedadSuma(), row.humedadSumaCuadrados(),
+                row.humedadMin(), row.humedadMax());
+            addSums(mask, StatsAccumulator.NITROGENO, row.nitrogenoN(), row.nitrogenoSuma(), row.nitrogenoSumaCuadrados(),
+                row.nitrogenoMin(), row.nitrogenoMax());
+            addSums(mask, StatsAccumulator.PH, row.phN(), row.phSuma(), row.phSumaCuadrados(), row.phMin(), row.phMax());
+            addSums(mask, StatsAccumulator.TEMPERATURA, row.temperaturaN(), row.temperaturaSuma(),
+                row.temperaturaSumaCuadrados(), row.temperaturaMin(), row.temperaturaMax());
+            addSums(mask, StatsAccumulator.LUMINOSIDAD, row.luminosidadN(), row.luminosidadSuma(),
+                row.luminosidadSumaCuadrados(), row.luminosidadMin(), row.luminosidadMax());
+            String estado = row.estado() != null && !row.estado().trim().isEmpty() ? row.estado() : "NORMAL";
+            estados.merge(estado, row.lecturas(), Long::sum);
+        }
+
+        public long readings() {
+            long total = 0;
+            for (long count : estados.values()) {
+                total += count;
+            }
+            return total;
+        }
+
+        public MetricStats metric(String metrica) {
+            return new MetricStats(stats, index(metrica));
+        }
+
+        public StatsAccumulator stats() {
+            return stats;
+        }
+
+        public Map<String, Long> estados() {
+            return estados;
+        }
+
+        // Sin muestras las sumas llegan a null
+        private void addSums(int mask, int m, long n, Double sum, Double sumSquares, Double min, Double max) {
+            if (n == 0) {
+                return;
+            }
+            if (StatsAccumulator.isAnomaly(mask, m)) {
+                stats.addAnomalies(m, n);
+            } else {
+                stats.addSums(m, n, sum, sumSquares, min, max);
+            }
+        }
+
+        private static int index(String metrica) {
+            for (int i = 0; i < METRICAS.length; i++) {
+                if (METRICAS[i].equals(metrica)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Métrica desconocida: " + metrica);
+        }
+    }
+
+    // Vista de una métrica de un Aggregate
+    public static final class MetricStats {
+        private final StatsAccumulator stats;
+        private final int m;
+
+        MetricStats(StatsAccumulator stats, int m) {
+            this.stats = stats;
+            this.m = m;
+        }
+
+        public long count() {
+            return stats.count(m);
+        }
+
+        // Sin muestras devuelven 0.0, como los average().orElse(0.0) anteriores
+        public double mean() {
+            return stats.mean(m);
+        }
+
+        public double variance() {
+            return stats.variance(m);
+        }
+
+        public double stddev() {
+            return stats.stddev(m);
+        }
+
+        public double min() {
+            return stats.min(m);
+        }
+
+        public double max() {
+            return stats.max(m);
+        }
+
+        // NaN si la métrica no tiene rango óptimo o no se contó
+        public double inRangePercent() {
+            return stats.inRangePercent(m);
+        }
+
+        // Valores descartados por anómalos (no cuentan en count ni en la media)
+        public long anomalies() {
+            return stats.anomalies(m);
+        }
+    }
+}
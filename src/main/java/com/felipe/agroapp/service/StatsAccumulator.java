@@ -0,0 +1,231 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.service.ParcelaCache.Rango;
+import com.felipe.agroapp.service.ParcelaCache.Umbrales;
+
+import java.util.Arrays;
+
+// Estadísticas de las cinco métricas (orden de SensorRollupService.METRICAS) en una sola
+// pasada y sin reservar memoria por lectura: conteo, media y varianza por Welford, mínimo,
+// máximo y lecturas dentro del rango óptimo. Los acumuladores se combinan (Chan et al.), así
+// que sirven igual para particiones, cubos de rollup o el almacén en memoria.
+// NaN (o null en SensorData) es "sin dato" y no cuenta. Los valores marcados como anómalos
+// (SensorData.anomalias) tampoco entran en las estadísticas: sólo se cuentan aparte.
+public final class StatsAccumulator {
+    public static final int HUMEDAD = 0;
+    public static final int NITROGENO = 1;
+    public static final int PH = 2;
+    public static final int TEMPERATURA = 3;
+    public static final int LUMINOSIDAD = 4;
+    public static final int METRICAS = 5;
+
+    private final long[] count = new long[METRICAS];
+    private final double[] mean = new double[METRICAS];
+    private final double[] m2 = new double[METRICAS];
+    private final double[] min = new double[METRICAS];
+    private final double[] max = new double[METRICAS];
+    private final long[] inRange = new long[METRICAS];
+    private final long[] anomalies = new long[METRICAS];
+    // Rango óptimo por métrica; NaN si no tiene
+    private final double[] rangoMin = new double[METRICAS];
+    private final double[] rangoMax = new double[METRICAS];
+
+    public StatsAccumulator() {
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        Arrays.fill(rangoMin, Double.NaN);
+        Arrays.fill(rangoMax, Double.NaN);
+    }
+
+    // Acumulador que además cuenta las lecturas dentro de los rangos óptimos de la parcela
+    public static StatsAccumulator withRanges(Umbrales umbrales) {
+        StatsAccumulator acc = new StatsAccumulator();
+        acc.setRange(HUMEDAD, umbrales.humedad());
+        acc.setRange(PH, umbrales.ph());
+        acc.setRange(NITROGENO, umbrales.nitrogeno());
+        return acc;
+    }
+
+    public void add(double humedad, double nitrogeno, double ph, double temperatura, double luminosidad) {
+        add(HUMEDAD, humedad);
+        add(NITROGENO, nitrogeno);
+        add(PH, ph);
+        add(TEMPERATURA, temperatura);
+        add(LUMINOSIDAD, luminosidad);
+    }
+
+    // anomalias: máscara de SensorData.anomalias
+    public void add(double humedad, double nitrogeno, double ph, double temperatura, double luminosidad,
+                    int anomalias) {
+        if (anomalias == 0) {
+            add(humedad, nitrogeno, ph, temperatura, luminosidad);
+            return;
+        }
+        add(HUMEDAD, humedad, anomalias);
+        add(NITROGENO, nitrogeno, anomalias);
+        add(PH, ph, anomalias);
+        add(TEMPERATURA, temperatura, anomalias);
+        add(LUMINOSIDAD, luminosidad, anomalias);
+    }
+
+    public void add(SensorData reading) {
+        add(valor(reading.getHumedad()), valor(reading.getNitrogeno()), valor(reading.getPh()),
+            valor(reading.getTemperatura()), valor(reading.getLuminosidad()), mask(reading));
+    }
+
+    // Máscara de anomalías de la lectura (null cuenta como ninguna)
+    public static int mask(SensorData reading) {
+        return reading.getAnomalias() == null ? 0 : reading.getAnomalias();
+    }
+
+    public static boolean isAnomaly(int mask, int m) {
+        return (mask & (1 << m)) != 0;
+    }
+
+    // Los conteos en rango sólo se suman si ambos acumuladores tienen el mismo rango (uno
+    // vacío y sin rango adopta el del otro)
+    public void merge(StatsAccumulator other) {
+        for (int m = 0; m < METRICAS; m++) {
+            if (count[m] == 0 && !hasRange(m)) {
+                rangoMin[m] = other.rangoMin[m];
+                rangoMax[m] = other.rangoMax[m];
+            }
+            combine(m, other.count[m], other.mean[m], other.m2[m], other.min[m], other.max[m]);
+            if (sameRange(m, other)) {
+                inRange[m] += other.inRange[m];
+            }
+            anomalies[m] += other.anomalies[m];
+        }
+    }
+
+    // Momentos ya agregados (filas de rollup o de GROUP BY): M2 = Σx² − (Σx)²/n. Sólo pierde
+    // precisión con medias enormes frente a la desviación, que no es el caso de estas métricas;
+    // lecturas sueltas y almacén en memoria van por Welford.
+    void addSums(int m, long n, double sum, double sumSquares, double minimo, double maximo) {
+        if (n == 0) {
+            return;
+        }
+        double media = sum / n;
+        combine(m, n, media, Math.max(0.0, sumSquares - sum * media), minimo, maximo);
+    }
+
+    // Lecturas en rango contadas fuera del acumulador (p. ej. en la base de datos)
+    void addInRange(int m, long n) {
+        inRange[m] += n;
+    }
+
+    // Valores anómalos contados fuera del acumulador (filas de rollup)
+    void addAnomalies(int m, long n) {
+        anomalies[m] += n;
+    }
+
+    public long count(int m) {
+        return count[m];
+    }
+
+    // Sin muestras: 0.0, como los average().orElse(0.0) anteriores
+    public double mean(int m) {
+        return count[m] == 0 ? 0.0 : mean[m];
+    }
+
+    // Varianza poblacional
+    public double variance(int m) {
+        return count[m] == 0 ? 0.0 : m2[m] / count[m];
+    }
+
+    public double stddev(int m) {
+        return Math.sqrt(variance(m));
+    }
+
+    public double min(int m) {
+        return count[m] == 0 ? 0.0 : min[m];
+    }
+
+    public double max(int m) {
+        return count[m] == 0 ? 0.0 : max[m];
+    }
+
+    // Valores descartados por anómalos; no forman parte de count
+    public long anomalies(int m) {
+        return anomalies[m];
+    }
+
+    public boolean hasRange(int m) {
+        return !Double.isNaN(rangoMin[m]);
+    }
+
+    public Rango range(int m) {
+        return hasRange(m) ? new Rango(rangoMin[m], rangoMax[m]) : null;
+    }
+
+    // Porcentaje de lecturas (con dato) dentro del rango óptimo; NaN si no hay rango o lecturas
+    public double inRangePercent(int m) {
+        return !hasRange(m) || count[m] == 0 ? Double.NaN : 100.0 * inRange[m] / count[m];
+    }
+
+    double sum(int m) {
+        return mean[m] * count[m];
+    }
+
+    double sumSquares(int m) {
+        return m2[m] + count[m] * mean[m] * mean[m];
+    }
+
+    private void setRange(int m, Rango rango) {
+        rangoMin[m] = rango.min();
+        rangoMax[m] = rango.max();
+    }
+
+    // Un valor anómalo sólo se cuenta si hay dato
+    private void add(int m, double x, int anomalias) {
+        if (isAnomaly(anomalias, m)) {
+            if (x == x) {
+                anomalies[m]++;
+            }
+            return;
+        }
+        add(m, x);
+    }
+
+    private void add(int m, double x) {
+        if (x != x) {
+            return;
+        }
+        long n = ++count[m];
+        double delta = x - mean[m];
+        mean[m] += delta / n;
+        m2[m] += delta * (x - mean[m]);
+        if (x < min[m]) {
+            min[m] = x;
+        }
+        if (x > max[m]) {
+            max[m] = x;
+        }
+        // Con rango NaN las comparaciones son falsas
+        if (x >= rangoMin[m] && x <= rangoMax[m]) {
+            inRange[m]++;
+        }
+    }
+
+    private void combine(int m, long n, double media, double m2Otro, double minimo, double maximo) {
+        if (n == 0) {
+            return;
+        }
+        long total = count[m] + n;
+        double delta = media - mean[m];
+        mean[m] += delta * n / total;
+        m2[m] += m2Otro + delta * delta * ((double) count[m] * n / total);
+        count[m] = total;
+        min[m] = Math.min(min[m], minimo);
+        max[m] = Math.max(max[m], maximo);
+    }
+
+    private boolean sameRange(int m, StatsAccumulator other) {
+        return Double.compare(rangoMin[m], other.rangoMin[m]) == 0 && Double.compare(rangoMax[m], other.rangoMax[m]) == 0;
+    }
+
+    private static double valor(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+}
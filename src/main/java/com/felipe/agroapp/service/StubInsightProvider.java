@@ -0,0 +1,99 @@
+package com.felipe.agroapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Proveedor local para pruebas sin red (agroapp.llm.provider=stub): responde tras latency-ms
+// más un extra aleatorio de hasta latency-jitter-ms, falla con un 503 en una fracción
+// failure-rate de las llamadas y en hang-rate no responde nunca, como un endpoint colgado.
+// Los retardos son tareas programadas: ninguna llamada ocupa un hilo mientras espera.
+@Component
+public class StubInsightProvider implements InsightProvider {
+
+    @Value("${agroapp.llm.stub.latency-ms:800}")
+    private long latencyMs;
+
+    @Value("${agroapp.llm.stub.latency-jitter-ms:400}")
+    private long latencyJitterMs;
+
+    @Value("${agroapp.llm.stub.failure-rate:0}")
+    private double failureRate;
+
+    @Value("${agroapp.llm.stub.hang-rate:0}")
+    private double hangRate;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        if (latencyMs < 0 || latencyJitterMs < 0 || failureRate < 0 || hangRate < 0 || failureRate + hangRate > 1) {
+            throw new IllegalArgumentException("Configuración de agroapp.llm.stub inválida");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "llm-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public String name() {
+        return "stub";
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<String> complete(ChatRequest request) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        double r = random.nextDouble();
+        if (r < hangRate) {
+            return future;
+        }
+        boolean falla = r < hangRate + failureRate;
+        long delay = latencyMs + (latencyJitterMs > 0 ? random.nextLong(latencyJitterMs + 1) : 0);
+        scheduler.schedule(() -> {
+            if (falla) {
+                future.completeExceptionally(new ProviderException("Stub: HTTP 503 simulado", true));
+            } else {
+                future.complete(text(request));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    // Lo que espera cada prompt: un array JSON para /analyze, Markdown para los reportes
+    private static String text(ChatRequest request) {
+        if (request.userPrompt().contains("array JSON")) {
+            return """
+                [
+                  {"title": "Respuesta de prueba", "description": "Texto generado por el proveedor local (stub), sin llamar a OpenAI.", "type": "success", "parcela": "N/A"}
+                ]
+                """;
+        }
+        return """
+            ## 🎯 RESUMEN EJECUTIVO
+            Texto generado por el proveedor local de pruebas (stub) para %s, sin llamar a OpenAI.
+
+            ## 🚀 RECOMENDACIONES PRIORITARIAS
+            1. **Revisar la configuración** de agroapp.llm.provider antes de producción
+            """.formatted(request.modelo());
+    }
+}
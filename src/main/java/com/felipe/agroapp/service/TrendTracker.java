@@ -0,0 +1,503 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Tendencias por parcela y métrica, mantenidas al vuelo con las mismas escrituras que el
+// almacén en memoria. Cada serie guarda una regresión lineal sobre una ventana deslizante
+// (window-hours, por defecto 7 días) partida en cubos: cada cubo lleva n, Σu, Σu², Σy, Σuy y
+// Σy² con u = horas desde su inicio, y la ventana unos totales que se suman en cada lectura y
+// se recalculan desde los cubos cuando uno sale de ella. Además, una media móvil exponencial
+// por tiempo (vida media ewma-half-life-hours). Leer la pendiente, R² y la EWMA es O(1).
+// La ventana avanza de cubo en cubo: cubre entre window-hours menos un cubo y window-hours.
+@Component
+public class TrendTracker implements ReadingsListener {
+    private static final Logger logger = Logger.getLogger(TrendTracker.class.getName());
+
+    private static final String WARM_SQL =
+        "SELECT parcela_id, humedad, nitrogeno, ph, temperatura, luminosidad, fecha, anomalias " +
+        "FROM sensor_readings WHERE fecha >= ? ORDER BY fecha";
+
+    private static final double MICROS_PER_HOUR = 3_600_000_000.0;
+    // Espera máxima entre cargas fallidas
+    private static final long MAX_BACKOFF_MS = 300_000;
+    private static final int MAX_DISCARDED_LOADS = 3;
+    // |t| de la pendiente a partir del cual se considera que hay tendencia (~95%)
+    private static final double T_SIGNIFICATIVO = 2.0;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ParcelaCache parcelaCache;
+
+    @Value("${agroapp.trends.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.trends.window-hours:168}")
+    private int windowHours;
+
+    @Value("${agroapp.trends.buckets:24}")
+    private int buckets;
+
+    @Value("${agroapp.trends.ewma-half-life-hours:24}")
+    private double halfLifeHours;
+
+    // Además de |t| >= 2, R² mínimo para hablar de tendencia: con miles de lecturas
+    // una pendiente ínfima ya es significativa
+    @Value("${agroapp.trends.min-r2:0.1}")
+    private double minR2;
+
+    private volatile Map<String, Series> series = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private final AtomicBoolean warming = new AtomicBoolean();
+    private volatile long reintentoEn;
+    private int fallosSeguidos;
+    private long bucketMicros;
+    private double bucketHours;
+
+    // No nulo mientras se carga: las lecturas confirmadas entretanto se aplican al terminar
+    private final Object pendientesLock = new Object();
+    private List<Muestra> pendientes;
+    private final Set<Clave> clavesPendientes = ConcurrentHashMap.newKeySet();
+    // Cada borrado la incrementa: una carga que empezó antes no instala datos ya borrados
+    private final AtomicLong generation = new AtomicLong();
+
+    // Pendiente por día; NaN con menos de 3 lecturas o todas en el mismo instante
+    public record Tendencia(long muestras, double pendientePorDia, double r2, double ewma, String direccion) {
+    }
+
+    private record Muestra(String parcelaId, long fecha, double[] valores) {
+    }
+
+    // (parcela_id, fecha) es único en sensor_readings
+    private record Clave(String parcelaId, long fecha) {
+    }
+
+    @PostConstruct
+    public void init() {
+        if (windowHours <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("agroapp.trends.window-hours y agroapp.trends.buckets deben ser positivos");
+        }
+        bucketMicros = windowHours * 3_600_000_000L / buckets;
+        bucketHours = bucketMicros / MICROS_PER_HOUR;
+        Gauge.builder("agroapp.trends.parcelas", this, tracker -> tracker.series.size())
+            .description("Parcelas con tendencias en memoria")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStartup() {
+        if (enabled) {
+            warmAsync();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int windowHours() {
+        return windowHours;
+    }
+
+    // false mientras se carga la ventana: get() sirve lo que haya (vacío o la carga anterior)
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Tendencia de cada métrica con lecturas en la ventana, en el orden de SensorRollupService.METRICAS.
+    // Sin carga completa no bloquea: lanza la carga en segundo plano y responde con lo que hay.
+    public Optional<Map<String, Tendencia>> get(String parcelaId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        if (!ready) {
+            warmAsync();
+        }
+        Series s = series.get(parcelaId);
+        if (s == null) {
+            return Optional.empty();
+        }
+        Tendencia[] tendencias = s.tendencias(bucket(CompressedSeries.toMicros(LocalDateTime.now())), minR2);
+        Map<String, Tendencia> result = new LinkedHashMap<>();
+        for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+            if (tendencias[m].muestras() > 0) {
+                result.put(SensorRollupService.METRICAS[m], tendencias[m]);
+            }
+        }
+        return result.isEmpty() ? Optional.empty() : Optional.of(result);
+    }
+
+    // Como SensorHotStore: sólo lo confirmado entra en las tendencias
+    @Override
+    public void committed(List<SensorData> readings) {
+        if (!enabled) {
+            return;
+        }
+        List<Muestra> batch = new ArrayList<>(readings.size());
+        for (SensorData reading : readings) {
+            if (reading.getParcelaId() != null && reading.getFecha() != null) {
+                batch.add(new Muestra(reading.getParcelaId(), CompressedSeries.toMicros(reading.getFecha()), sinAnomalias(
+                    new double[]{value(reading.getHumedad()), value(reading.getNitrogeno()), value(reading.getPh()),
+                        value(reading.getTemperatura()), value(reading.getLuminosidad())}, StatsAccumulator.mask(reading))));
+            }
+        }
+        offer(batch);
+    }
+
+    @Override
+    public boolean acceptsSimulated() {
+        return false;
+    }
+
+    // Retención: se descartan los cubos que terminan antes del corte (el que lo contiene se
+    // conserva entero) y la EWMA de las métricas cuya última lectura quedó antes
+    @Override
+    public void removedBefore(String parcelaId, LocalDateTime corte) {
+        generation.incrementAndGet();
+        long limite = CompressedSeries.toMicros(corte);
+        series.computeIfPresent(parcelaId, (k, s) -> s.removeBefore(bucket(limite), limite) ? null : s);
+    }
+
+    @Override
+    public void parcelasRemoved(String prefijo) {
+        generation.incrementAndGet();
+        series.keySet().removeIf(parcelaId -> parcelaId.startsWith(prefijo));
+    }
+
+    @Override
+    public void cleared() {
+        generation.incrementAndGet();
+        series.clear();
+    }
+
+    private void offer(List<Muestra> batch) {
+        synchronized (pendientesLock) {
+            if (pendientes != null) {
+                pendientes.addAll(batch);
+                for (Muestra muestra : batch) {
+                    clavesPendientes.add(new Clave(muestra.parcelaId(), muestra.fecha()));
+                }
+                return;
+            }
+        }
+        apply(series, batch);
+    }
+
+    private void apply(Map<String, Series> target, List<Muestra> batch) {
+        for (Muestra muestra : batch) {
+            add(target, muestra.parcelaId(), muestra.fecha(), muestra.valores());
+        }
+    }
+
+    private void add(Map<String, Series> target, String parcelaId, long fecha, double[] valores) {
+        Series s = target.get(parcelaId);
+        if (s == null) {
+            s = target.computeIfAbsent(parcelaId, id -> new Series(buckets, bucketHours));
+        }
+        long k = bucket(fecha);
+        s.add(k, (fecha - k * bucketMicros) / MICROS_PER_HOUR, fecha, valores, halfLifeHours);
+    }
+
+    // Una sola carga a la vez, en su propio hilo; tras un fallo la siguiente espera el doble
+    // cada vez (hasta MAX_BACKOFF_MS)
+    private void warmAsync() {
+        if (ready || System.currentTimeMillis() < reintentoEn || !warming.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                // Una carga descartada por un borrado concurrente se repite en el acto
+                for (int intento = 1; !warm() && intento < MAX_DISCARDED_LOADS; intento++) {
+                    logger.fine("Tendencias: repitiendo la carga descartada");
+                }
+            } finally {
+                warming.set(false);
+            }
+        }, "trends-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Carga la ventana desde sensor_readings en un mapa nuevo y lo instala al terminar. Lo que
+    // se confirma durante la carga queda en pendientes y se aplica al final; la consulta salta
+    // las filas que ya están en pendientes para no contarlas dos veces.
+    // false si un borrado concurrente obligó a descartarla.
+    private boolean warm() {
+        if (ready) {
+            return true;
+        }
+        long gen = generation.get();
+        synchronized (pendientesLock) {
+            pendientes = new ArrayList<>();
+        }
+        Map<String, Series> fresh = new ConcurrentHashMap<>();
+        try {
+            long start = System.currentTimeMillis();
+            long ahora = CompressedSeries.toMicros(LocalDateTime.now());
+            long desde = (bucket(ahora) - buckets + 1) * bucketMicros;
+            long[] cargadas = {0};
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(WARM_SQL);
+                ps.setFetchSize(1000);
+                ps.setTimestamp(1, Timestamp.valueOf(CompressedSeries.toLocalDateTime(desde)));
+                return ps;
+            }, (ResultSet rs) -> {
+                String parcelaId = rs.getString(1);
+                if (parcelaCache.isSimulated(parcelaId)) {
+                    return;
+                }
+                long fecha = CompressedSeries.toMicros(rs.getTimestamp(7).toLocalDateTime());
+                if (clavesPendientes.isEmpty() || !clavesPendientes.contains(new Clave(parcelaId, fecha))) {
+                    add(fresh, parcelaId, fecha, sinAnomalias(new double[]{
+                        getDouble(rs, 2), getDouble(rs, 3), getDouble(rs, 4), getDouble(rs, 5), getDouble(rs, 6)},
+                        rs.getInt(8)));
+                    cargadas[0]++;
+                }
+            });
+            synchronized (pendientesLock) {
+                if (generation.get() != gen) {
+                    // Hubo borrados durante la carga: la siguiente lectura vuelve a cargar
+                    logger.info("Tendencias: carga descartada por un borrado concurrente");
+                    return false;
+                }
+                apply(fresh, pendientes);
+                series = fresh;
+                ready = true;
+            }
+            fallosSeguidos = 0;
+            logger.info("Tendencias cargadas: " + cargadas[0] + " lecturas de " + fresh.size() + " parcelas en " +
+                        (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            fallosSeguidos++;
+            long espera = Math.min(MAX_BACKOFF_MS, 1000L << Math.min(fallosSeguidos - 1, 16));
+            reintentoEn = System.currentTimeMillis() + espera;
+            logger.log(Level.WARNING, "No se pudieron cargar las tendencias; nuevo intento en " + espera + " ms", e);
+        } finally {
+            synchronized (pendientesLock) {
+                pendientes = null;
+                clavesPendientes.clear();
+            }
+        }
+        return true;
+    }
+
+    private long bucket(long micros) {
+        return Math.floorDiv(micros, bucketMicros);
+    }
+
+    private static double value(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    // Los valores anómalos no entran en las tendencias, igual que en los promedios
+    private static double[] sinAnomalias(double[] valores, int mask) {
+        for (int m = 0; mask != 0 && m < valores.length; m++) {
+            if (StatsAccumulator.isAnomaly(mask, m)) {
+                valores[m] = Double.NaN;
+            }
+        }
+        return valores;
+    }
+
+    private static double getDouble(ResultSet rs, int index) throws SQLException {
+        double value = rs.getDouble(index);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+
+    // Ventana de una parcela. Los totales van con t en horas desde el inicio de la ventana,
+    // así se mantienen pequeños y el recálculo al avanzar no arrastra errores de redondeo.
+    static final class Series {
+        private static final int N = 0, SU = 1, SUU = 2, SY = 3, SUY = 4, SYY = 5, CAMPOS = 6;
+        private static final long VACIO = Long.MIN_VALUE;
+
+        private final int buckets;
+        private final double bucketHours;
+        // Índice absoluto del cubo guardado en cada hueco (VACIO si ninguno)
+        private final long[] slotBucket;
+        private final double[] slots;
+        private final double[] totals = new double[StatsAccumulator.METRICAS * CAMPOS];
+        private final double[] ewma = new double[StatsAccumulator.METRICAS];
+        private final long[] ewmaFecha = new long[StatsAccumulator.METRICAS];
+        private long head = VACIO;
+
+        Series(int buckets, double bucketHours) {
+            this.buckets = buckets;
+            this.bucketHours = bucketHours;
+            this.slotBucket = new long[buckets];
+            this.slots = new double[buckets * StatsAccumulator.METRICAS * CAMPOS];
+            Arrays.fill(slotBucket, VACIO);
+            Arrays.fill(ewma, Double.NaN);
+            Arrays.fill(ewmaFecha, VACIO);
+        }
+
+        synchronized void add(long k, double u, long fecha, double[] valores, double halfLifeHours) {
+            if (head == VACIO) {
+                head = k;
+            } else if (k > head) {
+                advance(k);
+            }
+            if (k <= head - buckets) {
+                // Fuera de la ventana
+                return;
+            }
+            int slot = (int) Math.floorMod(k, (long) buckets);
+            if (slotBucket[slot] != k) {
+                Arrays.fill(slots, slot * StatsAccumulator.METRICAS * CAMPOS, (slot + 1) * StatsAccumulator.METRICAS * CAMPOS, 0.0);
+                slotBucket[slot] = k;
+            }
+            double t = (k - origin()) * bucketHours + u;
+            for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+                double y = valores[m];
+                if (y != y) {
+                    continue;
+                }
+                accumulate(slots, (slot * StatsAccumulator.METRICAS + m) * CAMPOS, u, y);
+                accumulate(totals, m * CAMPOS, t, y);
+                if (ewmaFecha[m] == VACIO) {
+                    ewma[m] = y;
+                    ewmaFecha[m] = fecha;
+                } else if (fecha >= ewmaFecha[m]) {
+                    double horas = (fecha - ewmaFecha[m]) / MICROS_PER_HOUR;
+                    ewma[m] += (1.0 - Math.pow(0.5, horas / halfLifeHours)) * (y - ewma[m]);
+                    ewmaFecha[m] = fecha;
+                }
+                // Una lectura atrasada entra en la regresión pero no en la EWMA
+            }
+        }
+
+        synchronized Tendencia[] tendencias(long ahora, double minR2) {
+            if (head != VACIO && ahora > head) {
+                advance(ahora);
+            }
+            Tendencia[] result = new Tendencia[StatsAccumulator.METRICAS];
+            for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+                result[m] = tendencia(m, minR2);
+            }
+            return result;
+        }
+
+        // Devuelve true si la serie queda vacía
+        synchronized boolean removeBefore(long k, long limite) {
+            for (int slot = 0; slot < buckets; slot++) {
+                if (slotBucket[slot] != VACIO && slotBucket[slot] < k) {
+                    slotBucket[slot] = VACIO;
+                }
+            }
+            boolean vacia = true;
+            for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+                if (ewmaFecha[m] != VACIO && ewmaFecha[m] < limite) {
+                    ewma[m] = Double.NaN;
+                    ewmaFecha[m] = VACIO;
+                }
+                vacia &= ewmaFecha[m] == VACIO;
+            }
+            if (head != VACIO) {
+                recompute();
+            }
+            for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+                vacia &= totals[m * CAMPOS + N] == 0;
+            }
+            return vacia;
+        }
+
+        private long origin() {
+            return head - buckets + 1;
+        }
+
+        private void advance(long k) {
+            head = k;
+            recompute();
+        }
+
+        // Totales desde los cubos que siguen en la ventana, trasladando u a t = d + u:
+        // Σt = Σu + n·d, Σt² = Σu² + 2d·Σu + n·d², Σty = Σuy + d·Σy
+        private void recompute() {
+            Arrays.fill(totals, 0.0);
+            long origin = origin();
+            for (int slot = 0; slot < buckets; slot++) {
+                long b = slotBucket[slot];
+                if (b == VACIO || b < origin || b > head) {
+                    continue;
+                }
+                double d = (b - origin) * bucketHours;
+                for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+                    int i = (slot * StatsAccumulator.METRICAS + m) * CAMPOS;
+                    int j = m * CAMPOS;
+                    double n = slots[i + N];
+                    if (n == 0) {
+                        continue;
+                    }
+                    totals[j + N] += n;
+                    totals[j + SU] += slots[i + SU] + n * d;
+                    totals[j + SUU] += slots[i + SUU] + 2 * d * slots[i + SU] + n * d * d;
+                    totals[j + SY] += slots[i + SY];
+                    totals[j + SUY] += slots[i + SUY] + d * slots[i + SY];
+                    totals[j + SYY] += slots[i + SYY];
+                }
+            }
+        }
+
+        private Tendencia tendencia(int m, double minR2) {
+            int j = m * CAMPOS;
+            double n = totals[j + N];
+            double ultimo = ewma[m];
+            if (n < 3) {
+                return new Tendencia((long) n, Double.NaN, Double.NaN, ultimo, "Sin datos suficientes");
+            }
+            double sxx = totals[j + SUU] - totals[j + SU] * totals[j + SU] / n;
+            double sxy = totals[j + SUY] - totals[j + SU] * totals[j + SY] / n;
+            double syy = totals[j + SYY] - totals[j + SY] * totals[j + SY] / n;
+            if (sxx <= 1e-12) {
+                return new Tendencia((long) n, Double.NaN, Double.NaN, ultimo, "Sin datos suficientes");
+            }
+            double pendiente = sxy / sxx;
+            // Serie constante: pendiente 0 y nada que explicar
+            double r2 = syy <= 1e-12 ? 0.0 : Math.min(1.0, sxy * sxy / (sxx * syy));
+            double t = r2 >= 1.0 ? Double.POSITIVE_INFINITY : Math.sqrt(r2 * (n - 2) / (1.0 - r2));
+            String direccion = t >= T_SIGNIFICATIVO && r2 >= minR2
+                ? (pendiente > 0 ? "Aumentando" : "Disminuyendo")
+                : "Estable";
+            return new Tendencia((long) n, pendiente * 24.0, r2, ultimo, direccion);
+        }
+
+        private static void accumulate(double[] sums, int i, double x, double y) {
+            sums[i + N] += 1;
+            sums[i + SU] += x;
+            sums[i + SUU] += x * x;
+            sums[i + SY] += y;
+            sums[i + SUY] += x * y;
+            sums[i + SYY] += y * y;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Write-ahead log local para la ingesta. Segmentos mapeados en memoria de tamaño fijo,
+// nombrados por su LSN base (posición global en bytes). Formato de cada registro:
+//   int longitud | int crc32c | payload
+//   payload = short len + parcelaId UTF-8 | long epochSecond | int nanos | 5 x double (NaN = null) | byte estado (bit 7: duplicado posible)
+// Una longitud 0 marca el final de los datos del segmento (el fichero nace relleno de ceros).
+@Component
+public class WriteAheadLog {
+    private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String LOG_ID_FILE = "log.id";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_PAYLOAD_BYTES = 2 + Short.MAX_VALUE + 12 + 40 + 1;
+    private static final String[] ESTADOS = {null, "NORMAL", "ALERTA", "CRITICO"};
+    // Bit alto del byte de estado: SensorData.duplicadoPosible (los registros anteriores lo tienen a 0)
+    private static final int DUPLICADO_POSIBLE = 0x80;
+    private static final int ESTADO_MASK = 0x0F;
+
+    @Value("${agroapp.wal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agroapp.wal.dir:data/wal}")
+    private String directory;
+
+    @Value("${agroapp.wal.segment-size-mb:64}")
+    private int segmentSizeMb;
+
+    @Value("${agroapp.wal.max-segments:32}")
+    private int maxSegments;
+
+    @Value("${agroapp.wal.fsync:true}")
+    private boolean fsync;
+
+    private Path dir;
+    private String logId;
+    private long segmentSize;
+
+    // Segmentos vivos por LSN base
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+
+    // Estado del escritor (protegido por this)
+    private long writeBase;
+    private MappedByteBuffer writeBuffer;
+    private ByteBuffer crcView;
+    private final CRC32C writeCrc = new CRC32C();
+    private final Map<String, byte[]> parcelaBytes = new HashMap<>();
+    private volatile long writeLsn;
+
+    // Estado del lector (un único hilo de replay)
+    private long readBase = -1;
+    private ByteBuffer readBuffer;
+    private final CRC32C readCrc = new CRC32C();
+    private volatile long corruptRecords;
+
+    private volatile long checkpointLsn;
+    private final AtomicLong recordsAppended = new AtomicLong();
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        segmentSize = (long) segmentSizeMb * 1024 * 1024;
+
+        Path idFile = dir.resolve(LOG_ID_FILE);
+        if (Files.exists(idFile)) {
+            logId = Files.readString(idFile).trim();
+        } else {
+            logId = UUID.randomUUID().toString();
+            Files.writeString(idFile, logId);
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                 .forEach(p -> segments.put(baseOf(p), p));
+        }
+
+        Path checkpointFile = dir.resolve(CHECKPOINT_FILE);
+        checkpointLsn = Files.exists(checkpointFile) ? Long.parseLong(Files.readString(checkpointFile).trim()) : 0L;
+
+        if (segments.isEmpty()) {
+            openSegment(alignUp(checkpointLsn));
+            writeLsn = writeBase;
+        } else {
+            openSegment(segments.lastKey());
+            writeLsn = writeBase + recoverEnd();
+        }
+        logger.info("WAL abierto en " + dir.toAbsolutePath() + " (log " + logId + "): " + segments.size() +
+                    " segmentos, LSN escritura " + writeLsn + ", checkpoint " + checkpointLsn);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (enabled && writeBuffer != null) {
+            writeBuffer.force();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getLogId() {
+        return logId;
+    }
+
+    // Añade el lote completo o nada; false si no cabe sin superar max-segments.
+    public synchronized boolean append(List<SensorData> readings) {
+        int position = (int) (writeLsn - writeBase);
+
+        int rotations = 0;
+        for (SensorData reading : readings) {
+            int size = recordSize(reading);
+            if (position + size > segmentSize) {
+                rotations++;
+                position = 0;
+            }
+            position += size;
+        }
+        if (segments.size() + rotations > maxSegments) {
+            return false;
+        }
+
+        int start = (int) (writeLsn - writeBase);
+        position = start;
+        for (SensorData reading : readings) {
+            if (position + recordSize(reading) > segmentSize) {
+                force(start, position);
+                publish(position);
+                openSegment(writeBase + segmentSize);
+                start = 0;
+                position = 0;
+            }
+            position = encode(reading, position);
+        }
+        force(start, position);
+        publish(position);
+        recordsAppended.addAndGet(readings.size());
+        return true;
+    }
+
+    // Garantiza que las nuevas escrituras queden por delante de un checkpoint
+    // (por ejemplo si se borraron segmentos a mano y la base de datos va más adelantada)
+    public synchronized void ensureWriteAfter(long lsn) {
+        if (writeLsn < lsn) {
+            logger.warning("WAL: checkpoint " + lsn + " por delante del final del log " + writeLsn + ", se abre un segmento nuevo");
+            openSegment(alignUp(lsn));
+            writeLsn = writeBase;
+        }
+    }
+
+    // Lee hasta max registros desde lsn; devuelve el LSN siguiente al último leído. Un registro
+    // con CRC inválido o ilegible se salta (cuenta en getCorruptRecords): su longitud marca dónde
+    // empieza el siguiente. Si la longitud misma es imposible, se pierde el resto del segmento.
+    public long read(long lsn, int max, List<SensorData> out) {
+        int read = 0;
+        while (read < max && lsn < writeLsn) {
+            long base = alignDown(lsn);
+            ByteBuffer buffer = readSegment(base);
+            int position = (int) (lsn - base);
+            int length = position + HEADER_BYTES <= segmentSize ? buffer.getInt(position) : 0;
+            if (length == 0) {
+                // Fin de segmento: el escritor ya rotó al siguiente
+                lsn = base + segmentSize;
+                continue;
+            }
+            if (length < 0 || length > MAX_PAYLOAD_BYTES || position + HEADER_BYTES + length > segmentSize) {
+                boolean activo;
+                synchronized (this) {
+                    activo = base == writeBase;
+                }
+                if (activo) {
+                    // En el segmento que se está escribiendo no se puede saltar al final
+                    throw new IllegalStateException("Longitud de registro WAL inválida en LSN " + lsn);
+                }
+                corruptRecords++;
+                logger.severe("Longitud de registro WAL inválida en LSN " + lsn + ", se descarta el resto del segmento");
+                lsn = base + segmentSize;
+                continue;
+            }
+            int crc = buffer.getInt(position + 4);
+            readCrc.reset();
+            ByteBuffer view = buffer.duplicate().position(position + HEADER_BYTES).limit(position + HEADER_BYTES + length);
+            readCrc.update(view);
+            SensorData reading = null;
+            if ((int) readCrc.getValue() == crc) {
+                try {
+                    reading = decode(buffer, position + HEADER_BYTES);
+                } catch (RuntimeException e) {
+                    logger.warning("Registro WAL ilegible en LSN " + lsn + ": " + e);
+                }
+            } else {
+                logger.warning("Registro WAL corrupto en LSN " + lsn + ", se descarta");
+            }
+            lsn += HEADER_BYTES + length;
+            if (reading == null) {
+                corruptRecords++;
+                continue;
+            }
+            out.add(reading);
+            read++;
+        }
+        return lsn;
+    }
+
+    public long countRecords(long lsn) {
+        long count = 0;
+        while (lsn < writeLsn) {
+            long base = alignDown(lsn);
+            ByteBuffer buffer = readSegment(base);
+            int position = (int) (lsn - base);
+            int length = position + HEADER_BYTES <= segmentSize ? buffer.getInt(position) : 0;
+            if (length == 0) {
+                lsn = base + segmentSize;
+                continue;
+            }
+            count++;
+            // Longitud imposible: read() descartará el resto del segmento como un solo registro
+            boolean valida = length > 0 && length <= MAX_PAYLOAD_BYTES && position + HEADER_BYTES + length <= segmentSize;
+            lsn = valida ? lsn + HEADER_BYTES + length : base + segmentSize;
+        }
+        return count;
+    }
+
+    // Registra el avance del replay y libera los segmentos ya confirmados en la base de datos
+    public void checkpoint(long lsn) {
+        checkpointLsn = lsn;
+        try {
+            Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+            Files.writeString(tmp, Long.toString(lsn));
+            Files.move(tmp, dir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("No se pudo guardar el checkpoint del WAL: " + e.getMessage());
+        }
+        deleteSegmentsBefore(alignDown(lsn));
+    }
+
+    // Registros descartados por read() desde el arranque
+    public long getCorruptRecords() {
+        return corruptRecords;
+    }
+
+    public long getWriteLsn() {
+        return writeLsn;
+    }
+
+    public long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    public long getRecordsAppended() {
+        return recordsAppended.get();
+    }
+
+    public synchronized long getFirstLsn() {
+        return segments.isEmpty() ? writeLsn : segments.firstKey();
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private int encode(SensorData reading, int position) {
+        MappedByteBuffer buffer = writeBuffer;
+        int payload = position + HEADER_BYTES;
+        int p = payload;
+
+        byte[] parcela = parcelaBytes.computeIfAbsent(reading.getParcelaId(), id -> id.getBytes(StandardCharsets.UTF_8));
+        buffer.putShort(p, (short) parcela.length);
+        p += 2;
+        buffer.put(p, parcela);
+        p += parcela.length;
+
+        LocalDateTime fecha = reading.getFecha();
+        buffer.putLong(p, fecha.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(p + 8, fecha.getNano());
+        p += 12;
+
+        buffer.putDouble(p, orNaN(reading.getHumedad()));
+        buffer.putDouble(p + 8, orNaN(reading.getNitrogeno()));
+        buffer.putDouble(p + 16, orNaN(reading.getPh()));
+        buffer.putDouble(p + 24, orNaN(reading.getTemperatura()));
+        buffer.putDouble(p + 32, orNaN(reading.getLuminosidad()));
+        p += 40;
+        buffer.put(p, (byte) (estadoCode(reading.getEstado()) | (reading.isDuplicadoPosible() ? DUPLICADO_POSIBLE : 0)));
+        p += 1;
+
+        int length = p - payload;
+        writeCrc.reset();
+        crcView.limit(p).position(payload);
+        writeCrc.update(crcView);
+        buffer.putInt(position + 4, (int) writeCrc.getValue());
+        buffer.putInt(position, length);
+        return p;
+    }
+
+    private SensorData decode(ByteBuffer buffer, int p) {
+        int parcelaLength = buffer.getShort(p);
+        byte[] parcela = new byte[parcelaLength];
+        buffer.get(p + 2, parcela);
+        p += 2 + parcelaLength;
+
+        LocalDateTime fecha = LocalDateTime.ofEpochSecond(buffer.getLong(p), buffer.getInt(p + 8), ZoneOffset.UTC);
+        p += 12;
+
+        SensorData reading = new SensorData(new String(parcela, StandardCharsets.UTF_8),
+            orNull(buffer.getDouble(p)), orNull(buffer.getDouble(p + 8)), orNull(buffer.getDouble(p + 16)),
+            orNull(buffer.getDouble(p + 24)), orNull(buffer.getDouble(p + 32)), fecha);
+        int estado = buffer.get(p + 40);
+        reading.setEstado(ESTADOS[estado & ESTADO_MASK]);
+        reading.setDuplicadoPosible((estado & DUPLICADO_POSIBLE) != 0);
+        return reading;
+    }
+
+    private void publish(int position) {
+        writeLsn = writeBase + position;
+    }
+
+    private void force(int from, int to) {
+        if (fsync && to > from) {
+            writeBuffer.force(from, to - from);
+        }
+    }
+
+    private void openSegment(long base) {
+        Path path = dir.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir el segmento WAL " + path, e);
+        }
+        crcView = writeBuffer.duplicate();
+        writeBase = base;
+        segments.put(base, path);
+    }
+
+    // Recorre el último segmento validando CRC para encontrar el final tras una caída
+    private int recoverEnd() {
+        CRC32C crc = new CRC32C();
+        int position = 0;
+        while (position + HEADER_BYTES <= segmentSize) {
+            int length = writeBuffer.getInt(position);
+            if (length <= 0 || length > MAX_PAYLOAD_BYTES || position + HEADER_BYTES + length > segmentSize) {
+                break;
+            }
+            crc.reset();
+            crc.update(writeBuffer.duplicate().position(position + HEADER_BYTES).limit(position + HEADER_BYTES + length));
+            if ((int) crc.getValue() != writeBuffer.getInt(position + 4)) {
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        // Escritura parcial: limpiar la cola para que no se confunda con registros válidos
+        if (position + HEADER_BYTES <= segmentSize && writeBuffer.getInt(position) != 0) {
+            logger.warning("WAL: registro incompleto en LSN " + (writeBase + position) + ", se descarta la cola del segmento");
+            zero(writeBuffer, position, (int) segmentSize);
+            writeBuffer.force();
+        }
+        return position;
+    }
+
+    private ByteBuffer readSegment(long base) {
+        if (base != readBase) {
+            Path path;
+            synchronized (this) {
+                path = segments.get(base);
+                if (base == writeBase) {
+                    readBuffer = writeBuffer.duplicate();
+                    readBase = base;
+                    return readBuffer;
+                }
+            }
+            if (path == null) {
+                throw new IllegalStateException("Segmento WAL inexistente para LSN " + base);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                readBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo leer el segmento WAL " + path, e);
+            }
+            readBase = base;
+        }
+        return readBuffer;
+    }
+
+    private synchronized void deleteSegmentsBefore(long base) {
+        for (Map.Entry<Long, Path> entry : List.copyOf(segments.headMap(base).entrySet())) {
+            try {
+                Files.deleteIfExists(entry.getValue());
+                segments.remove(entry.getKey());
+            } catch (IOException e) {
+                // En Windows un segmento aún mapeado no se puede borrar; se reintenta en el próximo checkpoint
+                logger.log(Level.FINE, "Segmento WAL pendiente de borrar: " + entry.getValue(), e);
+            }
+        }
+    }
+
+    private int recordSize(SensorData reading) {
+        byte[] parcela = parcelaBytes.computeIfAbsent(reading.getParcelaId(), id -> id.getBytes(StandardCharsets.UTF_8));
+        return HEADER_BYTES + 2 + parcela.length + 12 + 40 + 1;
+    }
+
+    private long alignUp(long lsn) {
+        long down = alignDown(lsn);
+        return down == lsn ? lsn : down + segmentSize;
+    }
+
+    private long alignDown(long lsn) {
+        return lsn - (lsn % segmentSize);
+    }
+
+    private static long baseOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void zero(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    private static double orNaN(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static Double orNull(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    private static byte estadoCode(String estado) {
+        for (byte i = 1; i < ESTADOS.length; i++) {
+            if (ESTADOS[i].equals(estado)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
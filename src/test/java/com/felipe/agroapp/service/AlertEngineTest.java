@@ -0,0 +1,160 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Máquina de estados de una regla propia (temperatura>35, histéresis del 10% = 3.5 grados,
+// 15 minutos para abrir y para cerrar). Sin hilo alert-writer: los eventos quedan en la cola.
+class AlertEngineTest {
+
+    private static final String PARCELA = "SN-000001";
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 1, 8, 0);
+
+    private AlertEngine engine;
+    private MeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        ParcelaCache parcelaCache = mock(ParcelaCache.class);
+        when(parcelaCache.generation()).thenReturn(1L);
+        when(parcelaCache.findById(anyString())).thenReturn(Optional.empty());
+        registry = new SimpleMeterRegistry();
+        engine = engine(parcelaCache, "temperatura>35:CRITICO");
+    }
+
+    @Test
+    void abreTrasLaDuracionMinimaYCierraConHisteresis() {
+        lectura(0, 36);
+        lectura(10, 37);
+        assertTrue(engine.abiertas(PARCELA).isEmpty());
+
+        lectura(15, 38);
+        List<AlertEngine.Alerta> abiertas = engine.abiertas(PARCELA);
+        assertEquals(1, abiertas.size());
+        assertEquals("temperatura>35", abiertas.get(0).regla());
+        assertEquals("CRITICO", abiertas.get(0).severidad());
+        assertEquals(T0, abiertas.get(0).inicio());
+        assertEquals(38.0, abiertas.get(0).peorValor());
+
+        // Dentro de la banda de histéresis (31.5, 35]: sigue abierta
+        lectura(20, 33);
+        lectura(25, 30);
+        // Volver a la banda antes de clear-duration la mantiene abierta
+        lectura(30, 34);
+        lectura(35, 30);
+        lectura(45, 39);
+        lectura(50, 30);
+        assertEquals(1, engine.abiertas(PARCELA).size());
+        assertEquals(39.0, engine.abiertas(PARCELA).get(0).peorValor());
+
+        lectura(65, 29);
+        assertTrue(engine.abiertas(PARCELA).isEmpty());
+        assertEquals(1.0, eventos("abierta"));
+        assertEquals(1.0, eventos("cerrada"));
+        assertEquals(2, cola());
+    }
+
+    @Test
+    void pendienteVuelveANormalSinAbrir() {
+        lectura(0, 36);
+        lectura(5, 34);
+        lectura(30, 36);
+        lectura(40, 36);
+        assertTrue(engine.abiertas(PARCELA).isEmpty());
+        assertEquals(0.0, eventos("abierta"));
+
+        // La duración cuenta desde la nueva violación (minuto 30), no desde la primera
+        lectura(45, 36);
+        assertEquals(1, engine.abiertas(PARCELA).size());
+        assertEquals(T0.plusMinutes(30), engine.abiertas(PARCELA).get(0).inicio());
+    }
+
+    @Test
+    void ignoraLecturasTardiasYValoresNulos() {
+        lectura(0, 36);
+        lectura(20, 36);
+        assertEquals(1, engine.abiertas(PARCELA).size());
+
+        // Anterior a la última evaluada: no puede iniciar el cierre
+        lectura(10, 20);
+        SensorData sinDato = new SensorData();
+        sinDato.setParcelaId(PARCELA);
+        sinDato.setFecha(T0.plusMinutes(40));
+        engine.committed(List.of(sinDato));
+        lectura(41, 36);
+        assertEquals(1, engine.abiertas(PARCELA).size());
+        assertEquals(1.0, registry.get("agroapp.alerts.late").counter().count());
+    }
+
+    @Test
+    void lecturasDeOtraParcelaNoSeMezclan() {
+        lectura(0, 36);
+        SensorData otra = new SensorData();
+        otra.setParcelaId("SN-000002");
+        otra.setTemperatura(20.0);
+        otra.setFecha(T0.plusMinutes(20));
+        engine.committed(List.of(otra, reading(20, 36)));
+        assertEquals(1, engine.abiertas(PARCELA).size());
+        assertTrue(engine.abiertas("SN-000002").isEmpty());
+    }
+
+    @Test
+    void rechazaReglasInvalidas() {
+        ParcelaCache parcelaCache = mock(ParcelaCache.class);
+        assertThrows(IllegalArgumentException.class, () -> engine(parcelaCache, "viento>10"));
+        assertThrows(IllegalArgumentException.class, () -> engine(parcelaCache, "temperatura>35:GRAVE"));
+        assertThrows(IllegalArgumentException.class, () -> engine(parcelaCache, "temperatura>alto"));
+    }
+
+    private AlertEngine engine(ParcelaCache parcelaCache, String rules) {
+        AlertEngine alertEngine = new AlertEngine();
+        ReflectionTestUtils.setField(alertEngine, "parcelaCache", parcelaCache);
+        ReflectionTestUtils.setField(alertEngine, "transactionManager", mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(alertEngine, "meterRegistry", registry);
+        ReflectionTestUtils.setField(alertEngine, "hysteresisPercent", 10.0);
+        ReflectionTestUtils.setField(alertEngine, "minDurationMinutes", 15L);
+        ReflectionTestUtils.setField(alertEngine, "clearDurationMinutes", 15L);
+        ReflectionTestUtils.setField(alertEngine, "rulesSpec", rules);
+        ReflectionTestUtils.setField(alertEngine, "queueCapacity", 100);
+        alertEngine.init();
+        ReflectionTestUtils.setField(alertEngine, "enabled", true);
+        return alertEngine;
+    }
+
+    private void lectura(int minuto, double temperatura) {
+        engine.committed(List.of(reading(minuto, temperatura)));
+    }
+
+    private static SensorData reading(int minuto, double temperatura) {
+        SensorData reading = new SensorData();
+        reading.setParcelaId(PARCELA);
+        reading.setTemperatura(temperatura);
+        reading.setFecha(T0.plusMinutes(minuto));
+        return reading;
+    }
+
+    private double eventos(String tipo) {
+        return registry.get("agroapp.alerts.events").tag("tipo", tipo).counter().count();
+    }
+
+    private int cola() {
+        return ((Queue<?>) ReflectionTestUtils.getField(engine, "pendientes")).size();
+    }
+}
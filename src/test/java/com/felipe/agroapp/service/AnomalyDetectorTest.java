@@ -0,0 +1,137 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Valores por defecto de agroapp.anomalies: z 4, vida media 48, calentamiento 12, congelado 6
+class AnomalyDetectorTest {
+
+    private static final String PARCELA = "SN-000001";
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 1, 0, 0);
+    private static final int HUMEDAD = 1;
+
+    private AnomalyDetector detector;
+    private int minuto;
+
+    @BeforeEach
+    void setUp() {
+        ParcelaCache parcelaCache = mock(ParcelaCache.class);
+        when(parcelaCache.isSimulated(anyString())).thenAnswer(inv -> inv.<String>getArgument(0).startsWith("LOAD-"));
+        detector = new AnomalyDetector();
+        ReflectionTestUtils.setField(detector, "parcelaCache", parcelaCache);
+        ReflectionTestUtils.setField(detector, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(detector, "enabled", true);
+        ReflectionTestUtils.setField(detector, "zThreshold", 4.0);
+        ReflectionTestUtils.setField(detector, "halfLifeReadings", 48.0);
+        ReflectionTestUtils.setField(detector, "warmupReadings", 12);
+        ReflectionTestUtils.setField(detector, "stuckReadings", 6);
+        ReflectionTestUtils.setField(detector, "resetGapHours", 24);
+        detector.init();
+    }
+
+    @Test
+    void marcaPicosSoloTrasElCalentamiento() {
+        historia(PARCELA, 11);
+        assertEquals(0, flag(lectura(PARCELA, 80)));
+
+        historia(PARCELA, 1);
+        SensorData pico = lectura(PARCELA, 80);
+        assertEquals(HUMEDAD, flag(pico));
+    }
+
+    @Test
+    void flagNoAvanzaLasSeries() {
+        historia(PARCELA, 30);
+        SensorData pico = lectura(PARCELA, 80);
+        assertEquals(HUMEDAD, flag(pico));
+        // El mismo lote reintentado tras un rollback se marca igual
+        pico.setAnomalias(null);
+        assertEquals(HUMEDAD, flag(pico));
+
+        // Al confirmar, el pico entra recortado: el siguiente sigue siendo pico
+        detector.committed(List.of(pico));
+        assertEquals(HUMEDAD, flag(lectura(PARCELA, 80)));
+        assertEquals(0, flag(lectura(PARCELA, 41)));
+    }
+
+    @Test
+    void marcaValoresCongelados() {
+        historia(PARCELA, 30);
+        for (int i = 0; i < 5; i++) {
+            SensorData igual = lectura(PARCELA, 41.11);
+            assertEquals(0, flag(igual));
+            detector.committed(List.of(igual));
+        }
+        assertEquals(HUMEDAD, flag(lectura(PARCELA, 41.11)));
+        assertEquals(0, flag(lectura(PARCELA, 41.13)));
+    }
+
+    @Test
+    void unHuecoLargoReiniciaLaSerie() {
+        historia(PARCELA, 30);
+        minuto += 25 * 60;
+        assertEquals(0, flag(lectura(PARCELA, 80)));
+    }
+
+    @Test
+    void lasTardiasSeEvaluanSinActualizar() {
+        historia(PARCELA, 30);
+        SensorData tardia = lectura(PARCELA, 80);
+        tardia.setFecha(T0);
+        assertEquals(HUMEDAD, flag(tardia));
+        detector.committed(List.of(tardia));
+        assertEquals(HUMEDAD, flag(lectura(PARCELA, 80)));
+    }
+
+    @Test
+    void ignoraParcelasSimuladasYVaciarLasSeries() {
+        SensorData simulada = lectura("LOAD-000001", 80);
+        detector.flag(List.of(simulada));
+        assertNull(simulada.getAnomalias());
+
+        historia(PARCELA, 30);
+        detector.cleared();
+        assertEquals(0, flag(lectura(PARCELA, 80)));
+        assertEquals(0, detector.stats().get("series"));
+    }
+
+    // Lecturas confirmadas con ruido suficiente para que sigma supere el mínimo
+    private void historia(String parcelaId, int n) {
+        for (int i = 0; i < n; i++) {
+            SensorData reading = lectura(parcelaId, 40 + ((i * 7) % 10) * 0.2);
+            detector.flag(List.of(reading));
+            detector.committed(List.of(reading));
+        }
+    }
+
+    private int flag(SensorData reading) {
+        detector.flag(List.of(reading));
+        return reading.getAnomalias();
+    }
+
+    private SensorData lectura(String parcelaId, double humedad) {
+        int i = minuto / 10;
+        SensorData reading = new SensorData();
+        reading.setParcelaId(parcelaId);
+        reading.setHumedad(humedad);
+        reading.setNitrogeno(30 + ((i * 3) % 10) * 0.3);
+        reading.setPh(6.5 + ((i * 7) % 10) * 0.02);
+        reading.setTemperatura(20 + ((i * 3) % 10) * 0.3);
+        reading.setLuminosidad(0.0);
+        reading.setFecha(T0.plusMinutes(minuto));
+        minuto += 10;
+        return reading;
+    }
+}
@@ -0,0 +1,141 @@
+package com.felipe.agroapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressedSeriesTest {
+
+    private static final String[] ESTADOS = {"NORMAL", "ALERTA", "CRITICO"};
+
+    @Test
+    void roundTripXorConIdsNaNYEstados() {
+        int n = 500;
+        double[][] valores = new double[n][CompressedSeries.METRICS];
+        long[] fechas = new long[n];
+        Random random = new Random(42);
+        long fecha = CompressedSeries.toMicros(LocalDateTime.of(2026, 10, 1, 0, 0));
+        for (int i = 0; i < n; i++) {
+            // Intervalos irregulares en microsegundos y valores sin redondear
+            fecha += 60_000_000L + random.nextInt(5_000_000);
+            fechas[i] = fecha;
+            for (int m = 0; m < CompressedSeries.METRICS; m++) {
+                valores[i][m] = i % 37 == m ? Double.NaN : 20 + random.nextGaussian() * 5;
+            }
+        }
+
+        CompressedSeries.Encoder encoder = CompressedSeries.encoder(1, true);
+        for (int i = 0; i < n; i++) {
+            double[] v = valores[i];
+            encoder.append(fechas[i], 1000 + i * 3L, v[0], v[1], v[2], v[3], v[4], ESTADOS[(i / 10) % 3], i % 32);
+        }
+        CompressedSeries series = encoder.finish();
+
+        assertEquals(n, series.count());
+        assertEquals(fechas[0], series.firstFecha());
+        assertEquals(fechas[n - 1], series.lastFecha());
+        assertTrue(series.hasIds());
+        CompressedSeries.Cursor cursor = series.cursor();
+        for (int i = 0; i < n; i++) {
+            assertTrue(cursor.next());
+            assertEquals(fechas[i], cursor.fecha());
+            assertEquals(1000 + i * 3L, cursor.id());
+            for (int m = 0; m < CompressedSeries.METRICS; m++) {
+                assertEquals(Double.doubleToLongBits(valores[i][m]), Double.doubleToLongBits(cursor.value(m)));
+            }
+            assertEquals(ESTADOS[(i / 10) % 3], cursor.estado());
+            assertEquals(i % 32, cursor.anomalias());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void roundTripEscaladoConDecimalesDetectados() {
+        int n = 200;
+        double[] humedad = new double[n];
+        long[] fechas = new long[n];
+        long inicio = CompressedSeries.toMicros(LocalDateTime.of(2026, 10, 1, 0, 0));
+        for (int i = 0; i < n; i++) {
+            fechas[i] = inicio + i * 300_000_000L;
+            humedad[i] = i == 50 ? Double.NaN : Math.round((40 + Math.sin(i) * 10) * 100) / 100.0;
+        }
+        int decimales = CompressedSeries.decimalsFor(humedad, 0, n);
+        assertEquals(2, decimales);
+        long unidad = CompressedSeries.unitFor(fechas, 0, n);
+        assertEquals(1_000_000L, unidad);
+
+        CompressedSeries.Encoder encoder = CompressedSeries.encoder(unidad, false, new int[] {decimales, 0, -1, -1, -1});
+        for (int i = 0; i < n; i++) {
+            encoder.append(fechas[i], 0, humedad[i], i, 6.5, Double.NaN, 1000.0, null, 0);
+        }
+        CompressedSeries series = encoder.finish();
+        assertEquals(2, series.decimals(0));
+
+        CompressedSeries.Cursor cursor = series.cursor();
+        for (int i = 0; i < n; i++) {
+            assertTrue(cursor.next());
+            assertEquals(fechas[i], cursor.fecha());
+            assertEquals(Double.doubleToLongBits(humedad[i]), Double.doubleToLongBits(cursor.value(0)));
+            assertEquals(i, cursor.value(1));
+            assertEquals(null, cursor.valueOrNull(3));
+            assertEquals("NORMAL", cursor.estado());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void leeBloquesConsecutivosDesdeUnBuffer() {
+        CompressedSeries primero = serie(10, 0);
+        CompressedSeries segundo = serie(7, 10);
+        ByteBuffer buffer = ByteBuffer.allocate(primero.sizeBytes() + segundo.sizeBytes());
+        primero.writeTo(buffer);
+        segundo.writeTo(buffer);
+        buffer.flip();
+
+        CompressedSeries a = CompressedSeries.read(buffer);
+        CompressedSeries b = CompressedSeries.read(buffer);
+        assertEquals(10, a.count());
+        assertEquals(7, b.count());
+        assertFalse(buffer.hasRemaining());
+        CompressedSeries.Cursor cursor = b.cursor();
+        assertTrue(cursor.next());
+        assertEquals(10.0, cursor.value(0));
+    }
+
+    @Test
+    void rechazaBloquesTruncadosYFechasDesordenadas() {
+        CompressedSeries series = serie(10, 0);
+        ByteBuffer truncado = ByteBuffer.allocate(series.sizeBytes() - 1);
+        ByteBuffer completo = ByteBuffer.allocate(series.sizeBytes());
+        series.writeTo(completo);
+        completo.flip().limit(series.sizeBytes() - 1);
+        truncado.put(completo).flip();
+        assertThrows(IllegalArgumentException.class, () -> CompressedSeries.read(truncado));
+
+        CompressedSeries.Encoder encoder = CompressedSeries.encoder(1, false);
+        encoder.append(2, 0, 1, 1, 1, 1, 1, "NORMAL", 0);
+        assertThrows(IllegalArgumentException.class, () -> encoder.append(1, 0, 1, 1, 1, 1, 1, "NORMAL", 0));
+    }
+
+    @Test
+    void rechazaValoresConMasDecimalesQueElBloque() {
+        CompressedSeries.Encoder encoder = CompressedSeries.encoder(1, false, new int[] {1, -1, -1, -1, -1});
+        assertThrows(IllegalArgumentException.class, () -> encoder.append(0, 0, 1.25, 1, 1, 1, 1, "NORMAL", 0));
+    }
+
+    private static CompressedSeries serie(int n, int desde) {
+        CompressedSeries.Encoder encoder = CompressedSeries.encoder(1_000_000L, false);
+        for (int i = 0; i < n; i++) {
+            double v = desde + i;
+            encoder.append((desde + i) * 60_000_000L, 0, v, v, v, v, v, "NORMAL", 0);
+        }
+        return encoder.finish();
+    }
+}
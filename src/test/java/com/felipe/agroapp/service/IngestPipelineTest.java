@@ -0,0 +1,146 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Replay del WAL contra un SensorBatchWriter simulado: los fallos se reintentan sin perder
+// ni duplicar lecturas, y un lote que la base rechaza por sus datos se aísla lectura a lectura
+class IngestPipelineTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 1, 8, 0);
+
+    @TempDir
+    Path dir;
+
+    private WriteAheadLog wal;
+    private SensorBatchWriter batchWriter;
+    private IngestPipeline pipeline;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        wal = new WriteAheadLog();
+        ReflectionTestUtils.setField(wal, "enabled", true);
+        ReflectionTestUtils.setField(wal, "directory", dir.toString());
+        ReflectionTestUtils.setField(wal, "segmentSizeMb", 1);
+        ReflectionTestUtils.setField(wal, "maxSegments", 4);
+        ReflectionTestUtils.setField(wal, "fsync", false);
+        wal.open();
+        batchWriter = mock(SensorBatchWriter.class);
+        when(batchWriter.readCheckpoint(anyString())).thenReturn(0L);
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    void reintentaHastaQueLaBaseResponde() {
+        List<List<SensorData>> confirmados = new ArrayList<>();
+        AtomicInteger intentos = new AtomicInteger();
+        when(batchWriter.write(anyList(), anyString(), anyLong())).thenAnswer(inv -> {
+            if (intentos.incrementAndGet() <= 2) {
+                throw new DataAccessResourceFailureException("base caída");
+            }
+            List<SensorData> lote = inv.getArgument(0);
+            confirmados.add(new ArrayList<>(lote));
+            return lote.size();
+        });
+        start();
+
+        assertTrue(pipeline.submit(List.of(lectura("SN-000001", 0), lectura("SN-000002", 0), lectura("SN-000001", 1))));
+        await(() -> wal.getCheckpointLsn() == wal.getWriteLsn());
+
+        assertEquals(3, intentos.get());
+        assertEquals(1, confirmados.size());
+        assertEquals(3, confirmados.get(0).size());
+        assertEquals("SN-000002", confirmados.get(0).get(1).getParcelaId());
+        assertEquals("RUNNING", pipeline.stats().get("walReplayer"));
+    }
+
+    @Test
+    void apartaLasLecturasQueLaBaseRechaza() {
+        List<SensorData> sueltas = new ArrayList<>();
+        when(batchWriter.write(anyList(), anyString(), anyLong())).thenAnswer(inv -> {
+            List<SensorData> lote = inv.getArgument(0);
+            if (!lote.isEmpty()) {
+                throw new DataIntegrityViolationException("ph fuera de rango");
+            }
+            return 0;
+        });
+        when(batchWriter.write(anyList())).thenAnswer(inv -> {
+            List<SensorData> lote = inv.getArgument(0);
+            if (lote.get(0).getPh() > 14) {
+                throw new DataIntegrityViolationException("ph fuera de rango");
+            }
+            sueltas.addAll(lote);
+            return lote.size();
+        });
+        start();
+
+        SensorData mala = lectura("SN-000001", 1);
+        mala.setPh(99.0);
+        assertTrue(pipeline.submit(List.of(lectura("SN-000001", 0), mala, lectura("SN-000001", 2))));
+        await(() -> wal.getCheckpointLsn() == wal.getWriteLsn());
+
+        assertEquals(2, sueltas.size());
+        assertEquals(T0.plusMinutes(2), sueltas.get(1).getFecha());
+        assertEquals(1.0, registry.get("agroapp.wal.quarantined.records").counter().count());
+    }
+
+    private void start() {
+        pipeline = new IngestPipeline();
+        ReflectionTestUtils.setField(pipeline, "batchWriter", batchWriter);
+        ReflectionTestUtils.setField(pipeline, "writeAheadLog", wal);
+        ReflectionTestUtils.setField(pipeline, "deduplicator", mock(ReadingDeduplicator.class));
+        ReflectionTestUtils.setField(pipeline, "meterRegistry", registry);
+        ReflectionTestUtils.setField(pipeline, "queueCapacity", 100);
+        ReflectionTestUtils.setField(pipeline, "commitBatchSize", 100);
+        ReflectionTestUtils.setField(pipeline, "commitIntervalMs", 10L);
+        pipeline.start();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Tiempo de espera agotado");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static SensorData lectura(String parcelaId, int minuto) {
+        return new SensorData(parcelaId, 40.5, 30.0, 6.5, 21.0, 800.0, T0.plusMinutes(minuto));
+    }
+}
@@ -0,0 +1,141 @@
+package com.felipe.agroapp.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// tick() se invoca a mano en lugar del hilo insights-snapshot
+class InsightsMaterializerTest {
+
+    private static final List<Map<String, Object>> A = List.of(Map.of("tipo", "humedad", "valor", 1));
+    private static final List<Map<String, Object>> B = List.of(Map.of("tipo", "humedad", "valor", 2));
+
+    private InsightsService insightsService;
+    private ParcelaCache parcelaCache;
+
+    @BeforeEach
+    void setUp() {
+        insightsService = mock(InsightsService.class);
+        parcelaCache = mock(ParcelaCache.class);
+        when(parcelaCache.generation()).thenReturn(1L);
+    }
+
+    @Test
+    void laVersionSoloSubeSiCambiaElContenido() {
+        when(insightsService.computeGeneralInsights()).thenReturn(A, A, B);
+        InsightsMaterializer materializer = materializer(0, 0);
+
+        InsightsMaterializer.Snapshot v1 = materializer.current();
+        assertEquals(1, v1.version());
+        assertTrue(v1.etag().startsWith("\"") && v1.etag().endsWith("-1\""));
+        assertSame(v1, materializer.current());
+
+        materializer.markChanged();
+        assertTrue(materializer.isStale(v1));
+        tick(materializer);
+        InsightsMaterializer.Snapshot igual = materializer.current();
+        assertNotEquals(v1, igual);
+        assertEquals(v1.etag(), igual.etag());
+        assertFalse(materializer.isStale(igual));
+
+        materializer.markChanged();
+        tick(materializer);
+        InsightsMaterializer.Snapshot v2 = materializer.current();
+        assertEquals(2, v2.version());
+        assertEquals(B, v2.insights());
+    }
+
+    @Test
+    void unCambioDeParcelasDejaLaInstantaneaDesactualizada() {
+        when(insightsService.computeGeneralInsights()).thenReturn(A);
+        InsightsMaterializer materializer = materializer(10_000, 20_000);
+        InsightsMaterializer.Snapshot v1 = materializer.current();
+
+        when(parcelaCache.generation()).thenReturn(2L);
+        assertTrue(materializer.isStale(v1));
+        // Sin esperar al debounce
+        tick(materializer);
+        assertEquals(2L, materializer.current().generacionParcelas());
+    }
+
+    @Test
+    void esperaAlDebounceSalvoQueSeSupereMaxDelay() {
+        when(insightsService.computeGeneralInsights()).thenReturn(A);
+        InsightsMaterializer materializer = materializer(10_000, 20_000);
+        materializer.current();
+
+        materializer.markChanged();
+        tick(materializer);
+        verify(insightsService, times(1)).computeGeneralInsights();
+
+        // Ingesta continua desde hace más de max-delay-ms
+        AtomicLong primerCambio = (AtomicLong) ReflectionTestUtils.getField(materializer, "primerCambio");
+        primerCambio.set(System.currentTimeMillis() - 25_000);
+        materializer.markChanged();
+        tick(materializer);
+        verify(insightsService, times(2)).computeGeneralInsights();
+        assertFalse(materializer.isStale(materializer.current()));
+    }
+
+    @Test
+    void unFalloConservaLaInstantaneaYEsperaAntesDeReintentar() {
+        when(insightsService.computeGeneralInsights()).thenReturn(A)
+            .thenThrow(new IllegalStateException("base caída"))
+            .thenReturn(B);
+        InsightsMaterializer materializer = materializer(0, 0);
+        InsightsMaterializer.Snapshot v1 = materializer.current();
+
+        materializer.markChanged();
+        tick(materializer);
+        assertSame(v1, materializer.current());
+        assertTrue(materializer.isStale(v1));
+        assertEquals(1, materializer.stats().get("fallosSeguidos"));
+
+        // Dentro del backoff no se reintenta
+        tick(materializer);
+        verify(insightsService, times(2)).computeGeneralInsights();
+
+        ReflectionTestUtils.setField(materializer, "reintentoEn", 0L);
+        tick(materializer);
+        assertEquals(2, materializer.current().version());
+        assertEquals(0, materializer.stats().get("fallosSeguidos"));
+    }
+
+    @Test
+    void rechazaConfiguracionInvalida() {
+        assertThrows(IllegalArgumentException.class, () -> materializer(5_000, 1_000));
+    }
+
+    private InsightsMaterializer materializer(long debounceMs, long maxDelayMs) {
+        InsightsMaterializer materializer = new InsightsMaterializer();
+        ReflectionTestUtils.setField(materializer, "insightsService", insightsService);
+        ReflectionTestUtils.setField(materializer, "parcelaCache", parcelaCache);
+        ReflectionTestUtils.setField(materializer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(materializer, "enabled", true);
+        ReflectionTestUtils.setField(materializer, "debounceMs", debounceMs);
+        ReflectionTestUtils.setField(materializer, "maxDelayMs", maxDelayMs);
+        ReflectionTestUtils.setField(materializer, "refreshIntervalMs", 60_000L);
+        materializer.init();
+        return materializer;
+    }
+
+    private static void tick(InsightsMaterializer materializer) {
+        ReflectionTestUtils.invokeMethod(materializer, "tick");
+    }
+}
@@ -0,0 +1,140 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.repository.SensorDataRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReadingDeduplicatorTest {
+
+    private static final String PARCELA = "SN-000001";
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 1, 8, 0, 0, 250_000_000);
+
+    private SensorDataRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(SensorDataRepository.class);
+        when(repository.findRecentFechasByParcelaId(anyString(), any(), any())).thenReturn(List.of());
+    }
+
+    @Test
+    void descartaDuplicadosDelLoteYDeLotesAnteriores() {
+        ReadingDeduplicator dedup = deduplicator(100);
+        assertEquals(2, dedup.admit(List.of(lectura(PARCELA, 0), lectura(PARCELA, 0), lectura(PARCELA, 1))).size());
+        List<SensorData> admitidas = dedup.admit(List.of(lectura(PARCELA, 1), lectura(PARCELA, 2), lectura("SN-000002", 1)));
+        assertEquals(2, admitidas.size());
+        assertFalse(admitidas.get(0).isDuplicadoPosible());
+        assertEquals(2.0 / 6, dedup.duplicateRate(), 1e-9);
+    }
+
+    @Test
+    void fueraDeLaVentanaSoloQuedaMarcadaComoPosible() {
+        ReadingDeduplicator dedup = deduplicator(100);
+        dedup.admit(lecturas(0, 150));
+
+        // Expulsada del anillo: la arbitra la base de datos
+        List<SensorData> vieja = dedup.admit(List.of(lectura(PARCELA, 0)));
+        assertEquals(1, vieja.size());
+        assertTrue(vieja.get(0).isDuplicadoPosible());
+        // Dentro de la ventana: se descarta
+        assertTrue(dedup.admit(List.of(lectura(PARCELA, 149))).isEmpty());
+    }
+
+    @Test
+    void olvidarUnLotePermiteReadmitirlo() {
+        ReadingDeduplicator dedup = deduplicator(100);
+        List<SensorData> lote = lecturas(0, 3);
+        dedup.admit(lote);
+        dedup.forget(lote);
+        List<SensorData> reintento = dedup.admit(lecturas(0, 3));
+        assertEquals(3, reintento.size());
+        // El Bloom no borra: el reintento va al insert condicional
+        assertTrue(reintento.get(0).isDuplicadoPosible());
+        assertTrue(dedup.admit(lecturas(0, 3)).isEmpty());
+    }
+
+    @Test
+    void elHuecoOlvidadoNoExpulsaLaClaveReadmitida() {
+        ReadingDeduplicator dedup = deduplicator(4);
+        List<SensorData> primera = List.of(lectura(PARCELA, 0));
+        dedup.admit(primera);
+        dedup.forget(primera);
+        dedup.admit(List.of(lectura(PARCELA, 0)));
+        // Llena el anillo: sale el hueco vacío de la primera admisión, no la clave
+        dedup.admit(lecturas(1, 3));
+        assertTrue(dedup.admit(List.of(lectura(PARCELA, 0))).isEmpty());
+        // Una más y ya sí sale
+        dedup.admit(List.of(lectura(PARCELA, 4)));
+        assertEquals(1, dedup.admit(List.of(lectura(PARCELA, 0))).size());
+    }
+
+    @Test
+    void precargaLasFechasRecientesDeLaParcela() {
+        when(repository.findRecentFechasByParcelaId(eq(PARCELA), any(), any()))
+            .thenReturn(List.of(T0.plusMinutes(1), T0));
+        ReadingDeduplicator dedup = deduplicator(100);
+        assertEquals(1, dedup.admit(lecturas(0, 3)).size());
+    }
+
+    @Test
+    void unaPrecargaFallidaNoBloqueaLaIngesta() {
+        when(repository.findRecentFechasByParcelaId(eq(PARCELA), any(), any()))
+            .thenThrow(new DataAccessResourceFailureException("base caída"));
+        ReadingDeduplicator dedup = deduplicator(100);
+        assertEquals(2, dedup.admit(lecturas(0, 2)).size());
+        assertTrue(dedup.admit(lecturas(0, 2)).isEmpty());
+    }
+
+    @Test
+    void borrarParcelasOlvidaSusVentanas() {
+        ReadingDeduplicator dedup = deduplicator(100);
+        dedup.admit(lecturas(0, 2));
+        dedup.parcelasRemoved("SN-");
+        assertEquals(0, dedup.stats().get("parcelasTracked"));
+        List<SensorData> admitidas = dedup.admit(lecturas(0, 2));
+        assertEquals(2, admitidas.size());
+        assertFalse(admitidas.get(0).isDuplicadoPosible());
+    }
+
+    private ReadingDeduplicator deduplicator(int windowSize) {
+        ReadingDeduplicator dedup = new ReadingDeduplicator();
+        ReflectionTestUtils.setField(dedup, "sensorDataRepository", repository);
+        ReflectionTestUtils.setField(dedup, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(dedup, "enabled", true);
+        ReflectionTestUtils.setField(dedup, "windowSize", windowSize);
+        ReflectionTestUtils.setField(dedup, "filterMaxReadings", 65536);
+        ReflectionTestUtils.setField(dedup, "falsePositiveRate", 0.01);
+        ReflectionTestUtils.setField(dedup, "warmupHours", 24);
+        dedup.init();
+        return dedup;
+    }
+
+    private static List<SensorData> lecturas(int desde, int n) {
+        List<SensorData> readings = new ArrayList<>();
+        for (int i = desde; i < desde + n; i++) {
+            readings.add(lectura(PARCELA, i));
+        }
+        return readings;
+    }
+
+    private static SensorData lectura(String parcelaId, int minuto) {
+        return new SensorData(parcelaId, 40.0, 30.0, 6.5, 21.0, 800.0, T0.plusMinutes(minuto));
+    }
+}
@@ -0,0 +1,195 @@
+package com.felipe.agroapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.felipe.agroapp.model.Parcela;
+import com.felipe.agroapp.model.ReportJob;
+import com.felipe.agroapp.repository.ReportJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Colas por tenant con dos workers y un trabajo en curso por tenant. Los reportes se quedan
+// bloqueados hasta que el test abre su puerta; el repositorio es un mapa en memoria.
+class ReportJobServiceTest {
+
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, CountDownLatch> puertas = new ConcurrentHashMap<>();
+    private final BlockingQueue<String> iniciados = new LinkedBlockingQueue<>();
+    private InsightsService insightsService;
+    private ReportJobService service;
+
+    @BeforeEach
+    void setUp() {
+        ReportJobRepository repository = mock(ReportJobRepository.class);
+        when(repository.save(any())).thenAnswer(inv -> {
+            ReportJob job = inv.getArgument(0);
+            jobs.put(job.getId(), job);
+            return job;
+        });
+        when(repository.findById(anyString())).thenAnswer(inv -> Optional.ofNullable(jobs.get(inv.<String>getArgument(0))));
+        doAnswer(inv -> jobs.remove(inv.<String>getArgument(0))).when(repository).deleteById(anyString());
+
+        insightsService = mock(InsightsService.class);
+        when(insightsService.generateDetailedReport(anyString())).thenAnswer(inv -> {
+            String parcelaId = inv.getArgument(0);
+            iniciados.add(parcelaId);
+            puerta(parcelaId).await(10, TimeUnit.SECONDS);
+            return Map.of("parcelaId", parcelaId, "lecturas", 3);
+        });
+        ParcelaCache parcelaCache = mock(ParcelaCache.class);
+        when(parcelaCache.findById(anyString())).thenReturn(Optional.of(new Parcela()));
+
+        service = new ReportJobService();
+        ReflectionTestUtils.setField(service, "repository", repository);
+        ReflectionTestUtils.setField(service, "insightsService", insightsService);
+        ReflectionTestUtils.setField(service, "parcelaCache", parcelaCache);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "workers", 2);
+        ReflectionTestUtils.setField(service, "perTenantConcurrency", 1);
+        ReflectionTestUtils.setField(service, "maxPendingPerTenant", 2);
+        ReflectionTestUtils.setField(service, "maxPending", 3);
+        ReflectionTestUtils.setField(service, "retentionDays", 7);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        puertas.values().forEach(CountDownLatch::countDown);
+        service.shutdown();
+    }
+
+    @Test
+    void unTenantConMuchosTrabajosNoBloqueaALosDemas() throws InterruptedException {
+        ReportJob a1 = enviar("a", "A-1");
+        enviar("a", "A-2");
+        ReportJob a3 = enviar("a", "A-3");
+        ReportJob b1 = enviar("b", "B-1");
+
+        // Dos workers, pero "a" sólo puede tener uno en curso: el otro es para "b"
+        assertEquals("A-1", iniciados.poll(5, TimeUnit.SECONDS));
+        assertEquals("B-1", iniciados.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, service.status(a3).get("posicion"));
+
+        puerta("B-1").countDown();
+        await(() -> ReportJob.COMPLETADO.equals(b1.getEstado()));
+        // Con "b" sin trabajo el hueco libre no puede ir a "a", que sigue con A-1 en curso
+        assertNull(iniciados.poll(200, TimeUnit.MILLISECONDS));
+
+        puerta("A-1").countDown();
+        assertEquals("A-2", iniciados.poll(5, TimeUnit.SECONDS));
+        puerta("A-2").countDown();
+        puerta("A-3").countDown();
+        await(() -> ReportJob.COMPLETADO.equals(a3.getEstado()));
+        assertEquals(ReportJob.COMPLETADO, a1.getEstado());
+        assertEquals(4L, service.stats().get("completados"));
+        assertEquals(Map.of("parcelaId", "A-1", "lecturas", 3), service.result(a1));
+    }
+
+    @Test
+    void limitaLaColaPorTenantYLaGlobal() throws InterruptedException {
+        enviar("a", "A-1");
+        assertEquals("A-1", iniciados.poll(5, TimeUnit.SECONDS));
+        enviar("a", "A-2");
+        enviar("a", "A-3");
+        assertFalse(service.submit("a", "REPORTE", "A-4", null).aceptado());
+
+        enviar("b", "B-1");
+        assertEquals("B-1", iniciados.poll(5, TimeUnit.SECONDS));
+        enviar("b", "B-2");
+        ReportJobService.Envio lleno = service.submit("c", "REPORTE", "C-1", null);
+        assertFalse(lleno.aceptado());
+        assertTrue(lleno.rechazo().contains("llena"));
+    }
+
+    @Test
+    void cancelaLoPendienteYNoLoQueEstaEnCurso() throws Exception {
+        ReportJob enCurso = enviar("a", "A-1");
+        assertEquals("A-1", iniciados.poll(5, TimeUnit.SECONDS));
+        ReportJob pendiente = enviar("a", "A-2");
+        CompletableFuture<Optional<Map<String, Object>>> espera = service.status("a", pendiente.getId(), Duration.ofSeconds(5));
+
+        service.delete(pendiente);
+        assertEquals(ReportJob.CANCELADO, pendiente.getEstado());
+        assertEquals(ReportJob.CANCELADO, espera.get(5, TimeUnit.SECONDS).orElseThrow().get("estado"));
+        assertThrows(IllegalStateException.class, () -> service.delete(enCurso));
+        assertThrows(IllegalStateException.class, () -> service.result(enCurso));
+        // Otro tenant no lo ve
+        assertTrue(service.find("b", enCurso.getId()).isEmpty());
+
+        puerta("A-1").countDown();
+        await(enCurso::isTerminado);
+        assertNull(iniciados.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void losErroresDelServicioTerminanFallidos() {
+        when(insightsService.exportReport("E-1", "csv")).thenReturn(Map.of("error", "Parcela sin lecturas"));
+        when(insightsService.exportReport("E-2", "json")).thenThrow(new IllegalStateException());
+        ReportJob conError = service.submit("a", "exportacion", "E-1", "csv").job();
+        ReportJob conExcepcion = service.submit("b", null, "E-2", null).job();
+
+        await(() -> conError.isTerminado() && conExcepcion.isTerminado());
+        assertEquals(ReportJob.FALLIDO, conError.getEstado());
+        assertEquals("Parcela sin lecturas", conError.getError());
+        assertEquals(ReportJob.FALLIDO, conExcepcion.getEstado());
+        assertEquals("IllegalStateException", conExcepcion.getError());
+        assertEquals(2L, service.stats().get("fallidos"));
+    }
+
+    @Test
+    void validaTenantYTipo() {
+        assertEquals(ReportJobService.DEFAULT_TENANT, service.tenant(" "));
+        assertThrows(IllegalArgumentException.class, () -> service.tenant("a/b"));
+        assertThrows(IllegalArgumentException.class, () -> service.submit("a", "PDF", "A-1", null));
+        assertEquals("ñá", ReportJobService.truncateUtf8("ñáé", 5));
+    }
+
+    private ReportJob enviar(String tenant, String parcelaId) {
+        ReportJobService.Envio envio = service.submit(tenant, "REPORTE", parcelaId, null);
+        assertTrue(envio.aceptado(), envio.rechazo());
+        return envio.job();
+    }
+
+    private CountDownLatch puerta(String parcelaId) {
+        return puertas.computeIfAbsent(parcelaId, k -> new CountDownLatch(1));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Tiempo de espera agotado");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.service.SensorRollupService.Aggregate;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// La carga inicial devuelve una tabla vacía; las lecturas llegan por committed
+class SensorHotStoreTest {
+
+    private static final String PARCELA = "SN-000001";
+
+    private JdbcTemplate jdbcTemplate;
+    private SensorHotStore store;
+    private LocalDateTime base;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        store = new SensorHotStore();
+        ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "windowDays", 30);
+        ReflectionTestUtils.setField(store, "maxReadings", 10L);
+        store.init();
+        store.warm();
+        base = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusDays(1);
+    }
+
+    @Test
+    void agregaIgualQueLasLecturasSueltas() {
+        List<SensorData> lote = List.of(lectura(PARCELA, 2, 40.0, "NORMAL"), lectura(PARCELA, 0, 42.0, "ALERTA"),
+            lectura(PARCELA, 1, 44.0, "NORMAL"), lectura("SN-000002", 0, 10.0, "CRITICO"));
+        lote.get(2).setAnomalias(1);
+        store.committed(lote);
+        assertTrue(store.isReady());
+        assertTrue(store.covers(base));
+
+        Aggregate esperado = new Aggregate();
+        lote.subList(0, 3).forEach(esperado::add);
+        Aggregate agregado = store.aggregate(PARCELA, base, base.plusHours(1)).get(PARCELA);
+        assertEquals(esperado.readings(), agregado.readings());
+        assertEquals(esperado.estados(), agregado.estados());
+        assertEquals(esperado.stats().mean(StatsAccumulator.HUMEDAD), agregado.stats().mean(StatsAccumulator.HUMEDAD), 1e-9);
+        assertEquals(1, agregado.stats().anomalies(StatsAccumulator.HUMEDAD));
+
+        // [desde, hasta): el minuto 2 queda fuera
+        Aggregate parcial = store.aggregate(PARCELA, base, base.plusMinutes(2)).get(PARCELA);
+        assertEquals(2, parcial.readings());
+        assertEquals(2, store.aggregate(null, base, base.plusHours(1)).size());
+    }
+
+    @Test
+    void unaLecturaRepetidaSeSobrescribe() {
+        store.committed(List.of(lectura(PARCELA, 0, 40.0, "NORMAL")));
+        store.committed(List.of(lectura(PARCELA, 0, 50.0, "NORMAL")));
+        assertEquals(1L, store.stats().get("readings"));
+        assertEquals(50.0, store.aggregate(PARCELA, base, base.plusHours(1)).get(PARCELA)
+            .stats().mean(StatsAccumulator.HUMEDAD));
+    }
+
+    @Test
+    void retencionYBorradoDeParcelas() {
+        store.committed(List.of(lectura(PARCELA, 0, 40.0, "NORMAL"), lectura(PARCELA, 10, 41.0, "NORMAL"),
+            lectura("LOAD-000001", 0, 40.0, "NORMAL")));
+        store.removedBefore(PARCELA, base.plusMinutes(5));
+        assertEquals(1, store.aggregate(PARCELA, base, base.plusHours(1)).get(PARCELA).readings());
+
+        store.parcelasRemoved("LOAD-");
+        assertEquals(List.of(PARCELA), store.parcelaIds());
+        assertEquals(1L, store.stats().get("readings"));
+
+        store.removedBefore(PARCELA, base.plusHours(1));
+        assertTrue(store.parcelaIds().isEmpty());
+    }
+
+    @Test
+    void trasDesbordarNoRecargaHastaQueLaVentanaQuepa() {
+        for (int i = 0; i < 11; i++) {
+            store.committed(List.of(lectura(PARCELA, i, 40.0, "NORMAL")));
+        }
+        assertFalse(store.isReady());
+        assertEquals(true, store.stats().get("overflow"));
+        // Mientras tanto no acumula
+        store.committed(List.of(lectura(PARCELA, 20, 40.0, "NORMAL")));
+        assertEquals(0L, store.stats().get("readings"));
+
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), any(Object[].class))).thenReturn(50L, 8L);
+        store.evictExpired();
+        assertFalse(store.isReady());
+        verify(jdbcTemplate, times(1)).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        store.evictExpired();
+        assertTrue(store.isReady());
+        assertEquals(false, store.stats().get("overflow"));
+        verify(jdbcTemplate, times(2)).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void descartaLoAnteriorALaVentana() {
+        store.committed(List.of(lectura(PARCELA, 0, 40.0, "NORMAL")));
+        SensorData vieja = lectura(PARCELA, 0, 40.0, "NORMAL");
+        vieja.setFecha(base.minusDays(40));
+        store.committed(List.of(vieja));
+        assertEquals(1L, store.stats().get("readings"));
+        assertFalse(store.covers(base.minusDays(40)));
+    }
+
+    private SensorData lectura(String parcelaId, int minuto, double humedad, String estado) {
+        SensorData reading = new SensorData(parcelaId, humedad, 30.0, 6.5, 21.0, 800.0, base.plusMinutes(minuto));
+        reading.setEstado(estado);
+        return reading;
+    }
+}
@@ -0,0 +1,141 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import com.felipe.agroapp.service.ParcelaCache.Rango;
+import com.felipe.agroapp.service.ParcelaCache.Umbrales;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatsAccumulatorTest {
+
+    private static final double EPS = 1e-9;
+
+    @Test
+    void welfordCoincideConDosPasadas() {
+        double[] xs = {12.5, 13.1, 9.8, 15.0, 11.2, 14.7, 10.3};
+        StatsAccumulator acc = new StatsAccumulator();
+        for (double x : xs) {
+            acc.add(x, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        double media = 0;
+        for (double x : xs) {
+            media += x;
+        }
+        media /= xs.length;
+        double varianza = 0;
+        for (double x : xs) {
+            varianza += (x - media) * (x - media);
+        }
+        varianza /= xs.length;
+
+        assertEquals(xs.length, acc.count(StatsAccumulator.HUMEDAD));
+        assertEquals(media, acc.mean(StatsAccumulator.HUMEDAD), EPS);
+        assertEquals(varianza, acc.variance(StatsAccumulator.HUMEDAD), EPS);
+        assertEquals(9.8, acc.min(StatsAccumulator.HUMEDAD));
+        assertEquals(15.0, acc.max(StatsAccumulator.HUMEDAD));
+        // Las métricas sin dato quedan vacías
+        assertEquals(0, acc.count(StatsAccumulator.PH));
+        assertEquals(0.0, acc.mean(StatsAccumulator.PH));
+    }
+
+    @Test
+    void mergeDeParticionesIgualAUnaSolaPasada() {
+        Random random = new Random(7);
+        StatsAccumulator todo = new StatsAccumulator();
+        StatsAccumulator[] partes = {new StatsAccumulator(), new StatsAccumulator(), new StatsAccumulator()};
+        for (int i = 0; i < 3000; i++) {
+            // Media grande frente a la desviación, donde Σx² pierde precisión
+            double x = 1e6 + random.nextGaussian();
+            double y = random.nextDouble() * 14;
+            todo.add(x, y, y, x, y);
+            partes[i % 3].add(x, y, y, x, y);
+        }
+        StatsAccumulator combinado = new StatsAccumulator();
+        for (StatsAccumulator parte : partes) {
+            combinado.merge(parte);
+        }
+        combinado.merge(new StatsAccumulator());
+
+        for (int m = 0; m < StatsAccumulator.METRICAS; m++) {
+            assertEquals(todo.count(m), combinado.count(m));
+            assertEquals(todo.mean(m), combinado.mean(m), 1e-6);
+            assertEquals(todo.variance(m), combinado.variance(m), 1e-6 * Math.max(1, todo.variance(m)));
+            assertEquals(todo.min(m), combinado.min(m));
+            assertEquals(todo.max(m), combinado.max(m));
+        }
+    }
+
+    @Test
+    void addSumsEquivaleALasLecturas() {
+        double[] xs = {6.1, 6.8, 7.2, 5.9};
+        StatsAccumulator lecturas = new StatsAccumulator();
+        double suma = 0;
+        double cuadrados = 0;
+        for (double x : xs) {
+            lecturas.add(Double.NaN, Double.NaN, x, Double.NaN, Double.NaN);
+            suma += x;
+            cuadrados += x * x;
+        }
+        StatsAccumulator filas = new StatsAccumulator();
+        filas.addSums(StatsAccumulator.PH, xs.length, suma, cuadrados, 5.9, 7.2);
+
+        assertEquals(lecturas.count(StatsAccumulator.PH), filas.count(StatsAccumulator.PH));
+        assertEquals(lecturas.mean(StatsAccumulator.PH), filas.mean(StatsAccumulator.PH), EPS);
+        assertEquals(lecturas.variance(StatsAccumulator.PH), filas.variance(StatsAccumulator.PH), 1e-9);
+        assertEquals(suma, filas.sum(StatsAccumulator.PH), EPS);
+        assertEquals(cuadrados, filas.sumSquares(StatsAccumulator.PH), 1e-9);
+    }
+
+    @Test
+    void anomaliasYNulosNoEntranEnLasEstadisticas() {
+        StatsAccumulator acc = new StatsAccumulator();
+        SensorData normal = lectura(40.0, null);
+        SensorData anomala = lectura(400.0, 1);
+        SensorData sinDato = lectura(null, 1);
+        acc.add(normal);
+        acc.add(anomala);
+        acc.add(sinDato);
+
+        assertEquals(1, acc.count(StatsAccumulator.HUMEDAD));
+        assertEquals(40.0, acc.mean(StatsAccumulator.HUMEDAD));
+        // El valor anómalo se cuenta aparte; el nulo marcado no cuenta en ningún lado
+        assertEquals(1, acc.anomalies(StatsAccumulator.HUMEDAD));
+        // El bit de humedad no afecta al resto de métricas
+        assertEquals(3, acc.count(StatsAccumulator.PH));
+    }
+
+    @Test
+    void rangosSoloSeSumanConElMismoRango() {
+        Umbrales umbrales = new Umbrales(new Rango(30, 50), new Rango(6, 7), new Rango(20, 40), false);
+        StatsAccumulator a = StatsAccumulator.withRanges(umbrales);
+        a.add(35, 25, 6.5, 20, 1000);
+        a.add(60, 50, 8.0, 20, 1000);
+        assertEquals(50.0, a.inRangePercent(StatsAccumulator.HUMEDAD), EPS);
+        assertTrue(Double.isNaN(a.inRangePercent(StatsAccumulator.TEMPERATURA)));
+
+        // Un acumulador vacío y sin rango adopta el del otro
+        StatsAccumulator vacio = new StatsAccumulator();
+        vacio.merge(a);
+        assertEquals(50.0, vacio.inRangePercent(StatsAccumulator.HUMEDAD), EPS);
+
+        // Con rangos distintos el conteo en rango no se mezcla
+        StatsAccumulator otro = StatsAccumulator.withRanges(
+            new Umbrales(new Rango(0, 100), new Rango(0, 14), new Rango(0, 100), false));
+        otro.add(35, 25, 6.5, 20, 1000);
+        a.merge(otro);
+        assertEquals(3, a.count(StatsAccumulator.HUMEDAD));
+        assertEquals(100.0 / 3, a.inRangePercent(StatsAccumulator.HUMEDAD), EPS);
+    }
+
+    private static SensorData lectura(Double humedad, Integer anomalias) {
+        SensorData reading = new SensorData();
+        reading.setHumedad(humedad);
+        reading.setPh(6.5);
+        reading.setAnomalias(anomalias);
+        return reading;
+    }
+}
@@ -0,0 +1,158 @@
+package com.felipe.agroapp.service;
+
+import com.felipe.agroapp.model.SensorData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 1, 8, 0, 0, 123_456_000);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void leeLoQueSeEscribioEnOrden() throws IOException {
+        WriteAheadLog wal = open(8);
+        SensorData completa = lectura("SN-000001", 0);
+        completa.setEstado("CRITICO");
+        completa.setDuplicadoPosible(true);
+        SensorData conNulos = lectura("SN-000002", 1);
+        conNulos.setPh(null);
+        conNulos.setEstado(null);
+        assertTrue(wal.append(List.of(completa, conNulos, lectura("SN-000003", 2))));
+
+        List<SensorData> out = new ArrayList<>();
+        long lsn = wal.read(0, 2, out);
+        assertEquals(2, out.size());
+        assertEquals("SN-000001", out.get(0).getParcelaId());
+        assertEquals(T0, out.get(0).getFecha());
+        assertEquals(40.5, out.get(0).getHumedad());
+        assertEquals("CRITICO", out.get(0).getEstado());
+        assertTrue(out.get(0).isDuplicadoPosible());
+        assertNull(out.get(1).getPh());
+        assertNull(out.get(1).getEstado());
+        assertFalse(out.get(1).isDuplicadoPosible());
+
+        out.clear();
+        assertEquals(wal.getWriteLsn(), wal.read(lsn, 10, out));
+        assertEquals(1, out.size());
+        assertEquals("SN-000003", out.get(0).getParcelaId());
+        assertEquals(3, wal.countRecords(0));
+    }
+
+    @Test
+    void alReabrirRecuperaElFinalYDescartaUnaColaIncompleta() throws IOException {
+        WriteAheadLog wal = open(8);
+        wal.append(List.of(lectura("SN-000001", 0), lectura("SN-000001", 1)));
+        long fin = wal.getWriteLsn();
+        String logId = wal.getLogId();
+        wal.checkpoint(10);
+        wal.close();
+        // Cabecera de un registro a medio escribir tras el último válido
+        escribir(segmento(0), (int) fin, ByteBuffer.allocate(8).putInt(0, 70).putInt(4, 12345));
+
+        WriteAheadLog reabierto = open(8);
+        assertEquals(logId, reabierto.getLogId());
+        assertEquals(fin, reabierto.getWriteLsn());
+        assertEquals(10, reabierto.getCheckpointLsn());
+        assertTrue(reabierto.append(List.of(lectura("SN-000001", 2))));
+        List<SensorData> out = new ArrayList<>();
+        reabierto.read(0, 10, out);
+        assertEquals(3, out.size());
+        assertEquals(0, reabierto.getCorruptRecords());
+    }
+
+    @Test
+    void saltaRegistrosConCrcInvalido() throws IOException {
+        WriteAheadLog wal = open(8);
+        wal.append(List.of(lectura("SN-000001", 0), lectura("SN-000002", 1), lectura("SN-000003", 2)));
+        // Un byte del id de parcela del segundo registro (el segmento activo está mapeado: se ve al leer)
+        int tamano = (int) wal.getWriteLsn() / 3;
+        escribir(segmento(0), tamano + 8 + 3, ByteBuffer.wrap(new byte[] {'X'}));
+
+        List<SensorData> out = new ArrayList<>();
+        assertEquals(wal.getWriteLsn(), wal.read(0, 10, out));
+        assertEquals(2, out.size());
+        assertEquals("SN-000001", out.get(0).getParcelaId());
+        assertEquals("SN-000003", out.get(1).getParcelaId());
+        assertEquals(1, wal.getCorruptRecords());
+    }
+
+    @Test
+    void rotaSegmentosRechazaAlLlenarseYLiberaTrasElCheckpoint() throws IOException {
+        WriteAheadLog wal = open(2);
+        int porSegmento = 1024 * 1024 / recordSize(wal);
+        List<SensorData> lote = new ArrayList<>();
+        for (int i = 0; i < porSegmento + 10; i++) {
+            lote.add(lectura("SN-000001", i));
+        }
+        assertTrue(wal.append(lote));
+        assertEquals(2, wal.segmentCount());
+        // Todo o nada: un tercer segmento superaría max-segments
+        long fin = wal.getWriteLsn();
+        assertFalse(wal.append(lote));
+        assertEquals(fin, wal.getWriteLsn());
+
+        List<SensorData> out = new ArrayList<>();
+        long lsn = 0;
+        while (lsn < wal.getWriteLsn()) {
+            lsn = wal.read(lsn, 1000, out);
+        }
+        assertEquals(lote.size(), out.size());
+        assertEquals(lote.get(lote.size() - 1).getFecha(), out.get(out.size() - 1).getFecha());
+
+        wal.checkpoint(lsn);
+        assertEquals(1, wal.segmentCount());
+        assertEquals(1024 * 1024, wal.getFirstLsn());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.filter(p -> p.toString().endsWith(".wal")).count());
+        }
+    }
+
+    private WriteAheadLog open(int maxSegments) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog();
+        ReflectionTestUtils.setField(wal, "enabled", true);
+        ReflectionTestUtils.setField(wal, "directory", dir.toString());
+        ReflectionTestUtils.setField(wal, "segmentSizeMb", 1);
+        ReflectionTestUtils.setField(wal, "maxSegments", maxSegments);
+        ReflectionTestUtils.setField(wal, "fsync", false);
+        wal.open();
+        return wal;
+    }
+
+    private int recordSize(WriteAheadLog wal) {
+        return ReflectionTestUtils.invokeMethod(wal, "recordSize", lectura("SN-000001", 0));
+    }
+
+    private Path segmento(long base) {
+        return dir.resolve(String.format("%020d.wal", base));
+    }
+
+    private static void escribir(Path path, int position, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+
+    private static SensorData lectura(String parcelaId, int minuto) {
+        return new SensorData(parcelaId, 40.5, 30.0, 6.5, 21.0, 800.0, T0.plusMinutes(minuto));
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Random;
+
+/**
+ * Throughput comparison between the binary TCP ingest listener and JSON over HTTP.
+ * Requires the backend running with agroapp.ingest.binary.enabled=true and the
+ * sample parcelas (POST /api/data-generator/generate-sample).
+ *
+ * Usage: java IngestBench.java [readings] [batchSize] [host] [httpPort] [binaryPort]
+ */
+public class IngestBench {
+    static final String[] PARCELAS = {"PAR-001", "PAR-002", "PAR-003", "PAR-004", "PAR-005"};
+
+    public static void main(String[] args) throws Exception {
+        int readings = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        String host = args.length > 2 ? args[2] : "localhost";
+        int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+        int binaryPort = args.length > 4 ? Integer.parseInt(args[4]) : 9090;
+
+        System.out.println("=== Ingest benchmark: " + readings + " readings, batches of " + batchSize + " ===");
+        // Fechas distintas en cada corrida para no chocar con lecturas anteriores
+        long baseMillis = System.currentTimeMillis() - 86_400_000L + new Random().nextInt(1_000_000) * 1000L;
+
+        runJson(host, httpPort, readings, batchSize, baseMillis);
+        runBinary(host, binaryPort, readings, batchSize, baseMillis + readings * 1000L);
+    }
+
+    static void runJson(String host, int port, int readings, int batchSize, long baseMillis) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        URI uri = URI.create("http://" + host + ":" + port + "/api/sensors/ingest");
+        Random random = new Random(42);
+        long bytes = 0;
+        int retries = 0;
+        long start = System.nanoTime();
+        for (int sent = 0; sent < readings; sent += batchSize) {
+            int n = Math.min(batchSize, readings - sent);
+            StringBuilder json = new StringBuilder(n * 160).append('[');
+            for (int i = 0; i < n; i++) {
+                long millis = baseMillis + (sent + i) * 1000L;
+                if (i > 0) json.append(',');
+                json.append("{\"parcelaId\":\"").append(PARCELAS[(sent + i) % PARCELAS.length])
+                    .append("\",\"humedad\":").append(round(55 + random.nextGaussian() * 5))
+                    .append(",\"nitrogeno\":").append(round(130 + random.nextGaussian() * 10))
+                    .append(",\"ph\":").append(round(6.5 + random.nextGaussian() * 0.2))
+                    .append(",\"temperatura\":").append(round(24 + random.nextGaussian() * 3))
+                    .append(",\"luminosidad\":").append(round(700 + random.nextGaussian() * 100))
+                    .append(",\"fecha\":\"").append(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()))
+                    .append("\"}");
+            }
+            byte[] body = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+            bytes += body.length;
+            while (true) {
+                HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 429) {
+                    if (response.statusCode() != 202) {
+                        System.out.println("HTTP " + response.statusCode() + ": " + response.body());
+                    }
+                    break;
+                }
+                retries++;
+                Thread.sleep(50);
+            }
+        }
+        report("JSON/HTTP", readings, bytes, System.nanoTime() - start, retries);
+    }
+
+    static void runBinary(String host, int port, int readings, int batchSize, long baseMillis) throws Exception {
+        long bytes = 0;
+        int retries = 0;
+        long start = System.nanoTime();
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            // DEFINE: diccionario de parcelas de esta conexión
+            int defineLength = 1 + 2;
+            for (String parcela : PARCELAS) defineLength += 3 + parcela.length();
+            out.writeInt(defineLength);
+            out.writeByte(1);
+            out.writeShort(PARCELAS.length);
+            for (int i = 0; i < PARCELAS.length; i++) {
+                out.writeShort(i);
+                out.writeByte(PARCELAS[i].length());
+                out.writeBytes(PARCELAS[i]);
+            }
+            out.flush();
+            in.readByte(); in.readShort(); in.readShort();
+            bytes += 4 + defineLength;
+
+            for (int sent = 0; sent < readings; sent += batchSize) {
+                int n = Math.min(batchSize, readings - sent);
+                int length = 1 + 2 + n * 30;
+                while (true) {
+                    out.writeInt(length);
+                    out.writeByte(2);
+                    out.writeShort(n);
+                    Random frameRandom = new Random(sent);
+                    for (int i = 0; i < n; i++) {
+                        out.writeShort((sent + i) % PARCELAS.length);
+                        out.writeLong(baseMillis + (sent + i) * 1000L);
+                        out.writeFloat((float) (55 + frameRandom.nextGaussian() * 5));
+                        out.writeFloat((float) (130 + frameRandom.nextGaussian() * 10));
+                        out.writeFloat((float) (6.5 + frameRandom.nextGaussian() * 0.2));
+                        out.writeFloat((float) (24 + frameRandom.nextGaussian() * 3));
+                        out.writeFloat((float) (700 + frameRandom.nextGaussian() * 100));
+                    }
+                    out.flush();
+                    bytes += 4 + length;
+                    byte status = in.readByte();
+                    in.readShort();
+                    in.readShort();
+                    if (status != 1) {
+                        if (status != 0) System.out.println("Frame rejected with status " + status);
+                        break;
+                    }
+                    retries++;
+                    Thread.sleep(50);
+                }
+            }
+        }
+        report("Binary/TCP", readings, bytes, System.nanoTime() - start, retries);
+    }
+
+    static void report(String name, int readings, long bytes, long nanos, int retries) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-11s %,10.0f readings/s  %6.1f bytes/reading  %7.2f s  (%d retries on 429/BUSY)%n",
+            name, readings / seconds, (double) bytes / readings, seconds, retries);
+    }
+
+    static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
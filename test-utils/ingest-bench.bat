@@ -0,0 +1,13 @@
+@echo off
+echo === Ingest Throughput Benchmark (JSON vs binary) ===
+
+REM Requires the backend running with INGEST_BINARY_ENABLED=true
+echo Compiling IngestBench.java...
+javac IngestBench.java
+
+echo Running benchmark...
+java -cp . IngestBench %*
+
+echo.
+echo Press any key to exit...
+pause > nul